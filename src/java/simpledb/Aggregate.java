@@ -7,7 +7,7 @@ import java.util.*;
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchIterator {
 
     private OpIterator child;
     private int afield;
@@ -17,6 +17,7 @@ public class Aggregate extends Operator {
     private static final long serialVersionUID = 1L;
     private Aggregator aggregator;
     private TupleDesc tupleDesc;
+    transient private TupleBatch batch;
 
 
     /**
@@ -42,22 +43,27 @@ public class Aggregate extends Operator {
         this.afield = afield;
         this.gfield = gfield;
         this.aop = aop;
+        aggregator = newAggregator(aop);
+
+        opIterator = aggregator.iterator();
+        tupleDesc = computeTupleDescription();
+    }
+
+    /** @return an aggregator computing op over the tuples of the child */
+    private Aggregator newAggregator(Aggregator.Op op) {
         if(this.child.getTupleDesc().getFieldType(afield).equals(Type.INT_TYPE)) {
             if(gfield == -1) {
-                aggregator = new IntegerAggregator(this.gfield, null, this.afield, aop);
+                return new IntegerAggregator(this.gfield, null, this.afield, op);
             } else {
-                aggregator = new IntegerAggregator(this.gfield, this.child.getTupleDesc().getFieldType(this.gfield), this.afield, aop);
+                return new IntegerAggregator(this.gfield, this.child.getTupleDesc().getFieldType(this.gfield), this.afield, op);
             }
         } else {
             if(gfield == -1) {
-                aggregator = new StringAggregator(this.gfield, null, this.afield, aop);
+                return new StringAggregator(this.gfield, null, this.afield, op);
             } else {
-                aggregator = new StringAggregator(this.gfield, this.child.getTupleDesc().getFieldType(this.gfield), this.afield, aop);
+                return new StringAggregator(this.gfield, this.child.getTupleDesc().getFieldType(this.gfield), this.afield, op);
             }
         }
-
-        opIterator = aggregator.iterator();
-        tupleDesc = computeTupleDescription();
     }
 
     /**
@@ -168,18 +174,104 @@ public class Aggregate extends Operator {
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
         super.open();
-        try {
-            child.open();
-            while(child.hasNext()) {
-                aggregator.mergeTupleIntoGroup(child.next());
+        OpIterator scan = PlanProfile.unwrap(child);
+        // partial averages of SUM_COUNT pairs cannot be combined
+        if (scan instanceof ParallelSeqScan && aop != Aggregator.Op.SC_AVG) {
+            opIterator = new TupleIterator(tupleDesc,
+                    aggregateInParallel((ParallelSeqScan) scan));
+        } else {
+            try {
+                child.open();
+                BatchIterator input = BatchAdapter.of(child);
+                TupleBatch in;
+                while((in = input.nextBatch()) != null) {
+                    aggregator.mergeBatchIntoGroup(in);
+                }
+            } catch(Exception e) {
+                e.printStackTrace();
             }
-        } catch(Exception e) {
-            e.printStackTrace();
         }
 
 	    opIterator.open();
     }
 
+    /**
+     * Aggregates what each worker of a parallel scan reads into a partial
+     * aggregator of its own, then combines the partial results: partial
+     * counts and sums are added, minimums and maximums are compared, and
+     * averages are computed from partial sums and counts. SUM_COUNT keeps
+     * both the added sums and the added counts; SC_AVG is not aggregated in
+     * parallel.
+     *
+     * @return the result tuples
+     */
+    private List<Tuple> aggregateInParallel(ParallelSeqScan scan)
+            throws DbException, TransactionAbortedException {
+        final Aggregator[] partials = new Aggregator[scan.getParallelism()];
+        final boolean[] used = new boolean[partials.length];
+        ParallelSeqScan.Sink[] sinks = new ParallelSeqScan.Sink[partials.length];
+        for (int i = 0; i < partials.length; i++) {
+            final int worker = i;
+            partials[i] = newAggregator(aop == Aggregator.Op.AVG
+                    ? Aggregator.Op.SUM_COUNT : aop);
+            sinks[i] = new ParallelSeqScan.Sink() {
+                public void consume(TupleBatch batch) {
+                    partials[worker].mergeBatchIntoGroup(batch);
+                    used[worker] = true;
+                }
+            };
+        }
+        scan.run(sinks);
+
+        // for each group, the combined value and, for AVG, count
+        boolean grouped = gfield != Aggregator.NO_GROUPING;
+        boolean counted = aop == Aggregator.Op.AVG
+                || aop == Aggregator.Op.SUM_COUNT;
+        LinkedHashMap<Field, int[]> groups = new LinkedHashMap<Field, int[]>();
+        for (int i = 0; i < partials.length; i++) {
+            if (!used[i])
+                continue;
+            OpIterator it = partials[i].iterator();
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                Field group = grouped ? t.getField(0) : null;
+                int value = ((IntField) t.getField(grouped ? 1 : 0)).getValue();
+                int count = counted
+                        ? ((IntField) t.getField(grouped ? 2 : 1)).getValue() : 0;
+                int[] acc = groups.get(group);
+                if (acc == null) {
+                    groups.put(group, new int[] { value, count });
+                } else {
+                    if (aop == Aggregator.Op.MIN)
+                        acc[0] = Math.min(acc[0], value);
+                    else if (aop == Aggregator.Op.MAX)
+                        acc[0] = Math.max(acc[0], value);
+                    else
+                        acc[0] += value;
+                    acc[1] += count;
+                }
+            }
+            it.close();
+        }
+        if (!grouped && groups.isEmpty())
+            groups.put(null, new int[] { 0, 0 });
+
+        ArrayList<Tuple> result = new ArrayList<Tuple>(groups.size());
+        for (Map.Entry<Field, int[]> e : groups.entrySet()) {
+            int[] acc = e.getValue();
+            Tuple t = new Tuple(tupleDesc);
+            if (grouped)
+                t.setField(0, e.getKey());
+            t.setField(grouped ? 1 : 0, new IntField(aop == Aggregator.Op.AVG
+                    && acc[1] > 0 ? acc[0] / acc[1] : acc[0]));
+            if (aop == Aggregator.Op.SUM_COUNT)
+                t.setField(grouped ? 2 : 1, new IntField(acc[1]));
+            result.add(t);
+        }
+        return result;
+    }
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
      * field is the field by which we are grouping, and the second field is the
@@ -195,6 +287,15 @@ public class Aggregate extends Operator {
         }
     }
 
+    /**
+     * Returns the next batch of group results.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch(tupleDesc);
+        return counted(BatchAdapter.fill(opIterator, batch));
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
 	    this.opIterator.rewind();
     }
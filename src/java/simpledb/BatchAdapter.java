@@ -0,0 +1,75 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchAdapter lets a consumer of batches read from an OpIterator that only
+ * has the row interface: each call to {@link #nextBatch()} fills a batch
+ * from {@link OpIterator#next()}. All other calls go to the wrapped
+ * iterator.
+ */
+public class BatchAdapter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    transient private TupleBatch batch;
+
+    private BatchAdapter(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return child itself if it produces batches, otherwise an adapter
+     *         around it
+     */
+    public static BatchIterator of(OpIterator child) {
+        if (child instanceof BatchIterator)
+            return (BatchIterator) child;
+        return new BatchAdapter(child);
+    }
+
+    /**
+     * Fills batch with the next tuples of an iterator.
+     *
+     * @return batch, or null if the iterator had no more tuples
+     */
+    static TupleBatch fill(OpIterator it, TupleBatch batch)
+            throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && it.hasNext())
+            batch.add(it.next());
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch(child.getTupleDesc());
+        return fill(child, batch);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        return child.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,25 @@
+package simpledb;
+
+/**
+ * BatchIterator is an OpIterator that can also return its tuples a
+ * {@link TupleBatch} at a time. Producing a batch costs one call per
+ * operator instead of one per tuple, and lets operators work on column
+ * vectors of unboxed values.
+ * <p>
+ * A consumer reads an opened iterator either with {@link #next()} or with
+ * {@link #nextBatch()} until it is exhausted, rewound or closed; the two
+ * must not be mixed. Use {@link BatchAdapter#of} to read batches from any
+ * OpIterator.
+ */
+public interface BatchIterator extends OpIterator {
+
+    /**
+     * Returns the next batch of tuples. The batch belongs to this iterator
+     * and is only valid until the next call; a consumer may narrow its
+     * selection vector but must not keep it.
+     *
+     * @return a batch with at least one selected row, or null if there are
+     *         no more tuples
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,198 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * BloomFilter is a runtime join filter: a join builds it from the join keys
+ * of one input and attaches it to the scan that produces the other input
+ * (see {@link #attach}), so tuples that cannot find a join partner are
+ * dropped before any operator above the scan sees them. A Bloom filter never
+ * rejects a key that was added; a key that was not added passes with a
+ * small probability.
+ * <p>
+ * The filter counts how many tuples it was asked about and how many it
+ * rejected. If it rejects almost nothing after {@link #SAMPLE_PROBES}
+ * probes, it turns itself off and lets everything pass without hashing, so a
+ * join whose inputs match anyway pays little for it.
+ */
+public class BloomFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Bits reserved per expected key; about 1.7% false positives. */
+    static final int BITS_PER_KEY = 10;
+
+    /** Number of bits set per key. */
+    static final int NUM_HASHES = 3;
+
+    /** Probes after which an ineffective filter turns itself off. */
+    static final int SAMPLE_PROBES = 4096;
+
+    /** Minimum fraction of rejected probes for the filter to stay on. */
+    static final double MIN_REJECTION_RATE = 0.1;
+
+    private final long[] bits;
+    private final int mask;
+    private long probes;
+    private long rejected;
+    private boolean disabled;
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param expectedKeys
+     *            the number of keys that will be added
+     */
+    public BloomFilter(int expectedKeys) {
+        long want = Math.max(64L, (long) expectedKeys * BITS_PER_KEY);
+        int numBits = (int) Math.min(1 << 28, Long.highestOneBit(want - 1) << 1);
+        bits = new long[numBits / 64];
+        mask = numBits - 1;
+    }
+
+    private static long hash(Field f) {
+        // fmix64 from MurmurHash3
+        long h = f.hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Adds a key to the filter. */
+    public void add(Field key) {
+        long h = hash(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int b = (h1 + i * h2) & mask;
+            bits[b >>> 6] |= 1L << b;
+        }
+    }
+
+    /**
+     * @return false if key was certainly never added; true if it may have
+     *         been, or if the filter has turned itself off
+     */
+    public boolean mightContain(Field key) {
+        if (disabled)
+            return true;
+        probes++;
+        long h = hash(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int b = (h1 + i * h2) & mask;
+            if ((bits[b >>> 6] & (1L << b)) == 0) {
+                rejected++;
+                return false;
+            }
+        }
+        if (probes == SAMPLE_PROBES && rejected < probes * MIN_REJECTION_RATE)
+            disabled = true;
+        return true;
+    }
+
+    /**
+     * Drops the selected rows of a batch whose key was certainly never added,
+     * by narrowing the batch's selection vector.
+     *
+     * @param batch
+     *            the batch to filter
+     * @param field
+     *            the column holding the keys
+     */
+    public void filter(TupleBatch batch, int field) {
+        filter(batch, field, 0);
+    }
+
+    /**
+     * Drops the selected rows of a batch from the from-th on whose key was
+     * certainly never added; the rows before it were already tested.
+     *
+     * @param batch
+     *            the batch to filter
+     * @param field
+     *            the column holding the keys
+     * @param from
+     *            the first selected row to test
+     */
+    public void filter(TupleBatch batch, int field, int from) {
+        if (disabled)
+            return;
+        int[] sel = batch.selection();
+        Field[] keys = batch.fieldColumn(field);
+        int kept = from;
+        for (int i = from; i < batch.size(); i++)
+            if (mightContain(keys[sel[i]]))
+                sel[kept++] = sel[i];
+        batch.setSize(kept);
+    }
+
+    /**
+     * Removes all keys. The probe statistics are kept, so a join that
+     * rebuilds its filter (e.g. once per block) reports totals.
+     */
+    public void clear() {
+        Arrays.fill(bits, 0L);
+    }
+
+    /** @return the number of keys tested while the filter was on */
+    public long numProbes() {
+        return probes;
+    }
+
+    /** @return the number of keys the filter rejected */
+    public long numRejected() {
+        return rejected;
+    }
+
+    /** @return the fraction of tested keys that were rejected */
+    public double rejectionRate() {
+        return probes == 0 ? 0.0 : (double) rejected / probes;
+    }
+
+    /** @return true if the filter turned itself off for rejecting too little */
+    public boolean isDisabled() {
+        return disabled;
+    }
+
+    /**
+     * Describes the filter's effect, e.g. for explain output.
+     */
+    public String toString() {
+        return String.format("rejected %d of %d (%.1f%%)%s", rejected, probes,
+                100 * rejectionRate(), disabled ? ", turned off" : "");
+    }
+
+    /**
+     * Attaches a filter to the scan that produces the tuples of plan, looking
+     * through operators that keep the schema of their input. Pass a null
+     * filter to remove a filter attached earlier.
+     *
+     * @param plan
+     *            the input of the join that will be filtered
+     * @param field
+     *            the index of the join field in plan's tuples
+     * @param filter
+     *            the filter, or null
+     * @return true if the filter was attached
+     */
+    public static boolean attach(OpIterator plan, int field, BloomFilter filter) {
+        plan = PlanProfile.unwrap(plan);
+        if (plan instanceof SeqScan) {
+            ((SeqScan) plan).setRuntimeFilter(field, filter);
+            return true;
+        }
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            if (!attach(f.getChildren()[0], field, filter))
+                f.setRuntimeFilter(field, filter);
+            return true;
+        }
+        return false;
+    }
+}
@@ -6,6 +6,7 @@ import java.util.Map.Entry;
 
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 
 /**
@@ -25,6 +26,8 @@ public class BufferPool {
     private ConcurrentHashMap<PageId, Page> pageMap;
     int maxPages;
     LockManager lockManager;
+    private final AtomicLong pageHits = new AtomicLong();
+    private final AtomicLong pageReads = new AtomicLong();
 
 
     private static int pageSize = DEFAULT_PAGE_SIZE;
@@ -64,6 +67,16 @@ public class BufferPool {
         return this.lockManager;
     }
 
+    /** @return the number of pages requested that were in the pool */
+    public long getPageHits() {
+        return pageHits.get();
+    }
+
+    /** @return the number of pages requested that were read from disk */
+    public long getPageReads() {
+        return pageReads.get();
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -100,8 +113,10 @@ public class BufferPool {
             }
         }
         if (pageMap.containsKey(pid)) {
+            pageHits.incrementAndGet();
             return pageMap.get(pid);
         }
+        pageReads.incrementAndGet();
         evictPage();
         int tableId = pid.getTableId();
         Page returned = Database.getCatalog().getDatabaseFile(tableId).readPage(pid);
@@ -190,6 +205,7 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> changed = file.insertTuple(tid, t);
+        TableStats.tupleInserted(tableId, t);
         for (Page page : changed) {
             page.markDirty(true, tid);
             if (pageMap.containsKey(page.getId())) {
@@ -218,6 +234,7 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
         ArrayList<Page> changed = file.deleteTuple(tid, t);
+        TableStats.tupleDeleted(file.getId(), t);
         for (Page page : changed) {
             page.markDirty(true, tid);
             evictPage();
@@ -282,7 +299,9 @@ public class BufferPool {
      */
     private synchronized void evictPage() throws DbException {
         synchronized (pageMap) {
-            if (pageMap.keySet().size() == maxPages) {
+            // pages read concurrently by the threads of a parallel scan can
+            // overshoot the limit between two evictions
+            while (pageMap.keySet().size() >= maxPages) {
 
                 int randomNumber = (int) (Math.random() * (pageMap.size() - 1));
                 ArrayList<PageId> arrayList = new ArrayList<PageId>(pageMap.keySet());
@@ -0,0 +1,290 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+/**
+ * CardinalityFeedback remembers the cardinalities that the scans and joins
+ * of executed queries actually returned, so that later plans of the same
+ * shape are made with them instead of with estimates, and mis-estimates
+ * correct themselves as queries run.
+ * <p>
+ * When a {@link Query} is closed, every scan and join of its plan that
+ * returned all its tuples is recorded under its {@link Signature}: the
+ * tables it reads, by alias, with the predicates evaluated on each, and the
+ * join predicates it applies. A join of the same tables planned in another
+ * order has the same signature. {@link LogicalPlan} and
+ * {@link JoinOptimizer} look the cardinality of each filtered scan and each
+ * set of joined tables up before estimating it, as does
+ * {@link OperatorCardinality}.
+ * <p>
+ * An observation is dropped when the statistics of one of its tables are
+ * replaced, as they are once enough of its tuples have changed (see
+ * {@link TableStats#REFRESH_FRACTION}); the least recently used ones are
+ * evicted beyond the capacity.
+ */
+public class CardinalityFeedback {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static volatile CardinalityFeedback current = new CardinalityFeedback(
+            DEFAULT_CAPACITY);
+
+    /** @return the feedback queries record into and the optimizer uses */
+    public static CardinalityFeedback getDefault() {
+        return current;
+    }
+
+    /**
+     * Installs the feedback queries record into and the optimizer uses; one
+     * of capacity 0 turns feedback off.
+     */
+    public static void setDefault(CardinalityFeedback feedback) {
+        current = feedback;
+    }
+
+    /**
+     * The scans and join predicates of a subplan, which decide what it
+     * returns whatever the order of its joins.
+     */
+    static final class Signature {
+        private final TreeSet<String> scans = new TreeSet<String>();
+        private final TreeSet<String> joins = new TreeSet<String>();
+        private final TreeSet<String> tables = new TreeSet<String>();
+
+        /**
+         * Adds a scan of a table, under an alias, with the predicates on the
+         * fields of the table it evaluates.
+         */
+        void addScan(String alias, String table, List<Predicate> predicates) {
+            TreeSet<String> terms = new TreeSet<String>();
+            for (Predicate p : predicates)
+                terms.add(p.getField() + " " + p.getOp() + " " + p.getOperand());
+            scans.add(alias + "=" + table + terms);
+            tables.add(table);
+        }
+
+        /** Adds a join predicate between two fields, named alias.field. */
+        void addJoin(String field1, Predicate.Op op, String field2) {
+            if (field1.compareTo(field2) > 0) {
+                String f = field1;
+                field1 = field2;
+                field2 = f;
+                op = swap(op);
+            }
+            joins.add(field1 + " " + op + " " + field2);
+        }
+
+        void add(Signature s) {
+            scans.addAll(s.scans);
+            joins.addAll(s.joins);
+            tables.addAll(s.tables);
+        }
+
+        String key() {
+            return scans + " " + joins;
+        }
+
+        @Override
+        public String toString() {
+            return key();
+        }
+    }
+
+    /** @return the operator of a predicate with its operands swapped */
+    private static Predicate.Op swap(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    /**
+     * An observed cardinality, and the tables and statistics it was observed
+     * with.
+     */
+    private static final class Entry {
+        final double card;
+        final Map<String, Integer> tableIds = new HashMap<String, Integer>();
+        final Map<String, TableStats> stats = new HashMap<String, TableStats>();
+
+        Entry(double card) {
+            this.card = card;
+        }
+
+        boolean isValid() {
+            for (Map.Entry<String, Integer> t : tableIds.entrySet()) {
+                try {
+                    if (Database.getCatalog().getTableId(t.getKey()) != t.getValue())
+                        return false;
+                } catch (NoSuchElementException e) {
+                    return false;
+                }
+                if (TableStats.peekTableStats(t.getKey()) != stats.get(t.getKey()))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<String, Entry> entries;
+    private long hits;
+
+    /**
+     * @param capacity
+     *            the number of observations kept; 0 keeps none
+     */
+    public CardinalityFeedback(final int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must not be negative");
+        this.capacity = capacity;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > CardinalityFeedback.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Records the cardinalities of the scans and joins of an executed plan
+     * that returned all their tuples.
+     */
+    public void record(OpIterator plan) {
+        if (capacity > 0)
+            walk(plan, true);
+    }
+
+    /**
+     * @return the cardinality a scan or join subplan was observed to return,
+     *         or -1 if there is no observation of it
+     */
+    public double cardinality(OpIterator subplan) {
+        if (isEmpty())
+            return -1;
+        Signature s = walk(subplan, false);
+        return s == null ? -1 : cardinality(s);
+    }
+
+    /**
+     * @return the cardinality a subplan with the given signature was
+     *         observed to return, or -1 if there is no observation of it
+     */
+    synchronized double cardinality(Signature s) {
+        String key = s.key();
+        Entry e = entries.get(key);
+        if (e == null)
+            return -1;
+        if (!e.isValid()) {
+            entries.remove(key);
+            return -1;
+        }
+        hits++;
+        return e.card;
+    }
+
+    synchronized void put(Signature s, long card) {
+        Entry e = new Entry(card);
+        for (String table : s.tables) {
+            TableStats ts = TableStats.peekTableStats(table);
+            if (ts == null)
+                return;
+            try {
+                e.tableIds.put(table, Database.getCatalog().getTableId(table));
+            } catch (NoSuchElementException ex) {
+                return;
+            }
+            e.stats.put(table, ts);
+        }
+        entries.put(s.key(), e);
+    }
+
+    /**
+     * @return the signature of a scan or join subplan, after recording the
+     *         cardinalities of the scans and joins in it if asked to; or null
+     *         if it is something else
+     */
+    private Signature walk(OpIterator o, boolean record) {
+        Signature s = null;
+        long card = -1;
+        if (o instanceof SeqScan) {
+            SeqScan ss = (SeqScan) o;
+            s = new Signature();
+            s.addScan(ss.getAlias(), ss.getTableName(), ss.getPredicates());
+            // the runtime filter of a scan depends on the join above it
+            card = ss.getMatchedCardinality();
+        } else if (o instanceof ParallelSeqScan) {
+            ParallelSeqScan ps = (ParallelSeqScan) o;
+            s = walk(ps.getScan(), false);
+            card = ps.getActualCardinality();
+        } else if (o instanceof Operator) {
+            Operator op = (Operator) o;
+            OpIterator[] children = op.getChildren();
+            Signature[] inputs = new Signature[children.length];
+            for (int i = 0; i < children.length; i++)
+                if (children[i] != null)
+                    inputs[i] = walk(children[i], record);
+            JoinPredicate jp = null;
+            String f1 = null, f2 = null;
+            if (o instanceof Join) {
+                jp = ((Join) o).getJoinPredicate();
+                f1 = ((Join) o).getJoinField1Name();
+                f2 = ((Join) o).getJoinField2Name();
+            } else if (o instanceof HashEquiJoin) {
+                jp = ((HashEquiJoin) o).getJoinPredicate();
+                f1 = ((HashEquiJoin) o).getJoinField1Name();
+                f2 = ((HashEquiJoin) o).getJoinField2Name();
+            } else if (o instanceof SortMergeJoin) {
+                jp = ((SortMergeJoin) o).getJoinPredicate();
+                f1 = ((SortMergeJoin) o).getJoinField1Name();
+                f2 = ((SortMergeJoin) o).getJoinField2Name();
+            }
+            if (jp != null && f1 != null && f2 != null && inputs[0] != null
+                    && inputs[1] != null) {
+                s = new Signature();
+                s.add(inputs[0]);
+                s.add(inputs[1]);
+                s.addJoin(f1, jp.getOperator(), f2);
+                card = op.getActualCardinality();
+            }
+        }
+        if (record && s != null && card >= 0)
+            put(s, card);
+        return s;
+    }
+
+    /** @return true if there are no observations */
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /** @return the number of observations kept */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** @return the number of estimates replaced by observations */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /** Drops every observation. */
+    public synchronized void clear() {
+        entries.clear();
+    }
+}
@@ -6,6 +6,8 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -18,9 +20,12 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class Catalog {
 
+    private static final Pattern COLUMN_GROUP = Pattern.compile("stats\\s*\\(([^)]*)\\)");
+
     private Map<String, Integer> nameToId;
     private Map<Integer, DbFile> idToFile;
     private Map<Integer, String> idToPKey;
+    private Map<Integer, List<int[]>> idToColumnGroups;
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -29,6 +34,7 @@ public class Catalog {
         nameToId = new HashMap<String, Integer>();
         idToFile = new HashMap<Integer, DbFile>();
         idToPKey = new HashMap<Integer, String>();
+        idToColumnGroups = new HashMap<Integer, List<int[]>>();
     }
 
     /**
@@ -56,6 +62,7 @@ public class Catalog {
 
         idToFile.put(id, file);
         idToPKey.put(id, pkeyField);
+        idToColumnGroups.remove(id);
     }
 
     public void addTable(DbFile file, String name) {
@@ -121,6 +128,40 @@ public class Catalog {
         }
     }
 
+    /**
+     * Declares a group of columns of a table whose values are correlated,
+     * such as a city and its zip code, so that {@link TableStats} keeps
+     * statistics of their values together and does not assume predicates on
+     * them are independent.
+     * @param tableid the id of the table
+     * @param fields the names of two or more fields of the table
+     * @throws NoSuchElementException if the table or a field doesn't exist
+     */
+    public void addColumnGroup(int tableid, String... fields) {
+        TupleDesc td = getTupleDesc(tableid);
+        if (fields.length < 2)
+            throw new IllegalArgumentException("a column group needs two or more fields");
+        int[] group = new int[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            group[i] = td.fieldNameToIndex(fields[i]);
+        List<int[]> groups = idToColumnGroups.get(tableid);
+        if (groups == null) {
+            groups = new ArrayList<int[]>();
+            idToColumnGroups.put(tableid, groups);
+        }
+        groups.add(group);
+    }
+
+    /**
+     * @return the column groups declared for a table, each as the indexes of
+     *     its fields
+     */
+    public List<int[]> getColumnGroups(int tableid) {
+        List<int[]> groups = idToColumnGroups.get(tableid);
+        return groups == null ? Collections.<int[]>emptyList()
+                : Collections.unmodifiableList(groups);
+    }
+
     public Iterator<Integer> tableIdIterator() {
         return idToFile.keySet().iterator();
     }
@@ -139,10 +180,14 @@ public class Catalog {
         nameToId = new HashMap<String, Integer>();
         idToFile = new HashMap<Integer, DbFile>();
         idToPKey = new HashMap<Integer, String>();
+        idToColumnGroups = new HashMap<Integer, List<int[]>>();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line declares a table as name (field type, field type, ...),
+     * optionally followed by groups of correlated columns to keep
+     * statistics of, as stats (field, field, ...).
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -185,6 +230,13 @@ public class Catalog {
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
+                Matcher group = COLUMN_GROUP.matcher(line.substring(line.indexOf(")") + 1));
+                while (group.find()) {
+                    String[] groupFields = group.group(1).split(",");
+                    for (int i = 0; i < groupFields.length; i++)
+                        groupFields[i] = groupFields[i].trim();
+                    addColumnGroup(tabHf.getId(), groupFields);
+                }
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -193,6 +245,12 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (NoSuchElementException e) {
+            System.out.println ("Unknown field in column group : " + line);
+            System.exit(0);
+        } catch (IllegalArgumentException e) {
+            System.out.println ("Invalid column group : " + line);
+            System.exit(0);
         }
     }
 }
@@ -0,0 +1,235 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ColumnGroupStats are the statistics of a group of correlated columns of a
+ * table, declared with {@link Catalog#addColumnGroup}, from which
+ * {@link TableStats} estimates the selectivity of predicates on several of
+ * them together rather than multiplying their selectivities as if they were
+ * independent.
+ * <p>
+ * They keep a joint sample of the values of the columns, which is a
+ * histogram over all of them with one tuple per bucket, and the number of
+ * distinct combinations of their values. The fraction of the sample that
+ * satisfies the predicates is the estimate when enough of it does; when
+ * too little does to go by, equalities on every column of the group are
+ * estimated from how often the sample tuples that agree with all but one
+ * of them agree with that one too, or, if there are none, from the
+ * distinct combinations; otherwise the product of the selectivities is
+ * kept but bounded by what the sample found.
+ */
+public class ColumnGroupStats {
+
+    /** The number of tuples of the joint sample. */
+    public static final int SAMPLE_TUPLES = 5000;
+
+    /** The matches in the sample needed for its fraction to be the estimate. */
+    static final int MIN_MATCHES = 20;
+
+    private final int[] fields;
+    private final TupleDesc td;
+    // the values of the fields in a sample of the tuples, and the estimated
+    // number of distinct combinations of them in the table
+    private final Field[][] rows;
+    private final double distinct;
+
+    /**
+     * @param td
+     *            the schema of the table
+     * @param fields
+     *            the indexes of the fields of the group
+     * @param sample
+     *            a uniform sample of the tuples of the table
+     * @param population
+     *            the number of tuples of the table
+     * @param seed
+     *            the seed of the choice of the tuples kept
+     */
+    public ColumnGroupStats(TupleDesc td, int[] fields, List<Tuple> sample,
+            long population, long seed) {
+        this.td = td;
+        this.fields = fields.clone();
+        HashMap<List<Field>, Integer> combinations = new HashMap<List<Field>, Integer>();
+        for (Tuple t : sample) {
+            List<Field> key = Arrays.asList(values(t));
+            Integer n = combinations.get(key);
+            combinations.put(key, n == null ? 1 : n + 1);
+        }
+        double d = EquiDepthHistogram.estimateDistinct(new ArrayList<Integer>(
+                combinations.values()), sample.size(),
+                Math.max(population, sample.size()));
+        distinct = Math.max(d, combinations.size());
+
+        ArrayList<Tuple> kept = new ArrayList<Tuple>(sample);
+        if (kept.size() > SAMPLE_TUPLES) {
+            Collections.shuffle(kept, new Random(seed));
+            kept.subList(SAMPLE_TUPLES, kept.size()).clear();
+        }
+        rows = new Field[kept.size()][];
+        for (int i = 0; i < rows.length; i++)
+            rows[i] = values(kept.get(i));
+    }
+
+    /** Reads statistics written by {@link #write}. */
+    ColumnGroupStats(TupleDesc td, DataInput in) throws IOException {
+        this.td = td;
+        fields = new int[in.readInt()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = in.readInt();
+            if (fields[i] < 0 || fields[i] >= td.numFields())
+                throw new IOException("schema changed");
+        }
+        distinct = in.readDouble();
+        rows = new Field[in.readInt()][];
+        for (int r = 0; r < rows.length; r++) {
+            rows[r] = new Field[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                if (td.getFieldType(fields[i]) == Type.INT_TYPE)
+                    rows[r][i] = new IntField(in.readInt());
+                else
+                    rows[r][i] = new StringField(in.readUTF(), Type.STRING_LEN);
+            }
+        }
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(fields.length);
+        for (int f : fields)
+            out.writeInt(f);
+        out.writeDouble(distinct);
+        out.writeInt(rows.length);
+        for (Field[] row : rows) {
+            for (int i = 0; i < fields.length; i++) {
+                if (td.getFieldType(fields[i]) == Type.INT_TYPE)
+                    out.writeInt(((IntField) row[i]).getValue());
+                else
+                    out.writeUTF(((StringField) row[i]).getValue());
+            }
+        }
+    }
+
+    private Field[] values(Tuple t) {
+        Field[] v = new Field[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            v[i] = t.getField(fields[i]);
+        return v;
+    }
+
+    /** @return the indexes of the fields of the group */
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    /** @return the estimated number of distinct combinations of the values */
+    public double distinctValues() {
+        return distinct;
+    }
+
+    /** @return the position of a field in the group, or -1 */
+    public int indexOf(int field) {
+        for (int i = 0; i < fields.length; i++)
+            if (fields[i] == field)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Estimates the selectivity of a conjunction of predicates on fields of
+     * the group.
+     *
+     * @param predicates
+     *            predicates on fields of the group, by index in the table
+     * @param selectivities
+     *            the selectivity of each predicate on its own
+     * @return the estimated fraction of the tuples that satisfy all of them
+     */
+    public double estimateSelectivity(List<Predicate> predicates,
+            double[] selectivities) {
+        double independent = 1.0;
+        for (double s : selectivities)
+            independent *= s;
+        if (rows.length == 0)
+            return independent;
+        int matches = 0;
+        for (Field[] row : rows) {
+            boolean all = true;
+            for (int i = 0; all && i < predicates.size(); i++) {
+                Predicate p = predicates.get(i);
+                all = row[indexOf(p.getField())].compare(p.getOp(),
+                        p.getOperand());
+            }
+            if (all)
+                matches++;
+        }
+        double n = rows.length;
+        if (matches >= MIN_MATCHES)
+            return matches / n;
+
+        double sel = independent;
+        if (equalitiesOnAll(predicates)) {
+            // a combination of values no more common than the average one;
+            // with independent fields, the product of the selectivities
+            double least = 1.0;
+            for (double s : selectivities)
+                least = Math.min(least, s);
+            sel = Math.max(independent, Math.min(least, 1.0 / distinct));
+            // the sample tuples that have all the other values show how
+            // likely the remaining one is with them: a combination that does
+            // not exist has them only with other values of it
+            for (int i = 0; i < predicates.size(); i++) {
+                int others = matchesExcept(predicates, i);
+                if (others == 0 || selectivities[i] <= 0)
+                    continue;
+                double given = (matches + 0.5) / (others + 1);
+                sel = Math.min(sel, independent / selectivities[i] * given);
+            }
+        }
+        // the few matches only bound the selectivity, loosely for the noise
+        // of so small a count
+        return Math.max(matches / (2 * n), Math.min(sel, 2 * (matches + 1) / n));
+    }
+
+    /**
+     * @return the number of sample tuples that satisfy all the predicates
+     *         but the one at index skip
+     */
+    private int matchesExcept(List<Predicate> predicates, int skip) {
+        int n = 0;
+        for (Field[] row : rows) {
+            boolean all = true;
+            for (int i = 0; all && i < predicates.size(); i++) {
+                if (i == skip)
+                    continue;
+                Predicate p = predicates.get(i);
+                all = row[indexOf(p.getField())].compare(p.getOp(),
+                        p.getOperand());
+            }
+            if (all)
+                n++;
+        }
+        return n;
+    }
+
+    /** @return true if there is exactly one equality on each field */
+    private boolean equalitiesOnAll(List<Predicate> predicates) {
+        if (predicates.size() != fields.length)
+            return false;
+        boolean[] seen = new boolean[fields.length];
+        for (Predicate p : predicates) {
+            int i = indexOf(p.getField());
+            if (p.getOp() != Predicate.Op.EQUALS || seen[i])
+                return false;
+            seen[i] = true;
+        }
+        return true;
+    }
+}
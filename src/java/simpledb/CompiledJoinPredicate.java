@@ -0,0 +1,83 @@
+package simpledb;
+
+/**
+ * CompiledJoinPredicate is a {@link JoinPredicate} specialized for the types
+ * of its fields and its operator, in the same way as
+ * {@link CompiledPredicate}: joins of two int fields compare unboxed values
+ * without switching on the operator per pair, every operator being its own
+ * class. Other field types fall back to {@link Field#compare}.
+ */
+public abstract class CompiledJoinPredicate {
+
+    /** @return true if the pair of tuples satisfies the predicate */
+    public abstract boolean test(Tuple left, Tuple right);
+
+    /**
+     * Compiles a join predicate over tuples of the given schemas.
+     *
+     * @param p
+     *            the predicate
+     * @param left
+     *            the schema of the first tuple of each pair
+     * @param right
+     *            the schema of the second tuple of each pair
+     */
+    public static CompiledJoinPredicate compile(final JoinPredicate p,
+            TupleDesc left, TupleDesc right) {
+        final int f1 = p.getField1();
+        final int f2 = p.getField2();
+        if (left.getFieldType(f1) != Type.INT_TYPE
+                || right.getFieldType(f2) != Type.INT_TYPE) {
+            return new CompiledJoinPredicate() {
+                public boolean test(Tuple l, Tuple r) {
+                    return p.filter(l, r);
+                }
+            };
+        }
+        switch (p.getOperator()) {
+        case EQUALS:
+        case LIKE:
+            return new CompiledJoinPredicate() {
+                public boolean test(Tuple l, Tuple r) {
+                    return intValue(l, f1) == intValue(r, f2);
+                }
+            };
+        case NOT_EQUALS:
+            return new CompiledJoinPredicate() {
+                public boolean test(Tuple l, Tuple r) {
+                    return intValue(l, f1) != intValue(r, f2);
+                }
+            };
+        case GREATER_THAN:
+            return new CompiledJoinPredicate() {
+                public boolean test(Tuple l, Tuple r) {
+                    return intValue(l, f1) > intValue(r, f2);
+                }
+            };
+        case GREATER_THAN_OR_EQ:
+            return new CompiledJoinPredicate() {
+                public boolean test(Tuple l, Tuple r) {
+                    return intValue(l, f1) >= intValue(r, f2);
+                }
+            };
+        case LESS_THAN:
+            return new CompiledJoinPredicate() {
+                public boolean test(Tuple l, Tuple r) {
+                    return intValue(l, f1) < intValue(r, f2);
+                }
+            };
+        case LESS_THAN_OR_EQ:
+            return new CompiledJoinPredicate() {
+                public boolean test(Tuple l, Tuple r) {
+                    return intValue(l, f1) <= intValue(r, f2);
+                }
+            };
+        default:
+            throw new IllegalArgumentException("unknown operator " + p.getOperator());
+        }
+    }
+
+    private static int intValue(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+}
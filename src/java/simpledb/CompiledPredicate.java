@@ -0,0 +1,248 @@
+package simpledb;
+
+/**
+ * CompiledPredicate is a {@link Predicate} specialized for the type of its
+ * field and its operator. {@link Predicate#filter(Tuple)} goes through
+ * {@link Field#compare}, which switches on the operator for every tuple; a
+ * compiled predicate picks the comparison once, and every type/operator
+ * combination is its own class with its own loops. A call site that only
+ * ever sees one predicate (e.g. the loop of one Filter) is then monomorphic
+ * and the JIT can inline the comparison.
+ * <p>
+ * Int comparisons read the unboxed value of the field; string comparisons
+ * compare the underlying Strings. Other combinations fall back to
+ * {@link Field#compare}.
+ */
+public abstract class CompiledPredicate {
+
+    /** @return true if t satisfies the predicate */
+    public abstract boolean test(Tuple t);
+
+    /**
+     * Drops the selected rows of a batch that do not satisfy the predicate,
+     * by narrowing the batch's selection vector.
+     */
+    public void filter(TupleBatch batch) {
+        int[] sel = batch.selection();
+        int kept = 0;
+        for (int i = 0; i < batch.size(); i++)
+            if (test(batch.getTuple(i)))
+                sel[kept++] = sel[i];
+        batch.setSize(kept);
+    }
+
+    /**
+     * Compiles a predicate over tuples of the given schema.
+     */
+    public static CompiledPredicate compile(Predicate p, TupleDesc td) {
+        Type type = td.getFieldType(p.getField());
+        if (type == Type.INT_TYPE && p.getOperand() instanceof IntField)
+            return compileInt(p.getField(), p.getOp(),
+                    ((IntField) p.getOperand()).getValue());
+        if (type == Type.STRING_TYPE && p.getOperand() instanceof StringField)
+            return compileString(p.getField(), p.getOp(),
+                    ((StringField) p.getOperand()).getValue());
+        return new Generic(p);
+    }
+
+    /**
+     * @return a predicate that holds if all the given ones hold; they are
+     *         tested in order
+     */
+    public static CompiledPredicate and(final CompiledPredicate... parts) {
+        if (parts.length == 1)
+            return parts[0];
+        return new CompiledPredicate() {
+            public boolean test(Tuple t) {
+                for (CompiledPredicate p : parts)
+                    if (!p.test(t))
+                        return false;
+                return true;
+            }
+
+            public void filter(TupleBatch batch) {
+                for (CompiledPredicate p : parts) {
+                    if (batch.size() == 0)
+                        return;
+                    p.filter(batch);
+                }
+            }
+        };
+    }
+
+    private static int intValue(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+
+    private static CompiledPredicate compileInt(final int f, Predicate.Op op,
+            final int v) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return new CompiledPredicate() {
+                public boolean test(Tuple t) {
+                    return intValue(t, f) == v;
+                }
+
+                public void filter(TupleBatch batch) {
+                    int[] col = batch.intColumn(f);
+                    int[] sel = batch.selection();
+                    int n = batch.size(), kept = 0;
+                    for (int i = 0; i < n; i++)
+                        if (col[sel[i]] == v)
+                            sel[kept++] = sel[i];
+                    batch.setSize(kept);
+                }
+            };
+        case NOT_EQUALS:
+            return new CompiledPredicate() {
+                public boolean test(Tuple t) {
+                    return intValue(t, f) != v;
+                }
+
+                public void filter(TupleBatch batch) {
+                    int[] col = batch.intColumn(f);
+                    int[] sel = batch.selection();
+                    int n = batch.size(), kept = 0;
+                    for (int i = 0; i < n; i++)
+                        if (col[sel[i]] != v)
+                            sel[kept++] = sel[i];
+                    batch.setSize(kept);
+                }
+            };
+        case GREATER_THAN:
+            return new CompiledPredicate() {
+                public boolean test(Tuple t) {
+                    return intValue(t, f) > v;
+                }
+
+                public void filter(TupleBatch batch) {
+                    int[] col = batch.intColumn(f);
+                    int[] sel = batch.selection();
+                    int n = batch.size(), kept = 0;
+                    for (int i = 0; i < n; i++)
+                        if (col[sel[i]] > v)
+                            sel[kept++] = sel[i];
+                    batch.setSize(kept);
+                }
+            };
+        case GREATER_THAN_OR_EQ:
+            return new CompiledPredicate() {
+                public boolean test(Tuple t) {
+                    return intValue(t, f) >= v;
+                }
+
+                public void filter(TupleBatch batch) {
+                    int[] col = batch.intColumn(f);
+                    int[] sel = batch.selection();
+                    int n = batch.size(), kept = 0;
+                    for (int i = 0; i < n; i++)
+                        if (col[sel[i]] >= v)
+                            sel[kept++] = sel[i];
+                    batch.setSize(kept);
+                }
+            };
+        case LESS_THAN:
+            return new CompiledPredicate() {
+                public boolean test(Tuple t) {
+                    return intValue(t, f) < v;
+                }
+
+                public void filter(TupleBatch batch) {
+                    int[] col = batch.intColumn(f);
+                    int[] sel = batch.selection();
+                    int n = batch.size(), kept = 0;
+                    for (int i = 0; i < n; i++)
+                        if (col[sel[i]] < v)
+                            sel[kept++] = sel[i];
+                    batch.setSize(kept);
+                }
+            };
+        case LESS_THAN_OR_EQ:
+            return new CompiledPredicate() {
+                public boolean test(Tuple t) {
+                    return intValue(t, f) <= v;
+                }
+
+                public void filter(TupleBatch batch) {
+                    int[] col = batch.intColumn(f);
+                    int[] sel = batch.selection();
+                    int n = batch.size(), kept = 0;
+                    for (int i = 0; i < n; i++)
+                        if (col[sel[i]] <= v)
+                            sel[kept++] = sel[i];
+                    batch.setSize(kept);
+                }
+            };
+        default:
+            throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
+
+    private static String stringValue(Tuple t, int field) {
+        return ((StringField) t.getField(field)).getValue();
+    }
+
+    private static CompiledPredicate compileString(final int f,
+            Predicate.Op op, final String v) {
+        switch (op) {
+        case EQUALS:
+            return new CompiledPredicate() {
+                public boolean test(Tuple t) {
+                    return stringValue(t, f).equals(v);
+                }
+            };
+        case NOT_EQUALS:
+            return new CompiledPredicate() {
+                public boolean test(Tuple t) {
+                    return !stringValue(t, f).equals(v);
+                }
+            };
+        case GREATER_THAN:
+            return new CompiledPredicate() {
+                public boolean test(Tuple t) {
+                    return stringValue(t, f).compareTo(v) > 0;
+                }
+            };
+        case GREATER_THAN_OR_EQ:
+            return new CompiledPredicate() {
+                public boolean test(Tuple t) {
+                    return stringValue(t, f).compareTo(v) >= 0;
+                }
+            };
+        case LESS_THAN:
+            return new CompiledPredicate() {
+                public boolean test(Tuple t) {
+                    return stringValue(t, f).compareTo(v) < 0;
+                }
+            };
+        case LESS_THAN_OR_EQ:
+            return new CompiledPredicate() {
+                public boolean test(Tuple t) {
+                    return stringValue(t, f).compareTo(v) <= 0;
+                }
+            };
+        case LIKE:
+            return new CompiledPredicate() {
+                public boolean test(Tuple t) {
+                    return stringValue(t, f).contains(v);
+                }
+            };
+        default:
+            throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
+
+    /** Any other combination of types: compare through Field.compare. */
+    private static final class Generic extends CompiledPredicate {
+        private final Predicate p;
+
+        Generic(Predicate p) {
+            this.p = p;
+        }
+
+        public boolean test(Tuple t) {
+            return p.filter(t);
+        }
+    }
+}
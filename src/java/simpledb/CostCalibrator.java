@@ -0,0 +1,177 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * CostCalibrator measures the ratios of a {@link CostModel} on the local
+ * machine. It writes a table of random integers, then times the work each
+ * ratio stands for on it: evaluating a predicate on every tuple (the unit),
+ * reading every page from the file, inserting every tuple into a
+ * {@link JoinHashTable} and probing it, sorting the tuples on a
+ * {@link SortKey}, and writing the tuples to a {@link SpillFile} and reading
+ * them back. Each measurement is the best of a few rounds, after a round to
+ * warm up.
+ * <p>
+ * The table is read back right after it is written, so page reads are
+ * usually served by the operating system's cache; drop the cache between
+ * rounds (or make the table larger than memory) to price cold reads.
+ * <p>
+ * Usage: java -jar dist/simpledb.jar calibrate [costFile [pages [memoryPages]]]
+ */
+public class CostCalibrator {
+
+    private static final int ROUNDS = 5;
+
+    private final int pages;
+    private final int memoryPages;
+    private final TupleDesc td = Utility.getTupleDesc(2);
+
+    // what the timed loops compute, so that none of them is optimized away
+    private long sink;
+
+    /**
+     * @param pages
+     *            the number of pages of the table measured
+     * @param memoryPages
+     *            the memory budget of the calibrated cost model
+     */
+    public CostCalibrator(int pages, int memoryPages) {
+        this.pages = pages;
+        this.memoryPages = memoryPages;
+    }
+
+    /** A measured piece of work. */
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    /** @return the best time of the work in nanoseconds, after a warm-up */
+    private static double time(Work w) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            w.run();
+            long t = System.nanoTime() - start;
+            if (round > 0)
+                best = Math.min(best, t);
+        }
+        return best;
+    }
+
+    /**
+     * Measures the local machine.
+     *
+     * @return a cost model with the measured ratios
+     */
+    public CostModel calibrate() throws Exception {
+        int perPage = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(0);
+        for (int i = 0; i < pages * perPage; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>(2);
+            row.add(r.nextInt());
+            row.add(r.nextInt());
+            rows.add(row);
+        }
+        File file = File.createTempFile("simpledb-calibrate", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(rows, file, BufferPool.getPageSize(), 2);
+        rows = null;
+        final HeapFile table = Utility.openHeapFile(2, file);
+        final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < table.numPages(); i++) {
+            Iterator<Tuple> it = ((HeapPage) table.readPage(new HeapPageId(
+                    table.getId(), i))).iterator();
+            while (it.hasNext())
+                tuples.add(it.next());
+        }
+        final int n = tuples.size();
+
+        double tupleNs = time(new Work() {
+            public void run() {
+                Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN,
+                        new IntField(0));
+                for (Tuple t : tuples)
+                    if (p.filter(t))
+                        sink++;
+            }
+        }) / n;
+
+        double pageNs = time(new Work() {
+            public void run() {
+                for (int i = 0; i < table.numPages(); i++) {
+                    HeapPage page = (HeapPage) table.readPage(new HeapPageId(
+                            table.getId(), i));
+                    sink += page.getNumEmptySlots();
+                }
+            }
+        }) / table.numPages();
+
+        double hashNs = time(new Work() {
+            public void run() {
+                JoinHashTable h = JoinHashTable.create(Type.INT_TYPE, 0);
+                for (Tuple t : tuples)
+                    h.add(t);
+                for (Tuple t : tuples)
+                    sink += h.first(t.getField(1));
+            }
+        }) / (2.0 * n);
+
+        final SortKey key = new SortKey(td, 0, true);
+        final ArrayList<SortKey.Keyed> keyed = new ArrayList<SortKey.Keyed>(n);
+        for (Tuple t : tuples)
+            keyed.add(key.wrap(t));
+        double compareNs = time(new Work() {
+            public void run() {
+                ArrayList<SortKey.Keyed> copy = new ArrayList<SortKey.Keyed>(keyed);
+                Collections.shuffle(copy, new Random(1));
+                Collections.sort(copy);
+                sink += copy.size();
+            }
+        }) / (n * (Math.log(n) / Math.log(2)));
+
+        final double spilledPages = CostModel.pages(n, td.getSize());
+        double spillNs = time(new Work() {
+            public void run() throws Exception {
+                SpillFile f = new SpillFile(td, "calibrate");
+                try {
+                    for (Tuple t : tuples)
+                        f.add(t);
+                    f.finishWriting();
+                    DbFileIterator it = f.iterator();
+                    it.open();
+                    while (it.hasNext())
+                        sink += ((IntField) it.next().getField(0)).getValue();
+                    it.close();
+                } finally {
+                    f.delete();
+                }
+            }
+        }) / spilledPages;
+
+        System.out.printf("per tuple %.1f ns, page %.1f ns, spilled page %.1f ns, hash %.1f ns, compare %.1f ns%n",
+                tupleNs, pageNs, spillNs, hashNs, compareNs);
+        return new CostModel(pageNs / tupleNs, spillNs / tupleNs, hashNs
+                / tupleNs, compareNs / tupleNs, memoryPages);
+    }
+
+    public static void main(String[] args) throws Exception {
+        File out = new File(args.length > 0 ? args[0] : "costs.properties");
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int memoryPages = args.length > 2 ? Integer.parseInt(args[2])
+                : CostModel.DEFAULT.getMemoryPages();
+        CostModel model = new CostCalibrator(pages, memoryPages).calibrate();
+        System.out.println("Calibrated costs: " + model);
+        try {
+            model.store(out, "simpledb cost model, in units of one predicate evaluation");
+            System.out.println("Written to " + out);
+        } catch (IOException e) {
+            System.err.println("Could not write " + out + ": " + e.getMessage());
+        }
+    }
+}
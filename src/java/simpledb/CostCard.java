@@ -1,8 +1,8 @@
 package simpledb;
 import java.util.Vector;
 
-/** Class returned by {@link JoinOptimizer#computeCostAndCardOfSubplan} specifying the
-    cost and cardinality of the optimal plan represented by plan.
+/** Class specifying the cost and cardinality of a plan for a set of joins,
+    as estimated by {@link JoinOptimizer#orderJoins}.
 */
 public class CostCard {
     /** The cost of the optimal subplan */
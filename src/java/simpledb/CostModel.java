@@ -0,0 +1,222 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Properties;
+
+/**
+ * CostModel prices the physical join operators for the optimizer. Costs are
+ * in units of one predicate evaluation on one tuple, so a cost model is a
+ * handful of ratios: how many predicate evaluations reading a page of a
+ * table costs, writing a page to a {@link SpillFile} and reading it back,
+ * inserting or probing a tuple in a {@link JoinHashTable}, and one
+ * comparison of a sort. It also holds the memory budget, in pages, that each
+ * join operator is instantiated with, since whether a hash join or a sort
+ * spills depends on it.
+ * <p>
+ * The defaults match the page cost {@link TableStats} has always used. The
+ * ratios of a particular machine are measured by {@link CostCalibrator},
+ * stored in a properties file and installed with {@link #setDefault}, e.g.
+ * through the <tt>-costs</tt> argument of the {@link Parser}.
+ */
+public class CostModel {
+
+    /** The cost model used unless another one is installed. */
+    public static final CostModel DEFAULT = new CostModel(
+            TableStats.IOCOSTPERPAGE, 2 * TableStats.IOCOSTPERPAGE, 2, 1, 256);
+
+    private static volatile CostModel current = DEFAULT;
+
+    private final double pageCost;
+    private final double spillPageCost;
+    private final double hashCost;
+    private final double compareCost;
+    private final int memoryPages;
+
+    /**
+     * @param pageCost
+     *            the cost of reading a page of a table
+     * @param spillPageCost
+     *            the cost of writing a page to a spill file and reading it
+     *            back
+     * @param hashCost
+     *            the cost of inserting a tuple into, or probing, a hash table
+     * @param compareCost
+     *            the cost of one comparison of a sort
+     * @param memoryPages
+     *            the memory budget of a join operator, in pages
+     */
+    public CostModel(double pageCost, double spillPageCost, double hashCost,
+            double compareCost, int memoryPages) {
+        if (memoryPages < 1)
+            throw new IllegalArgumentException("memory budget must be at least one page");
+        this.pageCost = pageCost;
+        this.spillPageCost = spillPageCost;
+        this.hashCost = hashCost;
+        this.compareCost = compareCost;
+        this.memoryPages = memoryPages;
+    }
+
+    /** @return the cost model the optimizer uses */
+    public static CostModel getDefault() {
+        return current;
+    }
+
+    /** Sets the cost model the optimizer uses. */
+    public static void setDefault(CostModel model) {
+        current = model;
+    }
+
+    public double getPageCost() {
+        return pageCost;
+    }
+
+    public double getSpillPageCost() {
+        return spillPageCost;
+    }
+
+    public double getHashCost() {
+        return hashCost;
+    }
+
+    public double getCompareCost() {
+        return compareCost;
+    }
+
+    public int getMemoryPages() {
+        return memoryPages;
+    }
+
+    /** @return the cost of scanning the table that stats describes */
+    public double scanCost(TableStats stats) {
+        return stats.numPages() * pageCost;
+    }
+
+    /**
+     * @return the number of pages card tuples of the given size occupy
+     */
+    public static double pages(int card, int tupleSize) {
+        int perPage = Math.max(1, BufferPool.getPageSize() / Math.max(1, tupleSize));
+        return Math.ceil((double) card / perPage);
+    }
+
+    /**
+     * Estimated cost of a block nested-loops join: the inner side is
+     * rescanned once per block of outer tuples and the predicate is applied
+     * to every pair. A plain nested-loops join is one whose block is a single
+     * page.
+     *
+     * @param blockPages
+     *            the number of pages of outer tuples per block
+     * @param pages1
+     *            the number of pages the outer tuples occupy
+     */
+    public double nestedLoopJoinCost(int card1, int card2, double cost1,
+            double cost2, double pages1, int blockPages) {
+        double blocks = Math.max(1, Math.ceil(pages1 / blockPages));
+        return cost1 + blocks * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * Estimated cost of a hash join that builds on the left side: both sides
+     * are read once, every left tuple is inserted into the table and every
+     * right tuple probes it. The share of the build side that does not fit
+     * in memory is written to spill files with the matching share of the
+     * probe side, and read back.
+     */
+    public double hashJoinCost(int card1, int card2, double cost1,
+            double cost2, double pages1, double pages2) {
+        double cost = cost1 + cost2 + ((double) card1 + card2) * hashCost;
+        if (pages1 > memoryPages)
+            cost += (1 - memoryPages / pages1) * (pages1 + pages2)
+                    * spillPageCost;
+        return cost;
+    }
+
+    /**
+     * Estimated cost of a sort-merge join: both sides are sorted, then
+     * merged with a linear number of comparisons.
+     */
+    public double sortMergeJoinCost(int card1, int card2, double cost1,
+            double cost2, double pages1, double pages2) {
+        double cost = cost1 + cost2 + sortCost(card1, pages1)
+                + sortCost(card2, pages2) + ((double) card1 + card2)
+                * compareCost;
+        // the sorted right side is kept on disk if it does not fit
+        if (pages2 > memoryPages)
+            cost += pages2 * spillPageCost;
+        return cost;
+    }
+
+    /**
+     * @return the cost of sorting card tuples on pages pages with an
+     *         {@link ExternalSorter}: the comparisons, and, if the tuples do
+     *         not fit in memory, writing and reading the runs once for the
+     *         run generation and once per merge pass
+     */
+    public double sortCost(int card, double pages) {
+        double cost = card * (Math.log(Math.max(card, 2)) / Math.log(2))
+                * compareCost;
+        if (pages > memoryPages) {
+            // replacement selection makes runs twice as long as memory
+            double runs = Math.ceil(pages / (2.0 * memoryPages));
+            int fanIn = Math.max(2, memoryPages - 1);
+            int passes = 1;
+            while (runs > fanIn) {
+                runs = Math.ceil(runs / fanIn);
+                passes++;
+            }
+            cost += passes * pages * spillPageCost;
+        }
+        return cost;
+    }
+
+    /**
+     * Reads a cost model from a properties file written by {@link #store}.
+     * Missing properties keep their default values.
+     */
+    public static CostModel load(File f) throws IOException {
+        Properties p = new Properties();
+        InputStream in = new FileInputStream(f);
+        try {
+            p.load(in);
+        } finally {
+            in.close();
+        }
+        try {
+            return new CostModel(
+                    property(p, "pageCost", DEFAULT.pageCost),
+                    property(p, "spillPageCost", DEFAULT.spillPageCost),
+                    property(p, "hashCost", DEFAULT.hashCost),
+                    property(p, "compareCost", DEFAULT.compareCost),
+                    (int) property(p, "memoryPages", DEFAULT.memoryPages));
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid cost model " + f + ": " + e.getMessage());
+        }
+    }
+
+    private static double property(Properties p, String name, double dflt) {
+        String v = p.getProperty(name);
+        return v == null ? dflt : Double.parseDouble(v.trim());
+    }
+
+    /** Writes this cost model to a properties file. */
+    public void store(File f, String comment) throws IOException {
+        Properties p = new Properties();
+        p.setProperty("pageCost", Double.toString(pageCost));
+        p.setProperty("spillPageCost", Double.toString(spillPageCost));
+        p.setProperty("hashCost", Double.toString(hashCost));
+        p.setProperty("compareCost", Double.toString(compareCost));
+        p.setProperty("memoryPages", Integer.toString(memoryPages));
+        OutputStream out = new FileOutputStream(f);
+        try {
+            p.store(out, comment);
+        } finally {
+            out.close();
+        }
+    }
+
+    public String toString() {
+        return String.format("page %.1f, spilled page %.1f, hash %.2f, compare %.2f, memory %d pages",
+                pageCost, spillPageCost, hashCost, compareCost, memoryPages);
+    }
+}
@@ -33,6 +33,30 @@ public interface DbFileIterator{
      */
     public void rewind() throws DbException, TransactionAbortedException;
 
+    /**
+     * Adds the next tuples to batch until it is full or the iterator is
+     * exhausted. Iterators that can hand out tuples in bulk override this.
+     */
+    public default void fill(TupleBatch batch)
+        throws DbException, TransactionAbortedException {
+        while (!batch.isFull() && hasNext())
+            batch.add(next());
+    }
+
+    /**
+     * Adds the next tuples that satisfy filter to batch, as filter returns
+     * them, until the batch is full or the iterator is exhausted. Iterators
+     * over pages whose bytes the filter can be evaluated on override this.
+     */
+    public default void fill(TupleBatch batch, PageFilter filter)
+        throws DbException, TransactionAbortedException {
+        while (!batch.isFull() && hasNext()) {
+            Tuple t = next();
+            if (filter.matches(t))
+                batch.add(filter.project(t));
+        }
+    }
+
     /**
      * Closes the iterator.
      */
@@ -0,0 +1,642 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An equi-depth histogram over one field, built from all of its values at
+ * once.
+ * <p>
+ * The most common values (those a quarter more frequent than the average
+ * value, up to one per bucket) are kept in a list with their exact counts.
+ * The rest of the values are split, in order, into buckets that each hold
+ * about the same number of tuples; a value is never split across buckets.
+ * Each bucket records its lowest and highest value, its number of tuples
+ * and its number of distinct values. Skewed fields are therefore described
+ * where it matters: a frequent value gets its own count, and a dense range
+ * of values gets more, narrower buckets than a sparse one.
+ * <p>
+ * Within a bucket, the tuples are assumed to be spread evenly over its
+ * distinct values, and the values evenly over its range. The range is
+ * measured by {@link #position}, which subclasses define for their type of
+ * values; see {@link #ofInts} and {@link #ofStrings}. A histogram is saved
+ * with {@link #write} and loaded with {@link #read}.
+ * <p>
+ * The histogram may be built from a uniform sample of the values of the
+ * field. Selectivities are then those of the sample, while the numbers of
+ * distinct values are scaled up to estimates for the whole field.
+ */
+public abstract class EquiDepthHistogram<K extends Comparable<K>> {
+
+    // the counts are of the values the histogram was built from, plus the
+    // weight of each value added since, less that of each value removed
+    private double ntups;
+    // the most common values, in order, and their counts
+    private final K[] mcvs;
+    private final double[] mcvCounts;
+    // number of tuples with one of the first i most common values
+    private final double[] mcvBelow;
+    // the buckets of the other values, in order
+    private K[] lows, highs;
+    private double[] counts;
+    private int[] distinct;
+    // number of tuples in the first b buckets
+    private double[] bucketBelow;
+    // whether each bucket was added for values outside the others
+    private boolean[] added;
+    private int restDistinct;
+    // estimated distinct values of the population per distinct value of the
+    // sample, among the values that are not common
+    private double distinctScale;
+    // the count of a value added: the fraction of the population sampled
+    private final double weight;
+
+    /**
+     * @param sorted
+     *            all the values of the field, or a uniform sample of them, in
+     *            ascending order
+     * @param buckets
+     *            the number of buckets to split the less common values into
+     * @param population
+     *            the number of values sorted is a sample of
+     */
+    @SuppressWarnings("unchecked")
+    protected EquiDepthHistogram(List<K> sorted, int buckets, long population) {
+        int n = sorted.size();
+        ntups = n;
+        // the runs of equal values
+        ArrayList<K> values = new ArrayList<K>();
+        ArrayList<Integer> runs = new ArrayList<Integer>();
+        for (int i = 0; i < n;) {
+            int j = i + 1;
+            while (j < n && sorted.get(j).compareTo(sorted.get(i)) == 0)
+                j++;
+            values.add(sorted.get(i));
+            runs.add(j - i);
+            i = j;
+        }
+
+        // the values clearly more frequent than the average one, most common
+        // first, and at most one per bucket
+        double threshold = Math.max(2, 1.25 * n / Math.max(1, values.size()));
+        ArrayList<Integer> common = new ArrayList<Integer>();
+        for (int v = 0; v < values.size(); v++)
+            if (runs.get(v) >= threshold)
+                common.add(v);
+        if (common.size() > buckets) {
+            final ArrayList<Integer> r = runs;
+            Collections.sort(common, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return r.get(b) - r.get(a);
+                }
+            });
+            common = new ArrayList<Integer>(common.subList(0, buckets));
+            Collections.sort(common);
+        }
+        mcvs = (K[]) new Comparable[common.size()];
+        mcvCounts = new double[common.size()];
+        mcvBelow = new double[common.size() + 1];
+        boolean[] isCommon = new boolean[values.size()];
+        int rest = n;
+        for (int i = 0; i < common.size(); i++) {
+            int v = common.get(i);
+            isCommon[v] = true;
+            mcvs[i] = values.get(v);
+            mcvCounts[i] = runs.get(v);
+            mcvBelow[i + 1] = mcvBelow[i] + mcvCounts[i];
+            rest -= mcvCounts[i];
+        }
+
+        // the other values, cut into buckets of about rest / buckets tuples
+        ArrayList<K> lo = new ArrayList<K>(), hi = new ArrayList<K>();
+        ArrayList<Integer> cnt = new ArrayList<Integer>(), dist = new ArrayList<Integer>();
+        double target = Math.max(1.0, (double) rest / buckets);
+        int seen = 0, nd = 0;
+        for (int v = 0; v < values.size(); v++) {
+            if (isCommon[v])
+                continue;
+            int b = lo.size() - 1;
+            // start a new bucket once the ones so far hold their share
+            if (b < 0 || seen >= target * (b + 1)) {
+                lo.add(values.get(v));
+                hi.add(values.get(v));
+                cnt.add(0);
+                dist.add(0);
+                b++;
+            }
+            hi.set(b, values.get(v));
+            cnt.set(b, cnt.get(b) + runs.get(v));
+            dist.set(b, dist.get(b) + 1);
+            seen += runs.get(v);
+            nd++;
+        }
+        restDistinct = nd;
+        double estimate = estimateDistinct(runs, n, population);
+        distinctScale = nd == 0 ? 1.0 : Math.max(1.0, (estimate - mcvs.length)
+                / nd);
+        weight = population > n ? (double) n / population : 1.0;
+        lows = (K[]) lo.toArray(new Comparable[lo.size()]);
+        highs = (K[]) hi.toArray(new Comparable[hi.size()]);
+        counts = new double[cnt.size()];
+        distinct = new int[dist.size()];
+        bucketBelow = new double[cnt.size() + 1];
+        for (int b = 0; b < counts.length; b++) {
+            counts[b] = cnt.get(b);
+            distinct[b] = dist.get(b);
+            bucketBelow[b + 1] = bucketBelow[b] + counts[b];
+        }
+        added = new boolean[counts.length];
+    }
+
+    /**
+     * Reads a histogram written by {@link #write}; readValue is called on
+     * this object before its constructor returns.
+     */
+    @SuppressWarnings("unchecked")
+    protected EquiDepthHistogram(DataInput in) throws IOException {
+        ntups = in.readDouble();
+        restDistinct = in.readInt();
+        distinctScale = in.readDouble();
+        weight = in.readDouble();
+        int n = in.readInt();
+        mcvs = (K[]) new Comparable[n];
+        mcvCounts = new double[n];
+        mcvBelow = new double[n + 1];
+        for (int i = 0; i < n; i++) {
+            mcvs[i] = readValue(in);
+            mcvCounts[i] = in.readDouble();
+            mcvBelow[i + 1] = mcvBelow[i] + mcvCounts[i];
+        }
+        n = in.readInt();
+        lows = (K[]) new Comparable[n];
+        highs = (K[]) new Comparable[n];
+        counts = new double[n];
+        distinct = new int[n];
+        bucketBelow = new double[n + 1];
+        added = new boolean[n];
+        for (int b = 0; b < n; b++) {
+            lows[b] = readValue(in);
+            highs[b] = readValue(in);
+            counts[b] = in.readDouble();
+            distinct[b] = in.readInt();
+            added[b] = in.readBoolean();
+            bucketBelow[b + 1] = bucketBelow[b] + counts[b];
+        }
+    }
+
+    /**
+     * Reads a histogram written by {@link #write}.
+     *
+     * @param type
+     *            the type of the values of the histogram
+     */
+    public static EquiDepthHistogram<?> read(DataInput in, Type type)
+            throws IOException {
+        return type == Type.INT_TYPE ? new Ints(in) : new Strings(in);
+    }
+
+    /** Writes the histogram in the compact form {@link #read} reads. */
+    public synchronized void write(DataOutput out) throws IOException {
+        out.writeDouble(ntups);
+        out.writeInt(restDistinct);
+        out.writeDouble(distinctScale);
+        out.writeDouble(weight);
+        out.writeInt(mcvs.length);
+        for (int i = 0; i < mcvs.length; i++) {
+            writeValue(out, mcvs[i]);
+            out.writeDouble(mcvCounts[i]);
+        }
+        out.writeInt(counts.length);
+        for (int b = 0; b < counts.length; b++) {
+            writeValue(out, lows[b]);
+            writeValue(out, highs[b]);
+            out.writeDouble(counts[b]);
+            out.writeInt(distinct[b]);
+            out.writeBoolean(added[b]);
+        }
+    }
+
+    /**
+     * Estimates the number of distinct values of a population from a sample
+     * of it with the Duj1 estimator of Haas and Stokes: the values seen once
+     * in the sample stand for the values not seen at all.
+     *
+     * @param runs
+     *            the number of times each distinct value occurs in the sample
+     * @param n
+     *            the size of the sample
+     * @param population
+     *            the size of the population
+     */
+    static double estimateDistinct(List<Integer> runs, int n, long population) {
+        if (n == 0 || population <= n)
+            return runs.size();
+        int once = 0;
+        for (int r : runs)
+            if (r == 1)
+                once++;
+        double d = (double) n * runs.size()
+                / (n - once + (double) once * n / population);
+        return Math.min(d, population);
+    }
+
+    /** @return the estimated number of distinct values in bucket b */
+    private double bucketDistinct(int b) {
+        return distinct[b] * distinctScale;
+    }
+
+    /**
+     * @return where v lies between lo and hi, from 0 (at lo) to 1 (at hi);
+     *         lo &lt; v &lt; hi
+     */
+    protected abstract double position(K v, K lo, K hi);
+
+    /** @return true if v is LIKE pattern */
+    protected abstract boolean like(K v, K pattern);
+
+    protected abstract K readValue(DataInput in) throws IOException;
+
+    protected abstract void writeValue(DataOutput out, K v) throws IOException;
+
+    /** @return a histogram of the given int values */
+    public static EquiDepthHistogram<Integer> ofInts(int[] values, int n,
+            int buckets) {
+        return ofInts(values, n, buckets, n);
+    }
+
+    /**
+     * @return a histogram of the given int values, a sample of population
+     *         values
+     */
+    public static EquiDepthHistogram<Integer> ofInts(int[] values, int n,
+            int buckets, long population) {
+        int[] sorted = Arrays.copyOf(values, n);
+        Arrays.sort(sorted);
+        ArrayList<Integer> list = new ArrayList<Integer>(n);
+        for (int v : sorted)
+            list.add(v);
+        return new Ints(list, buckets, population);
+    }
+
+    /** @return a histogram of the given String values */
+    public static EquiDepthHistogram<String> ofStrings(List<String> values,
+            int buckets) {
+        return ofStrings(values, buckets, values.size());
+    }
+
+    /**
+     * @return a histogram of the given String values, a sample of population
+     *         values
+     */
+    public static EquiDepthHistogram<String> ofStrings(List<String> values,
+            int buckets, long population) {
+        ArrayList<String> sorted = new ArrayList<String>(values);
+        Collections.sort(sorted);
+        return new Strings(sorted, buckets, population);
+    }
+
+    /** A histogram of int values. */
+    private static final class Ints extends EquiDepthHistogram<Integer> {
+        Ints(List<Integer> sorted, int buckets, long population) {
+            super(sorted, buckets, population);
+        }
+
+        Ints(DataInput in) throws IOException {
+            super(in);
+        }
+
+        protected double position(Integer v, Integer lo, Integer hi) {
+            return ((double) v - lo) / ((double) hi - lo);
+        }
+
+        protected boolean like(Integer v, Integer pattern) {
+            return v.intValue() == pattern.intValue();
+        }
+
+        protected Integer readValue(DataInput in) throws IOException {
+            return in.readInt();
+        }
+
+        protected void writeValue(DataOutput out, Integer v) throws IOException {
+            out.writeInt(v);
+        }
+    }
+
+    /** A histogram of String values. */
+    private static final class Strings extends EquiDepthHistogram<String> {
+        Strings(List<String> sorted, int buckets, long population) {
+            super(sorted, buckets, population);
+        }
+
+        Strings(DataInput in) throws IOException {
+            super(in);
+        }
+
+        protected double position(String v, String lo, String hi) {
+            // compare the characters after the prefix all three share
+            int p = 0;
+            while (p < lo.length() && p < hi.length()
+                    && lo.charAt(p) == hi.charAt(p))
+                p++;
+            double l = fraction(lo, p), h = fraction(hi, p);
+            return h > l ? (fraction(v, p) - l) / (h - l) : 0.5;
+        }
+
+        private static double fraction(String s, int from) {
+            double f = 0, scale = 1;
+            for (int i = from; i < from + 4 && i < s.length(); i++) {
+                scale /= 65536;
+                f += s.charAt(i) * scale;
+            }
+            return f;
+        }
+
+        protected boolean like(String v, String pattern) {
+            return v.indexOf(pattern) >= 0;
+        }
+
+        protected String readValue(DataInput in) throws IOException {
+            return in.readUTF();
+        }
+
+        protected void writeValue(DataOutput out, String v) throws IOException {
+            out.writeUTF(v);
+        }
+    }
+
+    /**
+     * @return the number of values the histogram was built from, plus those
+     *         added and less those removed since, in proportion to the
+     *         fraction of the values it was built from
+     */
+    public synchronized double numValues() {
+        return ntups;
+    }
+
+    /**
+     * Adds a value inserted into the field. A most common value gets its
+     * count increased, and any other value that of the bucket it falls in. A
+     * value between two buckets extends the one below it. A value below or
+     * above all the buckets gets a bucket of its own, which later values
+     * beyond it extend, so the values inserted past the ends of the field
+     * (increasing keys, say) are not spread over the range of the values
+     * the histogram was built from.
+     */
+    public synchronized void add(K v) {
+        update(v, weight);
+    }
+
+    /** Removes a value deleted from the field. */
+    public synchronized void remove(K v) {
+        update(v, -weight);
+    }
+
+    private void update(K v, double w) {
+        int m = mcv(v);
+        if (m >= 0) {
+            w = Math.max(w, -mcvCounts[m]);
+            mcvCounts[m] += w;
+            for (int i = m + 1; i < mcvBelow.length; i++)
+                mcvBelow[i] += w;
+            ntups += w;
+            return;
+        }
+        int b = bucket(v);
+        if (b < 0) {
+            if (w < 0)
+                return;
+            b = -Arrays.binarySearch(highs, v) - 1;
+            if (b == counts.length && (b == 0 || !added[b - 1])) {
+                addBucket(b, v);
+            } else if (b == 0 && !added[0]) {
+                addBucket(0, v);
+            } else if (b == 0) {
+                lows[0] = v;
+            } else {
+                b--;
+                highs[b] = v;
+            }
+            distinct[b]++;
+            restDistinct++;
+        }
+        w = Math.max(w, -counts[b]);
+        counts[b] += w;
+        for (int i = b + 1; i < bucketBelow.length; i++)
+            bucketBelow[i] += w;
+        ntups += w;
+    }
+
+    /** Inserts an empty bucket for value v before bucket b. */
+    @SuppressWarnings("unchecked")
+    private void addBucket(int b, K v) {
+        int n = counts.length + 1;
+        K[] lo = (K[]) new Comparable[n], hi = (K[]) new Comparable[n];
+        double[] cnt = new double[n];
+        int[] dist = new int[n];
+        boolean[] add = new boolean[n];
+        System.arraycopy(lows, 0, lo, 0, b);
+        System.arraycopy(lows, b, lo, b + 1, n - 1 - b);
+        System.arraycopy(highs, 0, hi, 0, b);
+        System.arraycopy(highs, b, hi, b + 1, n - 1 - b);
+        System.arraycopy(counts, 0, cnt, 0, b);
+        System.arraycopy(counts, b, cnt, b + 1, n - 1 - b);
+        System.arraycopy(distinct, 0, dist, 0, b);
+        System.arraycopy(distinct, b, dist, b + 1, n - 1 - b);
+        System.arraycopy(added, 0, add, 0, b);
+        System.arraycopy(added, b, add, b + 1, n - 1 - b);
+        lo[b] = v;
+        hi[b] = v;
+        add[b] = true;
+        lows = lo;
+        highs = hi;
+        counts = cnt;
+        distinct = dist;
+        added = add;
+        bucketBelow = new double[n + 1];
+        for (int i = 0; i < n; i++)
+            bucketBelow[i + 1] = bucketBelow[i] + counts[i];
+    }
+
+    /**
+     * @return the number of distinct values of the field, estimated if the
+     *         histogram was built from a sample
+     */
+    public synchronized int distinctValues() {
+        return mcvs.length + (int) Math.round(restDistinct * distinctScale);
+    }
+
+    /**
+     * Sets the number of distinct values of the field to an estimate made
+     * by other means, such as a {@link HyperLogLog} sketch; the values that
+     * are not common take up what the common ones leave.
+     */
+    public synchronized void setDistinctValues(double d) {
+        if (restDistinct > 0)
+            distinctScale = Math.max(1.0, (d - mcvs.length) / restDistinct);
+    }
+
+    private int mcv(K v) {
+        return Arrays.binarySearch(mcvs, v);
+    }
+
+    /**
+     * @return the fraction of the values that equal v and are not common; a
+     *         value between two buckets, which the sample missed, is given
+     *         the average frequency of the values that are not common
+     */
+    private double bucketEquals(K v) {
+        int b = bucket(v);
+        if (b >= 0)
+            return counts[b] / bucketDistinct(b) / ntups;
+        if (lows.length == 0 || lows[0].compareTo(v) > 0
+                || highs[highs.length - 1].compareTo(v) < 0)
+            return 0.0;
+        return (ntups - mcvBelow[mcvs.length])
+                / Math.max(1.0, restDistinct * distinctScale) / ntups;
+    }
+
+    /** @return the bucket whose range holds v, or -1 */
+    private int bucket(K v) {
+        int b = Arrays.binarySearch(highs, v);
+        if (b < 0)
+            b = -b - 1;
+        return b < highs.length && lows[b].compareTo(v) <= 0 ? b : -1;
+    }
+
+    private double equal(K v) {
+        int m = mcv(v);
+        if (m >= 0)
+            return mcvCounts[m] / ntups;
+        return bucketEquals(v);
+    }
+
+    private double less(K v) {
+        int m = mcv(v);
+        double n = mcvBelow[m >= 0 ? m : -m - 1];
+        int b = Arrays.binarySearch(highs, v);
+        if (b >= 0) {
+            // v is the highest value of bucket b
+            n += bucketBelow[b] + counts[b] - counts[b] / bucketDistinct(b);
+        } else {
+            b = -b - 1;
+            n += bucketBelow[b];
+            if (b < highs.length && lows[b].compareTo(v) < 0)
+                n += counts[b] * position(v, lows[b], highs[b]);
+        }
+        return n / ntups;
+    }
+
+    private double like(K pattern) {
+        double n = 0;
+        for (int i = 0; i < mcvs.length; i++)
+            if (like(mcvs[i], pattern))
+                n += mcvCounts[i];
+        // the bucket bounds are a sample of the other values
+        int matches = 0;
+        for (int b = 0; b < lows.length; b++) {
+            if (like(lows[b], pattern))
+                matches++;
+            if (like(highs[b], pattern))
+                matches++;
+        }
+        double rest = ntups - mcvBelow[mcvs.length];
+        if (lows.length > 0)
+            n += rest * Math.max((double) matches / (2 * lows.length),
+                    1.0 / Math.max(1, restDistinct * distinctScale));
+        return n / ntups;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on the
+     * values of the histogram.
+     *
+     * @param op
+     *            Operator
+     * @param v
+     *            Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public synchronized double estimateSelectivity(Predicate.Op op, K v) {
+        if (ntups <= 0)
+            return 0.0;
+        switch (op) {
+        case EQUALS:
+            return equal(v);
+        case NOT_EQUALS:
+            return 1.0 - equal(v);
+        case LESS_THAN:
+            return less(v);
+        case LESS_THAN_OR_EQ:
+            return less(v) + equal(v);
+        case GREATER_THAN:
+            return Math.max(0.0, 1.0 - less(v) - equal(v));
+        case GREATER_THAN_OR_EQ:
+            return Math.max(0.0, 1.0 - less(v));
+        case LIKE:
+            return like(v);
+        default:
+            throw new UnsupportedOperationException("unknown operator " + op);
+        }
+    }
+
+    /**
+     * @return the chance that two tuples picked at random have the same
+     *         value, which is the selectivity of an equality with a value
+     *         picked from the field itself
+     */
+    public synchronized double avgSelectivity() {
+        if (ntups <= 0)
+            return 1.0;
+        double sum = 0;
+        for (double c : mcvCounts)
+            sum += c * c;
+        for (int b = 0; b < counts.length; b++)
+            sum += counts[b] * counts[b] / bucketDistinct(b);
+        return sum / (ntups * ntups);
+    }
+
+    /**
+     * Estimates the selectivity of an equality join of the values of this
+     * histogram with those of another: the fraction of the pairs of values
+     * that are equal. Common values are matched exactly against the other
+     * side; the other values are assumed to match as far as the side with
+     * fewer distinct values allows.
+     */
+    public synchronized double joinSelectivity(EquiDepthHistogram<K> other) {
+        if (ntups <= 0 || other.ntups <= 0)
+            return 0.0;
+        double sel = 0;
+        for (int i = 0; i < mcvs.length; i++)
+            sel += mcvCounts[i] / ntups * other.equal(mcvs[i]);
+        for (int i = 0; i < other.mcvs.length; i++)
+            if (mcv(other.mcvs[i]) < 0)
+                sel += other.mcvCounts[i] / other.ntups
+                        * bucketEquals(other.mcvs[i]);
+        double ndv = Math.max(restDistinct * distinctScale,
+                other.restDistinct * other.distinctScale);
+        if (ndv > 0)
+            sel += (1.0 - mcvBelow[mcvs.length] / ntups)
+                    * (1.0 - other.mcvBelow[other.mcvs.length]
+                            / other.ntups) / ndv;
+        return sel;
+    }
+
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("EquiDepthHistogram[" + ntups
+                + " values, " + distinctValues() + " distinct; common:");
+        for (int i = 0; i < mcvs.length; i++)
+            sb.append(' ').append(mcvs[i]).append('x').append(mcvCounts[i]);
+        sb.append("; buckets:");
+        for (int b = 0; b < counts.length; b++)
+            sb.append(" [").append(lows[b]).append("..").append(highs[b])
+                    .append("] ").append(counts[b]).append('/')
+                    .append(distinct[b]);
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,321 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ExternalSorter sorts a stream of tuples under a fixed memory budget. The
+ * sort order is given by a {@link SortKey}; tuples are compared on their
+ * normalized keys, which are computed once per tuple per pass.
+ * <p>
+ * Tuples are added one at a time with {@link #add(Tuple)}. As long as the
+ * input fits in the budget it is kept in memory and sorted there. Once the
+ * budget is exceeded the sorter switches to replacement selection: a heap of
+ * budget size emits tuples into sorted runs on {@link SpillFile}s, and every
+ * incoming tuple that is not smaller than the last one written joins the
+ * current run, so runs are on average twice as long as memory. When the
+ * input ends, runs are merged k at a time (k is one less than the number of
+ * pages in the budget) until at most k remain; those are merged on the fly
+ * by the iterator returned from {@link #iterator()}.
+ * <p>
+ * The budget is expressed in pages; a page holds as many tuples as fit in
+ * {@link BufferPool#getPageSize()} bytes using the on-disk tuple size.
+ */
+public class ExternalSorter {
+
+    /** Default memory budget, in pages, for operators that sort. */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+
+    private final TupleDesc td;
+    private final SortKey sortKey;
+    private final int memoryPages;
+    private final int capacity;
+    private final int fanIn;
+
+    // in-memory phase
+    private ArrayList<SortKey.Keyed> buffer = new ArrayList<SortKey.Keyed>();
+    // replacement selection phase
+    private PriorityQueue<RunEntry> heap;
+    private int currentRun;
+    private SpillFile currentFile;
+    private final ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+
+    private boolean finished;
+    private int mergePasses;
+
+    /**
+     * Creates a sorter.
+     *
+     * @param td
+     *            the schema of the tuples to sort
+     * @param sortKey
+     *            the sort order
+     * @param memoryPages
+     *            the number of pages worth of tuples the sorter may hold in
+     *            memory; must be at least 1
+     */
+    public ExternalSorter(TupleDesc td, SortKey sortKey, int memoryPages) {
+        if (memoryPages < 1)
+            throw new IllegalArgumentException("memory budget must be at least one page");
+        this.td = td;
+        this.sortKey = sortKey;
+        this.memoryPages = memoryPages;
+        this.capacity = memoryPages * Math.max(1, BufferPool.getPageSize()
+                / (td.getSize() + sortKey.keyLength()));
+        this.fanIn = Math.max(2, memoryPages - 1);
+    }
+
+    /** @return the memory budget of this sorter, in pages */
+    public int getMemoryPages() {
+        return memoryPages;
+    }
+
+    /**
+     * Adds a tuple to the input of the sort.
+     *
+     * @throws IllegalStateException
+     *             if {@link #finish()} has already been called
+     */
+    public void add(Tuple t) throws DbException {
+        if (finished)
+            throw new IllegalStateException("sorter input already finished");
+        SortKey.Keyed k = sortKey.wrap(t);
+        if (heap == null) {
+            if (buffer.size() < capacity) {
+                buffer.add(k);
+                return;
+            }
+            startReplacementSelection();
+        }
+        SortKey.Keyed out = emitSmallest();
+        int run = k.compareTo(out) >= 0 ? currentRun : currentRun + 1;
+        heap.add(new RunEntry(run, k));
+    }
+
+    /**
+     * Marks the end of the input. Spilled runs are merged down until a single
+     * merge pass can produce the output.
+     */
+    public void finish() throws DbException {
+        if (finished)
+            return;
+        finished = true;
+        if (heap == null) {
+            Collections.sort(buffer);
+            return;
+        }
+        while (!heap.isEmpty())
+            emitSmallest();
+        closeCurrentRun();
+        heap = null;
+
+        while (runs.size() > fanIn) {
+            ArrayList<SpillFile> next = new ArrayList<SpillFile>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<SpillFile> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+                if (group.size() == 1) {
+                    next.add(group.get(0));
+                    continue;
+                }
+                SpillFile merged = new SpillFile(td, "sort");
+                DbFileIterator it = new MergeIterator(new ArrayList<SpillFile>(group));
+                try {
+                    it.open();
+                    while (it.hasNext())
+                        merged.add(it.next());
+                } catch (TransactionAbortedException e) {
+                    throw new DbException("unexpected abort while merging runs");
+                } finally {
+                    it.close();
+                }
+                merged.finishWriting();
+                for (SpillFile f : group)
+                    f.delete();
+                next.add(merged);
+            }
+            runs.clear();
+            runs.addAll(next);
+            mergePasses++;
+        }
+    }
+
+    /** @return true if the input did not fit in memory and was spilled */
+    public boolean spilled() {
+        return !runs.isEmpty() || heap != null;
+    }
+
+    /**
+     * @return the most bytes of keyed tuples the sorter has held in memory
+     *         at once; its whole budget once it has spilled
+     */
+    public long getMemoryBytes() {
+        long entries = spilled() ? capacity : buffer.size();
+        return entries * (td.getSize() + sortKey.keyLength());
+    }
+
+    /** @return the number of sorted runs currently on disk */
+    public int numRuns() {
+        return runs.size();
+    }
+
+    /** @return the number of intermediate merge passes that were needed */
+    public int numMergePasses() {
+        return mergePasses;
+    }
+
+    /**
+     * Returns an iterator over the sorted tuples. Must be called after
+     * {@link #finish()}; may be called several times.
+     */
+    public DbFileIterator iterator() {
+        if (!finished)
+            throw new IllegalStateException("sorter input not finished");
+        if (runs.isEmpty())
+            return new MemoryIterator();
+        return new MergeIterator(runs);
+    }
+
+    /** Releases the memory and temporary files held by this sorter. */
+    public void close() {
+        for (SpillFile f : runs)
+            f.delete();
+        runs.clear();
+        if (currentFile != null) {
+            currentFile.delete();
+            currentFile = null;
+        }
+        buffer = new ArrayList<SortKey.Keyed>();
+        heap = null;
+    }
+
+    private void startReplacementSelection() throws DbException {
+        heap = new PriorityQueue<RunEntry>(capacity + 1);
+        for (SortKey.Keyed k : buffer)
+            heap.add(new RunEntry(0, k));
+        buffer = new ArrayList<SortKey.Keyed>();
+        currentRun = 0;
+        currentFile = new SpillFile(td, "sort");
+    }
+
+    /** Writes the smallest tuple of the current run to disk and returns it. */
+    private SortKey.Keyed emitSmallest() throws DbException {
+        RunEntry e = heap.poll();
+        if (e.run != currentRun) {
+            closeCurrentRun();
+            currentRun = e.run;
+            currentFile = new SpillFile(td, "sort");
+        }
+        currentFile.add(e.item.tuple);
+        return e.item;
+    }
+
+    private void closeCurrentRun() throws DbException {
+        if (currentFile == null)
+            return;
+        currentFile.finishWriting();
+        runs.add(currentFile);
+        currentFile = null;
+    }
+
+    private class RunEntry implements Comparable<RunEntry> {
+        final int run;
+        final SortKey.Keyed item;
+
+        RunEntry(int run, SortKey.Keyed item) {
+            this.run = run;
+            this.item = item;
+        }
+
+        public int compareTo(RunEntry o) {
+            if (run != o.run)
+                return run < o.run ? -1 : 1;
+            return item.compareTo(o.item);
+        }
+    }
+
+    private class MemoryIterator extends AbstractDbFileIterator {
+        private Iterator<SortKey.Keyed> it;
+
+        public void open() {
+            it = buffer.iterator();
+        }
+
+        protected Tuple readNext() {
+            if (it != null && it.hasNext())
+                return it.next().tuple;
+            return null;
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            it = null;
+        }
+    }
+
+    /** k-way merge of sorted spill files. */
+    private class MergeIterator extends AbstractDbFileIterator {
+        private final List<SpillFile> files;
+        private DbFileIterator[] inputs;
+        private PriorityQueue<Head> heads;
+
+        MergeIterator(List<SpillFile> files) {
+            this.files = files;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            inputs = new DbFileIterator[files.size()];
+            heads = new PriorityQueue<Head>(Math.max(1, files.size()));
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = files.get(i).iterator();
+                inputs[i].open();
+                if (inputs[i].hasNext())
+                    heads.add(new Head(i, sortKey.wrap(inputs[i].next())));
+            }
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (heads == null || heads.isEmpty())
+                return null;
+            Head h = heads.poll();
+            if (inputs[h.input].hasNext())
+                heads.add(new Head(h.input, sortKey.wrap(inputs[h.input].next())));
+            return h.item.tuple;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            if (inputs != null)
+                for (DbFileIterator it : inputs)
+                    if (it != null)
+                        it.close();
+            inputs = null;
+            heads = null;
+        }
+
+        private class Head implements Comparable<Head> {
+            final int input;
+            final SortKey.Keyed item;
+
+            Head(int input, SortKey.Keyed item) {
+                this.input = input;
+                this.item = item;
+            }
+
+            public int compareTo(Head o) {
+                int c = item.compareTo(o.item);
+                if (c != 0)
+                    return c;
+                return input < o.input ? -1 : (input == o.input ? 0 : 1);
+            }
+        }
+    }
+}
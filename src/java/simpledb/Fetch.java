@@ -0,0 +1,211 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+/**
+ * Fetch is the last step of late materialization. The scans under it return
+ * only the fields the joins need plus a row reference (see
+ * {@link SeqScan#setRowReference}), so the joins move narrow tuples; Fetch
+ * then reads the remaining fields of each output row from the pages of the
+ * base tables, through the buffer pool.
+ * <p>
+ * A row reference is an INT_TYPE field holding pageNumber * slotsPerPage +
+ * slot, so only tables of at most Integer.MAX_VALUE slots can be fetched
+ * from (see {@link #canReference}). Fetch replaces the reference of each table it fetches with the
+ * requested fields of that table and drops the other fields of the table;
+ * fields of other tables are passed through. As the fields of a table are
+ * contiguous in the output of a join, the result has the same fields in the
+ * same order as the plan without late materialization.
+ */
+public class Fetch extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The name of the row reference field of the table with an alias. */
+    public static String referenceName(String alias) {
+        return alias + ".#rid";
+    }
+
+    /**
+     * @return true if every slot of a table of the given number of pages and
+     *         schema has a row reference
+     */
+    public static boolean canReference(int numPages, TupleDesc td) {
+        return (long) numPages * HeapPage.slotsPerPage(td) <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the row reference of a tuple stored at rid
+     * @throws IllegalArgumentException
+     *             if the reference does not fit in an int
+     */
+    static int reference(RecordId rid, int slotsPerPage) {
+        long ref = (long) rid.getPageId().getPageNumber() * slotsPerPage
+                + rid.getTupleNumber();
+        if (ref > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("no row reference for " + rid
+                    + ": the table has more than Integer.MAX_VALUE slots");
+        return (int) ref;
+    }
+
+    private final TransactionId tid;
+    private OpIterator child;
+    private final int[] tableIds;
+    private final String[] aliases;
+    private final int[][] columns;
+    private TupleDesc td;
+    // for each output field: the table it is fetched from, or -1 if it is
+    // passed through, and the field of that table or of the child
+    private int[] outTable;
+    private int[] outField;
+    // for each table: the field of the child holding its row reference
+    private int[] refField;
+    transient private int[] slotsPerPage;
+    transient private HeapPage[] pages;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            the transaction the pages are read in
+     * @param tableIds
+     *            the tables to fetch fields of
+     * @param aliases
+     *            the aliases the tables are scanned with
+     * @param columns
+     *            for each table, the fields to fetch, in order, or null for
+     *            all of them
+     * @param child
+     *            the operator whose tuples hold a row reference for each of
+     *            the tables
+     */
+    public Fetch(TransactionId tid, int[] tableIds, String[] aliases,
+            int[][] columns, OpIterator child) {
+        this.tid = tid;
+        this.tableIds = tableIds;
+        this.aliases = aliases;
+        this.columns = columns;
+        setChild(child);
+    }
+
+    private void setChild(OpIterator child) {
+        this.child = child;
+        TupleDesc in = child.getTupleDesc();
+        refField = new int[tableIds.length];
+        ArrayList<Integer> tables = new ArrayList<Integer>();
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        ArrayList<Type> types = new ArrayList<Type>();
+        ArrayList<String> names = new ArrayList<String>();
+        for (int i = 0; i < in.numFields(); i++) {
+            String name = in.getFieldName(i);
+            int table = tableOf(name);
+            if (table < 0) {
+                tables.add(-1);
+                fields.add(i);
+                types.add(in.getFieldType(i));
+                names.add(name);
+            } else if (name.equals(referenceName(aliases[table]))) {
+                refField[table] = i;
+                TupleDesc base = Database.getCatalog().getTupleDesc(
+                        tableIds[table]);
+                int n = columns[table] == null ? base.numFields()
+                        : columns[table].length;
+                for (int j = 0; j < n; j++) {
+                    int f = columns[table] == null ? j : columns[table][j];
+                    tables.add(table);
+                    fields.add(f);
+                    types.add(base.getFieldType(f));
+                    names.add(aliases[table] + "." + base.getFieldName(f));
+                }
+            }
+        }
+        outTable = new int[tables.size()];
+        outField = new int[tables.size()];
+        for (int i = 0; i < outTable.length; i++) {
+            outTable[i] = tables.get(i);
+            outField[i] = fields.get(i);
+        }
+        td = new TupleDesc(types.toArray(new Type[0]),
+                names.toArray(new String[0]));
+    }
+
+    /** @return the index of the table a field of the child belongs to, or -1 */
+    private int tableOf(String fieldName) {
+        if (fieldName == null)
+            return -1;
+        for (int i = 0; i < aliases.length; i++)
+            if (fieldName.startsWith(aliases[i] + "."))
+                return i;
+        return -1;
+    }
+
+    /** @return the aliases of the tables whose fields are fetched */
+    public String[] getAliases() {
+        return aliases;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        slotsPerPage = new int[tableIds.length];
+        for (int i = 0; i < tableIds.length; i++)
+            slotsPerPage[i] = HeapPage.slotsPerPage(
+                    Database.getCatalog().getTupleDesc(tableIds[i]));
+        pages = new HeapPage[tableIds.length];
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        pages = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    /**
+     * Reads the fetched fields of the next child tuple from the pages its
+     * row references point to. The last page read of each table is kept, so
+     * runs of rows from one page only look it up once.
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!child.hasNext())
+            return null;
+        Tuple t = child.next();
+        int[] slots = new int[tableIds.length];
+        for (int i = 0; i < tableIds.length; i++) {
+            int ref = ((IntField) t.getField(refField[i])).getValue();
+            int pageNo = ref / slotsPerPage[i];
+            slots[i] = ref % slotsPerPage[i];
+            if (pages[i] == null || pages[i].getId().getPageNumber() != pageNo)
+                pages[i] = (HeapPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(tableIds[i], pageNo),
+                        Permissions.READ_ONLY);
+        }
+        ArrayList<Field> values = new ArrayList<Field>(outTable.length);
+        for (int i = 0; i < outTable.length; i++) {
+            int table = outTable[i];
+            values.add(table < 0 ? t.getField(outField[i])
+                    : pages[table].getField(slots[table], outField[i]));
+        }
+        return new Tuple(td, values);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        setChild(children[0]);
+    }
+}
@@ -5,10 +5,14 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private Predicate p;
     private OpIterator child;
+    transient private BloomFilter runtimeFilter;
+    transient private int runtimeFilterField;
+    transient private BatchIterator input;
+    transient private CompiledPredicate test;
     private static final long serialVersionUID = 1L;
 
     /**
@@ -33,10 +37,36 @@ public class Filter extends Operator {
         return child.getTupleDesc();
     }
 
+    /**
+     * Sets a filter that every tuple must pass in addition to the predicate.
+     * Joins use this to drop tuples that cannot find a join partner; see
+     * {@link BloomFilter#attach}.
+     *
+     * @param field
+     *            the index of the field the filter is tested on
+     * @param filter
+     *            the filter, or null to remove it
+     */
+    public void setRuntimeFilter(int field, BloomFilter filter) {
+        this.runtimeFilterField = field;
+        this.runtimeFilter = filter;
+    }
+
+    /** @return the runtime filter set on this operator, or null */
+    public BloomFilter getRuntimeFilter() {
+        return runtimeFilter;
+    }
+
+    /** @return the index of the field the runtime filter is tested on */
+    public int getRuntimeFilterField() {
+        return runtimeFilterField;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         super.open();
         this.child.open();
+        this.test = CompiledPredicate.compile(p, child.getTupleDesc());
     }
 
     public void close() {
@@ -62,7 +92,10 @@ public class Filter extends Operator {
         try {
             while (true) {
                 Tuple nextTuple = child.next();
-                if (this.p.filter(nextTuple)) {
+                if (runtimeFilter != null && !runtimeFilter
+                        .mightContain(nextTuple.getField(runtimeFilterField)))
+                    continue;
+                if (test.test(nextTuple)) {
                     return nextTuple;
                 }
             }
@@ -71,6 +104,24 @@ public class Filter extends Operator {
         }
     }
 
+    /**
+     * Filters the child's batches in place, returning the first one that
+     * still has a selected row.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (input == null)
+            input = BatchAdapter.of(child);
+        TupleBatch batch;
+        while ((batch = input.nextBatch()) != null) {
+            if (runtimeFilter != null)
+                runtimeFilter.filter(batch, runtimeFilterField);
+            test.filter(batch);
+            if (batch.size() > 0)
+                return counted(batch);
+        }
+        return counted(null);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
@@ -80,6 +131,7 @@ public class Filter extends Operator {
     public void setChildren(OpIterator[] children) {
         if(this.child != children[0]) {
             this.child = children[0];
+            this.input = null;
         }
 
     }
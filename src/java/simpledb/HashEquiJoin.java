@@ -3,21 +3,81 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an equality join as a hybrid hash
+ * join with a memory budget.
+ * <p>
+ * The left child is the build side. Its tuples are hashed into a number of
+ * partitions, all of which start out in memory. Whenever the build side
+ * exceeds the budget, the largest resident partition is written to a
+ * {@link SpillFile} and later build tuples of that partition go straight to
+ * disk. The right child is then streamed once: tuples of resident partitions
+ * are probed immediately, tuples of spilled partitions are written to disk
+ * next to their build partition. Finally each spilled pair of partitions is
+ * joined by a nested HashEquiJoin that partitions with a different hash, so
+ * oversized partitions are split again. After {@link #MAX_LEVELS} rounds
+ * (e.g. heavy skew on one key) a partition is joined by loading the build
+ * side one memory-sized chunk at a time and rescanning the probe side.
+ * <p>
+ * If the build side fits in memory nothing is written to disk and this is a
+ * plain in-memory hash join.
+ * <p>
+ * The keys of the build side are also collected in a {@link BloomFilter}
+ * that is attached to the scan of the probe side, so most probe tuples
+ * without a partner are dropped in the scan instead of being passed up,
+ * probed or written to a spill file.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget of the build side, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+
+    /** Number of times a partition is re-partitioned before falling back. */
+    public static final int MAX_LEVELS = 3;
+
+    /** Upper bound on the number of partitions per level. */
+    static final int MAX_PARTITIONS = 64;
+
     private JoinPredicate pred;
     private OpIterator child1, child2;
     private TupleDesc comboTD;
+    private final int memoryPages;
+    private final int level;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    // build-side state, one entry per partition
+    transient private JoinHashTable[] tables;
+    transient private SpillFile[] buildFiles;
+    transient private SpillFile[] probeFiles;
+    transient private int resident;
+    transient private int spilledPartitions;
+    // keys of the whole build side, pushed down into the probe side
+    transient private BloomFilter buildFilter;
+    // chunked fallback: true while child1 still has unread tuples
+    transient private boolean moreChunks;
+
+    // partition-join phase
+    transient private int partition;
+    transient private HashEquiJoin partitionJoin;
+
+    // the build table and row of the next match for t2, or -1
+    transient private JoinHashTable matchTable;
+    transient private int matchRow;
+
+    // batch interface: the output batch and the probe batch being joined
+    transient private TupleBatch batch;
+    transient private BatchIterator probeInput;
+    transient private TupleBatch probeBatch;
+    transient private int probePos;
+    // true once the batch interface has read the probe side to its end
+    transient private boolean probeDone;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -26,9 +86,36 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor with an explicit memory budget for the build side.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join; this is the
+     *            build side
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param memoryPages
+     *            the number of pages worth of build tuples kept in memory
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+            int memoryPages) {
+        this(p, child1, child2, memoryPages, 0);
+    }
+
+    private HashEquiJoin(JoinPredicate p, OpIterator child1,
+            OpIterator child2, int memoryPages, int level) {
+        if (memoryPages < 1)
+            throw new IllegalArgumentException("memory budget must be at least one page");
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryPages = memoryPages;
+        this.level = level;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -39,7 +126,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -49,53 +136,193 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
+    public int getMemoryPages()
+    {
+        return this.memoryPages;
+    }
+
+    /**
+     * @return the number of build partitions that were written to disk by
+     *         this operator (not counting nested partition joins)
+     */
+    public int numSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    private int capacity() {
+        return memoryPages
+                * Math.max(1, BufferPool.getPageSize() / child1.getTupleDesc().getSize());
+    }
+
+    /**
+     * Maps a join key to a partition. Each level mixes the hash differently so
+     * a partition that is re-partitioned actually splits.
+     */
+    static int partitionOf(Field f, int level, int numPartitions) {
+        int h = f.hashCode() + level * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % numPartitions;
+    }
+
+    private void build() throws DbException, TransactionAbortedException {
+        int numPartitions = level < MAX_LEVELS
+                ? Math.max(2, Math.min(MAX_PARTITIONS, memoryPages - 1)) : 1;
+        Type keyType = child1.getTupleDesc().getFieldType(pred.getField1());
+        tables = new JoinHashTable[numPartitions];
+        for (int i = 0; i < numPartitions; i++)
+            tables[i] = JoinHashTable.create(keyType, pred.getField1());
+        buildFiles = new SpillFile[numPartitions];
+        probeFiles = new SpillFile[numPartitions];
+        resident = 0;
+        spilledPartitions = 0;
+        buildFilter = null;
+
+        if (level >= MAX_LEVELS) {
+            moreChunks = loadChunk();
+            return;
+        }
+
+        int capacity = capacity();
         while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+            Tuple t = child1.next();
+            Field key = t.getField(pred.getField1());
+            if (buildFilter != null)
+                buildFilter.add(key);
+            int p = partitionOf(key, level, numPartitions);
+            if (buildFiles[p] != null) {
+                buildFiles[p].add(t);
+                continue;
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            tables[p].add(t);
+            resident++;
+            if (resident > capacity)
+                spillLargestPartition();
         }
-        return cnt > 0;
+        useMemory((long) resident * child1.getTupleDesc().getSize());
+        for (SpillFile f : buildFiles)
+            if (f != null)
+                f.finishWriting();
+        if (level == 0) {
+            if (buildFilter == null)
+                startBuildFilter(resident);
+            BloomFilter.attach(child2, pred.getField2(), buildFilter);
+        }
+    }
 
+    /**
+     * Creates the runtime filter with the keys of all resident build tuples;
+     * later build tuples are added as they are read.
+     */
+    private void startBuildFilter(int expectedKeys) {
+        buildFilter = new BloomFilter(expectedKeys);
+        for (JoinHashTable table : tables)
+            if (table != null)
+                for (int row = 0; row < table.size(); row++)
+                    buildFilter.add(table.get(row).getField(pred.getField1()));
+    }
+
+    /**
+     * @return the filter of build-side keys handed to the probe side, or null
+     *         if the build side has not been read
+     */
+    public BloomFilter getRuntimeFilter() {
+        return buildFilter;
+    }
+
+    private void spillLargestPartition() throws DbException {
+        useMemory((long) resident * child1.getTupleDesc().getSize());
+        if (level == 0 && buildFilter == null)
+            // the build side does not fit; size the filter for a few budgets
+            startBuildFilter(4 * capacity());
+        int victim = -1;
+        for (int i = 0; i < tables.length; i++)
+            if (buildFiles[i] == null
+                    && (victim < 0 || tables[i].size() > tables[victim].size()))
+                victim = i;
+        SpillFile f = new SpillFile(child1.getTupleDesc(), "hashjoin");
+        JoinHashTable table = tables[victim];
+        for (int row = 0; row < table.size(); row++)
+            f.add(table.get(row));
+        buildFiles[victim] = f;
+        spilledPartitions++;
+        resident -= table.size();
+        tables[victim] = null;
+    }
+
+    /**
+     * Chunked fallback: loads at most one budget worth of build tuples into
+     * the single map.
+     *
+     * @return true if child1 has more tuples after this chunk
+     */
+    private boolean loadChunk() throws DbException, TransactionAbortedException {
+        int capacity = capacity();
+        tables[0].clear();
+        while (tables[0].size() < capacity && child1.hasNext())
+            tables[0].add(child1.next());
+        useMemory((long) tables[0].size() * child1.getTupleDesc().getSize());
+        return child1.hasNext();
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        build();
+        partition = -1;
+        matchRow = -1;
+        probeBatch = null;
+        probeDone = false;
         super.open();
     }
 
+    private void releaseState() {
+        if (partitionJoin != null)
+            partitionJoin.close();
+        partitionJoin = null;
+        for (SpillFile[] files : new SpillFile[][] { buildFiles, probeFiles })
+            if (files != null)
+                for (SpillFile f : files)
+                    if (f != null)
+                        f.delete();
+        buildFiles = null;
+        probeFiles = null;
+        tables = null;
+        matchTable = null;
+    }
+
     public void close() {
         super.close();
+        releaseState();
         child2.close();
         child1.close();
         this.t1=null;
         this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        this.matchRow=-1;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        matchRow = -1;
+        probeBatch = null;
+        probeDone = false;
+        if (numSpilledPartitions() == 0 && !moreChunks && level < MAX_LEVELS) {
+            // the whole build side is still in memory; only re-probe
+            child2.rewind();
+            partition = -1;
+            return;
+        }
+        releaseState();
         child1.rewind();
         child2.rewind();
+        build();
+        partition = -1;
     }
 
-    transient Iterator<Tuple> listIt = null;
-
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
@@ -110,55 +337,148 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
-
+    private Tuple processMatch() {
+        t1 = matchTable.get(matchRow);
+        matchRow = matchTable.next(matchRow);
+        return new JoinedTuple(comboTD, t1, t2);
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+        if (matchRow >= 0) {
+            return processMatch();
         }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
+        if (partition < 0) {
+            // stream child2 against the resident partitions, unless
+            // nextBatch has already read all of it
+            while (!probeDone && child2.hasNext()) {
+                t2 = child2.next();
+                Field key = t2.getField(pred.getField2());
+                int p = tables.length == 1 ? 0 : partitionOf(key, level, tables.length);
+                if (buildFiles[p] != null) {
+                    if (probeFiles[p] == null)
+                        probeFiles[p] = new SpillFile(child2.getTupleDesc(), "hashjoin");
+                    probeFiles[p].add(t2);
+                    continue;
+                }
+                matchRow = tables[p].first(key);
+                if (matchRow < 0)
+                    continue;
+                matchTable = tables[p];
+                return processMatch();
+            }
 
-            return processList();
+            if (moreChunks) {
+                // chunked fallback: next chunk of child1 against all of child2
+                moreChunks = loadChunk();
+                child2.rewind();
+                probeDone = false;
+                return fetchNext();
+            }
 
+            for (SpillFile f : probeFiles)
+                if (f != null)
+                    f.finishWriting();
+            partition = 0;
         }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+        // join the spilled partitions pairwise
+        while (partition < buildFiles.length) {
+            if (partitionJoin == null) {
+                if (buildFiles[partition] == null || probeFiles[partition] == null) {
+                    partition++;
+                    continue;
+                }
+                partitionJoin = new HashEquiJoin(pred,
+                        buildFiles[partition].scan(),
+                        probeFiles[partition].scan(), memoryPages, level + 1);
+                partitionJoin.open();
+            }
+            if (partitionJoin.hasNext())
+                return partitionJoin.next();
+            partitionJoin.close();
+            partitionJoin = null;
+            buildFiles[partition].delete();
+            buildFiles[partition] = null;
+            probeFiles[partition].delete();
+            probeFiles[partition] = null;
+            partition++;
         }
 
         return null;
     }
 
+    /**
+     * Returns the next batch of joined rows. While the probe side is
+     * streamed against the resident partitions it is read a batch at a time,
+     * with its join keys taken from the batch's key column; matches from
+     * spilled partitions are added as the row interface produces them.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch(comboTD);
+        batch.clear();
+        if (partition < 0 && !probeDone && level < MAX_LEVELS)
+            probeBatches();
+        Tuple t;
+        while (!batch.isFull() && (t = fetchNext()) != null)
+            batch.add(t);
+        return counted(batch.size() == 0 ? null : batch);
+    }
+
+    /**
+     * Joins probe batches with the resident partitions until the output
+     * batch is full or the probe side is exhausted. Probe rows of spilled
+     * partitions are written to disk as in {@link #fetchNext()}.
+     */
+    private void probeBatches() throws DbException, TransactionAbortedException {
+        if (probeInput == null)
+            probeInput = BatchAdapter.of(child2);
+        int keyField = pred.getField2();
+        while (true) {
+            if (probeBatch != null) {
+                Field[] keys = probeBatch.fieldColumn(keyField);
+                while (probePos < probeBatch.size()) {
+                    int row = probeBatch.row(probePos);
+                    if (matchRow < 0) {
+                        t2 = null;
+                        Field key = keys[row];
+                        int p = partitionOf(key, level, tables.length);
+                        if (buildFiles[p] != null) {
+                            if (probeFiles[p] == null)
+                                probeFiles[p] = new SpillFile(child2.getTupleDesc(), "hashjoin");
+                            probeFiles[p].add(probeBatch.getTuple(probePos));
+                            probePos++;
+                            continue;
+                        }
+                        matchTable = tables[p];
+                        matchRow = matchTable.first(key);
+                    }
+                    if (matchRow >= 0 && t2 == null)
+                        t2 = probeBatch.getTuple(probePos);
+                    while (matchRow >= 0) {
+                        if (batch.isFull())
+                            return;
+                        batch.add(new JoinedTuple(comboTD, matchTable.get(matchRow), t2));
+                        matchRow = matchTable.next(matchRow);
+                    }
+                    t2 = null;
+                    probePos++;
+                }
+            }
+            probeBatch = probeInput.nextBatch();
+            probePos = 0;
+            if (probeBatch == null) {
+                probeDone = true;
+                return;
+            }
+        }
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child1, this.child2};
@@ -168,6 +488,9 @@ public class HashEquiJoin extends Operator {
     public void setChildren(OpIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.probeInput = null;
+        this.batch = null;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
-    
+
 }
@@ -224,8 +224,9 @@ public class HeapFile implements DbFile, Serializable {
 
     private class HeapFileIterator implements DbFileIterator, Serializable {
         transient HeapPage page;
-        transient Iterator<Tuple> tupleIterator;
         int pageNumber;
+        // the next slot of page to look at
+        int slot;
         TransactionId tid;
 
         HeapFileIterator(TransactionId tid) {
@@ -234,54 +235,76 @@ public class HeapFile implements DbFile, Serializable {
         @Override
         public void open() throws DbException, TransactionAbortedException {
             pageNumber = 0;
+            slot = 0;
             HeapPageId heapPageId = new HeapPageId(getId(), pageNumber);
             page = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_ONLY);
-            tupleIterator = page.iterator();
         }
 
+        /**
+         * Moves slot to the next used slot, reading further pages as needed.
+         */
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
-            if(page == null || tupleIterator == null) {
+            if(page == null) {
                 return false;
             }
-            if(tupleIterator.hasNext()) {
-                return true;
-            } else {
-                while(pageNumber < numPages() - 1) {
-                    pageNumber ++;
-                    HeapPageId heapPageId = new HeapPageId(getId(), pageNumber);
-                    page = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_ONLY);
-                    tupleIterator = page.iterator();
-                    if(tupleIterator.hasNext()) {
-                        return true;
-                    }
+            while(true) {
+                while(slot < page.numSlots && !page.isSlotUsed(slot)) {
+                    slot ++;
                 }
-                return false;
+                if(slot < page.numSlots) {
+                    return true;
+                }
+                if(pageNumber >= numPages() - 1) {
+                    return false;
+                }
+                pageNumber ++;
+                slot = 0;
+                HeapPageId heapPageId = new HeapPageId(getId(), pageNumber);
+                page = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_ONLY);
             }
         }
 
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
             if(hasNext()) {
-                return tupleIterator.next();
+                return page.tuple(slot++);
             } else {
                 throw new NoSuchElementException("No elements found to return");
             }
         }
 
+        /**
+         * Copies whole runs of a page's tuples into the batch.
+         */
+        @Override
+        public void fill(TupleBatch batch) throws DbException, TransactionAbortedException {
+            while(!batch.isFull() && hasNext()) {
+                slot = page.addTuples(slot, batch);
+            }
+        }
+
+        /**
+         * Evaluates the filter on the bytes of each page; see
+         * {@link HeapPage#addTuples(int, PageFilter, TupleBatch)}.
+         */
+        @Override
+        public void fill(TupleBatch batch, PageFilter filter) throws DbException, TransactionAbortedException {
+            while(!batch.isFull() && hasNext()) {
+                slot = page.addTuples(slot, filter, batch);
+            }
+        }
+
         @Override
         public void rewind() throws DbException, TransactionAbortedException {
-            pageNumber = 0;
-            HeapPageId heapPageId = new HeapPageId(getId(), pageNumber);
-            page = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_ONLY);
-            tupleIterator = page.iterator();
+            open();
         }
 
         @Override
         public void close() {
             page = null;
-            tupleIterator = null;
             pageNumber = 0;
+            slot = 0;
         }
     }
 
@@ -18,6 +18,10 @@ public class HeapPage implements Page, Serializable {
     final byte header[];
     final Tuple tuples[];
     final int numSlots;
+    // the page as read, which the tuples are decoded from on first use; null
+    // once they have been, so a page does not hold its contents twice
+    volatile byte[] data;
+    private volatile boolean decoded;
     boolean dirtyMarker;
 
     byte[] oldData;
@@ -46,34 +50,91 @@ public class HeapPage implements Page, Serializable {
         this.numSlots = getNumTuples();
         dirtyMarker = false;
         dirtyingTransaction = null;
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        // read the header slots of this page; the tuples are decoded when
+        // first needed, see tuple()
+        header = Arrays.copyOf(data, getHeaderSize());
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        this.data = data;
 
         setBeforeImage();
     }
 
+    /**
+     * @return the tuple in slot i, decoding the tuples of the page if that
+     *         has not happened yet
+     */
+    Tuple tuple(int i) {
+        if (!decoded)
+            decodeAll();
+        return tuples[i];
+    }
+
+    private synchronized void decodeAll() {
+        if (decoded)
+            return;
+        byte[] d = data;
+        for (int i=0; i<tuples.length; i++)
+            if (isSlotUsed(i))
+                tuples[i] = readTuple(d, i);
+        decoded = true;
+        data = null;
+    }
+
+    /** @return the offset in data of the tuple in slot i */
+    private int offset(int i) {
+        return header.length + i * td.getSize();
+    }
+
+    /** Decodes the tuple in slot i from the bytes the page was read from. */
+    private Tuple readTuple(byte[] d, int slotId) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int off = offset(slotId);
+        for (int j=0; j<td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            t.setField(j, PageFilter.readField(type, d, off));
+            off += type.getLen();
+        }
+        return t;
+    }
+
+    /**
+     * @return field i of the tuple in slot, read from the bytes of the page
+     *         without decoding the rest of the tuple unless the page has
+     *         been decoded
+     */
+    Field getField(int slot, int i) {
+        byte[] d = data;
+        if (d == null)
+            return tuple(slot).getField(i);
+        int off = offset(slot);
+        for (int j=0; j<i; j++)
+            off += td.getFieldType(j).getLen();
+        return PageFilter.readField(td.getFieldType(i), d, off);
+    }
+
+    /**
+     * Called before the page is modified: decodes the tuples, which are
+     * the page's contents from then on.
+     */
+    private void modify() {
+        if (!decoded)
+            decodeAll();
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
+       return slotsPerPage(this.td);
+    }
+
+    /** @return the number of tuple slots on a page of a table with schema td */
+    static int slotsPerPage(TupleDesc td) {
        int pageSize = BufferPool.getPageSize();
-       int tupleSize = this.td.getSize();
+       int tupleSize = td.getSize();
        return (int)(Math.floor((pageSize * 8.0)/(tupleSize * 8.0 + 1)));
-
     }
 
     /**
@@ -117,40 +178,6 @@ public class HeapPage implements Page, Serializable {
         return this.pid;
     }
 
-    /**
-     * Suck up tuples from the source file.
-     */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
-        return t;
-    }
-
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -163,6 +190,9 @@ public class HeapPage implements Page, Serializable {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
+        byte[] d = data;
+        if (d != null)
+            return Arrays.copyOf(d, BufferPool.getPageSize());
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -250,6 +280,7 @@ public class HeapPage implements Page, Serializable {
         if(!isSlotUsed(tupleNumber) || !id.getPageId().equals(this.pid)) {
             throw new DbException("Tuple not on this page OR Incorrect page for this tuple");
         }
+        modify();
         markSlotUsed(tupleNumber, false);
     }
 
@@ -264,6 +295,7 @@ public class HeapPage implements Page, Serializable {
        if(!this.td.equals(t.getTupleDesc()) || getNumEmptySlots() == 0) {
            throw new DbException("Either no more space in this page or Tuple Descriptions don't match");
        }
+       modify();
        for(int i = 0; i < tuples.length; i ++) {
            if(!isSlotUsed(i)) {
                markSlotUsed(i, true);
@@ -324,6 +356,45 @@ public class HeapPage implements Page, Serializable {
        return getBitAtIndex(header[headerSlotPosition], i % 8) == 1;
     }
 
+    /**
+     * Adds the tuples of the used slots from slot onwards to batch, until the
+     * batch is full or the page ends.
+     *
+     * @return the slot after the last one looked at
+     */
+    int addTuples(int slot, TupleBatch batch) {
+        for (; slot < numSlots && !batch.isFull(); slot++)
+            if ((header[slot >> 3] & (1 << (slot & 7))) != 0)
+                batch.add(tuple(slot));
+        return slot;
+    }
+
+    /**
+     * Adds the tuples of the used slots from slot onwards that satisfy
+     * filter to batch, as filter returns them, until the batch is full or
+     * the page ends. Unless the page has been decoded, the tuples are
+     * tested and decoded straight from the bytes it was read from.
+     *
+     * @return the slot after the last one looked at
+     */
+    int addTuples(int slot, PageFilter filter, TupleBatch batch) {
+        byte[] d = data;
+        for (; slot < numSlots && !batch.isFull(); slot++) {
+            if ((header[slot >> 3] & (1 << (slot & 7))) == 0)
+                continue;
+            if (d != null) {
+                int off = offset(slot);
+                if (filter.matches(d, off))
+                    batch.add(filter.materialize(d, off, new RecordId(pid, slot)));
+            } else {
+                Tuple t = tuple(slot);
+                if (filter.matches(t))
+                    batch.add(filter.project(t));
+            }
+        }
+        return slot;
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
@@ -378,7 +449,7 @@ public class HeapPage implements Page, Serializable {
                         slotNumber = 0;
                         headerIndex ++;
                     }
-                    return tuples[positionFromStart];
+                    return tuple(positionFromStart);
                 }
                 throw new NoSuchElementException("No more elements to iterate through");
            }
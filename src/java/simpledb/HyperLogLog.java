@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * HyperLogLog is a sketch of the distinct values of a column: a few
+ * kilobytes from which their number is estimated, however many tuples were
+ * added, to within about 1.04 / sqrt(2^precision) (1.6% with the default
+ * precision).
+ * <p>
+ * Each value is hashed to 64 bits; the first bits of the hash pick one of
+ * 2^precision registers, which keeps the longest run of leading zeros seen
+ * in the rest. Sketches of the same precision are merged by keeping the
+ * larger of each pair of registers, and the merge is the sketch of the
+ * union of the values, so the sketches of the parts of a table, read by
+ * different workers or held in different partitions, combine into the
+ * sketch of the whole. Values cannot be removed.
+ */
+public class HyperLogLog {
+
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int precision;
+    private final byte[] registers;
+    // the sum of 2^-register over the registers, and the number of them
+    // still zero, kept as the registers change so estimating is cheap
+    private double sum;
+    private int zeros;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision
+     *            the log2 of the number of registers, from 4 to 16
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16)
+            throw new IllegalArgumentException("precision must be from 4 to 16");
+        this.precision = precision;
+        registers = new byte[1 << precision];
+        sum = registers.length;
+        zeros = registers.length;
+    }
+
+    /** Reads a sketch written by {@link #write}. */
+    public static HyperLogLog read(DataInput in) throws IOException {
+        int precision = in.readByte();
+        if (precision < 4 || precision > 16)
+            throw new IOException("bad sketch precision " + precision);
+        HyperLogLog h = new HyperLogLog(precision);
+        in.readFully(h.registers);
+        h.recount();
+        return h;
+    }
+
+    public synchronized void write(DataOutput out) throws IOException {
+        out.writeByte(precision);
+        out.write(registers);
+    }
+
+    /** @return a copy of this sketch */
+    public synchronized HyperLogLog copy() {
+        HyperLogLog h = new HyperLogLog(precision);
+        System.arraycopy(registers, 0, h.registers, 0, registers.length);
+        h.sum = sum;
+        h.zeros = zeros;
+        return h;
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @return true if the sketch changed, and so may the estimate
+     */
+    public synchronized boolean add(Field f) {
+        return addHash(hash(f));
+    }
+
+    private boolean addHash(long hash) {
+        int r = (int) (hash >>> (64 - precision));
+        // the rank of the first 1 bit of the rest, counting from 1; a rest of
+        // all zeros counts as one past its length
+        long rest = hash << precision | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank <= registers[r])
+            return false;
+        set(r, rank);
+        return true;
+    }
+
+    private void set(int r, byte rank) {
+        if (registers[r] == 0)
+            zeros--;
+        sum += Math.scalb(1.0, -rank) - Math.scalb(1.0, -registers[r]);
+        registers[r] = rank;
+    }
+
+    private void recount() {
+        sum = 0;
+        zeros = 0;
+        for (byte b : registers) {
+            sum += Math.scalb(1.0, -b);
+            if (b == 0)
+                zeros++;
+        }
+    }
+
+    /**
+     * Adds the values of another sketch, which must have the same precision
+     * and must not be changing.
+     */
+    public synchronized void merge(HyperLogLog other) {
+        if (other.precision != precision)
+            throw new IllegalArgumentException("sketches of different precision");
+        for (int r = 0; r < registers.length; r++)
+            if (other.registers[r] > registers[r])
+                set(r, other.registers[r]);
+        // the running sum drifts as registers are replaced
+        recount();
+    }
+
+    /** @return the estimated number of distinct values added */
+    public synchronized double estimate() {
+        int m = registers.length;
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709
+                : 0.7213 / (1 + 1.079 / m);
+        double e = alpha * m * m / sum;
+        // few values leave registers empty; count those instead
+        if (e <= 2.5 * m && zeros > 0)
+            return m * Math.log((double) m / zeros);
+        return e;
+    }
+
+    /** @return a 64-bit hash of a field, mixed so every bit depends on all */
+    static long hash(Field f) {
+        long h;
+        if (f instanceof IntField) {
+            h = ((IntField) f).getValue();
+        } else {
+            // FNV-1a over the characters
+            String s = ((StringField) f).getValue();
+            h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+        }
+        // the finalizer of MurmurHash3
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53a87bbL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -4,24 +4,52 @@ package simpledb;
  */
 public class IntHistogram {
 
+    private final int min, max;
+    // every bucket covers width integers; the last one may cover fewer
+    private final long width;
+    private final int[] heights;
+    private int ntups;
+
     /**
      * Create a new IntHistogram.
-     * 
+     *
      * This IntHistogram should maintain a histogram of integer values that it receives.
      * It should split the histogram into "buckets" buckets.
-     * 
+     *
      * The values that are being histogrammed will be provided one-at-a-time through the "addValue()" function.
-     * 
+     *
      * Your implementation should use space and have execution time that are both
-     * constant with respect to the number of values being histogrammed.  For example, you shouldn't 
+     * constant with respect to the number of values being histogrammed.  For example, you shouldn't
      * simply store every value that you see in a sorted list.
-     * 
+     *
      * @param buckets The number of buckets to split the input value into.
      * @param min The minimum integer value that will ever be passed to this class for histogramming
      * @param max The maximum integer value that will ever be passed to this class for histogramming
      */
     public IntHistogram(int buckets, int min, int max) {
-    	// some code goes here
+        if (max < min) {
+            // no values at all; keep one empty bucket
+            max = min;
+        }
+        this.min = min;
+        this.max = max;
+        long range = (long) max - min + 1;
+        width = (range + buckets - 1) / buckets;
+        heights = new int[(int) ((range + width - 1) / width)];
+    }
+
+    private int bucket(int v) {
+        return (int) (((long) v - min) / width);
+    }
+
+    /** @return the smallest value in bucket b */
+    private long low(int b) {
+        return min + b * width;
+    }
+
+    /** @return the number of integers bucket b covers */
+    private long bucketWidth(int b) {
+        return Math.min(width, (long) max - low(b) + 1);
     }
 
     /**
@@ -29,44 +57,104 @@ public class IntHistogram {
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
-    	// some code goes here
+        if (v < min || v > max)
+            return;
+        heights[bucket(v)]++;
+        ntups++;
     }
 
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
-     * 
-     * For example, if "op" is "GREATER_THAN" and "v" is 5, 
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5,
      * return your estimate of the fraction of elements that are greater than 5.
-     * 
+     *
      * @param op Operator
      * @param v Value
      * @return Predicted selectivity of this particular operator and value
      */
     public double estimateSelectivity(Predicate.Op op, int v) {
+        if (ntups == 0)
+            return 0.0;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return equal(v);
+        case NOT_EQUALS:
+            return 1.0 - equal(v);
+        case GREATER_THAN:
+            return greater(v);
+        case GREATER_THAN_OR_EQ:
+            return greater(v) + equal(v);
+        case LESS_THAN:
+            return less(v);
+        case LESS_THAN_OR_EQ:
+            return less(v) + equal(v);
+        default:
+            throw new UnsupportedOperationException("unknown operator " + op);
+        }
+    }
+
+    private double equal(int v) {
+        if (v < min || v > max)
+            return 0.0;
+        int b = bucket(v);
+        return (double) heights[b] / bucketWidth(b) / ntups;
+    }
 
-    	// some code goes here
-        return -1.0;
+    private double greater(int v) {
+        if (v < min)
+            return 1.0;
+        if (v >= max)
+            return 0.0;
+        int b = bucket(v);
+        long above = low(b) + bucketWidth(b) - 1 - v;
+        double n = (double) heights[b] * above / bucketWidth(b);
+        for (int i = b + 1; i < heights.length; i++)
+            n += heights[i];
+        return n / ntups;
     }
-    
+
+    private double less(int v) {
+        if (v <= min)
+            return 0.0;
+        if (v > max)
+            return 1.0;
+        int b = bucket(v);
+        double n = (double) heights[b] * (v - low(b)) / bucketWidth(b);
+        for (int i = 0; i < b; i++)
+            n += heights[i];
+        return n / ntups;
+    }
+
     /**
      * @return
      *     the average selectivity of this histogram.
-     *     
+     *
      *     This is not an indispensable method to implement the basic
      *     join optimization. It may be needed if you want to
      *     implement a more efficient optimization
      * */
     public double avgSelectivity()
     {
-        // some code goes here
-        return 1.0;
+        if (ntups == 0)
+            return 1.0;
+        // the chance that a random value of the field equals another one,
+        // assuming the values of a bucket are spread evenly over its width
+        double sum = 0;
+        for (int b = 0; b < heights.length; b++)
+            sum += (double) heights[b] * heights[b] / bucketWidth(b);
+        return sum / ((double) ntups * ntups);
     }
-    
+
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
-        // some code goes here
-        return null;
+        StringBuilder sb = new StringBuilder("IntHistogram[" + min + ".." + max
+                + ", width " + width + ", " + ntups + " values:");
+        for (int h : heights)
+            sb.append(' ').append(h);
+        return sb.append(']').toString();
     }
 }
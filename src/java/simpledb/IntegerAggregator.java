@@ -107,35 +107,7 @@ public class IntegerAggregator implements Aggregator {
             } else {
                 Field value = tup.getField(this.gbfield);
                 Field aggregate = tup.getField(this.afield);
-                int aggregate_value = Integer.valueOf(aggregate.toString());
-                if (!storage.containsKey(value)) {
-                    if (what == Op.COUNT) {
-                        storage.put(value, 1);
-                    } else if (what == Op.AVG || what == Op.SUM_COUNT) {
-                        storage.put(value, aggregate_value);
-                        countStorer.put(value, 1);
-                    } else {
-                        storage.put(value, aggregate_value);
-                    }
-                } else {
-                    Integer stored_val = storage.get(value);
-                    if (what == Op.MIN) {
-                        if (stored_val > aggregate_value) {
-                            storage.put(value, aggregate_value);
-                        }
-                    } else if (what == Op.MAX) {
-                        if (stored_val < aggregate_value) {
-                            storage.put(value, aggregate_value);
-                        }
-                    } else if (what == Op.SUM) {
-                        storage.put(value, stored_val + aggregate_value);
-                    } else if (what == Op.COUNT) {
-                        storage.put(value, storage.get(value) + 1);
-                    } else if (what == Op.AVG || what == Op.SUM_COUNT) {
-                        storage.put(value, stored_val + aggregate_value);
-                        countStorer.put(value, countStorer.get(value) + 1);
-                    }
-                }
+                mergeIntoGroup(value, ((IntField) aggregate).getValue());
             }
         } else {
             if(what == Op.SC_AVG) {
@@ -151,32 +123,91 @@ public class IntegerAggregator implements Aggregator {
                 }
             }
             Field aggregate = tup.getField(this.afield);
-            int aggregate_value = Integer.valueOf(aggregate.toString());
-            if(!initialized) {
-                if(what == Op.COUNT) {
-                    nonGroupStore = 1;
-                } else {
-                    nonGroupStore = aggregate_value;
+            mergeIntoTotal(((IntField) aggregate).getValue());
+        }
+    }
+
+    /**
+     * Merges the int columns of a batch directly, without building tuples.
+     * Partial averages (SC_AVG) are merged a tuple at a time.
+     */
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        if (what == Op.SC_AVG) {
+            Aggregator.super.mergeBatchIntoGroup(batch);
+            return;
+        }
+        if (batch.size() == 0)
+            return;
+        aggregateColumn = batch.getTupleDesc().getFieldName(this.afield);
+        int[] values = batch.intColumn(this.afield);
+        if (this.gbfield != NO_GROUPING) {
+            Field[] groups = batch.fieldColumn(this.gbfield);
+            for (int i = 0; i < batch.size(); i++) {
+                int row = batch.row(i);
+                mergeIntoGroup(groups[row], values[row]);
+            }
+        } else {
+            for (int i = 0; i < batch.size(); i++)
+                mergeIntoTotal(values[batch.row(i)]);
+        }
+    }
+
+    private void mergeIntoGroup(Field value, int aggregate_value) {
+        Integer stored_val = storage.get(value);
+        if (stored_val == null) {
+            if (what == Op.COUNT) {
+                storage.put(value, 1);
+            } else if (what == Op.AVG || what == Op.SUM_COUNT) {
+                storage.put(value, aggregate_value);
+                countStorer.put(value, 1);
+            } else {
+                storage.put(value, aggregate_value);
+            }
+        } else {
+            if (what == Op.MIN) {
+                if (stored_val > aggregate_value) {
+                    storage.put(value, aggregate_value);
                 }
-                totalNumber = 1;
-                initialized = true;
+            } else if (what == Op.MAX) {
+                if (stored_val < aggregate_value) {
+                    storage.put(value, aggregate_value);
+                }
+            } else if (what == Op.SUM) {
+                storage.put(value, stored_val + aggregate_value);
+            } else if (what == Op.COUNT) {
+                storage.put(value, stored_val + 1);
+            } else if (what == Op.AVG || what == Op.SUM_COUNT) {
+                storage.put(value, stored_val + aggregate_value);
+                countStorer.put(value, countStorer.get(value) + 1);
+            }
+        }
+    }
+
+    private void mergeIntoTotal(int aggregate_value) {
+        if(!initialized) {
+            if(what == Op.COUNT) {
+                nonGroupStore = 1;
             } else {
-                if(what == Op.MIN) {
-                    if(aggregate_value < nonGroupStore) {
-                        nonGroupStore = aggregate_value;
-                    }
-                } else if(what == Op.MAX) {
-                    if(aggregate_value > nonGroupStore) {
-                        nonGroupStore = aggregate_value;
-                    }
-                } else if(what == Op.SUM) {
-                    nonGroupStore += aggregate_value;
-                } else if(what == Op.COUNT) {
-                    nonGroupStore += 1;
-                } else if(what == Op.AVG || what == Op.SUM_COUNT) {
-                    nonGroupStore += aggregate_value;
-                    totalNumber += 1;
+                nonGroupStore = aggregate_value;
+            }
+            totalNumber = 1;
+            initialized = true;
+        } else {
+            if(what == Op.MIN) {
+                if(aggregate_value < nonGroupStore) {
+                    nonGroupStore = aggregate_value;
+                }
+            } else if(what == Op.MAX) {
+                if(aggregate_value > nonGroupStore) {
+                    nonGroupStore = aggregate_value;
                 }
+            } else if(what == Op.SUM) {
+                nonGroupStore += aggregate_value;
+            } else if(what == Op.COUNT) {
+                nonGroupStore += 1;
+            } else if(what == Op.AVG || what == Op.SUM_COUNT) {
+                nonGroupStore += aggregate_value;
+                totalNumber += 1;
             }
         }
     }
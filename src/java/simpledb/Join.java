@@ -5,15 +5,31 @@ import java.util.*;
 /**
  * The Join operator implements the relational join operation.
  * Anupam Gupta
+ * <p>
+ * It is a block nested-loops join: the outer child is read one block of
+ * tuples at a time, and the inner child is scanned once per block instead of
+ * once per outer tuple. A block holds as many outer tuples as fit in the
+ * configured number of pages, so the inner relation is scanned
+ * |outer| / (tuples per block) times. Any predicate can be evaluated, which
+ * makes this the join of choice when neither hashing nor sorting applies.
  */
 public class Join extends Operator {
 
+    /** Default size of an outer block, in pages. */
+    public static final int DEFAULT_BLOCK_PAGES = 256;
+
     private OpIterator child1;
     private OpIterator child2;
     private JoinPredicate p;
-    private List<Tuple> joinedTuples;
-    private boolean computed;
-    private Iterator<Tuple> tuplesIterator;
+    private TupleDesc comboTD;
+    private final int blockPages;
+    private ArrayList<Tuple> block;
+    private int blockPos;
+    private Tuple innerTuple;
+    private int innerScans;
+    // keys of the current block, pushed down into the inner scan
+    transient private BloomFilter blockFilter;
+    transient private CompiledJoinPredicate test;
     private static final long serialVersionUID = 1L;
 
     /**
@@ -28,12 +44,31 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor with an explicit outer block size.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockPages
+     *            the number of pages worth of outer tuples joined per scan of
+     *            the inner relation
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2,
+            int blockPages) {
+        if (blockPages < 1)
+            throw new IllegalArgumentException("block must be at least one page");
         this.child1 = child1;
         this.child2 = child2;
         this.p = p;
-        this.joinedTuples = new ArrayList<Tuple>();
-        computed = false;
-        tuplesIterator = null;
+        this.blockPages = blockPages;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -64,12 +99,38 @@ public class Join extends Operator {
         return name;
     }
 
+    /** @return the size of an outer block, in pages */
+    public int getBlockPages() {
+        return this.blockPages;
+    }
+
+    /** @return the number of outer tuples buffered per scan of the inner */
+    public int getBlockTuples() {
+        return blockTuples(blockPages, child1.getTupleDesc());
+    }
+
+    /**
+     * @return the number of tuples of the given schema that fit in the given
+     *         number of pages
+     */
+    public static int blockTuples(int pages, TupleDesc td) {
+        return pages * Math.max(1, BufferPool.getPageSize() / td.getSize());
+    }
+
+    /**
+     * @return the number of times the inner child has been scanned since the
+     *         join was opened or rewound
+     */
+    public int numInnerScans() {
+        return this.innerScans;
+    }
+
     /**
      * @see simpledb.TupleDesc#merge(TupleDesc, TupleDesc) for possible
      *      implementation logic.
      */
     public TupleDesc getTupleDesc() {
-        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return comboTD;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -77,24 +138,69 @@ public class Join extends Operator {
         super.open();
         this.child1.open();
         this.child2.open();
-        //this.next = null;
-        this.computed = false;
-        this.joinedTuples = new ArrayList<Tuple>();
-        tuplesIterator = null;
+        this.block = new ArrayList<Tuple>();
+        this.innerScans = 0;
+        this.test = CompiledJoinPredicate.compile(p, child1.getTupleDesc(),
+                child2.getTupleDesc());
+        loadBlock();
     }
 
     public void close() {
         super.close();
         this.child1.close();
         this.child2.close();
-        this.computed = false;
-        this.joinedTuples = null;
-        tuplesIterator = null;
+        this.block = null;
+        this.innerTuple = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         this.child1.rewind();
         this.child2.rewind();
+        this.innerScans = 0;
+        loadBlock();
+    }
+
+    /**
+     * Reads the next block of outer tuples and starts a new scan of the inner
+     * child over it.
+     *
+     * @return false if the outer child is exhausted
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        int size = getBlockTuples();
+        block.clear();
+        while (block.size() < size && child1.hasNext())
+            block.add(child1.next());
+        useMemory((long) block.size() * child1.getTupleDesc().getSize());
+        innerTuple = null;
+        if (block.isEmpty())
+            return false;
+        if (p.getOperator() == Predicate.Op.EQUALS)
+            filterInner();
+        if (innerScans > 0)
+            child2.rewind();
+        innerScans++;
+        return true;
+    }
+
+    /**
+     * For an equi-join, builds a filter of the block's keys and attaches it
+     * to the inner child so inner tuples without a partner in the block are
+     * dropped by the scan.
+     */
+    private void filterInner() {
+        if (blockFilter == null)
+            blockFilter = new BloomFilter(block.size());
+        else
+            blockFilter.clear();
+        for (Tuple t : block)
+            blockFilter.add(t.getField(p.getField1()));
+        BloomFilter.attach(child2, p.getField2(), blockFilter);
+    }
+
+    /** @return the filter of outer keys handed to the inner child, or null */
+    public BloomFilter getRuntimeFilter() {
+        return blockFilter;
     }
 
     /**
@@ -116,39 +222,22 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if(!computed) {
-            List<Tuple> tuplesFromFirstRelation = new ArrayList<Tuple>();
-            List<Tuple> tuplesFromSecondRelation = new ArrayList<Tuple>();
-            while(child1.hasNext()) {
-                tuplesFromFirstRelation.add(child1.next());
-            }
-            while(child2.hasNext()) {
-                tuplesFromSecondRelation.add(child2.next());
-            }
-            for(Tuple tuple : tuplesFromFirstRelation) {
-                for(Tuple secondTuple : tuplesFromSecondRelation) {
-                    if(p.filter(tuple, secondTuple)) {
-                        TupleDesc combined = this.getTupleDesc();
-                        Tuple combinedTuple = new Tuple(combined);
-                        int index = 0;
-                        for(int i = 0; i < tuple.getTupleDesc().numFields(); i++) {
-                            combinedTuple.setField(index++, tuple.getField(i));
-                        }
-                        for(int j = 0; j < secondTuple.getTupleDesc().numFields(); j++) {
-                            combinedTuple.setField(index++, secondTuple.getField(j));
-                        }
-                        this.joinedTuples.add(combinedTuple);
-                    }
+        while (!block.isEmpty()) {
+            if (innerTuple != null) {
+                while (blockPos < block.size()) {
+                    Tuple tuple = block.get(blockPos++);
+                    if (test.test(tuple, innerTuple))
+                        return new JoinedTuple(comboTD, tuple, innerTuple);
                 }
             }
-            computed = true;
-            this.tuplesIterator = joinedTuples.iterator();
-        }
-        if(this.tuplesIterator.hasNext()) {
-            return this.tuplesIterator.next();
-        } else {
-            return null;
+            if (child2.hasNext()) {
+                innerTuple = child2.next();
+                blockPos = 0;
+            } else if (!loadBlock()) {
+                return null;
+            }
         }
+        return null;
     }
 
     @Override
@@ -164,6 +253,7 @@ public class Join extends Operator {
         if (this.child2 != children[1]) {
             this.child2 = children[1];
         }
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
 }
@@ -0,0 +1,207 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * JoinHashTable is the build side of a hash join: a multimap from the value
+ * of one field to the tuples that have that value.
+ * <p>
+ * Tuples are stored in insertion order in an array and are addressed by
+ * their row number. Rows with the same key form a chain through an int array
+ * of successors, so adding a tuple allocates nothing but the occasional
+ * array growth, and probing walks row numbers instead of an iterator over a
+ * bucket list. A probe looks like this:
+ *
+ * <pre>
+ * for (int row = table.first(key); row &gt;= 0; row = table.next(row))
+ *     ... table.get(row) ...
+ * </pre>
+ *
+ * Use {@link #create} to get a table for a key type: INT_TYPE keys are
+ * handled by an open-addressing table over primitive ints that neither boxes
+ * keys nor calls {@link Field#hashCode()} or {@link Field#equals(Object)};
+ * other types map keys to their first row with a HashMap.
+ */
+public abstract class JoinHashTable {
+
+    private static final int INITIAL_ROWS = 16;
+
+    /** The index of the key field in the stored tuples. */
+    protected final int keyField;
+
+    private Tuple[] rows = new Tuple[INITIAL_ROWS];
+    private int[] successors = new int[INITIAL_ROWS];
+    private int size;
+
+    protected JoinHashTable(int keyField) {
+        this.keyField = keyField;
+    }
+
+    /**
+     * Returns an empty table for tuples keyed on the given field.
+     *
+     * @param keyType
+     *            the type of the key field
+     * @param keyField
+     *            the index of the key field in the stored tuples
+     */
+    public static JoinHashTable create(Type keyType, int keyField) {
+        if (keyType == Type.INT_TYPE)
+            return new IntKeyed(keyField);
+        return new FieldKeyed(keyField);
+    }
+
+    /** @return the number of tuples in the table */
+    public int size() {
+        return size;
+    }
+
+    /** @return the tuple stored at the given row */
+    public Tuple get(int row) {
+        return rows[row];
+    }
+
+    /**
+     * Adds a tuple to the table.
+     */
+    public void add(Tuple t) {
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+            successors = Arrays.copyOf(successors, size * 2);
+        }
+        rows[size] = t;
+        successors[size] = link(t.getField(keyField), size);
+        size++;
+    }
+
+    /**
+     * @return the first row whose key equals key, or -1 if there is none
+     */
+    public abstract int first(Field key);
+
+    /**
+     * @return the row after the given one with the same key, or -1 if it was
+     *         the last one
+     */
+    public int next(int row) {
+        return successors[row];
+    }
+
+    /** Removes all tuples from the table. */
+    public void clear() {
+        Arrays.fill(rows, 0, size, null);
+        size = 0;
+        clearKeys();
+    }
+
+    /**
+     * Makes row the first row of key's chain.
+     *
+     * @return the previous first row of the chain, or -1
+     */
+    protected abstract int link(Field key, int row);
+
+    protected abstract void clearKeys();
+
+    /** Open addressing with linear probing over primitive int keys. */
+    private static final class IntKeyed extends JoinHashTable {
+        private int[] keys = new int[INITIAL_ROWS * 2];
+        // first row of each slot's chain, or -1 if the slot is empty
+        private int[] heads = newHeads(INITIAL_ROWS * 2);
+        private int mask = INITIAL_ROWS * 2 - 1;
+        private int shift = 32 - Integer.numberOfTrailingZeros(INITIAL_ROWS * 2);
+        private int used;
+
+        IntKeyed(int keyField) {
+            super(keyField);
+        }
+
+        private static int[] newHeads(int n) {
+            int[] h = new int[n];
+            Arrays.fill(h, -1);
+            return h;
+        }
+
+        private int slot(int key) {
+            // Fibonacci hashing: multiply and keep the high bits
+            return (key * 0x9E3779B9) >>> shift;
+        }
+
+        public int first(Field key) {
+            return first(((IntField) key).getValue());
+        }
+
+        /**
+         * @return the first row whose key equals key, or -1 if there is none
+         */
+        public int first(int key) {
+            for (int s = slot(key);; s = (s + 1) & mask) {
+                int h = heads[s];
+                if (h < 0 || keys[s] == key)
+                    return h;
+            }
+        }
+
+        protected int link(Field f, int row) {
+            if (2 * (used + 1) > keys.length)
+                grow();
+            int key = ((IntField) f).getValue();
+            int s = slot(key);
+            while (heads[s] >= 0 && keys[s] != key)
+                s = (s + 1) & mask;
+            int prev = heads[s];
+            if (prev < 0) {
+                keys[s] = key;
+                used++;
+            }
+            heads[s] = row;
+            return prev;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldHeads = heads;
+            keys = new int[oldKeys.length * 2];
+            heads = newHeads(oldKeys.length * 2);
+            mask = keys.length - 1;
+            shift--;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldHeads[i] < 0)
+                    continue;
+                int s = slot(oldKeys[i]);
+                while (heads[s] >= 0)
+                    s = (s + 1) & mask;
+                keys[s] = oldKeys[i];
+                heads[s] = oldHeads[i];
+            }
+        }
+
+        protected void clearKeys() {
+            Arrays.fill(heads, -1);
+            used = 0;
+        }
+    }
+
+    /** Any key type: a HashMap from key to the first row of its chain. */
+    private static final class FieldKeyed extends JoinHashTable {
+        private final HashMap<Field, Integer> heads = new HashMap<Field, Integer>();
+
+        FieldKeyed(int keyField) {
+            super(keyField);
+        }
+
+        public int first(Field key) {
+            Integer h = heads.get(key);
+            return h == null ? -1 : h;
+        }
+
+        protected int link(Field key, int row) {
+            Integer prev = heads.put(key, row);
+            return prev == null ? -1 : prev;
+        }
+
+        protected void clearKeys() {
+            heads.clear();
+        }
+    }
+}
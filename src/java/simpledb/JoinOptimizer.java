@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.awt.GraphicsEnvironment;
 import java.util.*;
 
 import javax.swing.*;
@@ -14,6 +15,20 @@ public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
+    /**
+     * The most tables whose plans can be enumerated; {@link PlanCache} keeps
+     * a plan for every subset of them.
+     */
+    static final int MAX_DP_TABLES = 20;
+
+    /**
+     * By default, joins among more tables than this are ordered greedily:
+     * enumerating the plans of n tables takes time in 3^n.
+     */
+    static final int DEFAULT_MAX_DP_JOINS = 10;
+
+    private int maxDpJoins = DEFAULT_MAX_DP_JOINS;
+
     /**
      * Constructor
      * 
@@ -68,12 +83,45 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        LogicalJoinNode.Algorithm algorithm = lj.algorithm;
+        if (lj instanceof LogicalSubplanJoinNode)
+            algorithm = LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOP;
+        else if (algorithm == null)
+            algorithm = defaultAlgorithm(lj.p);
+
+        int memoryPages = CostModel.getDefault().getMemoryPages();
+        switch (algorithm) {
+        case HASH:
+            j = new HashEquiJoin(p, plan1, plan2, memoryPages);
+            break;
+        case SORT_MERGE:
+            j = new SortMergeJoin(p, plan1, plan2, memoryPages);
+            break;
+        case NESTED_LOOP:
+            j = new Join(p, plan1, plan2, 1);
+            break;
+        default:
+            j = new Join(p, plan1, plan2, memoryPages);
+            break;
+        }
 
         return j;
 
     }
 
+    /**
+     * The join algorithm used for a join that has not been costed: hash join
+     * for equality, sort-merge join for the other comparisons it supports and
+     * block nested loops for everything else.
+     */
+    static LogicalJoinNode.Algorithm defaultAlgorithm(Predicate.Op op) {
+        if (op == Predicate.Op.EQUALS)
+            return LogicalJoinNode.Algorithm.HASH;
+        if (SortMergeJoin.supports(op))
+            return LogicalJoinNode.Algorithm.SORT_MERGE;
+        return LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOP;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -83,6 +131,13 @@ public class JoinOptimizer {
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
      * 
+     * Every join algorithm that can evaluate the predicate of j is priced by
+     * the {@link CostModel#getDefault() cost model}: nested loops, block
+     * nested loops with a block the size of the memory budget, hash join for
+     * equality and sort-merge join for the comparisons it supports. The
+     * cheapest is recorded in {@link LogicalJoinNode#algorithm}, so the join
+     * is later instantiated with the algorithm it was costed for.
+     * 
      * 
      * @param j
      *            A LogicalJoinNode representing the join operation being
@@ -107,14 +162,51 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            CostModel costs = CostModel.getDefault();
+            double pages1 = CostModel.pages(card1, tupleSize(j.t1Alias));
+            double pages2 = CostModel.pages(card2, tupleSize(j.t2Alias));
+            LogicalJoinNode.Algorithm best = LogicalJoinNode.Algorithm.NESTED_LOOP;
+            double bestCost = costs.nestedLoopJoinCost(card1, card2, cost1,
+                    cost2, pages1, 1);
+            double c = costs.nestedLoopJoinCost(card1, card2, cost1, cost2,
+                    pages1, costs.getMemoryPages());
+            if (c < bestCost) {
+                best = LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOP;
+                bestCost = c;
+            }
+            if (j.p == Predicate.Op.EQUALS) {
+                c = costs.hashJoinCost(card1, card2, cost1, cost2, pages1,
+                        pages2);
+                if (c < bestCost) {
+                    best = LogicalJoinNode.Algorithm.HASH;
+                    bestCost = c;
+                }
+            }
+            if (SortMergeJoin.supports(j.p)) {
+                c = costs.sortMergeJoinCost(card1, card2, cost1, cost2,
+                        pages1, pages2);
+                if (c < bestCost) {
+                    best = LogicalJoinNode.Algorithm.SORT_MERGE;
+                    bestCost = c;
+                }
+            }
+            j.algorithm = best;
+            return bestCost;
         }
     }
 
+    /**
+     * The size of a tuple of the base table of a join side (an intermediate
+     * result is wider, so this is a lower bound), or of a whole page if the
+     * table is unknown.
+     */
+    private int tupleSize(String alias) {
+        Integer id = p == null ? null : p.getTableId(alias);
+        if (id == null)
+            return BufferPool.getPageSize();
+        return Database.getCatalog().getTupleDesc(id).getSize();
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -149,53 +241,100 @@ public class JoinOptimizer {
 
     /**
      * Estimate the join cardinality of two tables.
+     * 
+     * An equality join on the primary key of one side returns at most one
+     * tuple per tuple of the other side. Otherwise the fraction of the pairs
+     * of tuples that match is estimated by comparing the histograms of the
+     * join fields, common value by common value; without histograms, each
+     * tuple is assumed to match the tuples of the other side that share its
+     * value, out of the larger of the two numbers of distinct values. Range
+     * joins are assumed to return 30% of the cross product.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
             String table1Alias, String table2Alias, String field1PureName,
             String field2PureName, int card1, int card2, boolean t1pkey,
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
-        int card = 1;
-        // some code goes here
-        return card <= 0 ? 1 : card;
-    }
-
-    /**
-     * Helper method to enumerate all of the subsets of a given size of a
-     * specified vector.
-     * 
-     * @param v
-     *            The vector whose subsets are desired
-     * @param size
-     *            The size of the subsets of interest
-     * @return a set of all subsets of the specified size
-     */
-    @SuppressWarnings("unchecked")
-    public <T> Set<Set<T>> enumerateSubsets(Vector<T> v, int size) {
-        Set<Set<T>> els = new HashSet<Set<T>>();
-        els.add(new HashSet<T>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<Set<T>>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = (Set<T>) (((HashSet<T>) s).clone());
-                    if (news.add(t))
-                        newels.add(news);
+        double card;
+        switch (joinOp) {
+        case EQUALS:
+        case LIKE:
+        case NOT_EQUALS:
+            double equal;
+            if (t1pkey && t2pkey) {
+                equal = Math.min(card1, card2);
+            } else if (t1pkey) {
+                equal = card2;
+            } else if (t2pkey) {
+                equal = card1;
+            } else {
+                TableStats s1 = tableStats(table1Alias, stats, tableAliasToId);
+                TableStats s2 = tableStats(table2Alias, stats, tableAliasToId);
+                int f1 = fieldIndex(table1Alias, field1PureName, tableAliasToId);
+                int f2 = fieldIndex(table2Alias, field2PureName, tableAliasToId);
+                double sel = s1 != null && s2 != null && f1 >= 0 && f2 >= 0 ? s1
+                        .joinSelectivity(f1, s2, f2) : -1;
+                if (sel >= 0) {
+                    equal = sel * card1 * card2;
+                } else {
+                    double ndv = Math.max(distinctValues(s1, f1, card1),
+                            distinctValues(s2, f2, card2));
+                    equal = ndv > 0 ? (double) card1 * card2 / ndv
+                            : Math.max(card1, card2);
                 }
             }
-            els = newels;
+            card = joinOp == Predicate.Op.NOT_EQUALS ? (double) card1 * card2
+                    - equal : equal;
+            break;
+        default:
+            card = 0.3 * card1 * card2;
+            break;
         }
+        return card < 1 ? 1 : (int) Math.min(Integer.MAX_VALUE, card);
+    }
+
+    /** @return the statistics of the table of an alias, or null */
+    private static TableStats tableStats(String alias,
+            Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) {
+        Integer id = tableAliasToId == null ? null : tableAliasToId.get(alias);
+        if (id == null || stats == null)
+            return null;
+        return stats.get(Database.getCatalog().getTableName(id));
+    }
 
-        return els;
+    /** @return the index of a field of the table of an alias, or -1 */
+    private static int fieldIndex(String alias, String field,
+            Map<String, Integer> tableAliasToId) {
+        Integer id = tableAliasToId == null ? null : tableAliasToId.get(alias);
+        if (id == null)
+            return -1;
+        try {
+            return Database.getCatalog().getTupleDesc(id).fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+    }
 
+    /**
+     * @return the number of distinct values of a field among card tuples of
+     *         a table, or 0 if there are no statistics for it
+     */
+    private static double distinctValues(TableStats s, int field, int card) {
+        if (s == null || field < 0)
+            return 0;
+        return Math.min(s.distinctValues(field, card), Math.max(card, 1));
     }
 
     /**
-     * Compute a logical, reasonably efficient join on the specified tables. See
-     * PS4 for hints on how this should be implemented.
+     * Compute a logical, reasonably efficient join on the specified tables.
+     * 
+     * The tables joined are numbered and a set of them is a bitmask. Up to
+     * {@link #setMaxDpJoins maxDpJoins} joins, the plans are enumerated
+     * Selinger-style: the best plan for every connected set of tables is
+     * built from the best plans of each pair of disjoint subsets that a join
+     * connects, smallest sets first, and kept in a {@link PlanCache} indexed
+     * by mask, so both left-deep and bushy plans are considered. Above that,
+     * the joins are ordered greedily. Subquery joins are done last.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -207,8 +346,9 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A Vector<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A Vector<LogicalJoinNode> that stores joins in the order in
+     *         which they should be executed: each join comes after the joins
+     *         that produce its inputs, and its t1 table is on the outer side.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -217,177 +357,362 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
-        //Not necessary for labs 1--3
+        JoinGraph g = new JoinGraph(stats, filterSelectivities);
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+        Vector<CostCard> costs = new Vector<CostCard>();
+        if (g.edges.size() <= maxDpJoins && g.size() <= maxDpJoins + 1)
+            orderByDp(g, order, costs);
+        else
+            orderGreedily(g, order, costs);
+
+        // joins between tables that are already joined by then close a cycle
+        // of the join graph; they are left where they were, after the others
+        for (int e = 0; e < g.edges.size(); e++) {
+            if (!containsJoin(order, g.edges.get(e))
+                    && !containsJoin(order, g.swapped.get(e))) {
+                order.add(g.edges.get(e));
+                costs.add(null);
+            }
+        }
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode) {
+                order.add(j);
+                costs.add(null);
+            }
+        }
 
-        // some code goes here
-        //Replace the following
-        return joins;
+        if (explain && !GraphicsEnvironment.isHeadless())
+            printJoins(order, costs, stats, filterSelectivities);
+        return order;
     }
 
-    // ===================== Private Methods =================================
+    /** @return true if js contains the very same join node as j */
+    private static boolean containsJoin(Vector<LogicalJoinNode> js,
+            LogicalJoinNode j) {
+        for (LogicalJoinNode k : js)
+            if (k == j)
+                return true;
+        return false;
+    }
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
-     * 
-     * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     * Sets the number of joins above which {@link #orderJoins} orders joins
+     * greedily instead of enumerating plans.
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            HashMap<String, TableStats> stats,
-            HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+    public void setMaxDpJoins(int maxDpJoins) {
+        if (maxDpJoins > MAX_DP_TABLES - 1)
+            throw new IllegalArgumentException("at most " + (MAX_DP_TABLES - 1)
+                    + " joins can be enumerated");
+        this.maxDpJoins = maxDpJoins;
+    }
+
+    /**
+     * The tables and joins (other than subquery joins) of the query, with the
+     * estimated cost and cardinality of a filtered scan of each table.
+     */
+    private class JoinGraph {
+        final ArrayList<String> aliases = new ArrayList<String>();
+        final ArrayList<Double> scanCosts = new ArrayList<Double>();
+        final ArrayList<Double> scanCards = new ArrayList<Double>();
+        // the joins, and the same joins with their sides swapped
+        final ArrayList<LogicalJoinNode> edges = new ArrayList<LogicalJoinNode>();
+        final ArrayList<LogicalJoinNode> swapped = new ArrayList<LogicalJoinNode>();
+        // the tables joined by each join, and whether it joins their keys
+        int[] t1, t2;
+        boolean[] pkey1, pkey2;
+        final HashMap<String, TableStats> stats;
+        // the signature of the filtered scan of each table, for looking up
+        // the cardinalities of sets of tables observed by earlier queries,
+        // or null if the plan has not made the predicates of its filters
+        CardinalityFeedback.Signature[] scans;
+        final CardinalityFeedback feedback = CardinalityFeedback.getDefault();
+
+        JoinGraph(HashMap<String, TableStats> stats,
+                HashMap<String, Double> filterSelectivities)
+                throws ParsingException {
+            this.stats = stats;
+            for (LogicalJoinNode j : joins) {
+                if (j instanceof LogicalSubplanJoinNode)
+                    continue;
+                // a predicate over a single table is not a join to order
+                if (!j.t1Alias.equals(j.t2Alias))
+                    edges.add(j);
+                for (String alias : new String[] { j.t1Alias, j.t2Alias }) {
+                    if (aliases.contains(alias))
+                        continue;
+                    TableStats s = tableStats(stats, alias);
+                    aliases.add(alias);
+                    scanCosts.add(CostModel.getDefault().scanCost(s));
+                    scanCards.add((double) s.estimateTableCardinality(
+                            selectivity(filterSelectivities, alias)));
+                }
+            }
+            t1 = new int[edges.size()];
+            t2 = new int[edges.size()];
+            pkey1 = new boolean[edges.size()];
+            pkey2 = new boolean[edges.size()];
+            for (int e = 0; e < edges.size(); e++) {
+                LogicalJoinNode j = edges.get(e);
+                swapped.add(j.swapInnerOuter());
+                t1[e] = aliases.indexOf(j.t1Alias);
+                t2[e] = aliases.indexOf(j.t2Alias);
+                pkey1[e] = isPkey(j.t1Alias, j.f1PureName);
+                pkey2[e] = isPkey(j.t2Alias, j.f2PureName);
+            }
+            if (feedback.isEmpty())
+                return;
+            scans = new CardinalityFeedback.Signature[aliases.size()];
+            for (int i = 0; i < scans.length; i++) {
+                String alias = aliases.get(i);
+                List<Predicate> predicates = p.getFilterPredicates(alias);
+                if (predicates == null) {
+                    scans = null;
+                    return;
+                }
+                scans[i] = new CardinalityFeedback.Signature();
+                scans[i].addScan(alias, Database.getCatalog().getTableName(
+                        p.getTableId(alias)), predicates);
+            }
+        }
+
+        /** @return the number of tables */
+        int size() {
+            return aliases.size();
+        }
+
+        /**
+         * @return the cardinality of joining the tables in group a, which
+         *         has cardinality card1, with those in group b, which has
+         *         cardinality card2, given the group of each table; every join
+         *         between the two groups applies
+         */
+        double joinCard(int[] group, int a, int b, double card1, double card2) {
+            double card = card1 * card2;
+            for (int e = 0; e < edges.size(); e++) {
+                int g1 = group[t1[e]], g2 = group[t2[e]];
+                if (g1 == a && g2 == b)
+                    card *= joinSelectivity(e, card1, card2);
+                else if (g1 == b && g2 == a)
+                    card *= joinSelectivity(e, card2, card1);
+            }
+            return card;
+        }
 
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+        /**
+         * @return the cardinality of joining the set of tables s that an
+         *         earlier query observed, or the estimate if none did
+         */
+        double card(long s, double estimate) {
+            if (scans == null)
+                return estimate;
+            CardinalityFeedback.Signature sig = new CardinalityFeedback.Signature();
+            for (int i = 0; i < scans.length; i++)
+                if ((s >> i & 1) != 0)
+                    sig.add(scans[i]);
+            for (int e = 0; e < edges.size(); e++) {
+                if ((s >> t1[e] & 1) != 0 && (s >> t2[e] & 1) != 0) {
+                    LogicalJoinNode j = edges.get(e);
+                    sig.addJoin(j.t1Alias + "." + j.f1PureName, j.p,
+                            j.t2Alias + "." + j.f2PureName);
+                }
             }
+            double observed = feedback.cardinality(sig);
+            return observed >= 0 ? observed : estimate;
+        }
+
+        /** @return the fraction of the cross product join e returns */
+        private double joinSelectivity(int e, double card1, double card2) {
+            int c1 = clamp(card1), c2 = clamp(card2);
+            if (c1 == 0 || c2 == 0)
+                return 0;
+            return estimateJoinCardinality(edges.get(e), c1, c2, pkey1[e],
+                    pkey2[e], stats) / ((double) c1 * c2);
+        }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
+        /** @return join e, oriented so that its t1 is in group a */
+        LogicalJoinNode join(int[] group, int e, int a) {
+            return group[t1[e]] == a ? edges.get(e) : swapped.get(e);
+        }
+    }
 
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+    private static int clamp(double card) {
+        return (int) Math.min(Integer.MAX_VALUE, card);
+    }
+
+    /**
+     * Orders the joins of g by dynamic programming over the sets of tables,
+     * appending them to order with the cost and cardinality of the plan each
+     * one produces to costs.
+     */
+    private void orderByDp(JoinGraph g, Vector<LogicalJoinNode> order,
+            Vector<CostCard> costs) {
+        int n = g.size();
+        int all = (1 << n) - 1;
+        PlanCache pc = new PlanCache(n);
+        long[] adjacent = new long[n];
+        for (int e = 0; e < g.edges.size(); e++) {
+            adjacent[g.t1[e]] |= 1L << g.t2[e];
+            adjacent[g.t2[e]] |= 1L << g.t1[e];
+        }
+        // the tables joined to a table of each set
+        long[] neighbours = new long[all + 1];
+        for (int s = 1; s <= all; s++)
+            neighbours[s] = neighbours[s & (s - 1)]
+                    | adjacent[Integer.numberOfTrailingZeros(s)];
+        for (int i = 0; i < n; i++)
+            pc.addPlan(1L << i, g.scanCosts.get(i), g.scanCards.get(i), 0, null);
+        int[] group = new int[n];
+
+        for (int s = 1; s <= all; s++) {
+            if (Integer.bitCount(s) < 2)
+                continue;
+            // every split of s into an outer and an inner set that are
+            // joined, and each of which can be planned without a cross
+            // product
+            for (int outer = (s - 1) & s; outer > 0; outer = (outer - 1) & s) {
+                int inner = s & ~outer;
+                if ((neighbours[outer] & inner) == 0 || !pc.hasPlan(outer)
+                        || !pc.hasPlan(inner))
+                    continue;
+                for (int i = 0; i < n; i++)
+                    group[i] = (outer >> i & 1) != 0 ? 1 : (inner >> i & 1) != 0 ? 2 : 0;
+                LogicalJoinNode j = null;
+                for (int e = 0; j == null; e++)
+                    if (group[g.t1[e]] + group[g.t2[e]] == 3)
+                        j = g.join(group, e, 1);
+                double cost = estimateJoinCost(j, clamp(pc.getCard(outer)),
+                        clamp(pc.getCard(inner)), pc.getCost(outer),
+                        pc.getCost(inner));
+                if (!pc.hasPlan(s)) {
+                    // the cardinality of a set does not depend on its plan
+                    pc.addPlan(s, cost, g.card(s, g.joinCard(group, 1, 2,
+                            pc.getCard(outer), pc.getCard(inner))), outer, j);
+                } else if (cost < pc.getCost(s)) {
+                    pc.addPlan(s, cost, pc.getCard(s), outer, j);
+                }
             }
         }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
+        // a query whose join graph is not connected is planned per
+        // connected component
+        int left = all;
+        while (left != 0) {
+            int component = Integer.lowestOneBit(left);
+            while ((neighbours[component] & ~component) != 0)
+                component |= (int) neighbours[component];
+            addPlan(pc, component, order, costs);
+            left &= ~component;
         }
-        if (cost1 >= bestCostSoFar)
-            return null;
+    }
 
-        CostCard cc = new CostCard();
+    /**
+     * Appends the joins of the best plan for s in pc to order, each after
+     * the joins that produce its inputs, and picks their algorithms.
+     */
+    private void addPlan(PlanCache pc, long s, Vector<LogicalJoinNode> order,
+            Vector<CostCard> costs) {
+        long outer = pc.getOuter(s);
+        if (outer == 0)
+            return;
+        long inner = s & ~outer;
+        addPlan(pc, outer, order, costs);
+        addPlan(pc, inner, order, costs);
+        LogicalJoinNode j = pc.getJoin(s);
+        // the join was costed for other plans too; cost it again for this one
+        estimateJoinCost(j, clamp(pc.getCard(outer)), clamp(pc.getCard(inner)),
+                pc.getCost(outer), pc.getCost(inner));
+        order.add(j);
+        costs.add(costCard(pc.getCost(s), pc.getCard(s)));
+    }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
+    private static CostCard costCard(double cost, double card) {
+        CostCard cc = new CostCard();
+        cc.cost = cost;
+        cc.card = clamp(card);
         return cc;
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * Orders the joins of g greedily, appending them to order with the cost
+     * and cardinality of the plan each one produces to costs: starting from
+     * the tables, the two plans whose join returns the fewest tuples are
+     * joined (the cheapest join on ties) until no two plans are joined.
      */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+    private void orderGreedily(JoinGraph g, Vector<LogicalJoinNode> order,
+            Vector<CostCard> costs) {
+        int n = g.size();
+        // the plan each table is in, numbered by the first table of the plan
+        int[] group = new int[n];
+        double[] cost = new double[n], card = new double[n];
+        for (int i = 0; i < n; i++) {
+            group[i] = i;
+            cost[i] = g.scanCosts.get(i);
+            card[i] = g.scanCards.get(i);
         }
-        return false;
+        while (true) {
+            int bestOuter = -1, bestInner = -1;
+            LogicalJoinNode best = null;
+            double bestCost = 0, bestCard = 0;
+            for (int e = 0; e < g.edges.size(); e++) {
+                int a = group[g.t1[e]], b = group[g.t2[e]];
+                if (a == b)
+                    continue;
+                long tables = 0;
+                for (int i = 0; i < n; i++)
+                    if (group[i] == a || group[i] == b)
+                        tables |= 1L << i;
+                double c = g.card(tables, g.joinCard(group, a, b, card[a],
+                        card[b]));
+                // either plan may be the outer one
+                for (int k = 0; k < 2; k++) {
+                    int outer = k == 0 ? a : b, inner = k == 0 ? b : a;
+                    LogicalJoinNode j = g.join(group, e, outer);
+                    double jc = estimateJoinCost(j, clamp(card[outer]),
+                            clamp(card[inner]), cost[outer], cost[inner]);
+                    if (best == null || c < bestCard
+                            || (c == bestCard && jc < bestCost)) {
+                        best = j;
+                        bestOuter = outer;
+                        bestInner = inner;
+                        bestCost = jc;
+                        bestCard = c;
+                    }
+                }
+            }
+            if (best == null)
+                return;
+            estimateJoinCost(best, clamp(card[bestOuter]), clamp(card[bestInner]),
+                    cost[bestOuter], cost[bestInner]);
+            order.add(best);
+            costs.add(costCard(bestCost, bestCard));
+            int merged = Math.min(bestOuter, bestInner);
+            for (int i = 0; i < n; i++)
+                if (group[i] == bestOuter || group[i] == bestInner)
+                    group[i] = merged;
+            cost[merged] = bestCost;
+            card[merged] = bestCard;
+        }
+    }
+
+    private TableStats tableStats(HashMap<String, TableStats> stats,
+            String alias) throws ParsingException {
+        Integer id = this.p.getTableId(alias);
+        if (id == null)
+            throw new ParsingException("Unknown table " + alias);
+        TableStats s = stats.get(Database.getCatalog().getTableName(id));
+        if (s == null)
+            throw new ParsingException("No statistics for table " + alias);
+        return s;
+    }
+
+    private static double selectivity(HashMap<String, Double> filterSelectivities,
+            String alias) {
+        Double sel = filterSelectivities.get(alias);
+        return sel == null ? 1.0 : sel;
     }
 
+    // ===================== Private Methods =================================
+
     /**
      * Return true if field is a primary key of the specified table, false
      * otherwise
@@ -401,21 +726,7 @@ public class JoinOptimizer {
         int tid1 = p.getTableId(tableAlias);
         String pkey1 = Database.getCatalog().getPrimaryKey(tid1);
 
-        return pkey1.equals(field);
-    }
-
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
+        return field.equals(pkey1);
     }
 
     /**
@@ -425,8 +736,9 @@ public class JoinOptimizer {
      * 
      * @param js
      *            the join plan to visualize
-     * @param pc
-     *            the PlanCache accumulated whild building the optimal plan
+     * @param costs
+     *            the cost and cardinality of the plan each join produces, or
+     *            null where they were not estimated
      * @param stats
      *            table statistics for base tables
      * @param selectivities
@@ -434,7 +746,7 @@ public class JoinOptimizer {
      *            (where tables are indentified by their alias or name if no
      *            alias is given)
      */
-    private void printJoins(Vector<LogicalJoinNode> js, PlanCache pc,
+    private void printJoins(Vector<LogicalJoinNode> js, Vector<CostCard> costs,
             HashMap<String, TableStats> stats,
             HashMap<String, Double> selectivities) {
 
@@ -448,76 +760,34 @@ public class JoinOptimizer {
 
         f.setSize(300, 500);
 
+        // the root of the subtree each table is in so far
         HashMap<String, DefaultMutableTreeNode> m = new HashMap<String, DefaultMutableTreeNode>();
 
-        // int numTabs = 0;
-
-        // int k;
         DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<LogicalJoinNode>();
-        boolean neither;
-
-        System.out.println(js);
-        for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
-
-            String table1Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t1Alias));
-            String table2Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t2Alias));
-
-            // Double c = pc.getCost(pathSoFar);
-            neither = true;
-
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
-            DefaultMutableTreeNode n = m.get(j.t1Alias);
-            if (n == null) { // never seen this table before
-                n = new DefaultMutableTreeNode(j.t1Alias
-                        + " (Cost = "
-                        + stats.get(table1Name).estimateScanCost()
-                        + ", card = "
-                        + stats.get(table1Name).estimateTableCardinality(
-                                selectivities.get(j.t1Alias)) + ")");
-                root.add(n);
-            } else {
-                // make left child root n
-                root.add(n);
-                neither = false;
-            }
-            m.put(j.t1Alias, root);
-
-            n = m.get(j.t2Alias);
-            if (n == null) { // never seen this table before
-
-                n = new DefaultMutableTreeNode(
-                        j.t2Alias == null ? "Subplan"
-                                : (j.t2Alias
-                                        + " (Cost = "
-                                        + stats.get(table2Name)
-                                                .estimateScanCost()
-                                        + ", card = "
-                                        + stats.get(table2Name)
-                                                .estimateTableCardinality(
-                                                        selectivities
-                                                                .get(j.t2Alias)) + ")"));
-                root.add(n);
-            } else {
-                // make right child root n
-                root.add(n);
-                neither = false;
-            }
-            m.put(j.t2Alias, root);
 
-            // unless this table doesn't join with other tables,
-            // all tables are accessed from root
-            if (!neither) {
-                for (String key : m.keySet()) {
-                    m.put(key, root);
-                }
+        for (int i = 0; i < js.size(); i++) {
+            LogicalJoinNode j = js.get(i);
+            CostCard cc = costs.get(i);
+
+            root = new DefaultMutableTreeNode("Join " + j
+                    + (cc == null ? "" : " (Cost =" + cc.cost + ", card = "
+                            + cc.card + ")"));
+            DefaultMutableTreeNode left = subtree(m, j.t1Alias, stats,
+                    selectivities);
+            DefaultMutableTreeNode right = j.t2Alias == null ? new DefaultMutableTreeNode(
+                    "Subplan") : subtree(m, j.t2Alias, stats, selectivities);
+            root.add(left);
+            if (right != left)
+                root.add(right);
+
+            // every table under either child is now under the join
+            for (Map.Entry<String, DefaultMutableTreeNode> e : m.entrySet()) {
+                if (e.getValue() == left || e.getValue() == right)
+                    e.setValue(root);
             }
+            m.put(j.t1Alias, root);
+            if (j.t2Alias != null)
+                m.put(j.t2Alias, root);
 
             treetop = root;
         }
@@ -550,4 +820,23 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * @return the subtree of {@link #printJoins} the table is in, or a new
+     *         leaf for it if it has not been joined yet
+     */
+    private DefaultMutableTreeNode subtree(
+            HashMap<String, DefaultMutableTreeNode> m, String alias,
+            HashMap<String, TableStats> stats,
+            HashMap<String, Double> selectivities) {
+        DefaultMutableTreeNode n = m.get(alias);
+        if (n != null)
+            return n;
+        TableStats s = stats.get(Database.getCatalog().getTableName(
+                this.p.getTableId(alias)));
+        return new DefaultMutableTreeNode(alias + " (Cost = "
+                + CostModel.getDefault().scanCost(s) + ", card = "
+                + s.estimateTableCardinality(selectivity(selectivities, alias))
+                + ")");
+    }
+
 }
@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * JoinedTuple is the output tuple of a join: the concatenation of a left and
+ * a right tuple. Instead of allocating a field list and copying every field
+ * of both inputs, it keeps references to the two inputs and resolves
+ * {@link #getField(int)} against them, so a join emits one small object per
+ * output row. The fields are only copied if the tuple is modified or
+ * serialized.
+ */
+public class JoinedTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private Tuple left;
+    private Tuple right;
+    private final int leftWidth;
+
+    /**
+     * @param td
+     *            the merged schema of left and right
+     * @param left
+     *            the tuple that supplies the first fields
+     * @param right
+     *            the tuple that supplies the remaining fields
+     */
+    public JoinedTuple(TupleDesc td, Tuple left, Tuple right) {
+        super(td, null);
+        this.left = left;
+        this.right = right;
+        this.leftWidth = left.getTupleDesc().numFields();
+    }
+
+    public Field getField(int i) {
+        if (listOfItems != null)
+            return listOfItems.get(i);
+        return i < leftWidth ? left.getField(i) : right.getField(i - leftWidth);
+    }
+
+    public void setField(int i, Field f) {
+        materialize();
+        if (f.getType().equals(getTupleDesc().getFieldType(i)))
+            listOfItems.set(i, f);
+    }
+
+    public Iterator<Field> fields() {
+        materialize();
+        return super.fields();
+    }
+
+    public String toString() {
+        materialize();
+        return super.toString();
+    }
+
+    /** Copies the fields of both inputs into this tuple's own field list. */
+    private void materialize() {
+        if (listOfItems != null)
+            return;
+        int n = getTupleDesc().numFields();
+        ArrayList<Field> fields = new ArrayList<Field>(n);
+        for (int i = 0; i < n; i++)
+            fields.add(getField(i));
+        listOfItems = fields;
+        left = null;
+        right = null;
+    }
+
+    private Object writeReplace() {
+        materialize();
+        Tuple t = new Tuple(getTupleDesc(), listOfItems);
+        t.setRecordId(getRecordId());
+        return t;
+    }
+}
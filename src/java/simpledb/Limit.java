@@ -0,0 +1,120 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Limit is an operator that implements LIMIT/OFFSET. It skips the first
+ * offset tuples of its child and returns at most limit tuples after that.
+ * As soon as the limit is reached the child is closed, so upstream scans and
+ * joins stop doing work instead of running to completion.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private int limit;
+    private int offset;
+    private int returned;
+    private boolean childOpen;
+    private boolean skipped;
+
+    /**
+     * Constructor.
+     * 
+     * @param limit
+     *            the maximum number of tuples to return.
+     * @param offset
+     *            the number of tuples to skip before returning any.
+     * @param child
+     *            the child operator.
+     */
+    public Limit(int limit, int offset, OpIterator child) {
+        if (limit < 0 || offset < 0)
+            throw new IllegalArgumentException("limit and offset must not be negative");
+        this.limit = limit;
+        this.offset = offset;
+        this.child = child;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        childOpen = true;
+        returned = 0;
+        skipped = false;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeChild();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (childOpen) {
+            child.rewind();
+        } else {
+            child.open();
+            childOpen = true;
+        }
+        returned = 0;
+        skipped = false;
+    }
+
+    private void closeChild() {
+        if (childOpen) {
+            child.close();
+            childOpen = false;
+        }
+    }
+
+    /**
+     * Operator.fetchNext implementation. Skips the offset on the first call,
+     * then returns child tuples until the limit is reached.
+     * 
+     * @return The next tuple, or null if the limit is reached or the child is
+     *         exhausted
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!childOpen)
+            return null;
+        if (returned >= limit) {
+            closeChild();
+            return null;
+        }
+        if (!skipped) {
+            for (int i = 0; i < offset && child.hasNext(); i++)
+                child.next();
+            skipped = true;
+        }
+        if (!child.hasNext()) {
+            closeChild();
+            return null;
+        }
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
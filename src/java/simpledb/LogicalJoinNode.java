@@ -23,6 +23,18 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The physical join operators a LogicalJoinNode can be instantiated as:
+     * a {@link Join} that rescans the inner side once per page of outer
+     * tuples, one that does so once per memory budget of them, a
+     * {@link HashEquiJoin} or a {@link SortMergeJoin}. */
+    public enum Algorithm {
+        NESTED_LOOP, BLOCK_NESTED_LOOP, HASH, SORT_MERGE;
+    }
+
+    /** The join algorithm picked by the optimizer, or null if the join has
+     * not been costed. */
+    public Algorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
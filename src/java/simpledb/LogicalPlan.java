@@ -2,9 +2,12 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -33,9 +36,19 @@ public class LogicalPlan {
     private boolean hasAgg = false;
     private String aggOp;
     private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private boolean lateMaterialization;
+    private int scanParallelism = 1;
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAsc = new Vector<Boolean>();
+    private int limit = -1, offset = 0;
     private String query;
+    // whether physicalPlan has ordered the joins, and whether it is to keep
+    // the order they are in rather than order them itself
+    private boolean joinsOrdered;
+    private boolean fixedJoinOrder;
+    // the predicates of the filters on each table, once physicalPlan has
+    // made them
+    private HashMap<String, List<Predicate>> filterPredicates;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -203,17 +216,29 @@ public class LogicalPlan {
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  Calling this
+        several times sorts on several fields; earlier calls are more significant.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.add(field);
+        oByAsc.add(asc);
+    }
+
+    /** Add a LIMIT clause to the query: at most limit result tuples are
+        returned, after skipping the first offset tuples.
+        @param limit the maximum number of tuples to return
+        @param offset the number of tuples to skip
+     * @throws ParsingException if limit or offset is negative
+    */
+    public void addLimit(int limit, int offset) throws ParsingException {
+        if (limit < 0 || offset < 0)
+            throw new ParsingException("LIMIT and OFFSET must not be negative");
+        this.limit = limit;
+        this.offset = offset;
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -271,6 +296,27 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Sets whether the physical plan materializes joined tuples late: the
+     * scans of joined tables return only the join keys and a row reference,
+     * and a {@link Fetch} after the joins reads the other fields the query
+     * needs. This pays off when the tables are wide and the joins are
+     * selective. Off by default.
+     */
+    public void setLateMaterialization(boolean lateMaterialization) {
+        this.lateMaterialization = lateMaterialization;
+    }
+
+    /**
+     * Sets the number of threads that scan the table of a query without
+     * joins, see {@link ParallelSeqScan}. Tables of fewer than two morsels
+     * are always scanned by one thread. 1, the default, turns parallel scans
+     * off.
+     */
+    public void setScanParallelism(int scanParallelism) {
+        this.scanParallelism = scanParallelism;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -306,6 +352,7 @@ public class LogicalPlan {
 
         }
 
+        HashMap<String, List<Predicate>> predicates = new HashMap<String, List<Predicate>>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -334,19 +381,70 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (subplan instanceof SeqScan)
+                ((SeqScan) subplan).addPredicate(p);
+            else
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
-            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
-            
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
+            List<Predicate> tablePredicates = predicates.get(lf.tableAlias);
+            if (tablePredicates == null) {
+                tablePredicates = new ArrayList<Predicate>();
+                predicates.put(lf.tableAlias, tablePredicates);
+            }
+            tablePredicates.add(p);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // the filters on a table are estimated together, so those on
+        // correlated columns are not taken as independent, unless a scan
+        // with the same filters has returned all its tuples before
+        CardinalityFeedback feedback = CardinalityFeedback.getDefault();
+        for (Map.Entry<String, List<Predicate>> e : predicates.entrySet()) {
+            String tableName = Database.getCatalog().getTableName(this.getTableId(e.getKey()));
+            TableStats s = statsMap.get(tableName);
+            CardinalityFeedback.Signature sig = new CardinalityFeedback.Signature();
+            sig.addScan(e.getKey(), tableName, e.getValue());
+            double observed = feedback.cardinality(sig);
+            filterSelectivities.put(e.getKey(), observed >= 0 ? observed
+                    / Math.max(1, s.totalTuples()) : s.estimateSelectivity(e.getValue()));
+        }
+        filterPredicates = predicates;
         
+        // the scans only return the fields used above them; with late
+        // materialization, the scans of tables that have more of those than
+        // join keys only return the keys and a row reference, and the rest is
+        // fetched after the joins, unless the table has too many slots for
+        // its references to fit in an int
+        HashSet<String> used = usedFields();
+        ArrayList<LogicalScanNode> fetched = new ArrayList<LogicalScanNode>();
+        ArrayList<int[]> fetchedColumns = new ArrayList<int[]>();
+        for (LogicalScanNode table : tables) {
+            OpIterator subplan = subplanMap.get(table.alias);
+            if (!(subplan instanceof SeqScan))
+                continue;
+            SeqScan ss = (SeqScan) subplan;
+            int[] columns = columns(ss.getTupleDesc(), used);
+            HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(
+                    ss.getTableId());
+            int[] keys = lateMaterialization && !joins.isEmpty()
+                    && Fetch.canReference(file.numPages(), file.getTupleDesc())
+                    ? columns(ss.getTupleDesc(), joinFields()) : null;
+            if (keys != null && !Arrays.equals(keys, columns)) {
+                ss.setProjection(keys);
+                ss.setRowReference(true);
+                fetched.add(table);
+                fetchedColumns.add(columns);
+            } else {
+                ss.setProjection(columns);
+            }
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        if (!fixedJoinOrder)
+            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        joinsOrdered = true;
 
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
@@ -408,6 +506,28 @@ public class LogicalPlan {
         
         OpIterator node =  (OpIterator)(subplanMap.entrySet().iterator().next().getValue());
 
+        // a query over one big table is scanned, filtered and aggregated by
+        // several threads
+        if (scanParallelism > 1 && joins.isEmpty() && node instanceof SeqScan) {
+            SeqScan ss = (SeqScan) node;
+            int pages = ((HeapFile) Database.getCatalog().getDatabaseFile(
+                    ss.getTableId())).numPages();
+            if (pages >= 2 * ParallelSeqScan.MORSEL_PAGES)
+                node = new ParallelSeqScan(ss, Math.min(scanParallelism,
+                        pages / ParallelSeqScan.MORSEL_PAGES));
+        }
+
+        if (!fetched.isEmpty()) {
+            int[] tableIds = new int[fetched.size()];
+            String[] aliases = new String[fetched.size()];
+            for (int i = 0; i < tableIds.length; i++) {
+                tableIds[i] = fetched.get(i).t;
+                aliases[i] = fetched.get(i).alias;
+            }
+            node = new Fetch(t, tableIds, aliases,
+                    fetchedColumns.toArray(new int[0][]), node);
+        }
+
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
         ArrayList<Type> outTypes = new ArrayList<Type>();
@@ -474,11 +594,144 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (!oByFields.isEmpty()) {
+            int[] oByIndex = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int j = 0; j < oByIndex.length; j++) {
+                oByIndex[j] = node.getTupleDesc().fieldNameToIndex(oByFields.get(j));
+                asc[j] = oByAsc.get(j);
+            }
+            long keep = (long) limit + offset;
+            if (limit >= 0 && keep * node.getTupleDesc().getSize()
+                    <= (long) ExternalSorter.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize()) {
+                // only the first limit + offset tuples are needed, and they fit in memory
+                node = new TopN(oByIndex, asc, (int) keep, node);
+            } else {
+                node = new OrderBy(oByIndex, asc, node,
+                        ExternalSorter.DEFAULT_MEMORY_PAGES);
+            }
+        }
+
+        OpIterator result = new Project(outFields, outTypes, node);
+        if (limit >= 0)
+            result = new Limit(limit, offset, result);
+        return result;
+    }
+
+    /**
+     * Copies this plan with other constants in its filters, for
+     * {@link StatementCache}. If this plan has been through
+     * {@link #physicalPlan}, the copy keeps the order and algorithms of its
+     * joins instead of optimizing them again. The copy has no LIMIT.
+     *
+     * @param values
+     *            the new constants of the filters, in the order they were
+     *            added
+     * @return the copy, or null if the plan has a subquery or a different
+     *         number of filters
+     */
+    LogicalPlan bind(List<String> values) {
+        if (values.size() != filters.size())
+            return null;
+        for (LogicalJoinNode lj : joins)
+            if (lj instanceof LogicalSubplanJoinNode)
+                return null;
+        LogicalPlan lp = new LogicalPlan();
+        lp.tables = new Vector<LogicalScanNode>(tables);
+        lp.tableMap = new HashMap<String, Integer>(tableMap);
+        lp.joins = new Vector<LogicalJoinNode>(joins);
+        lp.fixedJoinOrder = joinsOrdered || fixedJoinOrder;
+        for (int i = 0; i < filters.size(); i++) {
+            LogicalFilterNode lf = filters.get(i);
+            lp.filters.add(new LogicalFilterNode(lf.tableAlias,
+                    lf.fieldQuantifiedName, lf.p, values.get(i)));
+        }
+        lp.selectList = new Vector<LogicalSelectListNode>(selectList);
+        lp.groupByField = groupByField;
+        lp.hasAgg = hasAgg;
+        lp.aggOp = aggOp;
+        lp.aggField = aggField;
+        lp.lateMaterialization = lateMaterialization;
+        lp.scanParallelism = scanParallelism;
+        lp.oByFields = new Vector<String>(oByFields);
+        lp.oByAsc = new Vector<Boolean>(oByAsc);
+        lp.query = query;
+        return lp;
+    }
+
+    /**
+     * @return the predicates of the filters on a table, or null if
+     *         {@link #physicalPlan} has not made them yet
+     */
+    List<Predicate> getFilterPredicates(String alias) {
+        if (filterPredicates == null)
+            return null;
+        List<Predicate> p = filterPredicates.get(alias);
+        return p == null ? new ArrayList<Predicate>() : p;
+    }
+
+    /**
+     * @return true if the constants of the filters are the given values, in
+     *         order
+     */
+    boolean bindsInOrder(List<String> values) {
+        if (values.size() != filters.size())
+            return false;
+        for (int i = 0; i < values.size(); i++)
+            if (!filters.get(i).c.equals(values.get(i)))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the names of the fields the select list, joins, aggregate or
+     *         ORDER BY refer to, or null if the select list has a *
+     */
+    private HashSet<String> usedFields() {
+        HashSet<String> used = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                return null;
+            used.add(si.fname);
         }
+        used.addAll(joinFields());
+        if (aggField != null)
+            used.add(aggField);
+        if (groupByField != null)
+            used.add(groupByField);
+        used.addAll(oByFields);
+        return used;
+    }
 
-        return new Project(outFields, outTypes, node);
+    /** @return the names of the fields joins refer to */
+    private HashSet<String> joinFields() {
+        HashSet<String> fields = new HashSet<String>();
+        for (LogicalJoinNode lj : joins) {
+            fields.add(lj.f1QuantifiedName);
+            fields.add(lj.f2QuantifiedName);
+        }
+        return fields;
+    }
+
+    /**
+     * @return the indexes of the fields of td with the given names, or null
+     *         if that is all of them (or names is null)
+     */
+    private static int[] columns(TupleDesc td, HashSet<String> names) {
+        if (names == null)
+            return null;
+        ArrayList<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++)
+            if (names.contains(td.getFieldName(i)))
+                columns.add(i);
+        if (columns.size() == td.numFields())
+            return null;
+        if (columns.isEmpty())
+            columns.add(0); // a tuple needs at least one field
+        int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = columns.get(i);
+        return result;
     }
 
     public static void main(String argv[]) {
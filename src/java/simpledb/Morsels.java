@@ -0,0 +1,165 @@
+package simpledb;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Morsels hands out the pages of a table, or a chosen list of them, to the
+ * workers that read them in parallel, {@link ParallelSeqScan#MORSEL_PAGES}
+ * pages at a time. Each worker takes the next morsel whenever it finishes one, so a
+ * slow worker only holds back the morsel it is on. The first failure of a
+ * worker stops the others at their next page, and {@link #check} rethrows
+ * it.
+ * <p>
+ * Morsels are ranges of positions in the list of pages to read;
+ * {@link #page} reads the page at a position.
+ */
+final class Morsels {
+
+    /** The pool the workers of parallel scans and samples run in. */
+    static final ForkJoinPool POOL = new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors());
+
+    /** A task of {@link #POOL} that reads morsels. */
+    static abstract class Worker extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Morsels morsels;
+
+        Worker(Morsels morsels) {
+            this.morsels = morsels;
+        }
+
+        /** Reads morsels until there are none left. */
+        abstract void work() throws Exception;
+
+        @Override
+        protected final void compute() {
+            try {
+                work();
+            } catch (Exception e) {
+                morsels.fail(e);
+            }
+        }
+    }
+
+    private final TransactionId tid;
+    private final int tableId;
+    // the pages to read, or null to read all the pages of the table
+    private final int[] pages;
+    private final int length;
+    private final AtomicInteger nextMorsel = new AtomicInteger();
+    private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+    private volatile boolean stopped;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            the transaction the pages are read in
+     * @param tableId
+     *            the table to read all the pages of, a {@link HeapFile}
+     */
+    Morsels(TransactionId tid, int tableId) {
+        this.tid = tid;
+        this.tableId = tableId;
+        this.pages = null;
+        this.length = ((HeapFile) Database.getCatalog().getDatabaseFile(
+                tableId)).numPages();
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            the transaction the pages are read in
+     * @param tableId
+     *            the table, a {@link HeapFile}
+     * @param pages
+     *            the numbers of the pages to read
+     */
+    Morsels(TransactionId tid, int tableId, int[] pages) {
+        this.tid = tid;
+        this.tableId = tableId;
+        this.pages = pages;
+        this.length = pages.length;
+    }
+
+    /** @return the number of pages to read */
+    int length() {
+        return length;
+    }
+
+    /**
+     * @return the position of the first page of the next morsel, or -1 if every morsel has
+     *         been handed out or the workers were stopped
+     */
+    int next() {
+        if (stopped)
+            return -1;
+        long start = (long) nextMorsel.getAndIncrement()
+                * ParallelSeqScan.MORSEL_PAGES;
+        return start < length ? (int) start : -1;
+    }
+
+    /**
+     * @return the position after the last page of the morsel starting at
+     *         start
+     */
+    int end(int start) {
+        return Math.min(length, start + ParallelSeqScan.MORSEL_PAGES);
+    }
+
+    /** @return the page at position i, read only */
+    HeapPage page(int i) throws DbException, TransactionAbortedException {
+        return (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(tableId, pages == null ? i : pages[i]),
+                Permissions.READ_ONLY);
+    }
+
+    /** @return true if the workers are to stop at their next page */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /** Stops the workers at their next page. */
+    void stop() {
+        stopped = true;
+    }
+
+    /** Records the failure of a worker, unless it was stopped first. */
+    void fail(Exception e) {
+        if (!stopped)
+            failure.compareAndSet(null, e);
+        stopped = true;
+    }
+
+    /** Rethrows the failure of a worker, if any. */
+    void check() throws DbException, TransactionAbortedException {
+        Exception e = failure.get();
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof DbException)
+            throw (DbException) e;
+        if (e != null)
+            throw new DbException("parallel scan failed: " + e);
+    }
+
+    /**
+     * Runs the workers in {@link #POOL} and returns when all of them are
+     * done.
+     *
+     * @throws DbException
+     *             if a worker failed
+     */
+    void run(Worker[] workers) throws DbException, TransactionAbortedException {
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[workers.length];
+        for (int i = 0; i < workers.length; i++)
+            tasks[i] = POOL.submit(workers[i]);
+        for (ForkJoinTask<?> task : tasks)
+            task.join();
+        check();
+    }
+}
@@ -17,6 +17,8 @@ public abstract class Operator implements OpIterator {
         
         if (next == null)
             next = fetchNext();
+        if (next == null)
+            actual.finish();
         return next != null;
     }
 
@@ -24,15 +26,32 @@ public abstract class Operator implements OpIterator {
             NoSuchElementException {
         if (next == null) {
             next = fetchNext();
-            if (next == null)
+            if (next == null) {
+                actual.finish();
                 throw new NoSuchElementException();
+            }
         }
 
         Tuple result = next;
         next = null;
+        actual.add(1);
         return result;
     }
 
+    /**
+     * Counts the tuples of a batch returned by <code>nextBatch</code>, for
+     * operators that are also {@link BatchIterator}s.
+     * 
+     * @return the batch
+     */
+    protected TupleBatch counted(TupleBatch batch) {
+        if (batch == null)
+            actual.finish();
+        else
+            actual.add(batch.size());
+        return batch;
+    }
+
     /**
      * Returns the next Tuple in the iterator, or null if the iteration is
      * finished. Operator uses this method to implement both <code>next</code>
@@ -57,9 +76,12 @@ public abstract class Operator implements OpIterator {
     private Tuple next = null;
     private boolean open = false;
     private int estimatedCardinality = 0;
+    private final RowCount actual = new RowCount();
+    private long peakMemory = 0;
 
     public void open() throws DbException, TransactionAbortedException {
         this.open = true;
+        actual.reset();
     }
 
     /**
@@ -104,4 +126,41 @@ public abstract class Operator implements OpIterator {
         this.estimatedCardinality = card;
     }
 
+    /**
+     * @return the number of tuples this operator returned on its first
+     *         complete pass since it was opened, or -1 if it has not
+     *         returned all its tuples
+     * */
+    public long getActualCardinality() {
+        return actual.get();
+    }
+
+    /**
+     * @return the number of tuples this operator has returned on its first
+     *         pass so far
+     * */
+    public long getActualRows() {
+        return actual.rows();
+    }
+
+    /**
+     * Notes how many bytes of tuples this operator holds in memory, for
+     * operators that buffer their input.
+     * 
+     * @param bytes
+     *            the bytes held now
+     * */
+    protected void useMemory(long bytes) {
+        if (bytes > peakMemory)
+            peakMemory = bytes;
+    }
+
+    /**
+     * @return the most bytes of tuples this operator has held in memory at
+     *         once, or 0 if it does not buffer tuples
+     * */
+    public long getPeakMemory() {
+        return peakMemory;
+    }
+
 }
@@ -3,18 +3,20 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY. The input is
+ * sorted with an {@link ExternalSorter}, so inputs larger than the operator's
+ * memory budget are sorted in runs on disk and merged.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
-    private String orderByFieldName;
-    private Iterator<Tuple> it;
-    private boolean asc;
+    private int[] orderByFields;
+    private boolean[] asc;
+    private int memoryPages;
+    private ExternalSorter sorter;
+    private DbFileIterator it;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,26 +29,93 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child,
+                ExternalSorter.DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node that holds at most memoryPages pages worth of
+     * tuples in memory, spilling sorted runs to disk beyond that.
+     * 
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryPages
+     *            the memory budget of the sort, in pages.
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child,
+            int memoryPages) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child,
+                memoryPages);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields.
+     * 
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each sort field, true if its order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryPages
+     *            the memory budget of the sort, in pages.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child,
+            int memoryPages) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException(
+                    "need one direction for each of at least one sort field");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.memoryPages = memoryPages;
     }
     
+    /** @return true if the most significant sort field is ascending */
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
     
+    /** @return the most significant sort field */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
+    /** @return the name of the most significant sort field */
     public String getOrderFieldName()
     {
-	return this.orderByFieldName;
+	return td.getFieldName(this.orderByFields[0]);
+    }
+
+    public int[] getOrderByFields()
+    {
+        return this.orderByFields.clone();
+    }
+
+    public boolean[] getAscending()
+    {
+        return this.asc.clone();
+    }
+
+    public String[] getOrderFieldNames()
+    {
+        String[] names = new String[orderByFields.length];
+        for (int i = 0; i < names.length; i++)
+            names[i] = td.getFieldName(orderByFields[i]);
+        return names;
+    }
+
+    public int getMemoryPages()
+    {
+        return this.memoryPages;
     }
     
     public TupleDesc getTupleDesc() {
@@ -56,21 +125,31 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
+        // feed all the tuples to the sorter; it spills runs if they don't fit
+        sorter = new ExternalSorter(td, new SortKey(td, orderByFields, asc),
+                memoryPages);
         while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+            sorter.add(child.next());
+        sorter.finish();
+        useMemory(sorter.getMemoryBytes());
+        it = sorter.iterator();
+        it.open();
         super.open();
     }
 
     public void close() {
         super.close();
+        if (it != null)
+            it.close();
         it = null;
+        if (sorter != null)
+            sorter.close();
+        sorter = null;
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        it.rewind();
     }
 
     /**
@@ -99,25 +178,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
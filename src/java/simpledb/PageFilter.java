@@ -0,0 +1,244 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PageFilter is the part of a query that a {@link SeqScan} evaluates itself:
+ * a conjunction of predicates over the fields of a table and the columns of
+ * the table the scan returns. It is evaluated directly against the bytes of
+ * a {@link HeapPage}, so a tuple is only decoded into Field objects if it
+ * qualifies, and then only the requested columns are.
+ * <p>
+ * Int predicates compare the big-endian int at the field's offset; string
+ * equality compares the stored bytes with those of the operand. Other
+ * predicates decode the one field they test. Pages whose bytes no longer
+ * match their tuples (after an insert or delete) are evaluated on the
+ * tuples instead, through a {@link CompiledPredicate}.
+ */
+public class PageFilter {
+
+    private final TupleDesc td;
+    private final TupleDesc out;
+    private final int[] columns;
+    // the offset of each field of td within a tuple's bytes
+    private final int[] offsets;
+    private final Test[] tests;
+    private final CompiledPredicate compiled;
+    // the number of slots of a page if the returned tuples end with a row
+    // reference (see Fetch), 0 otherwise
+    private final int slotsPerPage;
+
+    /**
+     * @param td
+     *            the schema of the table
+     * @param predicates
+     *            the predicates a tuple must satisfy; their fields index td
+     * @param columns
+     *            the fields of td to return, in order, or null for all
+     * @param out
+     *            the schema of the returned tuples
+     */
+    public PageFilter(TupleDesc td, List<Predicate> predicates, int[] columns,
+            TupleDesc out) {
+        this(td, predicates, columns, out, false);
+    }
+
+    /**
+     * @param td
+     *            the schema of the table
+     * @param predicates
+     *            the predicates a tuple must satisfy; their fields index td
+     * @param columns
+     *            the fields of td to return, in order, or null for all
+     * @param out
+     *            the schema of the returned tuples
+     * @param rowReference
+     *            whether the returned tuples end with an INT_TYPE field
+     *            holding their row reference, see {@link Fetch}
+     */
+    public PageFilter(TupleDesc td, List<Predicate> predicates, int[] columns,
+            TupleDesc out, boolean rowReference) {
+        this.td = td;
+        this.slotsPerPage = rowReference ? HeapPage.slotsPerPage(td) : 0;
+        this.out = out;
+        this.columns = columns;
+        offsets = new int[td.numFields()];
+        for (int i = 1; i < offsets.length; i++)
+            offsets[i] = offsets[i - 1] + td.getFieldType(i - 1).getLen();
+        tests = new Test[predicates.size()];
+        CompiledPredicate[] parts = new CompiledPredicate[predicates.size()];
+        for (int i = 0; i < tests.length; i++) {
+            Predicate p = predicates.get(i);
+            tests[i] = compile(p, td.getFieldType(p.getField()),
+                    offsets[p.getField()]);
+            parts[i] = CompiledPredicate.compile(p, td);
+        }
+        compiled = parts.length == 0 ? null : CompiledPredicate.and(parts);
+    }
+
+    /** @return the schema of the tuples this filter returns */
+    public TupleDesc getTupleDesc() {
+        return out;
+    }
+
+    /**
+     * @return true if the tuple stored at offset off of a page's bytes
+     *         satisfies all the predicates
+     */
+    boolean matches(byte[] data, int off) {
+        for (Test t : tests)
+            if (!t.test(data, off))
+                return false;
+        return true;
+    }
+
+    /** @return true if a decoded tuple satisfies all the predicates */
+    boolean matches(Tuple t) {
+        return compiled == null || compiled.test(t);
+    }
+
+    /**
+     * Decodes the returned columns of the tuple stored at offset off of a
+     * page's bytes.
+     */
+    Tuple materialize(byte[] data, int off, RecordId rid) {
+        int n = columns == null ? td.numFields() : columns.length;
+        ArrayList<Field> values = new ArrayList<Field>(n + 1);
+        for (int i = 0; i < n; i++) {
+            int c = columns == null ? i : columns[i];
+            values.add(readField(td.getFieldType(c), data, off + offsets[c]));
+        }
+        if (slotsPerPage > 0)
+            values.add(new IntField(Fetch.reference(rid, slotsPerPage)));
+        Tuple t = new Tuple(out, values);
+        t.setRecordId(rid);
+        return t;
+    }
+
+    /** @return the returned columns of a decoded tuple */
+    Tuple project(Tuple t) {
+        if (columns == null && slotsPerPage == 0)
+            return t;
+        int n = columns == null ? td.numFields() : columns.length;
+        ArrayList<Field> values = new ArrayList<Field>(n + 1);
+        for (int i = 0; i < n; i++)
+            values.add(t.getField(columns == null ? i : columns[i]));
+        if (slotsPerPage > 0)
+            values.add(new IntField(Fetch.reference(t.getRecordId(), slotsPerPage)));
+        Tuple p = new Tuple(out, values);
+        p.setRecordId(t.getRecordId());
+        return p;
+    }
+
+    static int readInt(byte[] data, int off) {
+        return (data[off] << 24) | ((data[off + 1] & 0xff) << 16)
+                | ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+    }
+
+    private static String readString(byte[] data, int off) {
+        return new String(data, off + 4, readInt(data, off));
+    }
+
+    /** Decodes a field as {@link Type#parse} would. */
+    static Field readField(Type type, byte[] data, int off) {
+        if (type == Type.INT_TYPE)
+            return new IntField(readInt(data, off));
+        return new StringField(readString(data, off), Type.STRING_LEN);
+    }
+
+    /** A predicate on the bytes of a tuple starting at off. */
+    private static abstract class Test {
+        abstract boolean test(byte[] data, int off);
+    }
+
+    private static Test compile(final Predicate p, Type type, final int field) {
+        if (type == Type.INT_TYPE && p.getOperand() instanceof IntField)
+            return compileInt(p.getOp(), field,
+                    ((IntField) p.getOperand()).getValue());
+        if (type == Type.STRING_TYPE && p.getOperand() instanceof StringField) {
+            String s = ((StringField) p.getOperand()).getValue();
+            if (p.getOp() == Predicate.Op.EQUALS && isAscii(s))
+                return stringEquals(field, s, true);
+            if (p.getOp() == Predicate.Op.NOT_EQUALS && isAscii(s))
+                return stringEquals(field, s, false);
+        }
+        return new Test() {
+            boolean test(byte[] data, int off) {
+                return readField(type, data, off + field).compare(p.getOp(),
+                        p.getOperand());
+            }
+        };
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++)
+            if (s.charAt(i) >= 0x80)
+                return false;
+        return true;
+    }
+
+    private static Test stringEquals(final int field, String s,
+            final boolean equal) {
+        final byte[] v = new byte[s.length()];
+        for (int i = 0; i < v.length; i++)
+            v[i] = (byte) s.charAt(i);
+        return new Test() {
+            boolean test(byte[] data, int off) {
+                off += field;
+                if (readInt(data, off) != v.length)
+                    return !equal;
+                off += 4;
+                for (int i = 0; i < v.length; i++)
+                    if (data[off + i] != v[i])
+                        return !equal;
+                return equal;
+            }
+        };
+    }
+
+    private static Test compileInt(Predicate.Op op, final int field,
+            final int v) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return new Test() {
+                boolean test(byte[] data, int off) {
+                    return readInt(data, off + field) == v;
+                }
+            };
+        case NOT_EQUALS:
+            return new Test() {
+                boolean test(byte[] data, int off) {
+                    return readInt(data, off + field) != v;
+                }
+            };
+        case GREATER_THAN:
+            return new Test() {
+                boolean test(byte[] data, int off) {
+                    return readInt(data, off + field) > v;
+                }
+            };
+        case GREATER_THAN_OR_EQ:
+            return new Test() {
+                boolean test(byte[] data, int off) {
+                    return readInt(data, off + field) >= v;
+                }
+            };
+        case LESS_THAN:
+            return new Test() {
+                boolean test(byte[] data, int off) {
+                    return readInt(data, off + field) < v;
+                }
+            };
+        case LESS_THAN_OR_EQ:
+            return new Test() {
+                boolean test(byte[] data, int off) {
+                    return readInt(data, off + field) <= v;
+                }
+            };
+        default:
+            throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+import simpledb.parallel.LocalConsumer;
+import simpledb.parallel.LocalExchange;
+
+/**
+ * ParallelSeqScan reads a table with several threads. The pages of the
+ * {@link HeapFile} are split into morsels of {@link #MORSEL_PAGES}
+ * consecutive pages, and each worker takes the next unscanned morsel
+ * whenever it finishes one (see {@link Morsels}), so a slow worker only
+ * holds back the morsel it is on. Each worker evaluates the predicates and
+ * projection of the {@link SeqScan} it was built from on the pages it reads
+ * (see {@link PageFilter}), so filtering runs in parallel as well.
+ * <p>
+ * Read as an OpIterator or BatchIterator, the scan gathers the batches of
+ * the workers through a {@link LocalExchange}, whose producer threads are
+ * the workers; the order of the tuples is not defined. An operator that can
+ * run a copy of itself per worker instead calls {@link #run} with one
+ * {@link Sink} per worker and combines their results, as {@link Aggregate}
+ * does; those workers are tasks of a shared ForkJoinPool.
+ */
+public class ParallelSeqScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of consecutive pages a worker scans at a time. */
+    public static final int MORSEL_PAGES = 16;
+
+    /** Receives the batches one worker produces. */
+    public interface Sink {
+        /**
+         * Called by the worker thread with each batch it fills; the batch is
+         * not reused by the worker.
+         */
+        void consume(TupleBatch batch) throws DbException,
+                TransactionAbortedException;
+    }
+
+    private final SeqScan scan;
+    private final int parallelism;
+    transient private Morsels current;
+    transient private LocalConsumer gather;
+    transient private TupleBatch rows;
+    transient private int rowPos;
+    // the tuples handed to the consumer in batches
+    private final RowCount returned = new RowCount();
+
+    /**
+     * Constructor.
+     *
+     * @param scan
+     *            the scan to run in parallel, with any predicates and
+     *            projection already set; the runtime filter of a scan is not
+     *            supported
+     * @param parallelism
+     *            the number of workers
+     */
+    public ParallelSeqScan(SeqScan scan, int parallelism) {
+        this.scan = scan;
+        this.parallelism = parallelism;
+    }
+
+    /** @return the scan this runs in parallel */
+    public SeqScan getScan() {
+        return scan;
+    }
+
+    /** @return the number of workers */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return scan.getTupleDesc();
+    }
+
+    /**
+     * Scans the table with one worker per sink and returns when all of them
+     * are done.
+     *
+     * @param sinks
+     *            the sinks of the workers; sinks[i] is only called by the
+     *            i-th worker, so it needs no synchronization
+     * @throws DbException
+     *             if a worker failed; the others stop at their next page
+     */
+    public void run(Sink[] sinks) throws DbException,
+            TransactionAbortedException {
+        if (sinks.length == 0)
+            return;
+        Morsels morsels = new Morsels(scan.getTransactionId(),
+                scan.getTableId());
+        Morsels.Worker[] workers = new Morsels.Worker[sinks.length];
+        for (int i = 0; i < sinks.length; i++) {
+            final Sink sink = sinks[i];
+            final MorselScan in = new MorselScan(morsels);
+            workers[i] = new Morsels.Worker(morsels) {
+                private static final long serialVersionUID = 1L;
+
+                void work() throws Exception {
+                    in.open();
+                    try {
+                        TupleBatch batch;
+                        while ((batch = in.nextBatch()) != null)
+                            sink.consume(batch);
+                    } finally {
+                        in.close();
+                    }
+                }
+            };
+        }
+        morsels.run(workers);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        current = new Morsels(scan.getTransactionId(), scan.getTableId());
+        OpIterator[] inputs = new OpIterator[parallelism];
+        for (int i = 0; i < parallelism; i++)
+            inputs[i] = new MorselScan(current);
+        gather = LocalExchange.gather(inputs);
+        gather.open();
+        rows = null;
+        returned.reset();
+    }
+
+    /**
+     * @return the number of tuples this scan returned on its first complete
+     *         pass since it was opened, or -1 if it has not returned all its
+     *         tuples; tuples given to sinks by {@link #run} are not counted
+     */
+    public long getActualCardinality() {
+        return returned.get();
+    }
+
+    /** @return the number of tuples this scan has returned so far */
+    public long getActualRows() {
+        return returned.rows();
+    }
+
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (gather == null)
+            throw new IllegalStateException("scan not open");
+        TupleBatch b = gather.nextBatch();
+        if (b == null)
+            returned.finish();
+        else
+            returned.add(b.size());
+        return b;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        while (rows == null || rowPos == rows.size()) {
+            rows = nextBatch();
+            rowPos = 0;
+            if (rows == null)
+                return false;
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return rows.getTuple(rowPos++);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        if (current != null)
+            current.stop();
+        if (gather != null)
+            gather.close();
+        current = null;
+        gather = null;
+        rows = null;
+    }
+
+    /**
+     * Reads the morsels one worker takes from a {@link Morsels}, a new batch
+     * at a time. It cannot be rewound, since the morsels it took are gone.
+     */
+    private final class MorselScan implements BatchIterator {
+        private static final long serialVersionUID = 1L;
+        private final Morsels morsels;
+        transient private PageFilter filter;
+        transient private HeapPage page;
+        private int slot;
+        // the next page to read and the end of the morsel it is in
+        private int pg, end;
+        private boolean done;
+        transient private TupleBatch rows;
+        transient private int rowPos;
+
+        MorselScan(Morsels morsels) {
+            this.morsels = morsels;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            filter = scan.newPageFilter();
+            page = null;
+            pg = end = 0;
+            done = false;
+            rows = null;
+        }
+
+        public TupleBatch nextBatch() throws DbException,
+                TransactionAbortedException {
+            TupleBatch batch = new TupleBatch(getTupleDesc());
+            while (!batch.isFull()) {
+                if (page == null) {
+                    if (done || morsels.isStopped())
+                        break;
+                    if (pg == end) {
+                        pg = morsels.next();
+                        if (pg < 0) {
+                            done = true;
+                            break;
+                        }
+                        end = morsels.end(pg);
+                    }
+                    page = morsels.page(pg++);
+                    slot = 0;
+                }
+                slot = filter == null ? page.addTuples(slot, batch)
+                        : page.addTuples(slot, filter, batch);
+                if (slot >= page.numSlots)
+                    page = null;
+            }
+            return batch.size() == 0 || morsels.isStopped() ? null : batch;
+        }
+
+        public boolean hasNext() throws DbException,
+                TransactionAbortedException {
+            while (rows == null || rowPos == rows.size()) {
+                rows = nextBatch();
+                rowPos = 0;
+                if (rows == null)
+                    return false;
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return rows.getTuple(rowPos++);
+        }
+
+        public void rewind() throws DbException {
+            throw new DbException("a morsel scan cannot be rewound");
+        }
+
+        public TupleDesc getTupleDesc() {
+            return scan.getTupleDesc();
+        }
+
+        public void close() {
+            filter = null;
+            page = null;
+            rows = null;
+        }
+    }
+}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -11,6 +13,35 @@ import jline.SimpleCompletor;
 
 public class Parser {
     static boolean explain = false;
+    static boolean analyze = false;
+    static boolean lateMaterialization = false;
+    // parallel scans return tuples in no fixed order, so they are opt-in
+    static int scanThreads = 1;
+
+    /**
+     * ZQL has no LIMIT clause, so a trailing "LIMIT n [OFFSET m]" is cut from
+     * the statement text by {@link #stripLimit} before it reaches ZqlParser.
+     */
+    static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+LIMIT\\s+(\\d+)(?:\\s+OFFSET\\s+(\\d+))?\\s*(?=;|$)",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * A SELECT statement prefixed with EXPLAIN ANALYZE is run and printed
+     * with what each of its operators cost, as in -analyze mode.
+     */
+    static final Pattern EXPLAIN_ANALYZE = Pattern.compile(
+            "^\\s*EXPLAIN\\s+ANALYZE\\s+", Pattern.CASE_INSENSITIVE);
+
+    // LIMIT and OFFSET of the statement being processed; limit is -1 if none
+    private int limit = -1;
+    private int offset = 0;
+
+    // the plans of recent SELECT statements, and the statement being
+    // processed as the cache sees it, or null if it is not to be cached
+    private StatementCache statementCache = new StatementCache(
+            StatementCache.DEFAULT_CAPACITY);
+    private StatementCache.Statement statement;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -132,12 +163,19 @@ public class Parser {
 
     }
 
+    /** @return the number of threads a query over one table is scanned with */
+    protected int scanParallelism() {
+        return scanThreads;
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
         Vector<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        lp.setLateMaterialization(lateMaterialization);
+        lp.setScanParallelism(scanParallelism());
         // walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.elementAt(i);
@@ -253,18 +291,15 @@ public class Parser {
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -279,11 +314,100 @@ public class Parser {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        applyLimit(lp);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
         query.setLogicalPlan(lp);
+        if (statement != null && statementCache != null)
+            statementCache.put(statement, lp, TableStats.getStatsMap());
 
+        printPlan(physicalPlan, lp);
+        return query;
+    }
+
+    /**
+     * Prints the plan of a query that has run with analyze set, with what
+     * each of its operators cost.
+     */
+    private void printAnalyzedPlan(Query query) {
+        System.out.println("Analyzed plan (rows, time incl/excl, pages hits+reads, memory):");
+        new QueryPlanVisualizer().printAnalyzedPlanTree(
+                query.getPhysicalPlan(), query.getProfile(), System.out);
+    }
+
+    /**
+     * Plans a SELECT statement from the plan the statement cache holds for
+     * statements of its shape, with its constants and LIMIT put in. The plan
+     * is only printed in explain mode.
+     *
+     * @param lp
+     *            the plan {@link StatementCache#get} returned
+     */
+    Query handleCachedQuery(LogicalPlan lp, TransactionId tId)
+            throws simpledb.ParsingException {
+        Query query = new Query(tId);
+        applyLimit(lp);
+        OpIterator physicalPlan = lp.physicalPlan(tId,
+                TableStats.getStatsMap(), explain);
+        query.setPhysicalPlan(physicalPlan);
+        query.setLogicalPlan(lp);
+        if (explain)
+            printPlan(physicalPlan, lp);
+        return query;
+    }
+
+    /**
+     * Plans a SELECT statement without running it. A statement of the same
+     * shape as one planned before, but for its constants, is planned from
+     * the statement cache instead of being parsed and optimized.
+     */
+    public Query planQuery(String sql, TransactionId tId)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
+        sql = stripLimit(sql);
+        statement = statementCache != null ? StatementCache.normalize(sql)
+                : null;
+        try {
+            LogicalPlan cached = statement != null ? statementCache
+                    .get(statement) : null;
+            if (cached != null)
+                return handleCachedQuery(cached, tId);
+            ZStatement s = new ZqlParser(new ByteArrayInputStream(
+                    sql.getBytes("UTF-8"))).readStatement();
+            if (!(s instanceof ZQuery))
+                throw new simpledb.ParsingException("Not a SELECT statement: "
+                        + sql);
+            return handleQueryStatement((ZQuery) s, tId);
+        } finally {
+            statement = null;
+        }
+    }
+
+    /**
+     * Prepares a SELECT statement whose constants are given as ? when it is
+     * run; see {@link PreparedQuery}.
+     */
+    public PreparedQuery prepare(String sql) {
+        return new PreparedQuery(this, sql);
+    }
+
+    /** @return the cache of the plans of SELECT statements, or null if none */
+    public StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * Sets the cache of the plans of SELECT statements.
+     *
+     * @param cache
+     *            the cache, or null to plan every statement from scratch
+     */
+    public void setStatementCache(StatementCache cache) {
+        statementCache = cache;
+    }
+
+    private void printPlan(OpIterator physicalPlan, LogicalPlan lp) {
         if (physicalPlan != null) {
             Class<?> c;
             try {
@@ -316,8 +440,6 @@ public class Parser {
                 e.printStackTrace();
             }
         }
-
-        return query;
     }
 
     public Query handleInsertStatement(ZInsert s, TransactionId tId)
@@ -387,6 +509,7 @@ public class Parser {
         } else {
             ZQuery zq = (ZQuery) s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            applyLimit(lp);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -408,6 +531,9 @@ public class Parser {
             throw new simpledb.ParsingException("Unknown table : "
                     + s.getTable());
         }
+        if (limit >= 0)
+            throw new simpledb.ParsingException(
+                    "LIMIT is not supported in DELETE statements");
         String name = s.getTable();
         Query sdbq = new Query(tid);
 
@@ -463,14 +589,60 @@ public class Parser {
         }
     }
 
+    /**
+     * Removes a LIMIT/OFFSET clause from the end of the first statement in
+     * sql and remembers its values for {@link #applyLimit}.
+     * 
+     * @return sql without the LIMIT clause
+     * @throws simpledb.ParsingException
+     *             if the LIMIT or OFFSET value is not a valid int
+     */
+    String stripLimit(String sql) throws simpledb.ParsingException {
+        limit = -1;
+        offset = 0;
+        Matcher m = LIMIT_CLAUSE.matcher(sql);
+        while (m.find()) {
+            // skip matches inside string constants
+            int quotes = 0;
+            for (int i = 0; i < m.start(); i++)
+                if (sql.charAt(i) == '\'')
+                    quotes++;
+            if (quotes % 2 != 0)
+                continue;
+            // only the first statement is parsed
+            if (sql.substring(0, m.start()).indexOf(';') >= 0)
+                break;
+            try {
+                limit = Integer.parseInt(m.group(1));
+                if (m.group(2) != null)
+                    offset = Integer.parseInt(m.group(2));
+            } catch (NumberFormatException e) {
+                throw new simpledb.ParsingException("LIMIT and OFFSET must be ints");
+            }
+            return sql.substring(0, m.start()) + sql.substring(m.end());
+        }
+        return sql;
+    }
+
+    /**
+     * Adds the LIMIT clause found by the last {@link #stripLimit} call, if
+     * any, to the given plan.
+     */
+    void applyLimit(LogicalPlan lp) throws simpledb.ParsingException {
+        if (limit >= 0)
+            lp.addLimit(limit, offset);
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s)
+                .getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                applyLimit(lp);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,8 +675,30 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = is.read(buf)) != -1)
+                text.write(buf, 0, len);
+            String sql = stripLimit(text.toString("UTF-8"));
+            boolean analyzed = analyze;
+            Matcher m = EXPLAIN_ANALYZE.matcher(sql);
+            if (m.find()) {
+                analyzed = true;
+                sql = sql.substring(m.end());
+            }
+            // a SELECT of the shape of one planned before is not parsed again
+            statement = statementCache != null
+                    && sql.trim().regionMatches(true, 0, "select", 0, 6)
+                    ? StatementCache.normalize(sql) : null;
+            LogicalPlan cached = statement != null ? statementCache
+                    .get(statement) : null;
+            ZStatement s = null;
+            if (cached == null) {
+                ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                        sql.getBytes("UTF-8")));
+                s = p.readStatement();
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -517,7 +711,9 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (cached != null)
+                        query = handleCachedQuery(cached, curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -532,8 +728,16 @@ public class Parser {
                                         + s
                                         + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
                     }
-                    if (query != null)
+                    if (query != null) {
+                        boolean select = cached != null || s instanceof ZQuery;
+                        query.setAnalyze(analyzed && select);
                         query.execute();
+                        if (analyzed && select)
+                            printAnalyzedPlan(query);
+                        if (explain && select)
+                            new QueryPlanVisualizer().printRuntimeFilters(
+                                    query.getPhysicalPlan(), System.out);
+                    }
 
                     if (!inUserTrans && curtrans != null) {
                         curtrans.commit();
@@ -559,6 +763,7 @@ public class Parser {
                 } finally {
                     if (!inUserTrans)
                         curtrans = null;
+                    statement = null;
                 }
             }
 
@@ -581,11 +786,12 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "order by", "limit",
+            "offset" };
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 12) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -595,7 +801,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-analyze] [-late] [-threads n] [-cache statements] [-costs costFile] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -607,7 +813,8 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
+        // statistics are loaded, or computed, as the tables are planned
+        TableStats.useStatsFile(StatsFile.open(StatsFile.forCatalog(argv[0])));
 
         String queryFile = null;
 
@@ -616,6 +823,39 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-analyze")) {
+                    analyze = true;
+                    System.out.println("Analyze mode enabled.");
+                } else if (argv[i].equals("-late")) {
+                    lateMaterialization = true;
+                    System.out.println("Late materialization enabled.");
+                } else if (argv[i].equals("-threads")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected thread count after -threads\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    scanThreads = Integer.parseInt(argv[i]);
+                    System.out.println("Parallel scans with " + scanThreads
+                            + " threads enabled.");
+                } else if (argv[i].equals("-cache")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected statement count after -cache\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    int statements = Integer.parseInt(argv[i]);
+                    setStatementCache(statements > 0 ? new StatementCache(
+                            statements) : null);
+                } else if (argv[i].equals("-costs")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected cost file after -costs\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    CostModel costs = CostModel.load(new File(argv[i]));
+                    CostModel.setDefault(costs);
+                    System.out.println("Cost model: " + costs);
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -1,50 +1,98 @@
 package simpledb;
-import java.util.HashMap;
-import java.util.Set;
+import java.util.Arrays;
 import java.util.Vector;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to join a given set of tables.  A set of tables is a bitmask over the
+ * tables of the join graph (bit i is set if table i is in the set), and the
+ * best plan of each set is kept in arrays indexed by its mask, so looking up
+ * a subplan neither hashes nor allocates.  A plan is either a base table or
+ * the join of the plans of two disjoint subsets, so plans may be bushy. */
 public class PlanCache {
-    HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>> bestOrders= new HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>>();
-    HashMap<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<Set<LogicalJoinNode>,Double>();
-    HashMap<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<Set<LogicalJoinNode>,Integer>();
-    
-    /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
+    private final double[] bestCosts;
+    private final double[] bestCardinalities;
+    // the subset on the outer (left) side of the best plan; 0 for a base table
+    private final long[] outers;
+    private final LogicalJoinNode[] joins;
+
+    /** Create a cache for the subsets of n tables
+        @param n the number of tables; at most 30
+    */
+    PlanCache(int n) {
+        if (n > 30)
+            throw new IllegalArgumentException("too many tables for a plan cache: " + n);
+        bestCosts = new double[1 << n];
+        bestCardinalities = new double[1 << n];
+        outers = new long[1 << n];
+        joins = new LogicalJoinNode[1 << n];
+        Arrays.fill(bestCosts, Double.NaN);
+    }
+
+    /** Add a new cost, cardinality and plan for a particular set of tables.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
-        specified join set
-        @param s the set of joins for which a new ordering (plan) is being added
+        specified set
+        @param s the set of tables for which a new plan is being added
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
+        @param outer the subset joined on the outer side, or 0 if s is a base table
+        @param join the join of outer and s - outer, oriented so that its t1 is in outer; null for a base table
     */
-    void addPlan(Set<LogicalJoinNode> s, double cost, int card, Vector<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
-    }
-    
-    /** Find the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+    void addPlan(long s, double cost, double card, long outer, LogicalJoinNode join) {
+        int i = (int) s;
+        bestCosts[i] = cost;
+        bestCardinalities[i] = card;
+        outers[i] = outer;
+        joins[i] = join;
+    }
+
+    /** @return true if a plan for the set of tables s is in the cache */
+    boolean hasPlan(long s) {
+        return !Double.isNaN(bestCosts[(int) s]);
+    }
+
+    /** Find the cost of the best plan in the cache for the specified set
+        @param s the set of tables to look up the best cost for
+        @return the cost of the best plan for s in the cache
     */
-    Vector<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    double getCost(long s) {
+        return bestCosts[(int) s];
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cost for
-        @return the cost of the best order for s in the cache
+
+    /** Find the cardinality of the best plan in the cache for the specified set
+        @param s the set of tables to look up the best cardinality for
+        @return the cardinality of the best plan for s in the cache
     */
-    double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    double getCard(long s) {
+        return bestCardinalities[(int) s];
+    }
+
+    /** @return the subset on the outer side of the best plan for s, or 0 if s is a base table */
+    long getOuter(long s) {
+        return outers[(int) s];
+    }
+
+    /** @return the join at the root of the best plan for s, or null if s is a base table */
+    LogicalJoinNode getJoin(long s) {
+        return joins[(int) s];
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cardinality for
-        @return the cardinality of the best order for s in the cache
+
+    /** Find the best join order in the cache for the specified set
+        @param s the set of tables to look up the best order for
+        @return the joins of the best plan for s, each after the joins
+            that produce its inputs
     */
-    int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    Vector<LogicalJoinNode> getOrder(long s) {
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+        addOrder(s, order);
+        return order;
+    }
+
+    private void addOrder(long s, Vector<LogicalJoinNode> order) {
+        long outer = getOuter(s);
+        if (outer == 0)
+            return;
+        addOrder(outer, order);
+        addOrder(s & ~outer, order);
+        order.add(getJoin(s));
     }
 }
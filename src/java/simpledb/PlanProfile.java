@@ -0,0 +1,313 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.NoSuchElementException;
+
+/**
+ * PlanProfile measures what each operator of a plan costs as the plan runs,
+ * for EXPLAIN ANALYZE: the tuples it returns, the time spent in its
+ * iterator calls with and without the time of its children, the pages it
+ * fetches from the buffer pool, split into hits and reads from disk, and
+ * the most memory it buffered tuples in.
+ * <p>
+ * {@link #instrument} puts a probe between every operator and each of its
+ * children, and in front of the root; the plan is run through
+ * {@link #getRoot()}. Time and pages are measured around the calls that go
+ * through a probe, so they include the blocking work operators do when
+ * opened, such as building a hash table or sorting. {@link #restore} takes
+ * the probes out again, leaving the plan as it was, and the measurements
+ * are then looked up by operator.
+ * <p>
+ * Pages are counted by the buffer pool for all threads: those that workers
+ * of a {@link ParallelSeqScan} fetch ahead are charged to whichever operator
+ * is running when they are fetched.
+ */
+public class PlanProfile {
+
+    /**
+     * Probe wraps an iterator of the plan and measures the calls made to it.
+     * It is also a {@link BatchIterator}, so that consumers of batches read
+     * from batch producers without going through an adapter.
+     */
+    static final class Probe implements BatchIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        final OpIterator child;
+        final ArrayList<Probe> children = new ArrayList<Probe>();
+        long rows;
+        long loops;
+        long nanos;
+        long hits;
+        long reads;
+        transient private TupleBatch batch;
+
+        // set on entering a call, to be subtracted on leaving it
+        private long startNanos, startHits, startReads;
+
+        Probe(OpIterator child) {
+            this.child = child;
+        }
+
+        private void enter() {
+            BufferPool pool = Database.getBufferPool();
+            startHits = pool.getPageHits();
+            startReads = pool.getPageReads();
+            startNanos = System.nanoTime();
+        }
+
+        private void exit() {
+            nanos += System.nanoTime() - startNanos;
+            BufferPool pool = Database.getBufferPool();
+            hits += pool.getPageHits() - startHits;
+            reads += pool.getPageReads() - startReads;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            loops++;
+            enter();
+            try {
+                child.open();
+            } finally {
+                exit();
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            enter();
+            try {
+                return child.hasNext();
+            } finally {
+                exit();
+            }
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            enter();
+            try {
+                Tuple t = child.next();
+                rows++;
+                return t;
+            } finally {
+                exit();
+            }
+        }
+
+        public TupleBatch nextBatch() throws DbException,
+                TransactionAbortedException {
+            enter();
+            try {
+                TupleBatch b;
+                if (child instanceof BatchIterator) {
+                    b = ((BatchIterator) child).nextBatch();
+                } else {
+                    if (batch == null)
+                        batch = new TupleBatch(child.getTupleDesc());
+                    b = BatchAdapter.fill(child, batch);
+                }
+                if (b != null)
+                    rows += b.size();
+                return b;
+            } finally {
+                exit();
+            }
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            loops++;
+            enter();
+            try {
+                child.rewind();
+            } finally {
+                exit();
+            }
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void close() {
+            child.close();
+        }
+
+        long exclusiveNanos() {
+            long n = nanos;
+            for (Probe c : children)
+                n -= c.nanos;
+            return Math.max(0, n);
+        }
+
+        long exclusiveHits() {
+            long n = hits;
+            for (Probe c : children)
+                n -= c.hits;
+            return Math.max(0, n);
+        }
+
+        long exclusiveReads() {
+            long n = reads;
+            for (Probe c : children)
+                n -= c.reads;
+            return Math.max(0, n);
+        }
+    }
+
+    /**
+     * @return the iterator a probe wraps, or it itself if it is not a probe;
+     *         for operators that depend on the type of their children
+     */
+    static OpIterator unwrap(OpIterator it) {
+        while (it instanceof Probe)
+            it = ((Probe) it).child;
+        return it;
+    }
+
+    private final OpIterator plan;
+    private final Probe root;
+    private final IdentityHashMap<OpIterator, Probe> probes = new IdentityHashMap<OpIterator, Probe>();
+
+    private PlanProfile(OpIterator plan) {
+        this.plan = plan;
+        this.root = probe(plan);
+    }
+
+    /**
+     * Puts probes into a plan that has not been opened yet.
+     *
+     * @return the profile, through whose root the plan is to be run
+     */
+    public static PlanProfile instrument(OpIterator plan) {
+        return new PlanProfile(plan);
+    }
+
+    private Probe probe(OpIterator it) {
+        Probe p = new Probe(it);
+        probes.put(it, p);
+        if (it instanceof Operator) {
+            Operator o = (Operator) it;
+            OpIterator[] children = o.getChildren();
+            if (children != null && children.length > 0) {
+                OpIterator[] probed = new OpIterator[children.length];
+                for (int i = 0; i < children.length; i++) {
+                    if (children[i] == null)
+                        continue;
+                    Probe c = probe(children[i]);
+                    p.children.add(c);
+                    probed[i] = c;
+                }
+                o.setChildren(probed);
+            }
+        }
+        return p;
+    }
+
+    /** @return the plan, wrapped in the probe that measures its root */
+    public OpIterator getRoot() {
+        return root;
+    }
+
+    /** @return the plan that was instrumented */
+    public OpIterator getPlan() {
+        return plan;
+    }
+
+    /**
+     * Takes the probes out of the plan, leaving every operator with its own
+     * children again. The measurements are kept.
+     */
+    public void restore() {
+        for (Probe p : probes.values()) {
+            if (!(p.child instanceof Operator) || p.children.isEmpty())
+                continue;
+            Operator o = (Operator) p.child;
+            OpIterator[] children = o.getChildren();
+            OpIterator[] restored = new OpIterator[children.length];
+            for (int i = 0; i < children.length; i++)
+                restored[i] = unwrap(children[i]);
+            o.setChildren(restored);
+        }
+    }
+
+    private Probe get(OpIterator op) {
+        Probe p = probes.get(op);
+        if (p == null)
+            throw new NoSuchElementException("operator is not in the profiled plan");
+        return p;
+    }
+
+    /** @return true if the operator is in the profiled plan */
+    public boolean contains(OpIterator op) {
+        return probes.containsKey(op);
+    }
+
+    /** @return the tuples the operator returned, over all its passes */
+    public long getRows(OpIterator op) {
+        return get(op).rows;
+    }
+
+    /** @return the number of times the operator was opened or rewound */
+    public long getLoops(OpIterator op) {
+        return get(op).loops;
+    }
+
+    /** @return the time spent in the operator and its children, in ns */
+    public long getInclusiveNanos(OpIterator op) {
+        return get(op).nanos;
+    }
+
+    /** @return the time spent in the operator but not its children, in ns */
+    public long getExclusiveNanos(OpIterator op) {
+        return get(op).exclusiveNanos();
+    }
+
+    /**
+     * @return the pages the operator, but not its children, found in the
+     *         buffer pool
+     */
+    public long getPageHits(OpIterator op) {
+        return get(op).exclusiveHits();
+    }
+
+    /**
+     * @return the pages the operator, but not its children, had the buffer
+     *         pool read from disk
+     */
+    public long getPageReads(OpIterator op) {
+        return get(op).exclusiveReads();
+    }
+
+    /**
+     * @return the most bytes of tuples the operator held in memory at once,
+     *         or 0 if it does not buffer tuples
+     */
+    public long getPeakMemory(OpIterator op) {
+        get(op);
+        return op instanceof Operator ? ((Operator) op).getPeakMemory() : 0;
+    }
+
+    /**
+     * @return the measurements of an operator as shown in the plan tree, or
+     *         an empty string if it is not in the profiled plan
+     */
+    public String describe(OpIterator op) {
+        Probe p = probes.get(op);
+        if (p == null)
+            return "";
+        if (p.loops == 0)
+            // read by its parent directly, as a parallel scan under an
+            // aggregate is
+            return ",not measured";
+        String s = String.format(",rows:%1$d,time:%2$.3f/%3$.3fms,pages:%4$d+%5$d",
+                p.rows, p.nanos / 1e6, p.exclusiveNanos() / 1e6,
+                p.exclusiveHits(), p.exclusiveReads());
+        if (p.loops > 1)
+            s += ",loops:" + p.loops;
+        long memory = getPeakMemory(op);
+        if (memory > 0)
+            s += String.format(",mem:%1$dKB", (memory + 1023) / 1024);
+        return s;
+    }
+}
@@ -102,6 +102,18 @@ public class Predicate implements Serializable {
         return returned.compare(this.op, this.operand);
     }
 
+    /**
+     * Drops the selected rows of a batch that do not satisfy the predicate,
+     * by narrowing the batch's selection vector.
+     *
+     * @param batch
+     *            the batch to filter
+     * @see CompiledPredicate
+     */
+    public void filter(TupleBatch batch) {
+        CompiledPredicate.compile(this, batch.getTupleDesc()).filter(batch);
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
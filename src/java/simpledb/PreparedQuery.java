@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PreparedQuery is a SELECT statement whose constants are written as ? and
+ * given each time it is run, as in
+ * <pre>
+ * PreparedQuery q = parser.prepare("SELECT * FROM emp e WHERE e.dept = ?;");
+ * q.execute("sales");
+ * q.execute("research");
+ * </pre>
+ * Every run after the first is planned from the {@link StatementCache} of the
+ * parser, without being parsed or optimized again, as long as the cache is
+ * on and the statistics of its tables have not been replaced.
+ */
+public class PreparedQuery {
+
+    private final Parser parser;
+    private final String sql;
+    private final int parameters;
+
+    PreparedQuery(Parser parser, String sql) {
+        this.parser = parser;
+        this.sql = sql;
+        int n = 0;
+        boolean quoted = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'')
+                quoted = !quoted;
+            else if (c == '?' && !quoted)
+                n++;
+        }
+        parameters = n;
+    }
+
+    /** @return the number of ? of the statement */
+    public int getParameterCount() {
+        return parameters;
+    }
+
+    /**
+     * @return the statement with the given constants in place of its ?
+     * @throws ParsingException
+     *             if there are not as many constants as ?
+     */
+    public String bind(Object... params) throws ParsingException {
+        List<String> literals = new ArrayList<String>(params.length);
+        for (Object p : params)
+            literals.add(literal(p));
+        return StatementCache.substitute(sql, literals);
+    }
+
+    /**
+     * Runs the statement with the given constants and prints its results, as
+     * if it had been typed at the parser's prompt.
+     */
+    public void execute(Object... params) throws ParsingException {
+        parser.processNextStatement(bind(params));
+    }
+
+    /**
+     * Plans the statement with the given constants, without running it.
+     */
+    public Query query(TransactionId tid, Object... params)
+            throws TransactionAbortedException, DbException,
+            java.io.IOException, ParsingException, Zql.ParseException {
+        return parser.planQuery(bind(params), tid);
+    }
+
+    private static String literal(Object p) throws ParsingException {
+        if (p instanceof Integer)
+            return p.toString();
+        if (p instanceof String)
+            return "'" + ((String) p).replace("'", "''") + "'";
+        throw new ParsingException("Unsupported parameter " + p
+                + "; only integers and strings are");
+    }
+}
@@ -5,12 +5,14 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    transient private BatchIterator input;
+    transient private int[] columns;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -80,6 +82,21 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Returns the child's next batch restricted to the projected columns.
+     * No values are copied.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (input == null) {
+            input = BatchAdapter.of(child);
+            columns = new int[outFieldIds.size()];
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = outFieldIds.get(i);
+        }
+        TupleBatch batch = input.nextBatch();
+        return counted(batch == null ? null : batch.project(td, columns));
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
@@ -90,6 +107,7 @@ public class Project extends Operator {
 	if (this.child!=children[0])
 	{
 	    this.child = children[0];
+	    this.input = null;
 	}
     }
     
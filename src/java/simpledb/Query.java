@@ -20,6 +20,10 @@ public class Query implements Serializable {
     transient private LogicalPlan logicalPlan;
     TransactionId tid;
     transient private boolean started = false;
+    transient private boolean analyze = false;
+    transient private PlanProfile profile;
+    // the plan, or the probe in front of it when it is profiled
+    transient private OpIterator root;
 
     public TransactionId getTransactionId() {
         return this.tid;
@@ -35,24 +39,48 @@ public class Query implements Serializable {
 
     public void setPhysicalPlan(OpIterator pp) {
         this.op = pp;
+        this.root = pp;
     }
 
     public OpIterator getPhysicalPlan() {
         return this.op;
     }
 
+    /**
+     * Sets whether the cost of each operator of the plan is measured as it
+     * runs, for EXPLAIN ANALYZE; takes effect when the query is started.
+     */
+    public void setAnalyze(boolean analyze) {
+        this.analyze = analyze;
+    }
+
+    /**
+     * @return what each operator of the plan cost when the query last ran
+     *         with analyze set, or null
+     */
+    public PlanProfile getProfile() {
+        return this.profile;
+    }
+
     public Query(TransactionId t) {
         tid = t;
     }
 
     public Query(OpIterator root, TransactionId t) {
         op = root;
+        this.root = root;
         tid = t;
     }
 
     public void start() throws IOException, DbException,
             TransactionAbortedException {
-        op.open();
+        if (analyze) {
+            profile = PlanProfile.instrument(op);
+            root = profile.getRoot();
+        } else {
+            root = op;
+        }
+        root.open();
 
         started = true;
     }
@@ -63,7 +91,7 @@ public class Query implements Serializable {
 
     /** @return true if there are more tuples remaining. */
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        return op.hasNext();
+        return root.hasNext();
     }
 
     /**
@@ -83,11 +111,19 @@ public class Query implements Serializable {
         if (!started)
             throw new DbException("Database not started.");
 
-        return op.next();
+        return root.next();
     }
 
-    /** Close the iterator */
+    /**
+     * Close the iterator, recording the cardinalities of the scans and joins
+     * that returned all their tuples (see {@link CardinalityFeedback}). A
+     * profiled plan is left as it was before it was started.
+     */
     public void close() throws IOException {
+        if (profile != null && root == profile.getRoot())
+            profile.restore();
+        root = op;
+        CardinalityFeedback.getDefault().record(op);
         op.close();
         started = false;
     }
@@ -4,19 +4,27 @@ import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
 import simpledb.TupleDesc.TDItem;
+import simpledb.parallel.LocalConsumer;
 
 public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String MERGE_JOIN = "⨝(merge)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
+    static final String TOPN = "top";
+    static final String LIMIT = "limit";
+    static final String FETCH = "fetch";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
+    // the measured costs shown next to the estimates, if any
+    private PlanProfile profile;
+
     private int calculateQueryPlanTreeDepth(OpIterator root) {
         if (root == null)
             return 0;
@@ -26,7 +34,8 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin
+                || o instanceof SortMergeJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -65,8 +74,11 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
+        if (queryPlan instanceof SeqScan
+                || queryPlan instanceof ParallelSeqScan) {
+            SeqScan s = queryPlan instanceof ParallelSeqScan
+                    ? ((ParallelSeqScan) queryPlan).getScan()
+                    : (SeqScan) queryPlan;
             String tableName = s.getTableName();
             String alias = s.getAlias();
 //            TupleDesc td = s.getTupleDesc();
@@ -76,6 +88,16 @@ public class QueryPlanVisualizer {
                 alias = "";
             thisNode.text = String
                     .format("%1$s(%2$s)", SCAN, tableName + alias);
+            // predicates evaluated by the scan itself
+            TupleDesc td = s.getTableTupleDesc();
+            for (Predicate p : s.getPredicates())
+                thisNode.text += String.format(",%1$s(%2$s)", SELECT,
+                        td.getFieldName(p.getField()) + p.getOp() + p.getOperand());
+            if (queryPlan instanceof ParallelSeqScan)
+                thisNode.text += String.format(",threads:%1$d",
+                        ((ParallelSeqScan) queryPlan).getParallelism());
+            if (profile != null)
+                thisNode.text += profile.describe(queryPlan);
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -164,6 +186,34 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof SortMergeJoin) {
+                SortMergeJoin j = (SortMergeJoin) plan;
+                JoinPredicate jp = j.getJoinPredicate();
+                TupleDesc td = j.getTupleDesc();
+                String field1 = td.getFieldName(jp.getField1());
+                String field2 = td.getFieldName(jp.getField2()
+                        + children[0].getTupleDesc().numFields());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", MERGE_JOIN, field1
+                        + jp.getOperator() + field2,j.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (MERGE_JOIN.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = MERGE_JOIN.length() / 2;
+                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
+                        currentDepth + 3 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
+                        currentDepth + 3 + adjustDepth, children[1],
+                        currentStartPosition + left.width + SPACE.length(), 0);
+                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - MERGE_JOIN.length() / 2;
+                thisNode.width = Math.max(
+                        left.width + right.width + SPACE.length(),
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = left;
+                thisNode.rightChild = right;
+                thisNode.height = currentDepth;
             }
             else if (plan instanceof Aggregate) {
                 Aggregate a = (Aggregate) plan;
@@ -222,8 +272,8 @@ public class QueryPlanVisualizer {
                 thisNode.text = String.format(
                         "%1$s(%2$s),card:%3$d",
                         ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+                        sortFields(o.getOrderFieldNames(), o.getAscending()),
+                        o.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -238,6 +288,31 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN) {
+                TopN o = (TopN) plan;
+                thisNode.text = String.format("%1$s(%2$d,%3$s),card:%4$d",
+                        TOPN, o.getN(),
+                        sortFields(o.getOrderFieldNames(), o.getAscending()),
+                        o.getEstimatedCardinality());
+                buildUnaryNode(thisNode, TOPN, queryPlanDepth, currentDepth,
+                        adjustDepth, children[0], currentStartPosition,
+                        parentUpperBarStartShift);
+            } else if (plan instanceof Limit) {
+                Limit l = (Limit) plan;
+                thisNode.text = String.format("%1$s(%2$d offset %3$d),card:%4$d",
+                        LIMIT, l.getLimit(), l.getOffset(),
+                        l.getEstimatedCardinality());
+                buildUnaryNode(thisNode, LIMIT, queryPlanDepth, currentDepth,
+                        adjustDepth, children[0], currentStartPosition,
+                        parentUpperBarStartShift);
+            } else if (plan instanceof Fetch) {
+                Fetch f = (Fetch) plan;
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", FETCH,
+                        String.join(",", f.getAliases()),
+                        f.getEstimatedCardinality());
+                buildUnaryNode(thisNode, FETCH, queryPlanDepth, currentDepth,
+                        adjustDepth, children[0], currentStartPosition,
+                        parentUpperBarStartShift);
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 String fields = "";
@@ -261,6 +336,16 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
+            else if (plan instanceof LocalConsumer) {
+                LocalConsumer c = (LocalConsumer) plan;
+                String name = c.getName();
+                thisNode.text = String.format("%1$s(%2$d->%3$d),card:%4$d",
+                        name, children.length, c.getExchange().numOutputs(),
+                        c.getEstimatedCardinality());
+                buildUnaryNode(thisNode, name, queryPlanDepth, currentDepth,
+                        adjustDepth, children[0], currentStartPosition,
+                        parentUpperBarStartShift);
+            }
             else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
                 String name="Exchange";
                 int card=0;
@@ -330,10 +415,51 @@ public class QueryPlanVisualizer {
                 }
                 thisNode.height = currentDepth;
             }
+            if (profile != null && thisNode.text != null) {
+                thisNode.text += profile.describe(plan);
+                thisNode.width = Math.max(thisNode.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+            }
         }
         return thisNode;
     }
 
+    private static String sortFields(String[] names, boolean[] asc) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0)
+                sb.append(",");
+            sb.append(names[i]);
+            if (!asc[i])
+                sb.append(" desc");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Lays out a single-child node whose text has already been set, aligning
+     * the node's symbol over its child.
+     */
+    private void buildUnaryNode(SubTreeDescriptor thisNode, String symbol,
+            int queryPlanDepth, int currentDepth, int adjustDepth, OpIterator child,
+            int currentStartPosition, int parentUpperBarStartShift) {
+        int upBarShift = parentUpperBarStartShift;
+        if (symbol.length() / 2 > parentUpperBarStartShift)
+            upBarShift = symbol.length() / 2;
+        SubTreeDescriptor childNode = this.buildTree(queryPlanDepth,
+                currentDepth + 2 + adjustDepth, child, currentStartPosition,
+                upBarShift);
+        thisNode.upBarPosition = childNode.upBarPosition;
+        thisNode.textStartPosition = thisNode.upBarPosition
+                - symbol.length() / 2;
+        thisNode.width = Math.max(childNode.width,
+                thisNode.textStartPosition + thisNode.text.length()
+                        - currentStartPosition);
+        thisNode.leftChild = childNode;
+        thisNode.height = currentDepth;
+    }
+
     private void printTree(SubTreeDescriptor root, char[] buffer, int width) {
         if (root == null)
             return;
@@ -398,4 +524,52 @@ public class QueryPlanVisualizer {
 
         out.println(tree);
     }
+
+    /**
+     * Prints the plan tree of a query that has run, with what each operator
+     * was measured to cost next to its estimated cardinality: the tuples it
+     * returned, the time spent in it with and without its children, the
+     * pages it fetched itself as hits+reads, and the memory it buffered
+     * tuples in.
+     */
+    public void printAnalyzedPlanTree(OpIterator physicalPlan,
+            PlanProfile profile, PrintStream out) {
+        this.profile = profile;
+        try {
+            printQueryPlanTree(physicalPlan, out);
+        } finally {
+            this.profile = null;
+        }
+    }
+
+    /**
+     * Prints how many probe tuples the runtime filter of each join in the
+     * plan rejected. The counts are only known once the plan has run.
+     */
+    public void printRuntimeFilters(OpIterator physicalPlan, PrintStream out) {
+        if (out == null)
+            out = System.out;
+        if (!(physicalPlan instanceof Operator))
+            return;
+        Operator o = (Operator) physicalPlan;
+        BloomFilter filter = null;
+        String name = null;
+        if (o instanceof HashEquiJoin) {
+            HashEquiJoin j = (HashEquiJoin) o;
+            filter = j.getRuntimeFilter();
+            name = HASH_JOIN + "(" + j.getJoinField1Name() + ","
+                    + j.getJoinField2Name() + ")";
+        } else if (o instanceof Join) {
+            Join j = (Join) o;
+            filter = j.getRuntimeFilter();
+            name = JOIN + "(" + j.getJoinField1Name() + ","
+                    + j.getJoinField2Name() + ")";
+        }
+        if (filter != null)
+            out.println(name + " runtime filter: " + filter);
+        OpIterator[] children = o.getChildren();
+        if (children != null)
+            for (OpIterator child : children)
+                printRuntimeFilters(child, out);
+    }
 }
@@ -0,0 +1,46 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * RowCount counts the tuples an operator returns, to be compared with its
+ * estimated cardinality. Only the first pass over the operator's output
+ * counts: once it is complete, tuples returned again after a rewind are not
+ * added.
+ */
+final class RowCount implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long rows;
+    private boolean complete;
+
+    /** Starts counting again, when the operator is opened. */
+    void reset() {
+        rows = 0;
+        complete = false;
+    }
+
+    void add(int n) {
+        if (!complete)
+            rows += n;
+    }
+
+    /** Notes that the operator has returned all its tuples. */
+    void finish() {
+        complete = true;
+    }
+
+    /** @return the tuples returned so far on the first pass */
+    long rows() {
+        return rows;
+    }
+
+    /**
+     * @return the tuples of the first pass, or -1 if it is not complete, as
+     *         under a LIMIT
+     */
+    long get() {
+        return complete ? rows : -1;
+    }
+}
@@ -7,7 +7,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchIterator {
 
     private TransactionId transactionId;
     private int tableid;
@@ -16,6 +16,23 @@ public class SeqScan implements OpIterator {
     transient private HeapFile heapFile;
     transient private DbFileIterator dbFileIterator;
     TupleDesc tupleDesc;
+    // predicates and projection evaluated by the scan itself; see PageFilter
+    private ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+    private int[] columns;
+    private boolean rowReference;
+    transient private PageFilter pageFilter;
+    // the batch the row interface reads from when there is a page filter
+    transient private TupleBatch rows;
+    transient private int rowPos;
+    // runtime join filter pushed down by a join, and the tuple it let through
+    transient private BloomFilter runtimeFilter;
+    transient private int runtimeFilterField;
+    transient private Tuple pending;
+    transient private TupleBatch batch;
+    // the tuples returned, and those that satisfied the predicates, before
+    // the runtime filter dropped some
+    private final RowCount returned = new RowCount();
+    private final RowCount matched = new RowCount();
     private static final long serialVersionUID = 1L;
 
     /**
@@ -41,15 +58,30 @@ public class SeqScan implements OpIterator {
         this.tableName = Database.getCatalog().getTableName(this.tableid);
         heapFile = null;//(HeapFile)Database.getCatalog().getDatabaseFile(this.tableid);
         dbFileIterator = null;//heapFile.iterator(this.transactionId);
-        tupleDesc = Database.getCatalog().getTupleDesc(this.tableid);
-        int numberOfFields = tupleDesc.numFields();
-        Type[] returnedType = new Type[numberOfFields];
-        String[] returnedString = new String[numberOfFields];
+        tupleDesc = aliasedTupleDesc(columns, rowReference);
+    }
+
+    /**
+     * @return the schema of the table with each field name prefixed by the
+     *         alias, restricted to the given columns unless they are null,
+     *         and followed by the row reference if asked for
+     */
+    private TupleDesc aliasedTupleDesc(int[] columns, boolean rowReference) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(this.tableid);
+        int numberOfFields = columns == null ? td.numFields() : columns.length;
+        int width = rowReference ? numberOfFields + 1 : numberOfFields;
+        Type[] returnedType = new Type[width];
+        String[] returnedString = new String[width];
         for(int i = 0; i < numberOfFields; i ++) {
-            returnedType[i] = tupleDesc.getFieldType(i);
-            returnedString[i] = this.tableAlias + "." +  tupleDesc.getFieldName(i);
+            int field = columns == null ? i : columns[i];
+            returnedType[i] = td.getFieldType(field);
+            returnedString[i] = this.tableAlias + "." + td.getFieldName(field);
+        }
+        if (rowReference) {
+            returnedType[numberOfFields] = Type.INT_TYPE;
+            returnedString[numberOfFields] = Fetch.referenceName(this.tableAlias);
         }
-        tupleDesc = new TupleDesc(returnedType, returnedString);
+        return new TupleDesc(returnedType, returnedString);
     }
 
     /**
@@ -88,25 +120,158 @@ public class SeqScan implements OpIterator {
         this.heapFile = (HeapFile)Database.getCatalog().getDatabaseFile(this.tableid);
         this.tableName = Database.getCatalog().getTableName(this.tableid);
         this.dbFileIterator = this.heapFile.iterator(this.transactionId);
-        tupleDesc = Database.getCatalog().getTupleDesc(this.tableid);
-        int numberOfFields = tupleDesc.numFields();
-        Type[] returnedType = new Type[numberOfFields];
-        String[] returnedString = new String[numberOfFields];
-        for(int i = 0; i < numberOfFields; i ++) {
-            returnedType[i] = tupleDesc.getFieldType(i);
-            returnedString[i] = this.tableAlias + "." + tupleDesc.getFieldName(i);
-        }
-        tupleDesc = new TupleDesc(returnedType, returnedString);
+        tupleDesc = aliasedTupleDesc(columns, rowReference);
     }
 
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Adds a predicate that every tuple must satisfy to be returned by this
+     * scan. The scan tests it on the bytes of each page before decoding a
+     * tuple, instead of passing every tuple up to a {@link Filter}.
+     *
+     * @param p
+     *            the predicate; its field is an index into the schema of the
+     *            table (see {@link #getTableTupleDesc()}), whether or not the
+     *            scan returns that field
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+    }
+
+    /** @return the predicates added by {@link #addPredicate} */
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    /**
+     * Makes the scan return only some of the fields of the table; the
+     * others are never decoded.
+     *
+     * @param columns
+     *            the indexes of the fields of the table to return, in order,
+     *            or null for all of them
+     */
+    public void setProjection(int[] columns) {
+        this.columns = columns;
+        tupleDesc = aliasedTupleDesc(columns, rowReference);
+    }
+
+    /**
+     * @return the fields of the table the scan returns, or null if it
+     *         returns all of them
+     */
+    public int[] getProjection() {
+        return columns;
+    }
+
+    /**
+     * Makes the scan return a row reference after the other fields: an
+     * INT_TYPE field named by {@link Fetch#referenceName} from which a
+     * {@link Fetch} operator above can read the remaining fields of the
+     * tuple. Together with a projection to the join keys this keeps wide
+     * tuples out of the joins of a query.
+     */
+    public void setRowReference(boolean rowReference) {
+        this.rowReference = rowReference;
+        tupleDesc = aliasedTupleDesc(columns, rowReference);
+    }
+
+    /** @return true if the scan returns row references */
+    public boolean hasRowReference() {
+        return rowReference;
+    }
+
+    /**
+     * @return the schema of the whole table, with field names prefixed by
+     *         the alias; the fields of predicates index this
+     */
+    public TupleDesc getTableTupleDesc() {
+        return columns == null && !rowReference ? tupleDesc
+                : aliasedTupleDesc(null, false);
+    }
+
+    /**
+     * Sets a filter that every tuple must pass before it is returned by this
+     * scan. Joins use this to drop tuples that cannot find a join partner;
+     * see {@link BloomFilter#attach}.
+     *
+     * @param field
+     *            the index of the field the filter is tested on
+     * @param filter
+     *            the filter, or null to remove it
+     */
+    public void setRuntimeFilter(int field, BloomFilter filter) {
+        this.runtimeFilterField = field;
+        this.runtimeFilter = filter;
+    }
+
+    /** @return the runtime filter set on this scan, or null */
+    public BloomFilter getRuntimeFilter() {
+        return runtimeFilter;
+    }
+
+    /** @return the index of the field the runtime filter is tested on */
+    public int getRuntimeFilterField() {
+        return runtimeFilterField;
+    }
+
+    /** @return the id of the table this scans */
+    int getTableId() {
+        return tableid;
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    TransactionId getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * @return a filter evaluating the predicates, projection and row
+     *         reference of this scan on the bytes of a page, or null if the
+     *         scan returns the tuples of the table as they are
+     */
+    PageFilter newPageFilter() {
+        if (predicates.isEmpty() && columns == null && !rowReference)
+            return null;
+        return new PageFilter(Database.getCatalog().getTupleDesc(tableid),
+                predicates, columns, tupleDesc, rowReference);
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         heapFile = (HeapFile)Database.getCatalog().getDatabaseFile(this.tableid);
         dbFileIterator = heapFile.iterator(this.transactionId);
         this.dbFileIterator.open();
+        pageFilter = newPageFilter();
+        batch = null;
+        rows = null;
+        returned.reset();
+        matched.reset();
+    }
+
+    /**
+     * @return the number of tuples this scan returned on its first complete
+     *         pass since it was opened, or -1 if it has not returned all its
+     *         tuples
+     */
+    public long getActualCardinality() {
+        return returned.get();
+    }
+
+    /** @return the number of tuples this scan has returned so far */
+    public long getActualRows() {
+        return returned.rows();
+    }
+
+    /**
+     * @return the number of tuples that satisfied the predicates of this scan
+     *         on its first complete pass, before its runtime filter, if any,
+     *         was applied; or -1 if it has not returned all its tuples
+     */
+    public long getMatchedCardinality() {
+        return matched.get();
     }
 
     /**
@@ -124,20 +289,111 @@ public class SeqScan implements OpIterator {
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
-        return this.dbFileIterator.hasNext();
+        if (pageFilter != null) {
+            while (rows == null || rowPos == rows.size()) {
+                rows = readBatch();
+                rowPos = 0;
+                if (rows == null)
+                    return false;
+            }
+            return true;
+        }
+        if (runtimeFilter == null && pending == null) {
+            if (this.dbFileIterator.hasNext())
+                return true;
+            finish();
+            return false;
+        }
+        while (pending == null && dbFileIterator.hasNext()) {
+            Tuple t = dbFileIterator.next();
+            matched.add(1);
+            if (runtimeFilter == null
+                    || runtimeFilter.mightContain(t.getField(runtimeFilterField)))
+                pending = t;
+        }
+        if (pending == null)
+            finish();
+        return pending != null;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        return this.dbFileIterator.next();
+        if (pageFilter != null) {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            returned.add(1);
+            return rows.getTuple(rowPos++);
+        }
+        if (runtimeFilter == null && pending == null) {
+            Tuple t = this.dbFileIterator.next();
+            returned.add(1);
+            matched.add(1);
+            return t;
+        }
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = pending;
+        pending = null;
+        returned.add(1);
+        return t;
+    }
+
+    /**
+     * Reads the next tuples that satisfy the predicates and pass the runtime
+     * filter, if any, into a batch.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b = readBatch();
+        if (b != null)
+            returned.add(b.size());
+        return b;
+    }
+
+    private void finish() {
+        returned.finish();
+        matched.finish();
+    }
+
+    private TupleBatch readBatch() throws DbException,
+            TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch(tupleDesc);
+        batch.clear();
+        if (pending != null) {
+            batch.add(pending);
+            pending = null;
+        }
+        while (true) {
+            // a pending tuple was counted and passed the runtime filter
+            // when it was read
+            int read = batch.size();
+            if (pageFilter != null)
+                dbFileIterator.fill(batch, pageFilter);
+            else
+                dbFileIterator.fill(batch);
+            if (batch.size() == 0) {
+                finish();
+                return null;
+            }
+            matched.add(batch.size() - read);
+            if (runtimeFilter != null)
+                runtimeFilter.filter(batch, runtimeFilterField, read);
+            if (batch.size() > 0)
+                return batch;
+            batch.clear();
+        }
     }
 
     public void close() {
         dbFileIterator.close();
+        pending = null;
+        rows = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         this.dbFileIterator.rewind();
+        pending = null;
+        rows = null;
     }
 }
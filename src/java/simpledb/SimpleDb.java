@@ -90,6 +90,19 @@ public class SimpleDb {
             }
 
         }
+        else if (args[0].equals("calibrate")) {
+            // measure the cost model of this machine
+            String[] newargs = new String[args.length-1];
+            for (int i = 1; i < args.length; ++i) {
+                newargs[i-1] = args[i];
+            }
+            try {
+                CostCalibrator.main(newargs);
+            } catch (Exception e) {
+                System.out.println("Error in calibration.");
+                e.printStackTrace();
+            }
+        }
         else {
             System.err.println("Unknown command: " + args[0]);
             System.exit(1);
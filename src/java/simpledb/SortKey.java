@@ -0,0 +1,180 @@
+package simpledb;
+
+/**
+ * SortKey describes a sort order over one or more fields of a tuple, each
+ * ascending or descending, and encodes a tuple's sort fields into a
+ * normalized key: a byte array whose unsigned lexicographic order is the
+ * sort order. Sorting on normalized keys replaces a chain of virtual
+ * {@link Field#compare} calls per comparison with a byte loop, and the first
+ * eight bytes of every key are kept as a long so most comparisons are a
+ * single primitive compare.
+ * <p>
+ * The encoding of each field has a fixed width, so keys of the same SortKey
+ * all have the same length:
+ * <ul>
+ * <li>INT_TYPE: four bytes, big-endian, with the sign bit flipped.</li>
+ * <li>STRING_TYPE: the first {@link Type#STRING_LEN} chars, two bytes each,
+ * padded with zeros, followed by the string length in two bytes. This
+ * matches {@link String#compareTo}.</li>
+ * </ul>
+ * The bytes of a descending field are inverted.
+ */
+public class SortKey {
+
+    private final TupleDesc td;
+    private final int[] fields;
+    private final boolean[] asc;
+    private final int keyLength;
+
+    /**
+     * Creates a sort order.
+     *
+     * @param td
+     *            the schema of the tuples to sort
+     * @param fields
+     *            the indexes of the sort fields, most significant first
+     * @param asc
+     *            for each sort field, true if it is sorted ascending
+     */
+    public SortKey(TupleDesc td, int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length)
+            throw new IllegalArgumentException(
+                    "need one direction for each of at least one sort field");
+        this.td = td;
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+        int len = 0;
+        for (int f : fields)
+            len += encodedLength(td.getFieldType(f));
+        this.keyLength = len;
+    }
+
+    /**
+     * Creates a sort order on a single field.
+     */
+    public SortKey(TupleDesc td, int field, boolean asc) {
+        this(td, new int[] { field }, new boolean[] { asc });
+    }
+
+    /** @return the indexes of the sort fields, most significant first */
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    /** @return for each sort field, true if it is sorted ascending */
+    public boolean[] getAscending() {
+        return asc.clone();
+    }
+
+    /** @return the length in bytes of the keys produced by {@link #encode} */
+    public int keyLength() {
+        return keyLength;
+    }
+
+    private static int encodedLength(Type t) {
+        switch (t) {
+        case INT_TYPE:
+            return 4;
+        case STRING_TYPE:
+            return 2 * Type.STRING_LEN + 2;
+        default:
+            throw new IllegalArgumentException("cannot sort on type " + t);
+        }
+    }
+
+    /**
+     * Encodes the sort fields of t into a normalized key.
+     */
+    public byte[] encode(Tuple t) {
+        byte[] key = new byte[keyLength];
+        int pos = 0;
+        for (int i = 0; i < fields.length; i++) {
+            int start = pos;
+            Field f = t.getField(fields[i]);
+            switch (td.getFieldType(fields[i])) {
+            case INT_TYPE: {
+                int v = ((IntField) f).getValue() ^ Integer.MIN_VALUE;
+                key[pos++] = (byte) (v >>> 24);
+                key[pos++] = (byte) (v >>> 16);
+                key[pos++] = (byte) (v >>> 8);
+                key[pos++] = (byte) v;
+                break;
+            }
+            case STRING_TYPE: {
+                String s = ((StringField) f).getValue();
+                int n = Math.min(s.length(), Type.STRING_LEN);
+                for (int j = 0; j < n; j++) {
+                    char c = s.charAt(j);
+                    key[pos++] = (byte) (c >>> 8);
+                    key[pos++] = (byte) c;
+                }
+                pos = start + 2 * Type.STRING_LEN;
+                key[pos++] = (byte) (n >>> 8);
+                key[pos++] = (byte) n;
+                break;
+            }
+            }
+            if (!asc[i])
+                for (int j = start; j < pos; j++)
+                    key[j] = (byte) ~key[j];
+        }
+        return key;
+    }
+
+    /**
+     * Compares two normalized keys as unsigned byte strings.
+     */
+    public static int compare(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int x = a[i] & 0xff;
+            int y = b[i] & 0xff;
+            if (x != y)
+                return x - y;
+        }
+        return a.length - b.length;
+    }
+
+    /** @return the first eight bytes of key as a big-endian long */
+    static long prefix(byte[] key) {
+        long p = 0;
+        for (int i = 0; i < 8; i++)
+            p = (p << 8) | (i < key.length ? key[i] & 0xff : 0);
+        return p;
+    }
+
+    /**
+     * Pairs t with its normalized key.
+     */
+    public Keyed wrap(Tuple t) {
+        return new Keyed(t, encode(t));
+    }
+
+    /**
+     * A tuple together with its normalized key. Keyed tuples are ordered by
+     * their keys.
+     */
+    public static final class Keyed implements Comparable<Keyed> {
+        final Tuple tuple;
+        final byte[] key;
+        final long prefix;
+
+        Keyed(Tuple tuple, byte[] key) {
+            this.tuple = tuple;
+            this.key = key;
+            this.prefix = SortKey.prefix(key);
+        }
+
+        public Tuple getTuple() {
+            return tuple;
+        }
+
+        public int compareTo(Keyed o) {
+            if (prefix != o.prefix)
+                return Long.compareUnsigned(prefix, o.prefix);
+            if (key.length <= 8 && o.key.length <= 8)
+                return key.length - o.key.length;
+            return SortKey.compare(key, o.key);
+        }
+    }
+}
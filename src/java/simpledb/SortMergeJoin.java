@@ -0,0 +1,414 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator joins two inputs that are sorted on their join
+ * fields. It handles equality as well as the band predicates
+ * <code>&lt;</code>, <code>&lt;=</code>, <code>&gt;</code> and
+ * <code>&gt;=</code>, for which {@link HashEquiJoin} cannot be used.
+ * <p>
+ * Both inputs are sorted ascending on their join field with an
+ * {@link ExternalSorter}, unless the child already is an ascending
+ * {@link OrderBy} on that field. The sorted right input is kept for random
+ * access: in memory if it fits in the budget, otherwise in a single
+ * {@link SpillFile}. The left input is then streamed. Because it arrives in
+ * order, two cursors into the right input only ever move forward: the first
+ * right tuple that is not smaller than the current left tuple, and the first
+ * one that is greater. Every predicate matches a contiguous range of the
+ * right input bounded by these cursors and its ends, e.g. <code>l &lt; r</code>
+ * matches everything from the second cursor on. The join therefore compares
+ * each tuple a constant number of times instead of once per pair, and only
+ * the matching tuples are read again.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget of each input, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+    private final int memoryPages;
+
+    // sorted left input; null if child1 is read directly
+    transient private ExternalSorter sorter1;
+    transient private DbFileIterator left;
+    // sorted right input, either in memory or on disk
+    transient private ArrayList<Tuple> rightTuples;
+    transient private SpillFile rightFile;
+    transient private int numRight;
+    transient private Cursor ge, gt;
+
+    transient private Tuple t1;
+    transient private DbFileIterator matches;
+    transient private int remaining;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor with an explicit memory budget for sorting.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be one of
+     *            EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or
+     *            GREATER_THAN_OR_EQ
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param memoryPages
+     *            the number of pages worth of tuples each input may hold in
+     *            memory
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+            int memoryPages) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("sort-merge join cannot evaluate "
+                    + p.getOperator());
+        if (memoryPages < 1)
+            throw new IllegalArgumentException("memory budget must be at least one page");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryPages = memoryPages;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a sort-merge join can evaluate the given join operator
+     */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name()
+    {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name()
+    {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public int getMemoryPages()
+    {
+        return this.memoryPages;
+    }
+
+    /**
+     * @return true if the sorted right input did not fit in memory and was
+     *         written to disk
+     */
+    public boolean spilled() {
+        return rightFile != null;
+    }
+
+    /**
+     * @return true if child is known to produce its tuples in ascending order
+     *         of the given field
+     */
+    private static boolean isSortedOn(OpIterator child, int field) {
+        child = PlanProfile.unwrap(child);
+        if (!(child instanceof OrderBy))
+            return false;
+        OrderBy o = (OrderBy) child;
+        return o.getOrderByFields()[0] == field && o.getAscending()[0];
+    }
+
+    private ExternalSorter sort(OpIterator child, int field)
+            throws DbException, TransactionAbortedException {
+        TupleDesc td = child.getTupleDesc();
+        ExternalSorter sorter = new ExternalSorter(td,
+                new SortKey(td, field, true), memoryPages);
+        while (child.hasNext())
+            sorter.add(child.next());
+        sorter.finish();
+        useMemory(sorter.getMemoryBytes());
+        return sorter;
+    }
+
+    /**
+     * Sorts the right input and keeps it in memory or, if it is too large, in
+     * one spill file.
+     */
+    private void loadRight() throws DbException, TransactionAbortedException {
+        DbFileIterator in;
+        ExternalSorter sorter2 = null;
+        if (isSortedOn(child2, pred.getField2())) {
+            in = new OpIteratorAdapter(child2);
+        } else {
+            sorter2 = sort(child2, pred.getField2());
+            in = sorter2.iterator();
+        }
+        int capacity = memoryPages * Math.max(1, BufferPool.getPageSize()
+                / child2.getTupleDesc().getSize());
+        rightTuples = new ArrayList<Tuple>();
+        numRight = 0;
+        try {
+            in.open();
+            while (in.hasNext()) {
+                Tuple t = in.next();
+                if (rightFile != null) {
+                    rightFile.add(t);
+                } else {
+                    rightTuples.add(t);
+                    if (rightTuples.size() > capacity) {
+                        rightFile = new SpillFile(child2.getTupleDesc(), "mergejoin");
+                        for (Tuple r : rightTuples)
+                            rightFile.add(r);
+                        rightTuples = null;
+                    }
+                }
+                numRight++;
+            }
+        } finally {
+            in.close();
+            if (sorter2 != null)
+                sorter2.close();
+        }
+        if (rightFile != null)
+            rightFile.finishWriting();
+        else
+            useMemory((long) numRight * child2.getTupleDesc().getSize());
+    }
+
+    /** @return an iterator over the sorted right input starting at from */
+    private DbFileIterator rightIterator(final int from) {
+        if (rightFile != null)
+            return rightFile.iterator(from);
+        return new AbstractDbFileIterator() {
+            private int pos;
+
+            public void open() {
+                pos = from;
+            }
+
+            protected Tuple readNext() {
+                return pos < numRight ? rightTuples.get(pos++) : null;
+            }
+
+            public void rewind() {
+                close();
+                open();
+            }
+        };
+    }
+
+    private void openLeft() throws DbException, TransactionAbortedException {
+        if (isSortedOn(child1, pred.getField1())) {
+            left = new OpIteratorAdapter(child1);
+        } else {
+            sorter1 = sort(child1, pred.getField1());
+            left = sorter1.iterator();
+        }
+        left.open();
+    }
+
+    private void startMerge() throws DbException, TransactionAbortedException {
+        closeCursors();
+        ge = new Cursor(Predicate.Op.LESS_THAN);
+        gt = new Cursor(Predicate.Op.LESS_THAN_OR_EQ);
+        t1 = null;
+        remaining = 0;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        loadRight();
+        openLeft();
+        startMerge();
+        super.open();
+    }
+
+    private void closeCursors() {
+        for (Cursor c : new Cursor[] { ge, gt })
+            if (c != null)
+                c.it.close();
+        ge = null;
+        gt = null;
+        if (matches != null)
+            matches.close();
+        matches = null;
+    }
+
+    public void close() {
+        super.close();
+        closeCursors();
+        if (left != null)
+            left.close();
+        left = null;
+        if (sorter1 != null)
+            sorter1.close();
+        sorter1 = null;
+        if (rightFile != null)
+            rightFile.delete();
+        rightFile = null;
+        rightTuples = null;
+        child2.close();
+        child1.close();
+        t1 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        startMerge();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The tuples returned are the concatenation of joining tuples
+     * from the left and right relation, ordered by the left join field.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (remaining == 0) {
+            if (!left.hasNext())
+                return null;
+            t1 = left.next();
+            Field key = t1.getField(pred.getField1());
+            int lo, hi;
+            switch (pred.getOperator()) {
+            case EQUALS:
+                lo = ge.advance(key);
+                hi = gt.advance(key);
+                break;
+            case LESS_THAN:
+                lo = gt.advance(key);
+                hi = numRight;
+                break;
+            case LESS_THAN_OR_EQ:
+                lo = ge.advance(key);
+                hi = numRight;
+                break;
+            case GREATER_THAN:
+                lo = 0;
+                hi = ge.advance(key);
+                break;
+            default: // GREATER_THAN_OR_EQ
+                lo = 0;
+                hi = gt.advance(key);
+                break;
+            }
+            if (lo >= hi)
+                continue;
+            if (matches != null)
+                matches.close();
+            matches = rightIterator(lo);
+            matches.open();
+            remaining = hi - lo;
+        }
+
+        Tuple t2 = matches.next();
+        remaining--;
+        return new JoinedTuple(comboTD, t1, t2);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * A forward-only position in the sorted right input: the index of the
+     * first tuple whose join field does not satisfy
+     * <code>right skip left</code>.
+     */
+    private class Cursor {
+        final Predicate.Op skip;
+        final DbFileIterator it;
+        int pos;
+        Tuple current;
+
+        Cursor(Predicate.Op skip) throws DbException, TransactionAbortedException {
+            this.skip = skip;
+            this.it = rightIterator(0);
+            it.open();
+            pos = 0;
+            current = it.hasNext() ? it.next() : null;
+        }
+
+        /** Moves past all right tuples r with r skip key; returns the position. */
+        int advance(Field key) throws DbException, TransactionAbortedException {
+            while (current != null
+                    && current.getField(pred.getField2()).compare(skip, key)) {
+                pos++;
+                current = it.hasNext() ? it.next() : null;
+            }
+            return pos;
+        }
+    }
+
+    /** Reads an already sorted child through the DbFileIterator interface. */
+    private static class OpIteratorAdapter implements DbFileIterator {
+        private final OpIterator child;
+
+        OpIteratorAdapter(OpIterator child) {
+            this.child = child;
+        }
+
+        public void open() {
+            // the child is opened by the join
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return child.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            return child.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        public void close() {
+            // the child is closed by the join
+        }
+    }
+}
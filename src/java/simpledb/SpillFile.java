@@ -0,0 +1,243 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SpillFile is a private temporary file of tuples, used by operators that
+ * need more state than their memory budget allows (e.g. the runs of an
+ * {@link ExternalSorter}). Tuples are written with {@link Field#serialize}
+ * in the same layout a HeapPage uses for one slot, so every record occupies
+ * exactly {@link TupleDesc#getSize()} bytes.
+ * <p>
+ * Spill files do not go through the BufferPool: they belong to a single
+ * operator, are never visible to other transactions and are thrown away
+ * when the operator closes, so there is nothing to lock or log.
+ */
+public class SpillFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final int recordSize;
+    private DataOutputStream out;
+    private int numTuples;
+
+    /**
+     * Creates a new, empty spill file in the default temporary directory.
+     *
+     * @param td
+     *            the schema of the tuples that will be written
+     * @param prefix
+     *            a short name used in the temporary file's name
+     * @throws DbException
+     *             if the file cannot be created
+     */
+    public SpillFile(TupleDesc td, String prefix) throws DbException {
+        this.td = td;
+        this.recordSize = td.getSize();
+        try {
+            file = File.createTempFile("simpledb-" + prefix, ".spill");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), BufferPool.getPageSize()));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e);
+        }
+    }
+
+    /** @return the schema of the tuples in this file */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples written to this file */
+    public int numTuples() {
+        return numTuples;
+    }
+
+    /** @return the number of bytes the tuples in this file occupy */
+    public long sizeInBytes() {
+        return (long) numTuples * recordSize;
+    }
+
+    /**
+     * Appends a tuple to the end of the file.
+     *
+     * @throws IllegalStateException
+     *             if {@link #finishWriting()} has already been called
+     */
+    public void add(Tuple t) throws DbException {
+        if (out == null)
+            throw new IllegalStateException("spill file is read-only");
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.getField(i).serialize(out);
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e);
+        }
+        numTuples++;
+    }
+
+    /**
+     * Flushes buffered tuples to disk. After this call the file may be read
+     * but no longer appended to.
+     */
+    public void finishWriting() throws DbException {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e);
+        }
+        out = null;
+    }
+
+    /**
+     * Returns an iterator over the tuples of the file in the order they were
+     * written. Several iterators may be open on the same file at once.
+     */
+    public DbFileIterator iterator() {
+        return iterator(0);
+    }
+
+    /**
+     * Returns an iterator that starts at the tuple with the given position.
+     * Records have a fixed size, so this seeks directly to the record instead
+     * of reading the ones before it.
+     *
+     * @param from
+     *            the zero-based position of the first tuple to return
+     */
+    public DbFileIterator iterator(int from) {
+        if (out != null)
+            throw new IllegalStateException("spill file is still being written");
+        if (from < 0)
+            throw new IllegalArgumentException("negative position " + from);
+        return new SpillFileIterator(from);
+    }
+
+    /**
+     * Returns an OpIterator over the tuples of the file, so a spill file can
+     * be the child of another operator.
+     */
+    public OpIterator scan() {
+        return new SpillScan();
+    }
+
+    /** Removes the file from disk. The SpillFile must not be used afterwards. */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // we are throwing the file away anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    /**
+     * Decodes one record of this file's layout.
+     */
+    Tuple readTuple(byte[] record) throws DbException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(record));
+        Tuple t = new Tuple(td);
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.setField(i, td.getFieldType(i).parse(dis));
+        } catch (java.text.ParseException e) {
+            throw new DbException("corrupt spill file: " + e);
+        }
+        return t;
+    }
+
+    private class SpillFileIterator extends AbstractDbFileIterator {
+        private final int from;
+        private DataInputStream in;
+        private int read;
+        private final byte[] record = new byte[recordSize];
+
+        SpillFileIterator(int from) {
+            this.from = from;
+        }
+
+        public void open() throws DbException {
+            try {
+                FileInputStream fis = new FileInputStream(file);
+                if (from > 0)
+                    fis.getChannel().position((long) from * recordSize);
+                in = new DataInputStream(new BufferedInputStream(fis,
+                        BufferPool.getPageSize()));
+            } catch (IOException e) {
+                throw new DbException("could not open spill file: " + e);
+            }
+            read = from;
+        }
+
+        protected Tuple readNext() throws DbException {
+            if (in == null || read >= numTuples)
+                return null;
+            try {
+                in.readFully(record);
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e);
+            }
+            read++;
+            return readTuple(record);
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing useful to do
+                }
+                in = null;
+            }
+        }
+    }
+
+    private class SpillScan implements OpIterator {
+        private static final long serialVersionUID = 1L;
+        private DbFileIterator it;
+
+        public void open() throws DbException, TransactionAbortedException {
+            it = iterator();
+            it.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (it == null)
+                throw new IllegalStateException("spill scan not open");
+            return it.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (it == null)
+                throw new IllegalStateException("spill scan not open");
+            return it.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            it.rewind();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (it != null)
+                it.close();
+            it = null;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * StatementCache keeps the plans of recent SELECT statements by the shape of
+ * their text, so that a statement issued again with other constants is not
+ * parsed and optimized again.
+ * <p>
+ * A statement is normalized by replacing its numbers and quoted strings with
+ * ? and collapsing its white space; statements with the same normalized text
+ * share an entry. The entry holds the {@link LogicalPlan} of the first of
+ * them, with the order and algorithms of its joins as the
+ * {@link JoinOptimizer} chose them, and a later statement gets a copy of it
+ * with its own constants in the filters. Only statements whose constants are
+ * all filter constants, in the order of the text, are cached: a statement
+ * with a subquery is planned every time.
+ * <p>
+ * An entry is dropped when the statistics of one of its tables are replaced,
+ * which happens once enough of its tuples have changed (see
+ * {@link TableStats#REFRESH_FRACTION}), or when a table is replaced in the
+ * catalog. The least recently used entries are evicted beyond the capacity.
+ * (Not to be confused with {@link PlanCache}, which holds the subplans of a
+ * single join ordering.)
+ */
+public class StatementCache {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** A statement split into its normalized text and its constants. */
+    public static final class Statement {
+        private final String text;
+        private final List<String> values;
+        private final List<String> literals;
+
+        private Statement(String text, List<String> values,
+                List<String> literals) {
+            this.text = text;
+            this.values = values;
+            this.literals = literals;
+        }
+
+        /** @return the text with each constant replaced by ? */
+        public String getText() {
+            return text;
+        }
+
+        /** @return the values of the constants, strings without quotes */
+        public List<String> getValues() {
+            return values;
+        }
+
+        /** @return the constants as written, strings with their quotes */
+        public List<String> getLiterals() {
+            return literals;
+        }
+    }
+
+    /** A cached plan and what it was planned against. */
+    private static final class Entry {
+        final LogicalPlan plan;
+        final Map<String, Integer> tableIds = new HashMap<String, Integer>();
+        final Map<String, TableStats> stats = new HashMap<String, TableStats>();
+
+        Entry(LogicalPlan plan) {
+            this.plan = plan;
+        }
+
+        boolean isValid() {
+            for (Map.Entry<String, Integer> t : tableIds.entrySet()) {
+                try {
+                    if (Database.getCatalog().getTableId(t.getKey()) != t.getValue())
+                        return false;
+                } catch (NoSuchElementException e) {
+                    return false;
+                }
+                if (TableStats.getStatsMap().get(t.getKey()) != stats.get(t.getKey()))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<String, Entry> entries;
+    private long hits, misses, invalidations;
+
+    /**
+     * @param capacity
+     *            the number of statement shapes kept
+     */
+    public StatementCache(final int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > StatementCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Splits a statement into its normalized text and its constants: the
+     * numbers that do not continue a name, and the strings in single quotes,
+     * in which '' stands for a quote. A ? is kept as it is, as a constant
+     * not yet given.
+     */
+    public static Statement normalize(String sql) {
+        StringBuilder text = new StringBuilder(sql.length());
+        ArrayList<String> values = new ArrayList<String>();
+        ArrayList<String> literals = new ArrayList<String>();
+        boolean space = false;
+        int n = sql.length();
+        for (int i = 0; i < n;) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = text.length() > 0;
+                i++;
+                continue;
+            }
+            if (space) {
+                text.append(' ');
+                space = false;
+            }
+            if (c == '\'') {
+                StringBuilder value = new StringBuilder();
+                int j = i + 1;
+                while (j < n) {
+                    if (sql.charAt(j) == '\'') {
+                        if (j + 1 < n && sql.charAt(j + 1) == '\'') {
+                            value.append('\'');
+                            j += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    value.append(sql.charAt(j++));
+                }
+                j = Math.min(j + 1, n);
+                values.add(value.toString());
+                literals.add(sql.substring(i, j));
+                text.append('?');
+                i = j;
+            } else if (Character.isDigit(c)) {
+                int j = i;
+                while (j < n && (Character.isDigit(sql.charAt(j))
+                        || sql.charAt(j) == '.'))
+                    j++;
+                values.add(sql.substring(i, j));
+                literals.add(sql.substring(i, j));
+                text.append('?');
+                i = j;
+            } else if (Character.isLetter(c) || c == '_') {
+                // a name, digits and all
+                int j = i;
+                while (j < n && (Character.isLetterOrDigit(sql.charAt(j))
+                        || sql.charAt(j) == '_' || sql.charAt(j) == '.'))
+                    j++;
+                text.append(sql, i, j);
+                i = j;
+            } else {
+                text.append(c);
+                i++;
+            }
+        }
+        return new Statement(text.toString(), values, literals);
+    }
+
+    /**
+     * Fills the ? of a statement text in with constants, in order.
+     *
+     * @throws ParsingException
+     *             if the numbers of ? and of constants differ
+     */
+    public static String substitute(String text, List<String> literals)
+            throws ParsingException {
+        StringBuilder sql = new StringBuilder();
+        int next = 0;
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\'')
+                quoted = !quoted;
+            if (c == '?' && !quoted) {
+                if (next == literals.size())
+                    throw new ParsingException("too few parameters for " + text);
+                sql.append(literals.get(next++));
+            } else {
+                sql.append(c);
+            }
+        }
+        if (next != literals.size())
+            throw new ParsingException("too many parameters for " + text);
+        return sql.toString();
+    }
+
+    /**
+     * @return a plan for a statement, from the plan cached for its shape with
+     *         its constants put in, ready for {@link LogicalPlan#physicalPlan};
+     *         or null if there is none, or it is out of date
+     */
+    public synchronized LogicalPlan get(Statement s) {
+        Entry e = entries.get(s.text);
+        if (e != null && !e.isValid()) {
+            entries.remove(s.text);
+            invalidations++;
+            e = null;
+        }
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        LogicalPlan lp = e.plan.bind(s.values);
+        if (lp == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        lp.setQuery(s.text);
+        return lp;
+    }
+
+    /**
+     * Caches the plan of a statement, once {@link LogicalPlan#physicalPlan}
+     * has ordered its joins; a statement that cannot be cached is ignored.
+     *
+     * @param stats
+     *            the statistics the plan was made with
+     */
+    public synchronized void put(Statement s, LogicalPlan lp,
+            Map<String, TableStats> stats) {
+        if (!lp.bindsInOrder(s.values))
+            return;
+        LogicalPlan template = lp.bind(s.values);
+        if (template == null)
+            return;
+        Entry e = new Entry(template);
+        for (Map.Entry<String, Integer> t : lp.getTableAliasToIdMapping().entrySet()) {
+            String name = Database.getCatalog().getTableName(t.getValue());
+            e.tableIds.put(name, t.getValue());
+            e.stats.put(name, stats.get(name));
+        }
+        entries.put(s.text, e);
+    }
+
+    /** Drops every cached plan. */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /** @return the number of statement shapes cached */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** @return the number of statements planned from the cache */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /** @return the number of statements looked up and not found */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /** @return the number of plans dropped because they were out of date */
+    public synchronized long invalidations() {
+        return invalidations;
+    }
+
+    /** Drops the cached plans over a table, for instance after a bulk load. */
+    public synchronized void invalidate(String tableName) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().tableIds.containsKey(tableName)) {
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package simpledb;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * StatsFile keeps the {@link TableStats} of the tables of a catalog in a
+ * binary file next to it, so that a process does not have to read every
+ * table again when it starts.
+ * <p>
+ * The file is read whole when it is opened, but the statistics of a table
+ * are only decoded when they are first asked for. Each table's statistics
+ * are stamped with the length and modification time of its heap file;
+ * statistics whose stamp no longer matches, or whose schema differs from
+ * the table's, are not loaded. Saving the statistics of a table rewrites
+ * the file, through a temporary file, so a reader never sees half of it.
+ */
+public class StatsFile {
+
+    private static final int MAGIC = 0x53444253; // "SDBS"
+    private static final int VERSION = 4;
+
+    private final File file;
+    private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+    /** The saved statistics of one table. */
+    private static final class Entry {
+        final long length;
+        final long lastModified;
+        final byte[] data;
+
+        Entry(long length, long lastModified, byte[] data) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.data = data;
+        }
+    }
+
+    private StatsFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the statistics file of a catalog file: the file of the same
+     *         name in the same directory, with the extension .stats
+     */
+    public static File forCatalog(String catalogFile) {
+        File f = new File(catalogFile).getAbsoluteFile();
+        String name = f.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(f.getParentFile(), (dot > 0 ? name.substring(0, dot)
+                : name) + ".stats");
+    }
+
+    /**
+     * Opens a statistics file. A file that does not exist yet is created
+     * when statistics are first saved; one that cannot be read is ignored
+     * and replaced.
+     */
+    public static StatsFile open(File file) {
+        StatsFile s = new StatsFile(file);
+        if (!file.exists())
+            return s;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                    throw new IOException("not a statistics file");
+                int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    String name = in.readUTF();
+                    long length = in.readLong();
+                    long lastModified = in.readLong();
+                    byte[] data = new byte[in.readInt()];
+                    in.readFully(data);
+                    s.entries.put(name, new Entry(length, lastModified, data));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring statistics file " + file + ": "
+                    + e.getMessage());
+            s.entries.clear();
+        }
+        return s;
+    }
+
+    /** @return the file the statistics are kept in */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the number of tables with saved statistics */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Loads the saved statistics of a table.
+     *
+     * @return the statistics, or null if there are none or they are out of
+     *         date
+     */
+    public synchronized TableStats load(String name, int tableId,
+            int ioCostPerPage) {
+        Entry e = entries.get(name);
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (e == null || !(f instanceof HeapFile))
+            return null;
+        File data = ((HeapFile) f).getFile();
+        if (data.length() != e.length || data.lastModified() != e.lastModified)
+            return null;
+        try {
+            return new TableStats(tableId, ioCostPerPage, new DataInputStream(
+                    new ByteArrayInputStream(e.data)));
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /** Saves the statistics of a table, replacing any it had. */
+    public synchronized void save(String name, int tableId, TableStats stats)
+            throws IOException {
+        put(name, tableId, stats);
+        flush();
+    }
+
+    /**
+     * Replaces the statistics of a table, which are saved by the next
+     * {@link #flush}.
+     */
+    public synchronized void put(String name, int tableId, TableStats stats)
+            throws IOException {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof HeapFile))
+            return;
+        File data = ((HeapFile) f).getFile();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        stats.write(out);
+        out.flush();
+        entries.put(name, new Entry(data.length(), data.lastModified(),
+                bytes.toByteArray()));
+    }
+
+    /** Writes the statistics of all the tables to the file. */
+    public synchronized void flush() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().length);
+                out.writeLong(e.getValue().lastModified);
+                out.writeInt(e.getValue().data.length);
+                out.write(e.getValue().data);
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file))
+                throw new IOException("could not replace " + file);
+        }
+    }
+}
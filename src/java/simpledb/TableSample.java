@@ -0,0 +1,271 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TableSample is a uniform random sample of the tuples of a
+ * {@link HeapFile}, read in one pass, from which {@link TableStats} builds
+ * its histograms.
+ * <p>
+ * A table small enough is read whole. Of a larger one, a random set of
+ * pages (a block sample) of a few times the pages the sample needs is read,
+ * so the time taken depends on the size of the sample and not of the
+ * table. The pages read are handed out in morsels by {@link Morsels}, as
+ * those of a {@link ParallelSeqScan} are, and scanned by several workers,
+ * each of which keeps a reservoir sample of the tuples it sees; the
+ * reservoirs are merged at the end in proportion to the number of tuples
+ * each worker saw, so the result is a uniform sample of the pages read
+ * whatever the split. Each worker also adds every tuple it reads to a
+ * {@link HyperLogLog} sketch of each column, and the sketches are merged
+ * into those of all the pages read.
+ */
+public class TableSample {
+
+    /**
+     * How many times more pages than the sample fills are read, so that
+     * tuples clustered on the same pages are not over-represented.
+     */
+    public static final int PAGE_OVERSAMPLING = 4;
+
+    private final int numPages;
+    private final int pagesRead;
+    private final long tuplesRead;
+    private final long lastPageTuples;
+    private final ArrayList<Tuple> tuples;
+    private final HyperLogLog[] sketches;
+
+    private TableSample(int numPages, int pagesRead, long tuplesRead,
+            long lastPageTuples, ArrayList<Tuple> tuples,
+            HyperLogLog[] sketches) {
+        this.numPages = numPages;
+        this.pagesRead = pagesRead;
+        this.tuplesRead = tuplesRead;
+        this.lastPageTuples = lastPageTuples;
+        this.tuples = tuples;
+        this.sketches = sketches;
+    }
+
+    /**
+     * Samples a table.
+     *
+     * @param tid
+     *            the transaction the pages are read in
+     * @param tableId
+     *            the table, which must be a {@link HeapFile}
+     * @param sampleTuples
+     *            the size of the sample; Integer.MAX_VALUE reads every tuple
+     * @param parallelism
+     *            the number of workers
+     * @param seed
+     *            the seed of the choice of pages and tuples; the sample of a
+     *            table read by more than one worker also depends on which
+     *            worker reads which morsel
+     */
+    public static TableSample collect(TransactionId tid, int tableId,
+            int sampleTuples, int parallelism, long seed) throws DbException,
+            TransactionAbortedException {
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        int numPages = f.numPages();
+        Random r = new Random(seed);
+        int[] pages = choosePages(numPages, samplePages(f, sampleTuples), r);
+
+        Sampler[] samplers = new Sampler[Math.max(1, Math.min(parallelism,
+                (pages.length + ParallelSeqScan.MORSEL_PAGES - 1)
+                        / ParallelSeqScan.MORSEL_PAGES))];
+        Morsels morsels = new Morsels(tid, tableId, pages);
+        AtomicLong lastPageTuples = new AtomicLong();
+        Worker[] workers = new Worker[samplers.length];
+        for (int i = 0; i < samplers.length; i++) {
+            samplers[i] = new Sampler(sampleTuples, new Random(r.nextLong()));
+            samplers[i].sketches = new HyperLogLog[f.getTupleDesc().numFields()];
+            for (int c = 0; c < samplers[i].sketches.length; c++)
+                samplers[i].sketches[c] = new HyperLogLog();
+            workers[i] = new Worker(morsels, samplers[i], lastPageTuples);
+        }
+        morsels.run(workers);
+
+        long seen = 0;
+        HyperLogLog[] sketches = samplers[0].sketches;
+        for (Sampler s : samplers) {
+            seen += s.seen;
+            if (s != samplers[0])
+                for (int c = 0; c < sketches.length; c++)
+                    sketches[c].merge(s.sketches[c]);
+        }
+        return new TableSample(numPages, pages.length, seen,
+                lastPageTuples.get(), merge(samplers, sampleTuples, r),
+                sketches);
+    }
+
+    /** @return the number of pages to read for a sample of sampleTuples */
+    private static int samplePages(HeapFile f, int sampleTuples) {
+        int perPage = (BufferPool.getPageSize() * 8)
+                / (f.getTupleDesc().getSize() * 8 + 1);
+        long pages = ((long) sampleTuples + perPage - 1) / perPage
+                * PAGE_OVERSAMPLING;
+        return (int) Math.min(Integer.MAX_VALUE, pages);
+    }
+
+    /**
+     * @return n page numbers of numPages in ascending order, or all of them
+     *         if n is not less than numPages: the last page, which is usually
+     *         partly filled, and n - 1 of the others chosen at random
+     */
+    static int[] choosePages(int numPages, int n, Random r) {
+        int[] pages;
+        if (n >= numPages) {
+            pages = new int[numPages];
+            for (int i = 0; i < numPages; i++)
+                pages[i] = i;
+            return pages;
+        }
+        // Floyd's algorithm: each set of n - 1 pages is equally likely
+        HashSet<Integer> chosen = new HashSet<Integer>();
+        for (int j = numPages - n; j < numPages - 1; j++) {
+            int t = r.nextInt(j + 1);
+            chosen.add(chosen.contains(t) ? j : t);
+        }
+        pages = new int[n];
+        int i = 0;
+        for (int p : chosen)
+            pages[i++] = p;
+        pages[i] = numPages - 1;
+        Arrays.sort(pages);
+        return pages;
+    }
+
+    /**
+     * Merges the reservoirs of the workers into a sample of at most k of all
+     * the tuples they saw: the owner of each next tuple is picked in
+     * proportion to the tuples it saw that are not yet accounted for.
+     */
+    static ArrayList<Tuple> merge(Sampler[] samplers, int k, Random r) {
+        if (samplers.length == 1)
+            return samplers[0].reservoir;
+        long[] remaining = new long[samplers.length];
+        long total = 0;
+        for (int i = 0; i < samplers.length; i++) {
+            remaining[i] = samplers[i].seen;
+            total += remaining[i];
+        }
+        ArrayList<Tuple> merged = new ArrayList<Tuple>();
+        while (merged.size() < k && total > 0) {
+            long pick = (long) (r.nextDouble() * total);
+            int i = 0;
+            while (pick >= remaining[i]) {
+                pick -= remaining[i];
+                i++;
+            }
+            ArrayList<Tuple> from = samplers[i].reservoir;
+            int j = r.nextInt(from.size());
+            merged.add(from.get(j));
+            from.set(j, from.get(from.size() - 1));
+            from.remove(from.size() - 1);
+            remaining[i]--;
+            total--;
+        }
+        return merged;
+    }
+
+    /** @return the sampled tuples, in no particular order */
+    public List<Tuple> getTuples() {
+        return tuples;
+    }
+
+    /**
+     * @return a sketch of the distinct values of each column among all the
+     *         tuples read, not only those sampled
+     */
+    public HyperLogLog[] getSketches() {
+        return sketches;
+    }
+
+    /** @return the number of pages of the table */
+    public int numPages() {
+        return numPages;
+    }
+
+    /** @return true if every page of the table was read */
+    public boolean isComplete() {
+        return pagesRead == numPages;
+    }
+
+    /**
+     * @return the number of tuples of the table: exact if every page was
+     *         read, otherwise extrapolated from the pages read other than the
+     *         last
+     */
+    public long estimatedTuples() {
+        if (pagesRead == numPages)
+            return tuplesRead;
+        if (pagesRead == 1)
+            return lastPageTuples * numPages;
+        return lastPageTuples + Math.round((double) (tuplesRead - lastPageTuples)
+                * (numPages - 1) / (pagesRead - 1));
+    }
+
+    /** A reservoir sample of the tuples one worker sees. */
+    static final class Sampler {
+        final int k;
+        final Random random;
+        final ArrayList<Tuple> reservoir = new ArrayList<Tuple>();
+        // a sketch of each column, or null to keep none
+        HyperLogLog[] sketches;
+        long seen;
+
+        Sampler(int k, Random random) {
+            this.k = k;
+            this.random = random;
+        }
+
+        void offer(Tuple t) {
+            seen++;
+            if (sketches != null)
+                for (int c = 0; c < sketches.length; c++)
+                    sketches[c].add(t.getField(c));
+            if (reservoir.size() < k) {
+                reservoir.add(t);
+            } else {
+                long j = (long) (random.nextDouble() * seen);
+                if (j < k)
+                    reservoir.set((int) j, t);
+            }
+        }
+    }
+
+    /** Offers the tuples of the morsels it takes to its sampler. */
+    private static final class Worker extends Morsels.Worker {
+        private static final long serialVersionUID = 1L;
+        private final Morsels morsels;
+        private final Sampler sampler;
+        private final AtomicLong lastPageTuples;
+
+        Worker(Morsels morsels, Sampler sampler, AtomicLong lastPageTuples) {
+            super(morsels);
+            this.morsels = morsels;
+            this.sampler = sampler;
+            this.lastPageTuples = lastPageTuples;
+        }
+
+        void work() throws Exception {
+            int start;
+            while ((start = morsels.next()) >= 0) {
+                int end = morsels.end(start);
+                for (int i = start; i < end && !morsels.isStopped(); i++) {
+                    Iterator<Tuple> it = morsels.page(i).iterator();
+                    long n = 0;
+                    for (; it.hasNext(); n++)
+                        sampler.offer(it.next());
+                    if (i == morsels.length() - 1)
+                        lastPageTuples.set(n);
+                }
+            }
+        }
+    }
+}
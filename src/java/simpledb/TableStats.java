@@ -1,9 +1,24 @@
 package simpledb;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
@@ -13,14 +28,193 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class TableStats {
 
-    private static final ConcurrentHashMap<String, TableStats> statsMap = new ConcurrentHashMap<String, TableStats>();
+    private static final LazyStatsMap statsMap = new LazyStatsMap();
 
     static final int IOCOSTPERPAGE = 1000;
 
+    /**
+     * The statistics of a table are kept up to date as tuples are inserted
+     * and deleted, but drift from the data as they do; they are computed
+     * again, in the background, once more than this fraction of its tuples,
+     * plus {@link #REFRESH_MIN_MODIFICATIONS}, have been inserted or deleted
+     * since they were computed.
+     */
+    public static final double REFRESH_FRACTION = 0.1;
+
+    public static final int REFRESH_MIN_MODIFICATIONS = 50;
+
+    // tuples inserted or deleted per table id since the process started
+    private static final ConcurrentHashMap<Integer, AtomicLong> modifications = new ConcurrentHashMap<Integer, AtomicLong>();
+
+    private static volatile StatsFile statsFile;
+
+    // computes statistics that have drifted too far again
+    private static final ExecutorService REFRESHER = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TableStats refresher");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /**
+     * The map of the statistics of the tables by name. Asked for the
+     * statistics of a table of the catalog it does not hold, it loads them
+     * from the {@link StatsFile} in use, or computes them and saves them
+     * there. Asked for statistics that have drifted too far from the data,
+     * it returns them but has them computed again in the background.
+     */
+    private static final class LazyStatsMap extends
+            ConcurrentHashMap<String, TableStats> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public TableStats get(Object key) {
+            TableStats s = super.get(key);
+            if (s == null && key instanceof String)
+                s = load((String) key);
+            else if (s != null && s.isStale())
+                refreshInBackground((String) key, s);
+            return s;
+        }
+
+        /** @return the statistics held for a table, without loading any */
+        TableStats peek(String name) {
+            return super.get(name);
+        }
+
+        private synchronized TableStats load(String name) {
+            TableStats s = super.get(name);
+            if (s != null)
+                return s;
+            int tableid;
+            try {
+                tableid = Database.getCatalog().getTableId(name);
+            } catch (NoSuchElementException e) {
+                return null;
+            }
+            StatsFile file = statsFile;
+            s = file != null ? file.load(name, tableid, IOCOSTPERPAGE) : null;
+            if (s == null) {
+                s = new TableStats(tableid, IOCOSTPERPAGE);
+                save(file, name, tableid, s);
+            }
+            put(name, s);
+            return s;
+        }
+
+        private void refreshInBackground(final String name, final TableStats old) {
+            if (!old.refreshing.compareAndSet(false, true))
+                return;
+            REFRESHER.submit(new Runnable() {
+                public void run() {
+                    TableStats s = new TableStats(old.tableid, IOCOSTPERPAGE);
+                    if (s.sampleFailed) {
+                        // try again when the statistics are next asked for
+                        old.refreshing.set(false);
+                    } else if (replace(name, old, s)) {
+                        save(statsFile, name, old.tableid, s);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Waits until the statistics being computed in the background, if any,
+     * are in place.
+     */
+    public static void awaitRefreshes() throws InterruptedException {
+        try {
+            REFRESHER.submit(new Runnable() {
+                public void run() {
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static void save(StatsFile file, String name, int tableid,
+            TableStats s) {
+        if (file == null)
+            return;
+        try {
+            file.save(name, tableid, s);
+        } catch (IOException e) {
+            System.err.println("Could not save statistics of " + name + ": "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Keeps the statistics of the tables in a file from now on: statistics
+     * saved there are loaded the first time a table is planned, instead of
+     * being computed, and statistics computed are saved there. Statistics
+     * already held are discarded.
+     *
+     * @param file
+     *            the statistics file, or null to keep none
+     */
+    public static void useStatsFile(StatsFile file) {
+        statsFile = file;
+        statsMap.clear();
+    }
+
+    /**
+     * Updates the statistics held for a table, if any, with a tuple inserted
+     * into it.
+     */
+    public static void tupleInserted(int tableid, Tuple t) {
+        tableModified(tableid);
+        TableStats s = statsMap.peek(Database.getCatalog().getTableName(tableid));
+        if (s != null && s.tableid == tableid)
+            s.update(t, true);
+    }
+
+    /**
+     * Updates the statistics held for a table, if any, with a tuple deleted
+     * from it.
+     */
+    public static void tupleDeleted(int tableid, Tuple t) {
+        tableModified(tableid);
+        TableStats s = statsMap.peek(Database.getCatalog().getTableName(tableid));
+        if (s != null && s.tableid == tableid)
+            s.update(t, false);
+    }
+
+    /** Counts a tuple inserted into or deleted from a table. */
+    public static void tableModified(int tableid) {
+        AtomicLong n = modifications.get(tableid);
+        if (n == null) {
+            modifications.putIfAbsent(tableid, new AtomicLong());
+            n = modifications.get(tableid);
+        }
+        n.incrementAndGet();
+    }
+
+    /**
+     * @return the number of tuples inserted into or deleted from a table
+     *         since the process started
+     */
+    public static long modificationCount(int tableid) {
+        AtomicLong n = modifications.get(tableid);
+        return n == null ? 0 : n.get();
+    }
+
     public static TableStats getTableStats(String tablename) {
         return statsMap.get(tablename);
     }
 
+    /**
+     * @return the statistics held for a table, without computing them, or
+     *         null if there are none
+     */
+    static TableStats peekTableStats(String tablename) {
+        return statsMap.peek(tablename);
+    }
+
     public static void setTableStats(String tablename, TableStats stats) {
         statsMap.put(tablename, stats);
     }
@@ -47,25 +241,112 @@ public class TableStats {
         return statsMap;
     }
 
+    /**
+     * The number of tuples sampled from a table by default; a table with
+     * fewer tuples than {@link TableSample#PAGE_OVERSAMPLING} times as many
+     * is read whole.
+     */
+    public static final int DEFAULT_SAMPLE_TUPLES = 30000;
+
+    /**
+     * The seed of the choice of the pages and tuples sampled from a table.
+     * It is the same for every table, so that the statistics of a table do
+     * not depend on where its file is; with a single sampling thread they
+     * are the same every time they are computed.
+     */
+    public static final long SAMPLE_SEED = 0x5eedL;
+
+    private static volatile int sampleTuples = DEFAULT_SAMPLE_TUPLES;
+    private static volatile int parallelism = Runtime.getRuntime()
+            .availableProcessors();
+
+    /**
+     * Sets the number of tuples sampled from each table whose statistics
+     * are computed from now on; Integer.MAX_VALUE reads every tuple.
+     */
+    public static void setSampleTuples(int tuples) {
+        if (tuples < 1)
+            throw new IllegalArgumentException("sample must hold at least one tuple");
+        sampleTuples = tuples;
+    }
+
+    /**
+     * Sets the number of threads that read the pages of a table, and the
+     * number of tables whose statistics {@link #computeStatistics} computes
+     * at once.
+     */
+    public static void setParallelism(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("at least one thread is needed");
+        parallelism = threads;
+    }
+
+    /**
+     * Computes the statistics of every table of the catalog, several tables
+     * at a time.
+     */
     public static void computeStatistics() {
         Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
 
         System.out.println("Computing table stats.");
+        ArrayList<Callable<TableStats>> tasks = new ArrayList<Callable<TableStats>>();
+        final ArrayList<Integer> ids = new ArrayList<Integer>();
         while (tableIt.hasNext()) {
-            int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            final int tableid = tableIt.next();
+            ids.add(tableid);
+            tasks.add(new Callable<TableStats>() {
+                public TableStats call() {
+                    return new TableStats(tableid, IOCOSTPERPAGE);
+                }
+            });
+        }
+        ExecutorService threads = Executors.newFixedThreadPool(Math.max(1,
+                Math.min(parallelism, tasks.size())));
+        try {
+            List<Future<TableStats>> stats = threads.invokeAll(tasks);
+            StatsFile file = statsFile;
+            for (int i = 0; i < ids.size(); i++) {
+                String name = Database.getCatalog().getTableName(ids.get(i));
+                setTableStats(name, stats.get(i).get());
+                if (file != null)
+                    file.put(name, ids.get(i), stats.get(i).get());
+            }
+            if (file != null)
+                file.flush();
+        } catch (IOException e) {
+            System.err.println("Could not save statistics: " + e.getMessage());
+        } catch (InterruptedException e) {
+            throw new RuntimeException("interrupted computing table stats");
+        } catch (ExecutionException e) {
+            throw new RuntimeException("computing table stats failed",
+                    e.getCause());
+        } finally {
+            threads.shutdown();
         }
         System.out.println("Done.");
     }
 
     // <silentstrip lab1|lab2|lab3|lab4|lab5>
 //    private String tname;
+    private final int tableid;
+    // the modification count of the table when the statistics were computed
+    private final long modificationsSeen;
     private final int baseTups;
+    // tuples inserted less tuples deleted since the statistics were computed
+    private final AtomicLong tupleDelta = new AtomicLong();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final boolean sampleFailed;
     private final int basePages;
     private final int costPerPageIO;
-    private final Object[] histograms;
-    private final int[] maxs, mins;
+    private final EquiDepthHistogram<?>[] histograms;
+    // a sketch of the distinct values of each field, the distinct values
+    // estimated when the statistics were computed, and the estimate of the
+    // sketch then; values inserted since add what the sketch has grown by
+    private final HyperLogLog[] sketches;
+    private final double[] baseDistinct;
+    private final double[] baseSketch;
+    // the statistics of the column groups declared for the table
+    private final ColumnGroupStats[] groups;
     private final TupleDesc td;
     // </silentstrip>
 
@@ -99,85 +380,207 @@ public class TableStats {
         // <strip lab1|lab2|lab3|lab4|lab5>
         DbFile f = Database.getCatalog().getDatabaseFile(tableid);
         td = f.getTupleDesc();
+        this.tableid = tableid;
+        modificationsSeen = modificationCount(tableid);
 
         if (!(f instanceof HeapFile)) {
             basePages = 0;
             baseTups = 0;
             this.costPerPageIO=ioCostPerPage;
             histograms=null;
-            mins=maxs=null;
+            sketches = null;
+            baseDistinct = null;
+            baseSketch = null;
+            groups = new ColumnGroupStats[0];
+            sampleFailed = false;
             return;
         }
 
         costPerPageIO = ioCostPerPage;
-        histograms = new Object[td.numFields()];
-        maxs = new int[td.numFields()];
-        mins = new int[td.numFields()];
-        for (int i = 0; i < td.numFields(); i++) {
-            maxs[i] = Integer.MIN_VALUE;
-            mins[i] = Integer.MAX_VALUE;
-        }
-        // scan the data once to determine the min and max valus
+        basePages = ((HeapFile) f).numPages();
+
+        // sample the table in one pass; the equi-depth histograms are built
+        // from the sorted values of the sample
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        HyperLogLog[] sk = null;
+        boolean complete = true;
+        long ntups = 0;
+        boolean failed = true;
         try {
             Transaction t = new Transaction();
             t.start();
-            SeqScan s = new SeqScan(t.getId(), tableid, "t");
-            s.open();
-            while (s.hasNext()) {
-                Tuple tup = s.next();
-                for (int i = 0; i < td.numFields(); i++) {
-                    if (td.getFieldType(i) == Type.INT_TYPE) {
-                        int v = ((IntField) tup.getField(i)).getValue();
-                        if (v > maxs[i])
-                            maxs[i] = v;
-                        if (v < mins[i])
-                            mins[i] = v;
-                    }
-                }
-            }
+            TableSample sample = TableSample.collect(t.getId(), tableid,
+                    sampleTuples, parallelism, SAMPLE_SEED);
             t.commit();
+            tuples = sample.getTuples();
+            sk = sample.getSketches();
+            complete = sample.isComplete();
+            ntups = sample.estimatedTuples();
+            failed = false;
         } catch (Exception e) {
             e.printStackTrace();
         }
+        sampleFailed = failed;
+
+        if (sk == null) {
+            sk = new HyperLogLog[td.numFields()];
+            for (int i = 0; i < sk.length; i++)
+                sk[i] = new HyperLogLog();
+        }
+        sketches = sk;
+        baseDistinct = new double[td.numFields()];
+        baseSketch = new double[td.numFields()];
 
+        baseTups = (int) Math.min(Integer.MAX_VALUE, ntups);
+        histograms = new EquiDepthHistogram<?>[td.numFields()];
         for (int i = 0; i < td.numFields(); i++) {
             if (td.getFieldType(i) == Type.INT_TYPE) {
-                histograms[i] = new IntHistogram(NUM_HIST_BINS, mins[i],
-                        maxs[i]);
+                int[] vals = new int[tuples.size()];
+                for (int j = 0; j < vals.length; j++)
+                    vals[j] = ((IntField) tuples.get(j).getField(i)).getValue();
+                histograms[i] = EquiDepthHistogram.ofInts(vals, vals.length,
+                        NUM_HIST_BINS, ntups);
             } else {
-                histograms[i] = new StringHistogram(NUM_HIST_BINS);
+                ArrayList<String> vals = new ArrayList<String>(tuples.size());
+                for (Tuple tup : tuples)
+                    vals.add(((StringField) tup.getField(i)).getValue());
+                histograms[i] = EquiDepthHistogram.ofStrings(vals,
+                        NUM_HIST_BINS, ntups);
+            }
+            // the histogram counts the distinct values of a table read whole
+            // exactly; of a sample it extrapolates them, while the sketch
+            // saw every tuple of the pages read and so gives a lower bound
+            baseSketch[i] = sketches[i].estimate();
+            baseDistinct[i] = histograms[i].distinctValues();
+            if (!complete && baseSketch[i] > baseDistinct[i]) {
+                baseDistinct[i] = Math.min(baseSketch[i], Math.max(1, ntups));
+                histograms[i].setDistinctValues(baseDistinct[i]);
             }
         }
 
-        basePages = ((HeapFile) f).numPages();
-        int count = 0;
-        try {
-            Transaction t = new Transaction();
-            t.start();
-            SeqScan s = new SeqScan(t.getId(), tableid, "t");
-            s.open();
-            while (s.hasNext()) { // scan again to populate histograms
-                Tuple tup = s.next();
-                count++;
-                for (int i = 0; i < td.numFields(); i++) {
-                    if (td.getFieldType(i) == Type.INT_TYPE) {
-                        int v = ((IntField) tup.getField(i)).getValue();
-                        ((IntHistogram) histograms[i]).addValue(v);
-                    } else {
-                        String v = ((StringField) tup.getField(i)).getValue();
-                        ((StringHistogram) histograms[i]).addValue(v);
-                    }
-                }
+        List<int[]> declared = Database.getCatalog().getColumnGroups(tableid);
+        groups = new ColumnGroupStats[declared.size()];
+        for (int g = 0; g < groups.length; g++)
+            groups[g] = new ColumnGroupStats(td, declared.get(g), tuples,
+                    ntups, SAMPLE_SEED);
 
-            }
-            t.commit();
-        } catch (Exception e) {
-            e.printStackTrace();
+        // </strip>
+    }
+
+    /**
+     * Reads statistics written by {@link #write}.
+     *
+     * @throws IOException
+     *             if they cannot be read, or were not computed on a table
+     *             with the schema of tableid
+     */
+    TableStats(int tableid, int ioCostPerPage, DataInput in)
+            throws IOException {
+        this.tableid = tableid;
+        modificationsSeen = modificationCount(tableid);
+        td = Database.getCatalog().getTupleDesc(tableid);
+        costPerPageIO = ioCostPerPage;
+        sampleFailed = false;
+        baseTups = in.readInt();
+        basePages = in.readInt();
+        int n = in.readInt();
+        if (n < 0) {
+            histograms = null;
+            sketches = null;
+            baseDistinct = null;
+            baseSketch = null;
+            groups = new ColumnGroupStats[0];
+            return;
+        }
+        if (n != td.numFields())
+            throw new IOException("schema changed");
+        histograms = new EquiDepthHistogram<?>[n];
+        sketches = new HyperLogLog[n];
+        baseDistinct = new double[n];
+        baseSketch = new double[n];
+        for (int i = 0; i < n; i++) {
+            if (in.readByte() != td.getFieldType(i).ordinal())
+                throw new IOException("schema changed");
+            histograms[i] = EquiDepthHistogram.read(in, td.getFieldType(i));
+            sketches[i] = HyperLogLog.read(in);
+            baseDistinct[i] = in.readDouble();
+            baseSketch[i] = in.readDouble();
+        }
+        List<int[]> declared = Database.getCatalog().getColumnGroups(tableid);
+        groups = new ColumnGroupStats[in.readInt()];
+        if (groups.length != declared.size())
+            throw new IOException("column groups changed");
+        for (int g = 0; g < groups.length; g++) {
+            groups[g] = new ColumnGroupStats(td, in);
+            if (!Arrays.equals(groups[g].getFields(), declared.get(g)))
+                throw new IOException("column groups changed");
         }
+    }
 
-        baseTups = count;
+    /** Writes the statistics in the compact form a {@link StatsFile} keeps. */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(totalTuples());
+        out.writeInt(numPages());
+        if (histograms == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(histograms.length);
+        for (int i = 0; i < histograms.length; i++) {
+            out.writeByte(td.getFieldType(i).ordinal());
+            histograms[i].write(out);
+            sketches[i].write(out);
+            out.writeDouble(baseDistinct[i]);
+            out.writeDouble(baseSketch[i]);
+        }
+        out.writeInt(groups.length);
+        for (ColumnGroupStats g : groups)
+            g.write(out);
+    }
 
-        // </strip>
+    /**
+     * Applies an inserted or deleted tuple to the number of tuples, the
+     * histograms and the sketches. A sketch cannot forget a value, so the
+     * distinct values of a field only grow until the statistics are
+     * computed again.
+     */
+    @SuppressWarnings("unchecked")
+    private void update(Tuple t, boolean inserted) {
+        tupleDelta.addAndGet(inserted ? 1 : -1);
+        if (histograms == null)
+            return;
+        for (int i = 0; i < histograms.length; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                EquiDepthHistogram<Integer> h = (EquiDepthHistogram<Integer>) histograms[i];
+                int v = ((IntField) t.getField(i)).getValue();
+                if (inserted)
+                    h.add(v);
+                else
+                    h.remove(v);
+            } else {
+                EquiDepthHistogram<String> h = (EquiDepthHistogram<String>) histograms[i];
+                String v = ((StringField) t.getField(i)).getValue();
+                if (inserted)
+                    h.add(v);
+                else
+                    h.remove(v);
+            }
+            if (inserted) {
+                sketches[i].add(t.getField(i));
+                histograms[i].setDistinctValues(baseDistinct[i]
+                        + Math.max(0, sketches[i].estimate() - baseSketch[i]));
+            }
+        }
+    }
+
+    /**
+     * @return true if enough tuples have been inserted into or deleted from
+     *         the table since the statistics were computed that they should
+     *         be computed again
+     */
+    public boolean isStale() {
+        return modificationCount(tableid) - modificationsSeen > REFRESH_MIN_MODIFICATIONS
+                + REFRESH_FRACTION * baseTups;
     }
 
     /**
@@ -194,7 +597,7 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // <strip lab1|lab2|lab3|lab4|lab5>
-        return basePages * costPerPageIO;
+        return numPages() * costPerPageIO;
         // </strip>
         // <insert lab1|lab2|lab3|lab4|lab5>
         // return 0;
@@ -212,7 +615,7 @@ public class TableStats {
      */
     public int estimateTableCardinality(double selectivityFactor) {
         // <strip lab1|lab2|lab3|lab4|lab5>
-        return (int) (baseTups * selectivityFactor);
+        return (int) (totalTuples() * selectivityFactor);
         // </strip>
         // <insert lab1|lab2|lab3|lab4|lab5>
         // return 0;
@@ -232,16 +635,8 @@ public class TableStats {
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
         // <strip lab1|lab2|lab3|lab4|lab5>
-        if (op == Predicate.Op.EQUALS) {
-            if (this.histograms != null)
-                if (td.getFieldType(field) == Type.INT_TYPE) {
-                    return ((IntHistogram) this.histograms[field])
-                            .avgSelectivity();
-                } else if (td.getFieldType(field) == Type.STRING_TYPE) {
-                    return ((StringHistogram) this.histograms[field])
-                            .avgSelectivity();
-                }
-        }
+        if (op == Predicate.Op.EQUALS && this.histograms != null)
+            return this.histograms[field].avgSelectivity();
         return 0.5; // make something up
         // </strip>
         // <insert lab1|lab2|lab3|lab4|lab5>
@@ -262,24 +657,16 @@ public class TableStats {
      * @return The estimated selectivity (fraction of tuples that satisfy) the
      *         predicate
      */
+    @SuppressWarnings("unchecked")
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         // <strip lab1|lab2|lab3|lab4|lab5>
         if (histograms != null) {
             if (td.getFieldType(field) == Type.INT_TYPE) {
-                IntHistogram hist = (IntHistogram) histograms[field];
-                double sel = hist.estimateSelectivity(op,
-                        ((IntField) constant).getValue());
-//                System.out.println("SELECTIVITY OF PREDICATE " + field + " "
-//                        + op + " " + constant + " IS " + sel);
-                return sel;
+                return ((EquiDepthHistogram<Integer>) histograms[field])
+                        .estimateSelectivity(op, ((IntField) constant).getValue());
             } else {
-                StringHistogram hist = (StringHistogram) histograms[field];
-                double sel = hist.estimateSelectivity(op,
-                        ((StringField) constant).getValue());
-//                System.out.println("SELECTIVITY OF PREDICATE " + field + " "
-//                        + op + " " + constant + " IS " + sel);
-
-                return sel;
+                return ((EquiDepthHistogram<String>) histograms[field])
+                        .estimateSelectivity(op, ((StringField) constant).getValue());
             }
         }
         return .5; // make something up.
@@ -289,16 +676,146 @@ public class TableStats {
         // </insert>
     }
 
+    /**
+     * Estimate the selectivity of a conjunction of predicates on the table.
+     * Predicates on two or more fields of a declared column group are
+     * estimated together from the statistics of the group, the group that
+     * covers the most fields first; the others are assumed independent.
+     *
+     * @param predicates
+     *            the predicates, on fields of the table by index
+     * @return the estimated fraction of the tuples that satisfy all of them
+     */
+    public double estimateSelectivity(List<Predicate> predicates) {
+        double[] single = new double[predicates.size()];
+        for (int i = 0; i < single.length; i++) {
+            Predicate p = predicates.get(i);
+            single[i] = estimateSelectivity(p.getField(), p.getOp(),
+                    p.getOperand());
+        }
+        boolean[] done = new boolean[predicates.size()];
+        double sel = 1.0;
+        while (true) {
+            ColumnGroupStats best = null;
+            int bestFields = 1;
+            for (ColumnGroupStats g : groups) {
+                int covered = 0;
+                for (int f : g.getFields())
+                    for (int i = 0; i < done.length; i++)
+                        if (!done[i] && predicates.get(i).getField() == f) {
+                            covered++;
+                            break;
+                        }
+                if (covered > bestFields) {
+                    best = g;
+                    bestFields = covered;
+                }
+            }
+            if (best == null)
+                break;
+            ArrayList<Predicate> on = new ArrayList<Predicate>();
+            ArrayList<Double> onSel = new ArrayList<Double>();
+            for (int i = 0; i < done.length; i++) {
+                if (!done[i] && best.indexOf(predicates.get(i).getField()) >= 0) {
+                    on.add(predicates.get(i));
+                    onSel.add(single[i]);
+                    done[i] = true;
+                }
+            }
+            double[] s = new double[onSel.size()];
+            for (int i = 0; i < s.length; i++)
+                s[i] = onSel.get(i);
+            sel *= best.estimateSelectivity(on, s);
+        }
+        for (int i = 0; i < done.length; i++)
+            if (!done[i])
+                sel *= single[i];
+        return sel;
+    }
+
+    /**
+     * @return the number of distinct values of the field, or 0 if it is not
+     *         known
+     */
+    public int distinctValues(int field) {
+        return histograms == null ? 0 : histograms[field].distinctValues();
+    }
+
+    /**
+     * Estimates the number of distinct values of a field among some of the
+     * tuples of the table, picked independently of the field: of d values
+     * spread evenly over the table, a fraction q of the tuples holds d(1 -
+     * (1 - q)^(n/d)).
+     *
+     * @param field
+     *            the index of the field
+     * @param tuples
+     *            the number of tuples picked
+     * @return the estimated distinct values, or 0 if they are not known
+     */
+    public double distinctValues(int field, double tuples) {
+        double d = distinctValues(field);
+        double n = totalTuples();
+        if (d <= 0 || n <= 0)
+            return 0;
+        if (tuples >= n)
+            return d;
+        return Math.max(Math.min(1, tuples), d
+                * (1 - Math.pow(1 - tuples / n, n / d)));
+    }
+
+    /**
+     * @return a copy of the sketch of the distinct values of the field,
+     *         which may be merged with the sketches of other partitions of
+     *         the table, or null if there is none
+     */
+    public HyperLogLog sketch(int field) {
+        return sketches == null ? null : sketches[field].copy();
+    }
+
+    /**
+     * Estimate the selectivity of the equality join of a field of this table
+     * with a field of another: the fraction of the pairs of tuples that
+     * match, from the histograms of the two fields.
+     *
+     * @return the selectivity, or -1 if it cannot be estimated from the
+     *         histograms
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public double joinSelectivity(int field, TableStats other, int otherField) {
+        if (histograms == null || other.histograms == null
+                || td.getFieldType(field) != other.td.getFieldType(otherField))
+            return -1;
+        return ((EquiDepthHistogram) histograms[field])
+                .joinSelectivity(other.histograms[otherField]);
+    }
+
     /**
      * return the total number of tuples in this table
      * */
     public int totalTuples() {
         // <strip lab1|lab2|lab3|lab4|lab5>
-        return this.baseTups;
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, baseTups
+                + tupleDelta.get()));
         // </strip>
         // <insert lab1|lab2|lab3|lab4|lab5>
         // return 0;
         // </insert>
     }
 
+    /**
+     * return the number of pages of this table
+     * */
+    public int numPages() {
+        // deleting tuples leaves the pages in place
+        long tuples = totalTuples();
+        if (tuples <= baseTups)
+            return basePages;
+        int perPage = Math.max(1, (BufferPool.getPageSize() * 8)
+                / (td.getSize() * 8 + 1));
+        long pages = baseTups > 0 ? (long) Math.ceil((double) basePages
+                * tuples / baseTups) : (tuples + perPage - 1) / perPage;
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(basePages, pages));
+    }
+
 }
@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY combined with LIMIT. It keeps
+ * only the first n tuples of the ordering in a bounded heap while it reads
+ * the child, so it runs in O(|child| log n) time and O(n) memory instead of
+ * sorting the entire input.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private TupleDesc td;
+    private int[] orderByFields;
+    private boolean[] asc;
+    private int n;
+    private Tuple[] top;
+    private int pos;
+
+    /**
+     * Creates a new TopN node returning the first n tuples of the child in
+     * the given order.
+     * 
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param n
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int n, OpIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, n, child);
+    }
+
+    /**
+     * Creates a new TopN node ordering on several fields.
+     * 
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each sort field, true if its order is ascending.
+     * @param n
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int n, OpIterator child) {
+        if (n < 0)
+            throw new IllegalArgumentException("n must not be negative");
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException(
+                    "need one direction for each of at least one sort field");
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.n = n;
+    }
+
+    /** @return true if the most significant sort field is ascending */
+    public boolean isASC() {
+        return this.asc[0];
+    }
+
+    /** @return the most significant sort field */
+    public int getOrderByField() {
+        return this.orderByFields[0];
+    }
+
+    /** @return the name of the most significant sort field */
+    public String getOrderFieldName() {
+        return td.getFieldName(orderByFields[0]);
+    }
+
+    public int[] getOrderByFields() {
+        return this.orderByFields.clone();
+    }
+
+    public boolean[] getAscending() {
+        return this.asc.clone();
+    }
+
+    public String[] getOrderFieldNames() {
+        String[] names = new String[orderByFields.length];
+        for (int i = 0; i < names.length; i++)
+            names[i] = td.getFieldName(orderByFields[i]);
+        return names;
+    }
+
+    /** @return the number of tuples this operator returns at most */
+    public int getN() {
+        return this.n;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        SortKey sortKey = new SortKey(td, orderByFields, asc);
+        // max-heap on the output order: the root is the worst tuple kept
+        PriorityQueue<SortKey.Keyed> heap = new PriorityQueue<SortKey.Keyed>(
+                Math.max(1, n), Collections.reverseOrder());
+        child.open();
+        if (n > 0) {
+            while (child.hasNext()) {
+                SortKey.Keyed k = sortKey.wrap(child.next());
+                if (heap.size() < n) {
+                    heap.add(k);
+                } else if (k.compareTo(heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(k);
+                }
+            }
+        }
+        // the input is no longer needed
+        child.close();
+        useMemory((long) heap.size() * (td.getSize() + sortKey.keyLength()));
+
+        top = new Tuple[heap.size()];
+        for (int i = top.length - 1; i >= 0; i--)
+            top[i] = heap.poll().getTuple();
+        pos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        top = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pos = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the retained tuples in order.
+     * 
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (top != null && pos < top.length)
+            return top[pos++];
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
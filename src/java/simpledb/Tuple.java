@@ -31,6 +31,16 @@ public class Tuple implements Serializable {
         recordId = null;
     }
 
+    /**
+     * Create a tuple that keeps its fields in the given list. Subclasses that
+     * compute their fields on demand pass null.
+     */
+    Tuple(TupleDesc td, List<Field> fields) {
+        this.tupleDesc = td;
+        listOfItems = fields;
+        recordId = null;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -0,0 +1,257 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * TupleBatch holds up to {@link #DEFAULT_SIZE} rows, the unit of work of the
+ * batch interface ({@link BatchIterator}).
+ * <p>
+ * Rows are added as tuples, which the batch keeps, and are read back by
+ * column: the first request for a column copies its values out of the
+ * tuples into a column vector, and INT_TYPE columns also into an int array,
+ * so predicates and aggregates over int columns run as plain loops over
+ * primitives. Columns nobody asks for are never copied. Which rows of the
+ * batch are live is given by a selection vector: {@link #size()} rows, the
+ * i-th of which is stored at position {@link #row(int)}. A filter drops
+ * rows by narrowing the selection vector in place:
+ *
+ * <pre>
+ * int[] col = batch.intColumn(c);
+ * for (int i = 0; i &lt; batch.size(); i++) {
+ *     int row = batch.row(i);
+ *     ... col[row] ...
+ * }
+ * </pre>
+ */
+public class TupleBatch {
+
+    /** The number of rows a batch holds unless asked otherwise. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private int[] selection;
+    private int numRows;
+    private int size;
+
+    // the rows as added, and the column vectors copied out of them so far
+    private final Tuple[] tuples;
+    private final Field[][] fields;
+    private final int[][] ints;
+    // the number of leading rows whose values each column vector holds
+    private final int[] loaded;
+
+    // for a projection: the batch it reads and which of its columns
+    private final TupleBatch source;
+    private final int[] columns;
+
+    /**
+     * Creates an empty batch of {@link #DEFAULT_SIZE} rows.
+     *
+     * @param td
+     *            the schema of the rows
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td
+     *            the schema of the rows
+     * @param capacity
+     *            the maximum number of rows
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        tuples = new Tuple[capacity];
+        fields = new Field[n][];
+        ints = new int[n][];
+        loaded = new int[n];
+        selection = new int[capacity];
+        source = null;
+        columns = null;
+    }
+
+    /** A batch that reads some columns of another one; see project. */
+    private TupleBatch(TupleDesc td, TupleBatch source, int[] columns) {
+        this.td = td;
+        this.capacity = source.capacity;
+        this.source = source;
+        this.columns = columns;
+        tuples = null;
+        fields = null;
+        ints = null;
+        loaded = null;
+        selection = source.selection;
+        numRows = source.numRows;
+        size = source.size;
+    }
+
+    /** @return the schema of the rows */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of selected rows */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the position in the column vectors of the i-th selected row
+     */
+    public int row(int i) {
+        return selection[i];
+    }
+
+    /**
+     * @return the selection vector; its first {@link #size()} entries are the
+     *         positions of the selected rows in ascending order
+     */
+    public int[] selection() {
+        return selection;
+    }
+
+    /**
+     * Keeps only the first n entries of the selection vector. A filter
+     * moves the positions of the rows it keeps to the front of
+     * {@link #selection()} and then calls this.
+     */
+    public void setSize(int n) {
+        if (n < 0 || n > size)
+            throw new IllegalArgumentException("cannot select " + n + " of " + size + " rows");
+        size = n;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return numRows == capacity;
+    }
+
+    /** Removes all rows. */
+    public void clear() {
+        if (source != null)
+            throw new UnsupportedOperationException("a projection is read-only");
+        numRows = 0;
+        size = 0;
+        for (int c = 0; c < loaded.length; c++)
+            loaded[c] = 0;
+    }
+
+    /**
+     * Appends a tuple as a selected row.
+     */
+    public void add(Tuple t) {
+        if (source != null)
+            throw new UnsupportedOperationException("a projection is read-only");
+        tuples[numRows] = t;
+        selection[size++] = numRows++;
+    }
+
+    /**
+     * Copies the values of column c of the first n selected rows, skipping
+     * those copied by an earlier call. Rows that are no longer selected are
+     * skipped too; they can never be selected again.
+     */
+    private void load(int c, int n) {
+        int from = loaded[c];
+        if (from == numRows)
+            return;
+        if (fields[c] == null) {
+            fields[c] = new Field[capacity];
+            if (td.getFieldType(c) == Type.INT_TYPE)
+                ints[c] = new int[capacity];
+        }
+        Field[] f = fields[c];
+        int[] v = ints[c];
+        // the selection is ascending, so the new rows are at its end
+        int first = n;
+        while (first > 0 && selection[first - 1] >= from)
+            first--;
+        for (int i = first; i < n; i++) {
+            int row = selection[i];
+            f[row] = tuples[row].getField(c);
+        }
+        if (v != null)
+            for (int i = first; i < n; i++) {
+                int row = selection[i];
+                v[row] = ((IntField) f[row]).getValue();
+            }
+        loaded[c] = numRows;
+    }
+
+    /**
+     * @return the values of an INT_TYPE column, indexed by row position;
+     *         only the entries of selected rows are defined
+     * @throws IllegalArgumentException
+     *             if the column is of another type
+     */
+    public int[] intColumn(int col) {
+        return intColumn(col, size);
+    }
+
+    private int[] intColumn(int col, int n) {
+        if (source != null)
+            return source.intColumn(columns[col], n);
+        if (td.getFieldType(col) != Type.INT_TYPE)
+            throw new IllegalArgumentException("column " + col + " is not an int column");
+        load(col, n);
+        return ints[col];
+    }
+
+    /**
+     * @return the values of a column, indexed by row position; only the
+     *         entries of selected rows are defined
+     */
+    public Field[] fieldColumn(int col) {
+        return fieldColumn(col, size);
+    }
+
+    private Field[] fieldColumn(int col, int n) {
+        if (source != null)
+            return source.fieldColumn(columns[col], n);
+        load(col, n);
+        return fields[col];
+    }
+
+    /** @return the value of a column at the position of a selected row */
+    public Field getField(int col, int row) {
+        if (source != null)
+            return source.getField(columns[col], row);
+        return tuples[row].getField(col);
+    }
+
+    /**
+     * Returns the i-th selected row as a Tuple, for consumers of the row
+     * interface. This is the tuple that was added, except for projections.
+     */
+    public Tuple getTuple(int i) {
+        int row = selection[i];
+        if (source == null)
+            return tuples[row];
+        ArrayList<Field> values = new ArrayList<Field>(columns.length);
+        for (int c = 0; c < columns.length; c++)
+            values.add(getField(c, row));
+        Tuple t = new Tuple(td, values);
+        t.setRecordId(source.getTuple(i).getRecordId());
+        return t;
+    }
+
+    /**
+     * Returns a batch with a subset of the columns of this one. The result
+     * reads the rows and the selection vector of this batch rather than
+     * copying them, so it is only valid until this batch is modified.
+     *
+     * @param td
+     *            the schema of the result
+     * @param columns
+     *            the columns of this batch that make up the result, in order
+     */
+    public TupleBatch project(TupleDesc td, int[] columns) {
+        return new TupleBatch(td, this, columns);
+    }
+}
@@ -134,7 +134,8 @@ public class AggregateOptimizer extends ParallelQueryPlanOptimizer {
              * */
             return new Rename(hasGroup ? 1 : 0, agg.aggregateFieldName(), upAgg);
         } else {
-            if (rootO instanceof Join || rootO instanceof HashEquiJoin) {
+            if (rootO instanceof Join || rootO instanceof HashEquiJoin
+                    || rootO instanceof SortMergeJoin) {
                 OpIterator child1 = parallelizeAggregate(children[0]);
                 OpIterator child2 = parallelizeAggregate(children[1]);
                 rootO.setChildren(new OpIterator[] { child1, child2 });
@@ -0,0 +1,125 @@
+package simpledb.parallel;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import simpledb.TupleBatch;
+
+/**
+ * A bounded queue of TupleBatches that any number of threads can add to and
+ * take from without locks; the local exchanges use one per output.
+ * <p>
+ * The queue is a ring of slots, each with a sequence number that tells
+ * whether it is ready to be written or read at the current position of the
+ * tail or head. A thread claims a position with a compare-and-set on the
+ * tail (or head) counter and then owns that slot until it publishes the
+ * next sequence number. {@link #put} and {@link #take} wait for room or for
+ * a batch by spinning briefly and then parking for short intervals, and
+ * give up once the exchange is stopped.
+ */
+final class BatchQueue {
+
+    private final AtomicReferenceArray<TupleBatch> slots;
+    private final AtomicLongArray sequence;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    // set when the consumer stops reading; batches put after that are dropped
+    volatile boolean closed;
+
+    /**
+     * @param capacity
+     *            the number of batches the queue holds, rounded up to a power
+     *            of two
+     */
+    BatchQueue(int capacity) {
+        int n = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new AtomicReferenceArray<TupleBatch>(n);
+        sequence = new AtomicLongArray(n);
+        for (int i = 0; i < n; i++)
+            sequence.set(i, i);
+        mask = n - 1;
+    }
+
+    /** @return true if the batch was added, false if the queue is full */
+    boolean offer(TupleBatch batch) {
+        long pos = tail.get();
+        while (true) {
+            int i = (int) pos & mask;
+            long diff = sequence.get(i) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots.set(i, batch);
+                    sequence.set(i, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /** @return the oldest batch, or null if the queue is empty */
+    TupleBatch poll() {
+        long pos = head.get();
+        while (true) {
+            int i = (int) pos & mask;
+            long diff = sequence.get(i) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    TupleBatch batch = slots.get(i);
+                    slots.set(i, null);
+                    sequence.set(i, pos + mask + 1);
+                    return batch;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * Adds a batch, waiting for room.
+     *
+     * @return false if the exchange was stopped or the queue closed before
+     *         there was room
+     */
+    boolean put(TupleBatch batch, LocalExchange.Run run) {
+        for (int spins = 0; !offer(batch); spins++) {
+            if (run.stopped || closed)
+                return false;
+            backOff(spins);
+        }
+        return true;
+    }
+
+    /**
+     * Takes the oldest batch, waiting for one.
+     *
+     * @return the batch, or null if the exchange was stopped first
+     */
+    TupleBatch take(LocalExchange.Run run) {
+        TupleBatch batch;
+        for (int spins = 0; (batch = poll()) == null; spins++) {
+            if (run.stopped)
+                return null;
+            backOff(spins);
+        }
+        return batch;
+    }
+
+    private static void backOff(int spins) {
+        if (spins < 64)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(50000);
+    }
+}
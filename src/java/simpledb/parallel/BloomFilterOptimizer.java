@@ -74,12 +74,15 @@ public class BloomFilterOptimizer extends ParallelQueryPlanOptimizer {
 
         Operator rootO = (Operator) root;
 
-        if (rootO instanceof Join || rootO instanceof HashEquiJoin) {
+        if (rootO instanceof Join || rootO instanceof HashEquiJoin
+                || rootO instanceof SortMergeJoin) {
             JoinPredicate jp = null;
             if (rootO instanceof Join)
                 jp = ((Join) rootO).getJoinPredicate();
             if (rootO instanceof HashEquiJoin)
                 jp = ((HashEquiJoin) rootO).getJoinPredicate();
+            if (rootO instanceof SortMergeJoin)
+                jp = ((SortMergeJoin) rootO).getJoinPredicate();
 
             OpIterator child1 = children[0];
             int child1Card = 1;
@@ -105,7 +108,9 @@ public class BloomFilterOptimizer extends ParallelQueryPlanOptimizer {
 
             if (min <= 0)
                 min = 1;
-            if (max > 1024 * 1024 && max * 1.0 / min > 5) {// insert bloom
+            // a bloom filter can only drop tuples without an equal key
+            if (jp.getOperator() == Predicate.Op.EQUALS
+                    && max > 1024 * 1024 && max * 1.0 / min > 5) {// insert bloom
                                                            // filter
                 //should evaluate the cost
                 int[] primes = BloomFilterProducer.sampleSubsetPrime(64);
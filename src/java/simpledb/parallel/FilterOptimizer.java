@@ -89,10 +89,9 @@ public class FilterOptimizer extends ParallelQueryPlanOptimizer {
         if (!(root instanceof Operator)) {
             if (root instanceof SeqScan) {
                 SeqScan s = (SeqScan) root;
-                TupleDesc td = s.getTupleDesc();
+                TupleDesc td = s.getTableTupleDesc();
                 String alias = s.getAlias();
                 String tableName = s.getTableName();
-                OpIterator child = s;
                 if (alias == null)
                     alias = tableName;
                 HashMap<String, HashSet<Predicate>> fieldPreds = newFilters
@@ -103,22 +102,21 @@ public class FilterOptimizer extends ParallelQueryPlanOptimizer {
                         String field = e.getKey();
                         HashSet<Predicate> preds = e.getValue();
                         for (Predicate p : preds) {
-                            Predicate newP = new Predicate(
+                            s.addPredicate(new Predicate(
                                     td.fieldNameToIndex(alias + "." + field),
-                                    p.getOp(), p.getOperand());
-                            Filter f = new Filter(newP, child);
-                            child = f;
+                                    p.getOp(), p.getOperand()));
                         }
                     }
                 }
-                return child;
+                return s;
             } else
                 return root;
         }
 
         OpIterator[] children = ((Operator) root).getChildren();
 
-        if (root instanceof Join || root instanceof HashEquiJoin) {
+        if (root instanceof Join || root instanceof HashEquiJoin
+                || root instanceof SortMergeJoin) {
             children[0] = addNewFilters(newFilters, children[0]);
             children[1] = addNewFilters(newFilters, children[1]);
         } else {
@@ -132,12 +130,27 @@ public class FilterOptimizer extends ParallelQueryPlanOptimizer {
                                          HashMap<String, HashSet<String>> eq,
                                          HashMap<String, HashSet<Predicate>> joinKeyFilter) {
 
+        if (root instanceof SeqScan) {
+            // predicates the scan evaluates itself
+            SeqScan s = (SeqScan) root;
+            TupleDesc td = s.getTableTupleDesc();
+            for (Predicate p : s.getPredicates()) {
+                String fieldName = td.getFieldName(p.getField());
+                HashSet<Predicate> predicates = joinKeyFilter.get(fieldName);
+                if (predicates == null) {
+                    predicates = new HashSet<Predicate>();
+                    joinKeyFilter.put(fieldName, predicates);
+                }
+                predicates.add(p);
+            }
+        }
         if (!(root instanceof Operator))
             return;
 
         OpIterator[] children = ((Operator) root).getChildren();
 
-        if (root instanceof Join || root instanceof HashEquiJoin) {
+        if (root instanceof Join || root instanceof HashEquiJoin
+                || root instanceof SortMergeJoin) {
             String f1 = null;
             String f2 = null;
             Predicate.Op op = null;
@@ -155,6 +168,12 @@ public class FilterOptimizer extends ParallelQueryPlanOptimizer {
                 f2 = j.getJoinField2Name();
                 op = j.getJoinPredicate().getOperator();
                 children = j.getChildren();
+            } else if (root instanceof SortMergeJoin) {
+                SortMergeJoin j = (SortMergeJoin) root;
+                f1 = j.getJoinField1Name();
+                f2 = j.getJoinField2Name();
+                op = j.getJoinPredicate().getOperator();
+                children = j.getChildren();
             }
 
             if (op == Predicate.Op.EQUALS) {
@@ -0,0 +1,142 @@
+package simpledb.parallel;
+
+import java.util.ArrayList;
+
+import simpledb.BatchIterator;
+import simpledb.DbException;
+import simpledb.OpIterator;
+import simpledb.Operator;
+import simpledb.TransactionAbortedException;
+import simpledb.Tuple;
+import simpledb.TupleBatch;
+import simpledb.TupleDesc;
+
+/**
+ * An output of a {@link LocalExchange}: returns the batches the producers of
+ * the exchange route to it, until every producer is done.
+ * <p>
+ * The output of a gather is rewound by running the inputs again. The outputs
+ * of a repartition or broadcast share their producers with each other, so
+ * each keeps the batches it received, as a CollectConsumer keeps its
+ * TupleBags, and a rewind replays them.
+ */
+public class LocalConsumer extends Operator implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final LocalExchange exchange;
+    private final int index;
+    transient private LocalExchange.Run run;
+    transient private int ended;
+    transient private ArrayList<TupleBatch> received;
+    transient private int replayed;
+    transient private TupleBatch rows;
+    transient private int rowPos;
+
+    LocalConsumer(LocalExchange exchange, int index) {
+        this.exchange = exchange;
+        this.index = index;
+    }
+
+    /** @return the exchange this is an output of */
+    public LocalExchange getExchange() {
+        return exchange;
+    }
+
+    /** @return which output of the exchange this is */
+    public int getIndex() {
+        return index;
+    }
+
+    public String getName() {
+        return exchange.getKind().toString().toLowerCase() + "_l";
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        run = exchange.open();
+        ended = 0;
+        replayed = 0;
+        rows = null;
+        received = exchange.numOutputs() > 1 ? new ArrayList<TupleBatch>()
+                : null;
+        super.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (received != null && replayed < received.size())
+            return copy(received.get(replayed++));
+        BatchQueue queue = run.queues[index];
+        while (ended < exchange.getInputs().length) {
+            TupleBatch batch = queue.take(run);
+            if (batch == null) {
+                run.check();
+                throw new DbException("local exchange closed");
+            }
+            if (batch == LocalExchange.END) {
+                ended++;
+            } else if (received != null) {
+                // the consumer may narrow the batch, so it gets a copy
+                received.add(batch);
+                replayed++;
+                return copy(batch);
+            } else {
+                return batch;
+            }
+        }
+        run.check();
+        return null;
+    }
+
+    private static TupleBatch copy(TupleBatch batch) {
+        TupleBatch copy = new TupleBatch(batch.getTupleDesc());
+        for (int i = 0; i < batch.size(); i++)
+            copy.add(batch.getTuple(i));
+        return copy;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (rows == null || rowPos == rows.size()) {
+            rows = nextBatch();
+            rowPos = 0;
+            if (rows == null)
+                return null;
+        }
+        return rows.getTuple(rowPos++);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (received == null) {
+            run = exchange.restart();
+            ended = 0;
+        }
+        // what has not been received yet is still on its way
+        replayed = 0;
+        rows = null;
+    }
+
+    public void close() {
+        super.close();
+        if (run != null) {
+            run.queues[index].closed = true;
+            exchange.close();
+        }
+        run = null;
+        received = null;
+        rows = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return exchange.getTupleDesc();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return exchange.getInputs();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        exchange.setInputs(children);
+    }
+}
@@ -0,0 +1,271 @@
+package simpledb.parallel;
+
+import java.io.Serializable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import simpledb.BatchAdapter;
+import simpledb.BatchIterator;
+import simpledb.DbException;
+import simpledb.OpIterator;
+import simpledb.TransactionAbortedException;
+import simpledb.Tuple;
+import simpledb.TupleBatch;
+import simpledb.TupleDesc;
+import simpledb.Type;
+
+/**
+ * An exchange between threads of one process. Unlike the Collect and Shuffle
+ * exchanges, which send TupleBags between workers over sockets, a local
+ * exchange hands TupleBatches from one thread to another through bounded
+ * in-memory queues ({@link BatchQueue}), so nothing is serialized.
+ * <p>
+ * A local exchange has a number of inputs, each run to completion by a
+ * producer thread of its own, and a number of outputs, the
+ * {@link LocalConsumer} operators the rest of the plan reads. The producers
+ * are started when the first output is opened and stopped when the last
+ * one is closed. How rows are routed depends on the kind of exchange:
+ * <ul>
+ * <li>gather: all the inputs go to the one output;</li>
+ * <li>repartition: each row goes to the output a {@link PartitionFunction}
+ * picks for it, as with a ShuffleProducer;</li>
+ * <li>broadcast: every row goes to every output.</li>
+ * </ul>
+ * An output of a repartition or broadcast is typically read by one input of
+ * a later gather, so each partition is processed by a thread of its own:
+ *
+ * <pre>
+ * OpIterator[] scans = ...; // a scan of each part of a table
+ * LocalConsumer[] parts = LocalExchange.repartition(scans, pf);
+ * OpIterator[] aggs = new OpIterator[parts.length];
+ * for (int i = 0; i &lt; parts.length; i++)
+ *     aggs[i] = new Aggregate(parts[i], 1, 0, Aggregator.Op.SUM);
+ * OpIterator result = LocalExchange.gather(aggs);
+ * </pre>
+ */
+public class LocalExchange implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** How rows are routed from the inputs to the outputs. */
+    public enum Kind {
+        GATHER, REPARTITION, BROADCAST
+    }
+
+    /** The number of batches each output queue holds. */
+    static final int QUEUE_BATCHES = 16;
+
+    private static final ExecutorService THREADS = Executors
+            .newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "local-exchange");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    // pushed by a producer to every output when its input is exhausted
+    static final TupleBatch END = new TupleBatch(new TupleDesc(new Type[0]), 0);
+
+    private final Kind kind;
+    private OpIterator[] inputs;
+    private final PartitionFunction<?, ?> pf;
+    private final LocalConsumer[] outputs;
+    transient private Run current;
+    transient private int opened;
+
+    private LocalExchange(Kind kind, OpIterator[] inputs,
+            PartitionFunction<?, ?> pf, int numOutputs) {
+        if (inputs.length == 0)
+            throw new IllegalArgumentException("an exchange needs an input");
+        this.kind = kind;
+        this.inputs = inputs;
+        this.pf = pf;
+        outputs = new LocalConsumer[numOutputs];
+        for (int i = 0; i < numOutputs; i++)
+            outputs[i] = new LocalConsumer(this, i);
+    }
+
+    /**
+     * @return an operator returning the rows of all the inputs, each read by
+     *         a thread of its own, in no particular order
+     */
+    public static LocalConsumer gather(OpIterator[] inputs) {
+        return new LocalExchange(Kind.GATHER, inputs, null, 1).outputs[0];
+    }
+
+    /**
+     * @return pf.numPartition() operators, the i-th of which returns the rows
+     *         of the inputs that pf puts in partition i
+     */
+    public static LocalConsumer[] repartition(OpIterator[] inputs,
+            PartitionFunction<?, ?> pf) {
+        return new LocalExchange(Kind.REPARTITION, inputs, pf,
+                pf.numPartition()).outputs;
+    }
+
+    /**
+     * @return numOutputs operators, each of which returns all the rows of the
+     *         inputs
+     */
+    public static LocalConsumer[] broadcast(OpIterator[] inputs, int numOutputs) {
+        return new LocalExchange(Kind.BROADCAST, inputs, null, numOutputs).outputs;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public OpIterator[] getInputs() {
+        return inputs;
+    }
+
+    void setInputs(OpIterator[] inputs) {
+        this.inputs = inputs;
+    }
+
+    /** @return the number of outputs */
+    public int numOutputs() {
+        return outputs.length;
+    }
+
+    TupleDesc getTupleDesc() {
+        return inputs[0].getTupleDesc();
+    }
+
+    /** Starts the producers when the first output is opened. */
+    synchronized Run open() {
+        if (opened++ == 0)
+            current = new Run();
+        return current;
+    }
+
+    /**
+     * Stops the producers when the last output is closed, and waits for them
+     * to close their inputs.
+     */
+    synchronized void close() {
+        if (--opened == 0) {
+            current.stop();
+            current = null;
+        }
+    }
+
+    /**
+     * Runs the producers again from the start; only used when there is one
+     * output, which no other consumer shares.
+     */
+    synchronized Run restart() {
+        current.stop();
+        current = new Run();
+        return current;
+    }
+
+    /** One run of the producers and the queues they fill. */
+    final class Run {
+        final BatchQueue[] queues;
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        volatile boolean stopped;
+        // counted down by each producer once it has closed its input
+        final CountDownLatch done = new CountDownLatch(inputs.length);
+
+        Run() {
+            queues = new BatchQueue[outputs.length];
+            for (int i = 0; i < queues.length; i++)
+                queues[i] = new BatchQueue(QUEUE_BATCHES);
+            for (OpIterator input : inputs)
+                THREADS.execute(new Producer(this, input));
+        }
+
+        /** Stops the producers and waits until they are done. */
+        void stop() {
+            stopped = true;
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        /** Rethrows the failure of a producer, if any. */
+        void check() throws DbException, TransactionAbortedException {
+            Exception e = failure.get();
+            if (e instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e;
+            if (e instanceof DbException)
+                throw (DbException) e;
+            if (e != null)
+                throw new DbException("local exchange failed: " + e);
+        }
+    }
+
+    /** Reads one input and routes its rows to the output queues. */
+    private final class Producer implements Runnable {
+        private final Run run;
+        private final OpIterator input;
+        private final TupleDesc td;
+        private final TupleBatch[] pending;
+
+        Producer(Run run, OpIterator input) {
+            this.run = run;
+            this.input = input;
+            this.td = input.getTupleDesc();
+            this.pending = new TupleBatch[outputs.length];
+        }
+
+        public void run() {
+            try {
+                input.open();
+                try {
+                    BatchIterator in = BatchAdapter.of(input);
+                    TupleBatch batch;
+                    while (!run.stopped && (batch = in.nextBatch()) != null) {
+                        for (int i = 0; i < batch.size(); i++) {
+                            Tuple t = batch.getTuple(i);
+                            if (kind == Kind.GATHER) {
+                                add(0, t);
+                            } else if (kind == Kind.REPARTITION) {
+                                add(pf.partition(t, td), t);
+                            } else {
+                                for (int o = 0; o < outputs.length; o++)
+                                    add(o, t);
+                            }
+                        }
+                    }
+                    for (int o = 0; o < outputs.length; o++)
+                        if (pending[o] != null)
+                            run.queues[o].put(pending[o], run);
+                } finally {
+                    input.close();
+                }
+            } catch (Exception e) {
+                if (!run.stopped)
+                    run.failure.compareAndSet(null, e);
+                run.stopped = true;
+            } finally {
+                for (BatchQueue queue : run.queues)
+                    queue.put(END, run);
+                run.done.countDown();
+            }
+        }
+
+        private void add(int output, Tuple t) {
+            if (pending[output] == null)
+                pending[output] = new TupleBatch(td);
+            pending[output].add(t);
+            if (pending[output].isFull()) {
+                run.queues[output].put(pending[output], run);
+                pending[output] = null;
+            }
+        }
+    }
+}
@@ -126,7 +126,8 @@ public class ParallelQueryPlan {
             children = ((Operator) root).getChildren();
 
         if (root == slavePlanWrapper.collectorOperator) {
-            if (root instanceof Aggregate || root instanceof OrderBy) {
+            if (root instanceof Aggregate || root instanceof OrderBy
+                    || root instanceof TopN || root instanceof Limit) {
                 CollectProducer slavePlan = (CollectProducer) slavePlanWrapper.queryPlan;
                 CollectConsumer c = new CollectConsumer(slavePlan,
                         slavePlan.getOperatorID(), sourceWorkers);
@@ -134,7 +135,7 @@ public class ParallelQueryPlan {
                 return root;
             }
             throw new IllegalStateException(
-                    "Unknown collector operator. Only aggregate and order by are possible");
+                    "Unknown collector operator. Only aggregate, order by, top n and limit are possible");
         } else {
             children[0] = buildMasterWorkerPlan(tId, children[0],
                     slavePlanWrapper, sourceWorkers);
@@ -151,11 +152,14 @@ public class ParallelQueryPlan {
         if (root instanceof Operator)
             children = ((Operator) root).getChildren();
 
-        if (root instanceof HashEquiJoin || root instanceof Join) {
+        if (root instanceof HashEquiJoin || root instanceof Join
+                || root instanceof SortMergeJoin) {
 
             JoinPredicate jp = null;
             if (root instanceof HashEquiJoin)
                 jp = ((HashEquiJoin) root).getJoinPredicate();
+            else if (root instanceof SortMergeJoin)
+                jp = ((SortMergeJoin) root).getJoinPredicate();
             else if (root instanceof Join)
                 jp = ((Join) root).getJoinPredicate();
 
@@ -236,7 +240,8 @@ public class ParallelQueryPlan {
                 child.queryPlan = f;
                 return child;
             }
-        } else if (root instanceof OrderBy) {
+        } else if (root instanceof OrderBy || root instanceof TopN
+                || root instanceof Limit) {
             QueryPlanWrapper child = buildSlaveWorkerPlan(children[0], tId, pc,
                     workers, masterWorker);
             if (child.collectorOperator != null)
@@ -14,6 +14,8 @@ import simpledb.JoinPredicate;
 import simpledb.Operator;
 import simpledb.OrderBy;
 import simpledb.Project;
+import simpledb.SortMergeJoin;
+import simpledb.TopN;
 import simpledb.TransactionId;
 import simpledb.TupleDesc;
 import simpledb.TupleDesc.TDItem;
@@ -95,7 +97,8 @@ public class ProjectOptimizer extends ParallelQueryPlanOptimizer {
 	    }
 	} else {
 
-	    if (root instanceof Join || root instanceof HashEquiJoin) {
+	    if (root instanceof Join || root instanceof HashEquiJoin
+		    || root instanceof SortMergeJoin) {
 		String f1Name = null;
 		String f2Name = null;
 		JoinPredicate jp = null;
@@ -106,6 +109,13 @@ public class ProjectOptimizer extends ParallelQueryPlanOptimizer {
 		    int f2 = jp.getField2();
 		    f1Name = children[0].getTupleDesc().getFieldName(f1);
 		    f2Name = children[1].getTupleDesc().getFieldName(f2);
+		} else if (root instanceof SortMergeJoin) {
+		    SortMergeJoin j = ((SortMergeJoin) root);
+		    jp = j.getJoinPredicate();
+		    int f1 = jp.getField1();
+		    int f2 = jp.getField2();
+		    f1Name = children[0].getTupleDesc().getFieldName(f1);
+		    f2Name = children[1].getTupleDesc().getFieldName(f2);
 		} else {
 		    HashEquiJoin j = ((HashEquiJoin) root);
 		    jp = j.getJoinPredicate();
@@ -150,9 +160,14 @@ public class ProjectOptimizer extends ParallelQueryPlanOptimizer {
 		        .fieldNameToIndex(f1Name), jp.getOperator(),
 		        children[1].getTupleDesc().fieldNameToIndex(f2Name));
 		if (root instanceof Join) {
-		    return new Join(jp, children[0], children[1]);
+		    return new Join(jp, children[0], children[1],
+			    ((Join) root).getBlockPages());
+		} else if (root instanceof SortMergeJoin) {
+		    return new SortMergeJoin(jp, children[0], children[1],
+			    ((SortMergeJoin) root).getMemoryPages());
 		} else {
-		    return new HashEquiJoin(jp, children[0], children[1]);
+		    return new HashEquiJoin(jp, children[0], children[1],
+			    ((HashEquiJoin) root).getMemoryPages());
 		}
 
 	    } else if (root instanceof Project) {
@@ -182,11 +197,21 @@ public class ProjectOptimizer extends ParallelQueryPlanOptimizer {
 //		}
 	    } else if (root instanceof OrderBy) {
 		OrderBy o = (OrderBy) root;
-		neededField.add(o.getTupleDesc().getFieldName(
-		        o.getOrderByField()));
+		String[] names = o.getOrderFieldNames();
+		for (String name : names)
+		    neededField.add(name);
 		children[0] = pushDownProject(children[0], neededField);
-		o = new OrderBy(children[0].getTupleDesc().fieldNameToIndex(
-		        o.getOrderFieldName()), o.isASC(), children[0]);
+		o = new OrderBy(fieldIndexes(children[0].getTupleDesc(), names),
+		        o.getAscending(), children[0], o.getMemoryPages());
+		return o;
+	    } else if (root instanceof TopN) {
+		TopN o = (TopN) root;
+		String[] names = o.getOrderFieldNames();
+		for (String name : names)
+		    neededField.add(name);
+		children[0] = pushDownProject(children[0], neededField);
+		o = new TopN(fieldIndexes(children[0].getTupleDesc(), names),
+		        o.getAscending(), o.getN(), children[0]);
 		return o;
 	    } else if (root instanceof Aggregate) {
 		Aggregate a = (Aggregate) root;
@@ -212,4 +237,11 @@ public class ProjectOptimizer extends ParallelQueryPlanOptimizer {
 
     }
 
+    private static int[] fieldIndexes(TupleDesc td, String[] names) {
+	int[] indexes = new int[names.length];
+	for (int i = 0; i < names.length; i++)
+	    indexes[i] = td.fieldNameToIndex(names[i]);
+	return indexes;
+    }
+
 }
@@ -288,6 +288,15 @@ public class Server extends Parser {
         return this.workers[master];
     }
 
+    /**
+     * The workers are handed plans of plain SeqScans, each over its own
+     * partition, so the server never plans a parallel scan.
+     * */
+    @Override
+    protected int scanParallelism() {
+        return 1;
+    }
+
     public SocketInfo[] getWorkers() {
         return this.workers;
     }
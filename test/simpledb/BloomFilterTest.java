@@ -0,0 +1,56 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+
+  /**
+   * Added keys always pass; most other keys are rejected
+   */
+  @Test public void noFalseNegatives() {
+    BloomFilter filter = new BloomFilter(1000);
+    for (int i = 0; i < 1000; i++)
+      filter.add(new IntField(i * 7));
+    for (int i = 0; i < 1000; i++)
+      assertTrue(filter.mightContain(new IntField(i * 7)));
+    int passed = 0;
+    for (int i = 0; i < 1000; i++)
+      if (filter.mightContain(new IntField(-1 - i)))
+        passed++;
+    assertTrue(passed < 50);
+    assertEquals(2000, filter.numProbes());
+    assertEquals(1000 - passed, filter.numRejected());
+
+    filter.clear();
+    assertFalse(filter.mightContain(new IntField(0)));
+  }
+
+  /**
+   * A filter that rejects almost nothing turns itself off
+   */
+  @Test public void turnsOff() {
+    BloomFilter filter = new BloomFilter(10);
+    for (int i = 0; i < 10; i++)
+      filter.add(new IntField(i));
+    for (int i = 0; i < BloomFilter.SAMPLE_PROBES; i++)
+      assertTrue(filter.mightContain(new IntField(i % 10)));
+    assertTrue(filter.isDisabled());
+    assertTrue(filter.mightContain(new IntField(-5)));
+    assertEquals(BloomFilter.SAMPLE_PROBES, filter.numProbes());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BloomFilterTest.class);
+  }
+}
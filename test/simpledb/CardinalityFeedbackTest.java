@@ -0,0 +1,138 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CardinalityFeedbackTest extends SimpleDbTestBase {
+
+  private static final String FILTER = "SELECT * FROM t WHERE t.a = 5 AND t.b = 5;";
+
+  private static final String JOIN =
+      "SELECT * FROM t, u WHERE t.a = u.a AND t.a = 5 AND t.b = 5;";
+
+  private Parser parser;
+  private CardinalityFeedback feedback;
+
+  /**
+   * Tables t (a, b) and u (a, c) of 2000 tuples; in t, b always equals a,
+   * which the statistics take to be independent
+   */
+  @Before public void createTables() throws Exception {
+    for (String name : new String[] { "t", "u" }) {
+      ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+      for (int i = 0; i < 2000; i++)
+        tuples.add(new ArrayList<Integer>(Arrays.asList(i % 100,
+            name.equals("t") ? i % 100 : i)));
+      File temp = File.createTempFile("table", ".dat");
+      temp.deleteOnExit();
+      HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), 2);
+      HeapFile f = new HeapFile(temp, new TupleDesc(Utility.getTypes(2),
+          new String[] { "a", name.equals("t") ? "b" : "c" }));
+      Database.getCatalog().addTable(f, name);
+    }
+    parser = new Parser();
+    parser.setStatementCache(null);
+    feedback = new CardinalityFeedback(CardinalityFeedback.DEFAULT_CAPACITY);
+    CardinalityFeedback.setDefault(feedback);
+  }
+
+  /** Plans a query, runs it to the end and closes it */
+  private Query run(String sql) throws Exception {
+    TransactionId tid = new TransactionId();
+    Query q = parser.planQuery(sql, tid);
+    q.start();
+    while (q.hasNext())
+      q.next();
+    q.close();
+    Database.getBufferPool().transactionComplete(tid);
+    return q;
+  }
+
+  private Query plan(String sql) throws Exception {
+    TransactionId tid = new TransactionId();
+    Query q = parser.planQuery(sql, tid);
+    Database.getBufferPool().transactionComplete(tid);
+    return q;
+  }
+
+  private static Operator join(OpIterator o) {
+    while (!(o instanceof HashEquiJoin || o instanceof Join
+        || o instanceof SortMergeJoin))
+      o = ((Operator) o).getChildren()[0];
+    return (Operator) o;
+  }
+
+  /**
+   * A scan counts the tuples it returns, and only knows its cardinality once
+   * it has returned them all
+   */
+  @Test public void counts() throws Exception {
+    TransactionId tid = new TransactionId();
+    SeqScan ss = new SeqScan(tid, Database.getCatalog().getTableId("t"), "t");
+    ss.addPredicate(new Predicate(0, Predicate.Op.EQUALS, new IntField(5)));
+    ss.open();
+    for (int i = 0; i < 5; i++)
+      ss.next();
+    assertEquals(-1, ss.getActualCardinality());
+    assertEquals(5, ss.getActualRows());
+    while (ss.hasNext())
+      ss.next();
+    assertEquals(20, ss.getActualCardinality());
+    ss.rewind();
+    while (ss.hasNext())
+      ss.next();
+    assertEquals(20, ss.getActualCardinality());
+    ss.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Filters on correlated fields are underestimated until the query has run
+   * once, and estimated at what it returned from then on
+   */
+  @Test public void filters() throws Exception {
+    Operator root = (Operator) plan(FILTER).getPhysicalPlan();
+    assertTrue(root.getEstimatedCardinality() < 5);
+    assertEquals(20, ((Operator) run(FILTER).getPhysicalPlan())
+        .getActualCardinality());
+    root = (Operator) plan(FILTER).getPhysicalPlan();
+    assertEquals(20, root.getEstimatedCardinality());
+  }
+
+  /** The join of the filtered table is estimated at what it returned */
+  @Test public void joins() throws Exception {
+    Operator j = join(plan(JOIN).getPhysicalPlan());
+    assertTrue(j.getEstimatedCardinality() < 100);
+    j = join(run(JOIN).getPhysicalPlan());
+    assertEquals(400, j.getActualCardinality());
+    j = join(plan(JOIN).getPhysicalPlan());
+    assertEquals(400, j.getEstimatedCardinality());
+    assertEquals(400, feedback.cardinality(j), 0);
+  }
+
+  /** Observations are dropped once the statistics of a table are replaced */
+  @Test public void invalidation() throws Exception {
+    run(JOIN);
+    assertTrue(feedback.size() >= 3);
+    TableStats.setTableStats("t", new TableStats(Database.getCatalog()
+        .getTableId("t"), TableStats.IOCOSTPERPAGE));
+    Operator j = join(plan(JOIN).getPhysicalPlan());
+    assertTrue(j.getEstimatedCardinality() < 100);
+    assertEquals(-1, feedback.cardinality(j), 0);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CardinalityFeedbackTest.class);
+  }
+}
@@ -0,0 +1,145 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ColumnGroupStatsTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 50000;
+
+  private HeapFile table;
+
+  /**
+   * A table of (city, zip, day, month): a zip code is in one city, ten to a
+   * city, and a day of the year in one month of 30 days. The statistics are
+   * sampled by one thread, so the sample is the same on every run.
+   */
+  @Before public void createTable() throws Exception {
+    TableStats.setParallelism(1);
+    Random r = new Random(0);
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < ROWS; i++) {
+      int zip = r.nextInt(1000);
+      int day = r.nextInt(360);
+      tuples.add(new ArrayList<Integer>(Arrays.asList(zip / 10, zip, day,
+          day / 30)));
+    }
+    File temp = File.createTempFile("table", ".dat");
+    temp.deleteOnExit();
+    HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), 4);
+    table = Utility.openHeapFile(4, "c", temp);
+  }
+
+  @After public void resetParallelism() {
+    TableStats.setParallelism(Runtime.getRuntime().availableProcessors());
+  }
+
+  private static List<Predicate> predicates(Predicate... p) {
+    return Arrays.asList(p);
+  }
+
+  private static Predicate pred(int field, Predicate.Op op, int v) {
+    return new Predicate(field, op, new IntField(v));
+  }
+
+  /**
+   * Without a column group, equalities on a city and one of its zip codes
+   * are taken as independent; with one, the zip code alone decides, and a
+   * zip code with a city it is not in is estimated lower
+   */
+  @Test public void equalities() {
+    List<Predicate> cityAndZip = predicates(pred(0, Predicate.Op.EQUALS, 12),
+        pred(1, Predicate.Op.EQUALS, 123));
+    List<Predicate> otherCity = predicates(pred(0, Predicate.Op.EQUALS, 13),
+        pred(1, Predicate.Op.EQUALS, 123));
+    TableStats independent = new TableStats(table.getId(), 1000);
+    // 1/100 of the cities times 1/1000 of the zip codes
+    assertEquals(1e-5, independent.estimateSelectivity(cityAndZip), 0.2e-5);
+
+    Database.getCatalog().addColumnGroup(table.getId(), "c0", "c1");
+    TableStats grouped = new TableStats(table.getId(), 1000);
+    // the zip code alone decides: 1/1000 of the tuples
+    double sel = grouped.estimateSelectivity(cityAndZip);
+    assertEquals(1e-3, sel, 0.2e-3);
+    // none are in another city, which the sample tuples of the zip code
+    // show: it is estimated well below the zip code of the right city
+    double other = grouped.estimateSelectivity(otherCity);
+    assertTrue(other < 0.2e-3);
+    assertTrue(other < sel / 4);
+  }
+
+  /**
+   * A range of days and a month are estimated from the joint sample, both
+   * when they overlap and when they do not
+   */
+  @Test public void ranges() {
+    Database.getCatalog().addColumnGroup(table.getId(), "c2", "c3");
+    TableStats stats = new TableStats(table.getId(), 1000);
+    List<Predicate> overlap = predicates(pred(2, Predicate.Op.LESS_THAN, 45),
+        pred(3, Predicate.Op.EQUALS, 1));
+    assertEquals(15 / 360.0, stats.estimateSelectivity(overlap), 0.01);
+    List<Predicate> disjoint = predicates(pred(2, Predicate.Op.LESS_THAN, 45),
+        pred(3, Predicate.Op.EQUALS, 5));
+    assertTrue(stats.estimateSelectivity(disjoint) < 1e-3);
+    // predicates on other fields multiply
+    List<Predicate> more = new ArrayList<Predicate>(overlap);
+    more.add(pred(0, Predicate.Op.LESS_THAN, 50));
+    assertEquals(stats.estimateSelectivity(overlap) * 0.5,
+        stats.estimateSelectivity(more), 0.005);
+  }
+
+  /** The statistics of a group read back as they were written */
+  @Test public void writeAndRead() throws Exception {
+    Database.getCatalog().addColumnGroup(table.getId(), "c0", "c1");
+    TableStats stats = new TableStats(table.getId(), 1000);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    stats.write(new DataOutputStream(bytes));
+    TableStats read = new TableStats(table.getId(), 1000, new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())));
+    List<Predicate> p = predicates(pred(0, Predicate.Op.EQUALS, 123),
+        pred(1, Predicate.Op.EQUALS, 1234));
+    assertEquals(stats.estimateSelectivity(p), read.estimateSelectivity(p), 0);
+  }
+
+  /** A catalog file declares column groups after the fields of a table */
+  @Test public void catalogFile() throws Exception {
+    File dir = File.createTempFile("catalog", "");
+    dir.delete();
+    dir.mkdir();
+    dir.deleteOnExit();
+    File catalog = new File(dir, "catalog.txt");
+    catalog.deleteOnExit();
+    FileWriter w = new FileWriter(catalog);
+    w.write("places (city int, zip int pk, day int, month int) stats (city, zip) stats (day, month)\n");
+    w.close();
+    Database.getCatalog().loadSchema(catalog.getPath());
+    List<int[]> groups = Database.getCatalog().getColumnGroups(
+        Database.getCatalog().getTableId("places"));
+    assertEquals(2, groups.size());
+    assertTrue(Arrays.equals(new int[] { 0, 1 }, groups.get(0)));
+    assertTrue(Arrays.equals(new int[] { 2, 3 }, groups.get(1)));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ColumnGroupStatsTest.class);
+  }
+}
@@ -0,0 +1,102 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CompiledPredicateTest extends SimpleDbTestBase {
+
+  private static final TupleDesc MIXED = new TupleDesc(new Type[] {
+      Type.INT_TYPE, Type.STRING_TYPE });
+
+  private static Tuple[] randomTuples(int n, long seed) {
+    Random r = new Random(seed);
+    Tuple[] tuples = new Tuple[n];
+    for (int i = 0; i < n; i++) {
+      tuples[i] = new Tuple(MIXED);
+      tuples[i].setField(0, new IntField(r.nextInt(20) - 10));
+      tuples[i].setField(1, new StringField("s" + r.nextInt(20), Type.STRING_LEN));
+    }
+    return tuples;
+  }
+
+  /** Checks the compiled predicate against Predicate.filter, row and batch. */
+  private static void check(Predicate p, Tuple[] tuples) {
+    CompiledPredicate c = CompiledPredicate.compile(p, MIXED);
+    TupleBatch batch = new TupleBatch(MIXED, tuples.length);
+    int expected = 0;
+    for (Tuple t : tuples) {
+      assertEquals(p.toString(), p.filter(t), c.test(t));
+      if (p.filter(t))
+        expected++;
+      batch.add(t);
+    }
+    c.filter(batch);
+    assertEquals(p.toString(), expected, batch.size());
+    for (int i = 0; i < batch.size(); i++)
+      assertEquals(true, p.filter(batch.getTuple(i)));
+  }
+
+  /**
+   * Every operator on int and string fields agrees with Predicate.filter
+   */
+  @Test public void everyOperator() {
+    Tuple[] tuples = randomTuples(500, 35);
+    for (Predicate.Op op : Predicate.Op.values()) {
+      check(new Predicate(0, op, new IntField(3)), tuples);
+      check(new Predicate(1, op, new StringField("s1", Type.STRING_LEN)), tuples);
+    }
+  }
+
+  /**
+   * A conjunction holds where all its parts hold
+   */
+  @Test public void conjunction() {
+    Tuple[] tuples = randomTuples(500, 36);
+    Predicate p1 = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(-5));
+    Predicate p2 = new Predicate(1, Predicate.Op.LESS_THAN,
+        new StringField("s5", Type.STRING_LEN));
+    CompiledPredicate and = CompiledPredicate.and(
+        CompiledPredicate.compile(p1, MIXED), CompiledPredicate.compile(p2, MIXED));
+    TupleBatch batch = new TupleBatch(MIXED, tuples.length);
+    int expected = 0;
+    for (Tuple t : tuples) {
+      boolean both = p1.filter(t) && p2.filter(t);
+      assertEquals(both, and.test(t));
+      if (both)
+        expected++;
+      batch.add(t);
+    }
+    and.filter(batch);
+    assertEquals(expected, batch.size());
+  }
+
+  /**
+   * Compiled join predicates agree with JoinPredicate.filter
+   */
+  @Test public void joinPredicates() {
+    Tuple[] tuples = randomTuples(60, 37);
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int field : new int[] { 0, 1 }) {
+        JoinPredicate p = new JoinPredicate(field, op, field);
+        CompiledJoinPredicate c = CompiledJoinPredicate.compile(p, MIXED, MIXED);
+        for (Tuple l : tuples)
+          for (Tuple r : tuples)
+            assertEquals(p.filter(l, r), c.test(l, r));
+      }
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CompiledPredicateTest.class);
+  }
+}
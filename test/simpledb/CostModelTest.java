@@ -0,0 +1,84 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CostModelTest extends SimpleDbTestBase {
+
+  private final JoinOptimizer jo = new JoinOptimizer(null,
+      new Vector<LogicalJoinNode>());
+
+  private LogicalJoinNode.Algorithm choose(Predicate.Op op, int card1,
+      int card2) {
+    LogicalJoinNode j = new LogicalJoinNode("a", "b", "x", "y", op);
+    jo.estimateJoinCost(j, card1, card2, card1 * 10.0, card2 * 10.0);
+    return j.algorithm;
+  }
+
+  @After public void restore() {
+    CostModel.setDefault(CostModel.DEFAULT);
+  }
+
+  /**
+   * The cheapest algorithm that can evaluate a predicate is chosen
+   */
+  @Test public void choice() {
+    assertEquals(LogicalJoinNode.Algorithm.HASH,
+        choose(Predicate.Op.EQUALS, 10000, 10000));
+    assertEquals(LogicalJoinNode.Algorithm.SORT_MERGE,
+        choose(Predicate.Op.LESS_THAN, 10000, 10000));
+    assertEquals(LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOP,
+        choose(Predicate.Op.NOT_EQUALS, 10000, 10000));
+    // a single outer tuple needs no block
+    assertEquals(LogicalJoinNode.Algorithm.NESTED_LOOP,
+        choose(Predicate.Op.NOT_EQUALS, 1, 10000));
+  }
+
+  /**
+   * Spilling makes the hash join more expensive when memory is short and
+   * spilling is dear
+   */
+  @Test public void memoryBudget() {
+    CostModel roomy = CostModel.DEFAULT;
+    CostModel tight = new CostModel(1000, 1e6, 2, 1, 1);
+    assertEquals(roomy.hashJoinCost(1000, 1000, 0, 0, 10, 10),
+        2 * 1000 * 2, 1e-9);
+    assertTrue(tight.hashJoinCost(1000, 1000, 0, 0, 10, 10) > 1e6);
+    assertTrue(tight.sortCost(1000, 10) > roomy.sortCost(1000, 10));
+
+    // with an expensive enough hash table, nested loops win over a tiny side
+    CostModel.setDefault(new CostModel(1000, 2000, 1e6, 1e6, 256));
+    assertEquals(LogicalJoinNode.Algorithm.NESTED_LOOP,
+        choose(Predicate.Op.EQUALS, 1, 100));
+  }
+
+  /**
+   * A cost model is written to and read back from a properties file
+   */
+  @Test public void storeAndLoad() throws Exception {
+    File f = File.createTempFile("costs", ".properties");
+    f.deleteOnExit();
+    CostModel m = new CostModel(700.5, 5000, 3.5, 1.25, 64);
+    m.store(f, "test");
+    CostModel loaded = CostModel.load(f);
+    assertEquals(700.5, loaded.getPageCost(), 0);
+    assertEquals(5000, loaded.getSpillPageCost(), 0);
+    assertEquals(3.5, loaded.getHashCost(), 0);
+    assertEquals(1.25, loaded.getCompareCost(), 0);
+    assertEquals(64, loaded.getMemoryPages());
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CostModelTest.class);
+  }
+}
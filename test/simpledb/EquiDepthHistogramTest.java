@@ -0,0 +1,163 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class EquiDepthHistogramTest extends SimpleDbTestBase {
+
+  /** @return n values where value v appears about n / (v * H) times */
+  private static int[] zipf(int n, int values, Random r) {
+    double[] cdf = new double[values];
+    double sum = 0;
+    for (int v = 1; v <= values; v++) {
+      sum += 1.0 / v;
+      cdf[v - 1] = sum;
+    }
+    int[] out = new int[n];
+    for (int i = 0; i < n; i++) {
+      double u = r.nextDouble() * sum;
+      int v = 0;
+      while (cdf[v] < u)
+        v++;
+      out[i] = v + 1;
+    }
+    return out;
+  }
+
+  private static double trueSelectivity(int[] vals, Predicate.Op op, int c) {
+    Predicate p = new Predicate(0, op, new IntField(c));
+    Tuple t = new Tuple(Utility.getTupleDesc(1));
+    int n = 0;
+    for (int v : vals) {
+      t.setField(0, new IntField(v));
+      if (p.filter(t))
+        n++;
+    }
+    return (double) n / vals.length;
+  }
+
+  /**
+   * The common values of a skewed field are counted exactly, and ranges are
+   * estimated closely
+   */
+  @Test public void skewed() {
+    int[] vals = zipf(20000, 1000, new Random(0));
+    EquiDepthHistogram<Integer> h = EquiDepthHistogram.ofInts(vals,
+        vals.length, 50);
+    for (int v = 1; v <= 5; v++)
+      assertEquals(trueSelectivity(vals, Predicate.Op.EQUALS, v),
+          h.estimateSelectivity(Predicate.Op.EQUALS, v), 1e-9);
+    for (int c : new int[] { 1, 3, 10, 50, 200, 700 }) {
+      assertEquals(trueSelectivity(vals, Predicate.Op.LESS_THAN, c),
+          h.estimateSelectivity(Predicate.Op.LESS_THAN, c), 0.02);
+      assertEquals(trueSelectivity(vals, Predicate.Op.GREATER_THAN_OR_EQ, c),
+          h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, c), 0.02);
+    }
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, 5000), 1e-9);
+    assertEquals(1.0, h.estimateSelectivity(Predicate.Op.LESS_THAN, 5000), 1e-9);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.LESS_THAN, 1), 1e-9);
+  }
+
+  /**
+   * Without common values, the histogram counts the distinct values exactly
+   * and spreads each bucket evenly over them
+   */
+  @Test public void uniform() {
+    int[] vals = new int[1000];
+    for (int i = 0; i < vals.length; i++)
+      vals[i] = i % 500;
+    EquiDepthHistogram<Integer> h = EquiDepthHistogram.ofInts(vals,
+        vals.length, 10);
+    assertEquals(500, h.distinctValues());
+    assertEquals(0.002, h.estimateSelectivity(Predicate.Op.EQUALS, 42), 1e-9);
+    assertEquals(0.002, h.avgSelectivity(), 1e-9);
+    assertEquals(0.5, h.estimateSelectivity(Predicate.Op.LESS_THAN, 250), 0.01);
+  }
+
+  /**
+   * String values are ordered and estimated like ints
+   */
+  @Test public void strings() {
+    ArrayList<String> vals = new ArrayList<String>();
+    for (int i = 0; i < 1000; i++)
+      vals.add("name" + (1000 + i));
+    for (int i = 0; i < 1000; i++)
+      vals.add("common");
+    EquiDepthHistogram<String> h = EquiDepthHistogram.ofStrings(vals, 20);
+    assertEquals(1001, h.distinctValues());
+    assertEquals(0.5, h.estimateSelectivity(Predicate.Op.EQUALS, "common"), 1e-9);
+    assertEquals(0.0005, h.estimateSelectivity(Predicate.Op.EQUALS, "name1500"), 1e-9);
+    assertEquals(0.25, h.estimateSelectivity(Predicate.Op.GREATER_THAN, "name1500"), 0.02);
+    assertEquals(0.5, h.estimateSelectivity(Predicate.Op.LIKE, "name"), 0.05);
+  }
+
+  /**
+   * The size of a join of two skewed fields is estimated from their common
+   * values
+   */
+  @Test public void join() {
+    Random r = new Random(1);
+    int[] a = zipf(5000, 500, r), b = zipf(5000, 500, r);
+    int[] countA = new int[501], countB = new int[501];
+    for (int v : a)
+      countA[v]++;
+    for (int v : b)
+      countB[v]++;
+    double matches = 0;
+    for (int v = 1; v <= 500; v++)
+      matches += (double) countA[v] * countB[v];
+    double actual = matches / ((double) a.length * b.length);
+
+    EquiDepthHistogram<Integer> ha = EquiDepthHistogram.ofInts(a, a.length, 50);
+    EquiDepthHistogram<Integer> hb = EquiDepthHistogram.ofInts(b, b.length, 50);
+    double estimate = ha.joinSelectivity(hb);
+    assertTrue("estimate " + estimate + " actual " + actual,
+        estimate > actual * 0.8 && estimate < actual * 1.25);
+    assertEquals(estimate, hb.joinSelectivity(ha), actual * 0.05);
+  }
+
+  /**
+   * Values added and removed change the counts of the common values and of
+   * the buckets, in proportion to the sample the histogram was built from
+   */
+  @Test public void maintained() {
+    int[] vals = new int[1000];
+    for (int i = 0; i < vals.length; i++)
+      vals[i] = i < 500 ? 7 : i;
+    // a sample of a tenth of the values
+    EquiDepthHistogram<Integer> h = EquiDepthHistogram.ofInts(vals,
+        vals.length, 10, 10000);
+    assertEquals(0.5, h.estimateSelectivity(Predicate.Op.EQUALS, 7), 1e-9);
+
+    // each value added stands for a tenth of a sampled one
+    for (int i = 0; i < 5000; i++)
+      h.add(7);
+    assertEquals(1500, h.numValues(), 1e-9);
+    assertEquals(1000.0 / 1500, h.estimateSelectivity(Predicate.Op.EQUALS, 7), 1e-9);
+    for (int i = 0; i < 10000; i++)
+      h.remove(7);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, 7), 1e-9);
+    assertEquals(500, h.numValues(), 1e-9);
+
+    // values beyond the buckets are counted in buckets of their own
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, 2000), 1e-9);
+    for (int i = 0; i < 5000; i++)
+      h.add(2000);
+    assertEquals(0.5, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 999), 0.01);
+    h.add(-5);
+    assertEquals(1.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, -5), 1e-3);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(EquiDepthHistogramTest.class);
+  }
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FetchTest extends SimpleDbTestBase {
+
+  private static ArrayList<String> rows(OpIterator op) throws Exception {
+    ArrayList<String> out = new ArrayList<String>();
+    op.open();
+    while (op.hasNext())
+      out.add(op.next().toString());
+    op.close();
+    Collections.sort(out);
+    return out;
+  }
+
+  /**
+   * A row reference leads back to the tuple it was taken from
+   */
+  @Test public void rowReference() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 1000, null, null);
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, table.getId(), "t");
+    scan.setProjection(new int[] { 1 });
+    scan.setRowReference(true);
+    assertEquals(2, scan.getTupleDesc().numFields());
+    assertEquals(Fetch.referenceName("t"), scan.getTupleDesc().getFieldName(1));
+
+    Fetch fetch = new Fetch(tid, new int[] { table.getId() },
+        new String[] { "t" }, new int[][] { null }, scan);
+    assertEquals(3, fetch.getTupleDesc().numFields());
+    assertEquals(rows(new SeqScan(tid, table.getId(), "t")), rows(fetch));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Tables with more slots than an int can address have no row references,
+   * rather than wrapped ones
+   */
+  @Test public void referenceOverflow() throws Exception {
+    TupleDesc td = Utility.getTupleDesc(3);
+    int slots = HeapPage.slotsPerPage(td);
+    int pages = Integer.MAX_VALUE / slots;
+    assertTrue(Fetch.canReference(pages, td));
+    assertFalse(Fetch.canReference(pages + 1, td));
+
+    RecordId last = new RecordId(new HeapPageId(1, pages - 1), slots - 1);
+    assertEquals(pages * slots - 1, Fetch.reference(last, slots));
+    try {
+      Fetch.reference(new RecordId(new HeapPageId(1, pages + 1), 0), slots);
+      fail("expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  /**
+   * A join of keys and row references followed by a Fetch returns what the
+   * join of whole tuples does
+   */
+  @Test public void lateJoin() throws Exception {
+    HeapFile left = SystemTestUtil.createRandomHeapFile(4, 2000, 300, null, null);
+    HeapFile right = SystemTestUtil.createRandomHeapFile(3, 1500, 300, null, null);
+    TransactionId tid = new TransactionId();
+
+    JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    OpIterator early = new HashEquiJoin(p, new SeqScan(tid, left.getId(), "l"),
+        new SeqScan(tid, right.getId(), "r"));
+
+    SeqScan l = new SeqScan(tid, left.getId(), "l");
+    l.setProjection(new int[] { 1 });
+    l.setRowReference(true);
+    SeqScan r = new SeqScan(tid, right.getId(), "r");
+    r.setProjection(new int[] { 0 });
+    r.setRowReference(true);
+    OpIterator late = new Fetch(tid, new int[] { left.getId(), right.getId() },
+        new String[] { "l", "r" }, new int[][] { null, null },
+        new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), l, r));
+
+    assertEquals(early.getTupleDesc(), late.getTupleDesc());
+    assertEquals(rows(early), rows(late));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Only the requested fields are fetched; fields of other tables pass
+   * through
+   */
+  @Test public void someColumns() throws Exception {
+    HeapFile left = SystemTestUtil.createRandomHeapFile(3, 500, 50, null, null);
+    HeapFile right = SystemTestUtil.createRandomHeapFile(2, 500, 50, null, null);
+    TransactionId tid = new TransactionId();
+
+    SeqScan l = new SeqScan(tid, left.getId(), "l");
+    l.setProjection(new int[] { 0 });
+    l.setRowReference(true);
+    OpIterator join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS,
+        0), l, new SeqScan(tid, right.getId(), "r"));
+    Fetch fetch = new Fetch(tid, new int[] { left.getId() },
+        new String[] { "l" }, new int[][] { { 2 } }, join);
+    assertEquals(3, fetch.getTupleDesc().numFields());
+
+    OpIterator early = new Project(new ArrayList<Integer>(
+        Arrays.asList(2, 3, 4)), new Type[] { Type.INT_TYPE,
+        Type.INT_TYPE, Type.INT_TYPE }, new HashEquiJoin(new JoinPredicate(0,
+        Predicate.Op.EQUALS, 0), new SeqScan(tid, left.getId(), "l"),
+        new SeqScan(tid, right.getId(), "r")));
+    assertEquals(rows(early), rows(fetch));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(FetchTest.class);
+  }
+}
@@ -0,0 +1,187 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+
+  /** Nested-loop equi-join on the first column of both inputs. */
+  private ArrayList<String> expectedJoin(int[] left, int[] right) {
+    ArrayList<String> out = new ArrayList<String>();
+    for (int i = 0; i < left.length; i += width1)
+      for (int j = 0; j < right.length; j += width2)
+        if (left[i] == right[j]) {
+          StringBuilder sb = new StringBuilder();
+          for (int k = 0; k < width1; k++)
+            sb.append(left[i + k]).append(',');
+          for (int k = 0; k < width2; k++)
+            sb.append(right[j + k]).append(',');
+          out.add(sb.toString());
+        }
+    Collections.sort(out);
+    return out;
+  }
+
+  /** Returns the batches of a child and fails if its rows are read */
+  private static class BatchesOnly implements BatchIterator {
+    private static final long serialVersionUID = 1L;
+    private final OpIterator child;
+    private final BatchIterator batches;
+
+    BatchesOnly(OpIterator child) {
+      this.child = child;
+      this.batches = BatchAdapter.of(child);
+    }
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+      return batches.nextBatch();
+    }
+    public void open() throws DbException, TransactionAbortedException {
+      child.open();
+    }
+    public boolean hasNext() {
+      throw new UnsupportedOperationException("row interface used");
+    }
+    public Tuple next() {
+      throw new UnsupportedOperationException("row interface used");
+    }
+    public void rewind() throws DbException, TransactionAbortedException {
+      child.rewind();
+    }
+    public TupleDesc getTupleDesc() {
+      return child.getTupleDesc();
+    }
+    public void close() {
+      child.close();
+    }
+  }
+
+  private HashEquiJoin join(int[] left, int[] right, int memoryPages) {
+    return new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right), memoryPages);
+  }
+
+  /**
+   * A build side that fits in memory is joined without spilling
+   */
+  @Test public void inMemory() throws Exception {
+    int[] left = TestUtil.randomRows(2000, width1, 300, 1);
+    int[] right = TestUtil.randomRows(1000, width2, 300, 2);
+    HashEquiJoin op = join(left, right, HashEquiJoin.DEFAULT_MEMORY_PAGES);
+    op.open();
+    assertEquals(expectedJoin(left, right), TestUtil.drain(op));
+    assertEquals(0, op.numSpilledPartitions());
+    op.close();
+  }
+
+  /**
+   * A build side larger than the budget spills partitions and still
+   * produces every match exactly once
+   */
+  @Test public void spills() throws Exception {
+    int[] left = TestUtil.randomRows(3000, width1, 500, 3);
+    int[] right = TestUtil.randomRows(2000, width2, 500, 4);
+    HashEquiJoin op = join(left, right, 2);
+    op.open();
+    assertEquals(expectedJoin(left, right), TestUtil.drain(op));
+    assertTrue(op.numSpilledPartitions() > 0);
+    op.close();
+  }
+
+  /**
+   * A single hot key cannot be split by re-partitioning; the join falls back
+   * to loading the build side in chunks
+   */
+  @Test public void skewedKey() throws Exception {
+    int[] left = TestUtil.randomRows(2000, width1, 1, 5);
+    int[] right = TestUtil.randomRows(20, width2, 1, 6);
+    HashEquiJoin op = join(left, right, 1);
+    op.open();
+    assertEquals(expectedJoin(left, right), TestUtil.drain(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for HashEquiJoin.rewind(), in memory and after spilling
+   */
+  @Test public void rewind() throws Exception {
+    int[] left = TestUtil.randomRows(3000, width1, 500, 7);
+    int[] right = TestUtil.randomRows(500, width2, 500, 8);
+    ArrayList<String> expected = expectedJoin(left, right);
+    int[] budgets = { HashEquiJoin.DEFAULT_MEMORY_PAGES, 2 };
+    for (int pages : budgets) {
+      HashEquiJoin op = join(left, right, pages);
+      op.open();
+      assertEquals(expected, TestUtil.drain(op));
+      op.rewind();
+      assertEquals(expected, TestUtil.drain(op));
+      op.close();
+    }
+  }
+
+  /**
+   * The build keys are pushed into a Filter on the probe side, which drops
+   * most probe tuples without a partner, in memory and after spilling
+   */
+  @Test public void runtimeFilter() throws Exception {
+    int[] left = TestUtil.randomRows(3000, width1, 100, 9);
+    int[] right = TestUtil.randomRows(2000, width2, 1000, 10);
+    ArrayList<String> expected = expectedJoin(left, right);
+    int[] budgets = { HashEquiJoin.DEFAULT_MEMORY_PAGES, 2 };
+    for (int pages : budgets) {
+      Filter probe = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+          new IntField(0)), TestUtil.createTupleList(width2, right));
+      HashEquiJoin op = new HashEquiJoin(new JoinPredicate(0,
+          Predicate.Op.EQUALS, 0), TestUtil.createTupleList(width1, left),
+          probe, pages);
+      op.open();
+      assertEquals(expected, TestUtil.drain(op));
+      BloomFilter filter = op.getRuntimeFilter();
+      assertSame(filter, probe.getRuntimeFilter());
+      assertEquals(2000, filter.numProbes());
+      // 90% of the probe keys are not on the build side
+      assertTrue(filter.numRejected() > 1700);
+      op.close();
+    }
+  }
+
+  /**
+   * A probe side that is read a batch at a time is not also read through
+   * its row interface once its batches are exhausted
+   */
+  @Test public void batchesOnly() throws Exception {
+    int[] left = TestUtil.randomRows(3000, width1, 500, 11);
+    int[] right = TestUtil.randomRows(2000, width2, 500, 12);
+    ArrayList<String> expected = expectedJoin(left, right);
+    int[] budgets = { HashEquiJoin.DEFAULT_MEMORY_PAGES, 2 };
+    for (int pages : budgets) {
+      BatchesOnly probe = new BatchesOnly(TestUtil.createTupleList(width2, right));
+      HashEquiJoin op = new HashEquiJoin(new JoinPredicate(0,
+          Predicate.Op.EQUALS, 0), TestUtil.createTupleList(width1, left),
+          probe, pages);
+      op.open();
+      assertEquals(expected, TestUtil.drainBatches(op));
+      op.close();
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
@@ -0,0 +1,105 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HyperLogLogTest extends SimpleDbTestBase {
+
+  /**
+   * Few values are counted almost exactly, many to within a few percent,
+   * and repeated values are not counted again
+   */
+  @Test public void estimate() {
+    HyperLogLog h = new HyperLogLog();
+    assertEquals(0, h.estimate(), 0);
+    for (int i = 0; i < 100; i++)
+      h.add(new IntField(i * 7));
+    assertEquals(100, h.estimate(), 2);
+    for (int i = 0; i < 100; i++)
+      assertFalse(h.add(new IntField(i * 7)));
+    for (int i = 100; i < 200000; i++)
+      h.add(new IntField(i * 7));
+    assertEquals(200000, h.estimate(), 200000 * 0.04);
+
+    HyperLogLog s = new HyperLogLog();
+    for (int i = 0; i < 50000; i++)
+      s.add(new StringField("name" + i, Type.STRING_LEN));
+    assertEquals(50000, s.estimate(), 50000 * 0.04);
+  }
+
+  /**
+   * The merge of the sketches of two overlapping sets is the sketch of
+   * their union, and a sketch reads back as it was written
+   */
+  @Test public void mergeAndRead() throws Exception {
+    HyperLogLog a = new HyperLogLog(), b = new HyperLogLog(), all = new HyperLogLog();
+    for (int i = 0; i < 30000; i++) {
+      (i < 20000 ? a : b).add(new IntField(i));
+      if (i >= 10000)
+        a.add(new IntField(i - 10000));
+      all.add(new IntField(i));
+    }
+    a.merge(b);
+    assertEquals(all.estimate(), a.estimate(), 1e-6);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    a.write(new DataOutputStream(bytes));
+    HyperLogLog read = HyperLogLog.read(new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(a.estimate(), read.estimate(), 1e-6);
+  }
+
+  /**
+   * The distinct values of a field grow as tuples with new values are
+   * inserted into the table, and not as tuples with old ones are
+   */
+  @Test public void inserts() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < 20000; i++) {
+      ArrayList<Integer> t = new ArrayList<Integer>();
+      t.add(i % 100);
+      t.add(i);
+      tuples.add(t);
+    }
+    File temp = File.createTempFile("table", ".dat");
+    temp.deleteOnExit();
+    HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), 2);
+    HeapFile table = Utility.openHeapFile(2, "c", temp);
+    TableStats stats = TableStats.getTableStats(Database.getCatalog()
+        .getTableName(table.getId()));
+    assertEquals(20000, stats.distinctValues(1));
+    assertEquals(100, stats.distinctValues(0));
+
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 2000; i++) {
+      Tuple t = new Tuple(table.getTupleDesc());
+      t.setField(0, new IntField(i % 100));
+      t.setField(1, new IntField(1000000 + i));
+      Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(22000, stats.distinctValues(1), 22000 * 0.04);
+    assertEquals(100, stats.distinctValues(0));
+    // a tenth of the tuples of a unique field hold a tenth of its values
+    assertEquals(stats.distinctValues(1) / 10.0, stats.distinctValues(1,
+        stats.totalTuples() / 10.0), stats.distinctValues(1) * 0.01);
+    assertEquals(100, stats.distinctValues(0, stats.totalTuples() / 10.0), 1);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HyperLogLogTest.class);
+  }
+}
@@ -0,0 +1,65 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntHistogramTest extends SimpleDbTestBase {
+
+  /**
+   * Over evenly spread values, the estimates match the true selectivities
+   */
+  @Test public void uniform() {
+    IntHistogram h = new IntHistogram(10, 1, 100);
+    for (int round = 0; round < 3; round++)
+      for (int v = 1; v <= 100; v++)
+        h.addValue(v);
+
+    assertEquals(0.01, h.estimateSelectivity(Predicate.Op.EQUALS, 42), 1e-9);
+    assertEquals(0.99, h.estimateSelectivity(Predicate.Op.NOT_EQUALS, 42), 1e-9);
+    assertEquals(0.58, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 42), 1e-9);
+    assertEquals(0.59, h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, 42), 1e-9);
+    assertEquals(0.41, h.estimateSelectivity(Predicate.Op.LESS_THAN, 42), 1e-9);
+    assertEquals(0.42, h.estimateSelectivity(Predicate.Op.LESS_THAN_OR_EQ, 42), 1e-9);
+    assertEquals(0.01, h.avgSelectivity(), 1e-9);
+  }
+
+  /**
+   * Values outside the range of the histogram, at its ends and in a last
+   * bucket that is narrower than the others
+   */
+  @Test public void bounds() {
+    IntHistogram h = new IntHistogram(3, -5, 5);
+    for (int v = -5; v <= 5; v++)
+      h.addValue(v);
+
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, 6), 1e-9);
+    assertEquals(1.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN, -6), 1e-9);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 5), 1e-9);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.LESS_THAN, -5), 1e-9);
+    assertEquals(1.0, h.estimateSelectivity(Predicate.Op.LESS_THAN_OR_EQ, 5), 1e-9);
+    assertEquals(1.0 / 11, h.estimateSelectivity(Predicate.Op.EQUALS, 5), 1e-9);
+    assertEquals(10.0 / 11, h.estimateSelectivity(Predicate.Op.LESS_THAN, 5), 1e-9);
+  }
+
+  /**
+   * A single value and an empty histogram
+   */
+  @Test public void degenerate() {
+    IntHistogram h = new IntHistogram(100, 7, 7);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, 7), 1e-9);
+    h.addValue(7);
+    h.addValue(7);
+    assertEquals(1.0, h.estimateSelectivity(Predicate.Op.EQUALS, 7), 1e-9);
+    assertEquals(1.0, h.avgSelectivity(), 1e-9);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 7), 1e-9);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IntHistogramTest.class);
+  }
+}
@@ -0,0 +1,93 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class JoinHashTableTest extends SimpleDbTestBase {
+
+  private static int chainLength(JoinHashTable table, Field key) {
+    int n = 0;
+    for (int row = table.first(key); row >= 0; row = table.next(row)) {
+      assertEquals(key, table.get(row).getField(0));
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Int keys, including negative ones, across several table growths
+   */
+  @Test public void intKeys() {
+    TupleDesc td = Utility.getTupleDesc(2);
+    JoinHashTable table = JoinHashTable.create(Type.INT_TYPE, 0);
+    int keyRange = 1000;
+    int[] counts = new int[keyRange];
+    Random r = new Random(32);
+    for (int i = 0; i < 20000; i++) {
+      int k = r.nextInt(keyRange);
+      counts[k]++;
+      table.add(Utility.getHeapTuple(new int[] { k - keyRange / 2, i }));
+    }
+    assertEquals(20000, table.size());
+    for (int k = 0; k < keyRange; k++)
+      assertEquals(counts[k], chainLength(table, new IntField(k - keyRange / 2)));
+    assertEquals(-1, table.first(new IntField(keyRange)));
+
+    table.clear();
+    assertEquals(0, table.size());
+    assertEquals(-1, table.first(new IntField(0)));
+    Tuple t = new Tuple(td);
+    t.setField(0, new IntField(7));
+    t.setField(1, new IntField(8));
+    table.add(t);
+    assertEquals(1, chainLength(table, new IntField(7)));
+  }
+
+  /**
+   * Keys of other types use the generic table
+   */
+  @Test public void stringKeys() {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+    JoinHashTable table = JoinHashTable.create(Type.STRING_TYPE, 0);
+    for (int i = 0; i < 300; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField("k" + (i % 30), Type.STRING_LEN));
+      table.add(t);
+    }
+    for (int i = 0; i < 30; i++)
+      assertEquals(10, chainLength(table, new StringField("k" + i, Type.STRING_LEN)));
+    assertEquals(-1, table.first(new StringField("none", Type.STRING_LEN)));
+  }
+
+  /**
+   * JoinedTuple resolves fields against its inputs and copies them when it
+   * is modified
+   */
+  @Test public void joinedTuple() {
+    Tuple left = Utility.getHeapTuple(new int[] { 1, 2 });
+    Tuple right = Utility.getHeapTuple(new int[] { 3, 4, 5 });
+    TupleDesc td = TupleDesc.merge(left.getTupleDesc(), right.getTupleDesc());
+    JoinedTuple t = new JoinedTuple(td, left, right);
+    for (int i = 0; i < 5; i++)
+      assertEquals(new IntField(i + 1), t.getField(i));
+    assertEquals("1 2 3 4 5", t.toString());
+
+    t.setField(3, new IntField(40));
+    assertEquals(new IntField(40), t.getField(3));
+    assertEquals(new IntField(4), right.getField(1));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(JoinHashTableTest.class);
+  }
+}
@@ -0,0 +1,151 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class JoinOptimizerTest extends SimpleDbTestBase {
+
+  private final LogicalPlan plan = new LogicalPlan();
+  private final HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+  private final HashMap<String, Double> selectivities = new HashMap<String, Double>();
+  private final Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+
+  /**
+   * Adds a table of two columns c0 and c1 to the plan; c1 is constantly 0
+   * if constant is set
+   */
+  private void addTable(String alias, int rows, boolean constant)
+      throws Exception {
+    HashMap<Integer, Integer> spec = new HashMap<Integer, Integer>();
+    if (constant)
+      spec.put(1, 0);
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, 1000, spec,
+        null, "c");
+    plan.addScan(f.getId(), alias);
+    stats.put(Database.getCatalog().getTableName(f.getId()),
+        new TableStats(f.getId(), TableStats.IOCOSTPERPAGE));
+    selectivities.put(alias, 1.0);
+  }
+
+  private void addJoin(String t1, String f1, String t2, String f2) {
+    joins.add(new LogicalJoinNode(t1, t2, f1, f2, Predicate.Op.EQUALS));
+  }
+
+  /**
+   * Replays the joins as LogicalPlan does, checking that each one joins two
+   * plans that have not been joined yet, and that they end up joining all
+   * the tables.
+   */
+  private static void assertValidOrder(Vector<LogicalJoinNode> order,
+      Vector<LogicalJoinNode> joins, int tables) {
+    assertEquals(joins.size(), order.size());
+    HashMap<String, Integer> group = new HashMap<String, Integer>();
+    for (LogicalJoinNode j : order) {
+      for (String alias : new String[] { j.t1Alias, j.t2Alias })
+        if (!group.containsKey(alias))
+          group.put(alias, group.size());
+      int g1 = group.get(j.t1Alias), g2 = group.get(j.t2Alias);
+      assertTrue(g1 != g2);
+      for (String alias : group.keySet())
+        if (group.get(alias) == g2)
+          group.put(alias, g1);
+    }
+    assertEquals(tables, group.size());
+    assertEquals(1, new HashSet<Integer>(group.values()).size());
+  }
+
+  private static boolean joins(LogicalJoinNode j, String a, String b) {
+    return (j.t1Alias.equals(a) && j.t2Alias.equals(b))
+        || (j.t1Alias.equals(b) && j.t2Alias.equals(a));
+  }
+
+  /**
+   * Two selective joins at the ends of a chain are done first and their
+   * results joined, a bushy plan no left-deep order matches
+   */
+  @Test public void bushyPlan() throws Exception {
+    addTable("a", 1000, false);
+    addTable("b", 1000, true);
+    addTable("c", 1000, true);
+    addTable("d", 1000, false);
+    selectivities.put("a", 0.01);
+    selectivities.put("d", 0.01);
+    addJoin("a", "c0", "b", "c0");
+    addJoin("b", "c1", "c", "c1");
+    addJoin("c", "c0", "d", "c0");
+
+    Vector<LogicalJoinNode> order = new JoinOptimizer(plan, joins)
+        .orderJoins(stats, selectivities, false);
+    assertValidOrder(order, joins, 4);
+    assertTrue(joins(order.get(2), "b", "c"));
+    for (LogicalJoinNode j : order)
+      assertEquals(LogicalJoinNode.Algorithm.HASH, j.algorithm);
+  }
+
+  /**
+   * Both the enumeration and the greedy fallback return an order that
+   * LogicalPlan can run, over chains, stars and random trees of tables
+   */
+  @Test public void validOrders() throws Exception {
+    Random r = new Random(42);
+    int n = 9;
+    for (int i = 0; i < n; i++)
+      addTable("t" + i, 200 + r.nextInt(2000), false);
+    for (int i = 1; i < n; i++) {
+      // each table joins one of the tables before it
+      int other = r.nextInt(i);
+      addJoin("t" + i, "c" + r.nextInt(2), "t" + other, "c" + r.nextInt(2));
+      selectivities.put("t" + i, 0.1 + r.nextDouble());
+    }
+
+    JoinOptimizer jo = new JoinOptimizer(plan, joins);
+    assertValidOrder(jo.orderJoins(stats, selectivities, false), joins, n);
+    jo.setMaxDpJoins(0);
+    assertValidOrder(jo.orderJoins(stats, selectivities, false), joins, n);
+  }
+
+  /**
+   * Join cardinalities follow the keys and distinct values of the join fields
+   */
+  @Test public void joinCardinality() throws Exception {
+    addTable("a", 1000, false);
+    addTable("b", 1000, true);
+    HashMap<String, Integer> ids = plan.getTableAliasToIdMapping();
+
+    // each tuple of b matches at most one key of a
+    assertEquals(1000, JoinOptimizer.estimateTableJoinCardinality(
+        Predicate.Op.EQUALS, "a", "b", "c0", "c0", 100, 1000, true, false,
+        stats, ids));
+    assertEquals(100, JoinOptimizer.estimateTableJoinCardinality(
+        Predicate.Op.EQUALS, "a", "b", "c0", "c0", 100, 1000, true, true,
+        stats, ids));
+    // c1 of b has a single value, so every pair matches
+    assertEquals(100 * 1000, JoinOptimizer.estimateTableJoinCardinality(
+        Predicate.Op.EQUALS, "b", "b", "c1", "c1", 100, 1000, false, false,
+        stats, ids));
+    // about 1000 distinct values on either side
+    int card = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+        "a", "b", "c0", "c0", 1000, 1000, false, false, stats, ids);
+    assertTrue(card > 800 && card < 2000);
+    assertFalse(card == JoinOptimizer.estimateTableJoinCardinality(
+        Predicate.Op.NOT_EQUALS, "a", "b", "c0", "c0", 1000, 1000, false,
+        false, stats, ids));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(JoinOptimizerTest.class);
+  }
+}
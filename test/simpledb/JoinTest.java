@@ -105,6 +105,50 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * An outer relation larger than one block is joined block by block, with
+   * one scan of the inner relation per block
+   */
+  @Test public void blockJoin() throws Exception {
+    TupleDesc td = Utility.getTupleDesc(width1);
+    int perBlock = Join.blockTuples(1, td);
+    int n = perBlock * 2 + 10;
+    int[] outer = new int[n * width1];
+    for (int i = 0; i < n; i++) {
+      outer[i * width1] = i % 7;
+      outer[i * width1 + 1] = i;
+    }
+    int[] inner = new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14 };
+
+    Join op = new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+        TestUtil.createTupleList(width1, outer),
+        TestUtil.createTupleList(width2, inner), 1);
+    int expected = 0;
+    for (int i = 0; i < n; i++)
+      for (int j = 0; j < inner.length; j += width2)
+        if (outer[i * width1] < inner[j])
+          expected++;
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertTrue(((IntField) t.getField(0)).getValue()
+          < ((IntField) t.getField(width1)).getValue());
+      count++;
+    }
+    assertEquals(expected, count);
+    assertEquals(3, op.numInnerScans());
+
+    op.rewind();
+    count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(expected, count);
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
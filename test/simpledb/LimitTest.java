@@ -0,0 +1,113 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LimitTest extends SimpleDbTestBase {
+
+  int testWidth = 3;
+  TrackingScan scan;
+
+  /**
+   * A MockScan that remembers whether it has been closed.
+   */
+  static class TrackingScan extends TestUtil.MockScan {
+    boolean open;
+
+    TrackingScan(int low, int high, int width) {
+      super(low, high, width);
+    }
+
+    public void open() {
+      super.open();
+      open = true;
+    }
+
+    public void close() {
+      super.close();
+      open = false;
+    }
+  }
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() {
+    this.scan = new TrackingScan(0, 100, testWidth);
+  }
+
+  /**
+   * Unit test for Limit.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    Limit op = new Limit(5, 0, scan);
+    assertEquals(Utility.getTupleDesc(testWidth), op.getTupleDesc());
+  }
+
+  /**
+   * Limit returns the first n tuples after the offset
+   */
+  @Test public void limitOffset() throws Exception {
+    Limit op = new Limit(5, 10, scan);
+    op.open();
+    TestUtil.compareDbIterators(op, new TestUtil.MockScan(10, 15, testWidth));
+    op.close();
+  }
+
+  /**
+   * Limit closes its child as soon as the limit has been reached
+   */
+  @Test public void closesChildEarly() throws Exception {
+    Limit op = new Limit(3, 0, scan);
+    op.open();
+    assertTrue(scan.open);
+    for (int i = 0; i < 3; i++)
+      op.next();
+    assertTrue(TestUtil.checkExhausted(op));
+    assertFalse(scan.open);
+    op.close();
+  }
+
+  /**
+   * Unit test for Limit.rewind() after the child has been closed
+   */
+  @Test public void rewind() throws Exception {
+    Limit op = new Limit(2, 1, scan);
+    op.open();
+    TestUtil.compareDbIterators(op, new TestUtil.MockScan(1, 3, testWidth));
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    TestUtil.compareDbIterators(op, new TestUtil.MockScan(1, 3, testWidth));
+    op.close();
+  }
+
+  /**
+   * Offsets past the end and a zero limit return nothing
+   */
+  @Test public void empty() throws Exception {
+    Limit op = new Limit(5, 200, scan);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+
+    op = new Limit(0, 0, scan);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LimitTest.class);
+  }
+}
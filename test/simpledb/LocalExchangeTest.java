@@ -0,0 +1,206 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.parallel.LocalConsumer;
+import simpledb.parallel.LocalExchange;
+import simpledb.parallel.PartitionFunction;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LocalExchangeTest extends SimpleDbTestBase {
+
+  /** Partitions on the value of the first field. */
+  static class FirstFieldPartitionFunction extends
+      PartitionFunction<String, String> {
+
+    private static final long serialVersionUID = 1L;
+
+    public FirstFieldPartitionFunction(int numPartition) {
+      super(numPartition);
+    }
+
+    @Override
+    public int partition(Tuple t, TupleDesc td) {
+      return ((IntField) t.getField(0)).getValue() % numPartition();
+    }
+  }
+
+  private HeapFile[] tables;
+  private TransactionId tid;
+
+  private static ArrayList<String> rows(OpIterator op) throws Exception {
+    ArrayList<String> out = new ArrayList<String>();
+    op.open();
+    while (op.hasNext())
+      out.add(op.next().toString());
+    op.close();
+    Collections.sort(out);
+    return out;
+  }
+
+  private OpIterator[] scans() {
+    OpIterator[] scans = new OpIterator[tables.length];
+    for (int i = 0; i < scans.length; i++)
+      scans[i] = new SeqScan(tid, tables[i].getId(), "t");
+    return scans;
+  }
+
+  /** @return the rows of all the tables */
+  private ArrayList<String> all() throws Exception {
+    ArrayList<String> out = new ArrayList<String>();
+    for (OpIterator scan : scans())
+      out.addAll(rows(scan));
+    Collections.sort(out);
+    return out;
+  }
+
+  @Before public void createTables() throws Exception {
+    tables = new HeapFile[3];
+    for (int i = 0; i < tables.length; i++)
+      tables[i] = SystemTestUtil.createRandomHeapFile(2, 3000, 100, null, null);
+    tid = new TransactionId();
+  }
+
+  /**
+   * A gather returns the rows of all its inputs, and again after a rewind
+   */
+  @Test public void gather() throws Exception {
+    ArrayList<String> expected = all();
+    LocalConsumer gather = LocalExchange.gather(scans());
+    assertEquals(expected, rows(gather));
+
+    gather.open();
+    gather.next();
+    gather.rewind();
+    int n = 0;
+    while (gather.hasNext()) {
+      gather.next();
+      n++;
+    }
+    gather.close();
+    assertEquals(expected.size(), n);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Each output of a repartition gets the rows of its partition; a count
+   * per partition, gathered, gives the count of the whole input
+   */
+  @Test public void repartition() throws Exception {
+    LocalConsumer[] parts = LocalExchange.repartition(scans(),
+        new FirstFieldPartitionFunction(4));
+    assertEquals(4, parts.length);
+    OpIterator[] counts = new OpIterator[parts.length];
+    for (int i = 0; i < parts.length; i++)
+      counts[i] = new Aggregate(parts[i], 1, 0, Aggregator.Op.COUNT);
+
+    OpIterator serial = new Aggregate(LocalExchange.gather(scans()), 1, 0,
+        Aggregator.Op.COUNT);
+    ArrayList<String> expected = rows(serial);
+    ArrayList<String> actual = rows(LocalExchange.gather(counts));
+    assertEquals(expected, actual);
+    // every group was counted by one partition only
+    assertEquals(actual.size(), new HashSet<String>(actual).size());
+
+    // the rows of a partition all belong to it; the odd partition is read
+    // through a filter that keeps none of them
+    parts = LocalExchange.repartition(scans(), new FirstFieldPartitionFunction(2));
+    OpIterator[] evens = new OpIterator[] { parts[0] };
+    OpIterator[] odds = new OpIterator[] { new Filter(new Predicate(0,
+        Predicate.Op.EQUALS, new IntField(-1)), parts[1]) };
+    for (String row : rows(LocalExchange.gather(new OpIterator[] {
+        LocalExchange.gather(evens), LocalExchange.gather(odds) })))
+      assertEquals(0, Integer.parseInt(row.split("\\s+")[0]) % 2);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Every output of a broadcast gets every row, and replays them when
+   * rewound
+   */
+  @Test public void broadcast() throws Exception {
+    ArrayList<String> expected = all();
+    LocalConsumer[] outs = LocalExchange.broadcast(scans(), 2);
+    ArrayList<String> twice = new ArrayList<String>(expected);
+    twice.addAll(expected);
+    Collections.sort(twice);
+    assertEquals(twice, rows(LocalExchange.gather(outs)));
+
+    outs = LocalExchange.broadcast(scans(), 1);
+    assertEquals(expected, rows(outs[0]));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Closing a consumer early stops the producers, even those waiting to
+   * hand rows to another output
+   */
+  @Test(timeout = 20000) public void closeEarly() throws Exception {
+    LocalConsumer[] parts = LocalExchange.repartition(scans(),
+        new FirstFieldPartitionFunction(2));
+    OpIterator gather = LocalExchange.gather(parts);
+    for (int round = 0; round < 3; round++) {
+      gather.open();
+      assertTrue(gather.hasNext());
+      gather.next();
+      gather.close();
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The failure of a producer is rethrown by the consumer
+   */
+  @Test(timeout = 20000) public void failure() throws Exception {
+    final TupleDesc td = Utility.getTupleDesc(2);
+    OpIterator broken = new Operator() {
+      private static final long serialVersionUID = 1L;
+
+      protected Tuple fetchNext() throws DbException {
+        throw new DbException("broken input");
+      }
+
+      public void rewind() {
+      }
+
+      public OpIterator[] getChildren() {
+        return new OpIterator[0];
+      }
+
+      public void setChildren(OpIterator[] children) {
+      }
+
+      public TupleDesc getTupleDesc() {
+        return td;
+      }
+    };
+    LocalConsumer gather = LocalExchange.gather(new OpIterator[] { broken,
+        new SeqScan(tid, tables[0].getId(), "t") });
+    gather.open();
+    try {
+      while (gather.hasNext())
+        gather.next();
+      fail("expected the failure of the input");
+    } catch (DbException e) {
+      assertEquals("broken input", e.getMessage());
+    }
+    gather.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LocalExchangeTest.class);
+  }
+}
@@ -0,0 +1,167 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  int width = 2;
+  int[] data;
+
+  /**
+   * Initialize each unit test with 10000 random (key, position) pairs.
+   */
+  @Before public void setUp() {
+    Random r = new Random(444);
+    data = new int[10000 * width];
+    for (int i = 0; i < data.length; i += width) {
+      data[i] = r.nextInt(5000);
+      data[i + 1] = i / width;
+    }
+  }
+
+  private int[] sortedKeys(boolean asc) {
+    int[] keys = new int[data.length / width];
+    for (int i = 0; i < keys.length; i++)
+      keys[i] = data[i * width];
+    Arrays.sort(keys);
+    if (!asc) {
+      for (int i = 0; i < keys.length / 2; i++) {
+        int tmp = keys[i];
+        keys[i] = keys[keys.length - 1 - i];
+        keys[keys.length - 1 - i] = tmp;
+      }
+    }
+    return keys;
+  }
+
+  private void checkSorted(OpIterator op, boolean asc) throws Exception {
+    int[] expected = sortedKeys(asc);
+    int n = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(expected[n], ((IntField) t.getField(0)).getValue());
+      n++;
+    }
+    assertEquals(expected.length, n);
+  }
+
+  /**
+   * Unit test for OrderBy.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(width, data));
+    assertEquals(Utility.getTupleDesc(width), op.getTupleDesc());
+  }
+
+  /**
+   * An input that fits in the memory budget is sorted in memory.
+   */
+  @Test public void sortInMemory() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(width, data));
+    op.open();
+    checkSorted(op, true);
+    op.close();
+  }
+
+  /**
+   * An input that exceeds the memory budget is spilled into runs and merged,
+   * including intermediate merge passes.
+   */
+  @Test public void sortExternal() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(width, data), 1);
+    op.open();
+    checkSorted(op, true);
+    op.close();
+
+    op = new OrderBy(0, false, TestUtil.createTupleList(width, data), 3);
+    op.open();
+    checkSorted(op, false);
+    op.close();
+  }
+
+  /**
+   * External sort keeps every input tuple, not just the sort key.
+   */
+  @Test public void sortExternalKeepsTuples() throws Exception {
+    OrderBy op = new OrderBy(1, false, TestUtil.createTupleList(width, data), 2);
+    op.open();
+    for (int i = data.length / width - 1; i >= 0; i--) {
+      assertTrue(op.hasNext());
+      Tuple t = op.next();
+      assertEquals(i, ((IntField) t.getField(1)).getValue());
+      assertEquals(data[i * width], ((IntField) t.getField(0)).getValue());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy.rewind() after spilling
+   */
+  @Test public void rewind() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(width, data), 1);
+    op.open();
+    checkSorted(op, true);
+    op.rewind();
+    checkSorted(op, true);
+    op.close();
+  }
+
+  /**
+   * Multi-key sort with mixed directions, in memory and spilled
+   */
+  @Test public void sortMultiKey() throws Exception {
+    int[] budgets = { ExternalSorter.DEFAULT_MEMORY_PAGES, 1 };
+    for (int pages : budgets) {
+      OpIterator child = TestUtil.createTupleList(width, data);
+      OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+          child, pages);
+      op.open();
+      int lastKey = Integer.MIN_VALUE, lastPos = Integer.MAX_VALUE, n = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        int key = ((IntField) t.getField(0)).getValue();
+        int pos = ((IntField) t.getField(1)).getValue();
+        assertTrue(key > lastKey || (key == lastKey && pos < lastPos));
+        lastKey = key;
+        lastPos = pos;
+        n++;
+      }
+      assertEquals(data.length / width, n);
+      op.close();
+    }
+  }
+
+  /**
+   * ExternalSorter reports the runs it produced for a tiny budget.
+   */
+  @Test public void sorterSpills() throws Exception {
+    TupleDesc td = Utility.getTupleDesc(width);
+    ExternalSorter sorter = new ExternalSorter(td, new SortKey(td, 0, true), 4);
+    OpIterator child = TestUtil.createTupleList(width, data);
+    while (child.hasNext())
+      sorter.add(child.next());
+    sorter.finish();
+    assertTrue(sorter.spilled());
+    assertTrue(sorter.numRuns() <= 3);
+    sorter.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
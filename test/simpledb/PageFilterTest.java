@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageFilterTest extends SimpleDbTestBase {
+
+  private static final TupleDesc MIXED = new TupleDesc(new Type[] {
+      Type.INT_TYPE, Type.STRING_TYPE });
+
+  private static ArrayList<String> rows(OpIterator op) throws Exception {
+    ArrayList<String> out = new ArrayList<String>();
+    op.open();
+    while (op.hasNext())
+      out.add(op.next().toString());
+    op.close();
+    Collections.sort(out);
+    return out;
+  }
+
+  /** @return a scan of table with a predicate on field 1 and two columns */
+  private static SeqScan pushedDown(TransactionId tid, HeapFile table) {
+    SeqScan scan = new SeqScan(tid, table.getId(), "t");
+    scan.addPredicate(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300)));
+    scan.setProjection(new int[] { 2, 0 });
+    return scan;
+  }
+
+  /** The same rows as a Filter and a Project over a plain scan. */
+  private static OpIterator reference(TransactionId tid, HeapFile table) {
+    Filter filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN,
+        new IntField(300)), new SeqScan(tid, table.getId(), "t"));
+    return new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE }, filter);
+  }
+
+  /**
+   * A scan with a predicate and a projection returns the qualifying tuples'
+   * requested columns, with their record ids
+   */
+  @Test public void filterAndProject() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 3000, 1000, null,
+        null);
+    TransactionId tid = new TransactionId();
+    SeqScan scan = pushedDown(tid, table);
+    assertEquals(2, scan.getTupleDesc().numFields());
+    assertEquals(3, scan.getTableTupleDesc().numFields());
+    assertEquals(rows(reference(tid, table)), rows(scan));
+
+    scan.open();
+    Tuple t = scan.next();
+    assertEquals(2, t.getTupleDesc().numFields());
+    RecordId rid = t.getRecordId();
+    HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+        rid.getPageId(), Permissions.READ_ONLY);
+    Tuple stored = page.tuple(rid.getTupleNumber());
+    assertEquals(stored.getField(2), t.getField(0));
+    assertEquals(stored.getField(0), t.getField(1));
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Pages modified since they were read are filtered on their tuples
+   */
+  @Test public void modifiedPage() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 200, 1000, null,
+        null);
+    TransactionId tid = new TransactionId();
+    Database.getBufferPool().insertTuple(tid, table.getId(),
+        Utility.getHeapTuple(new int[] { 1, 2, 3 }));
+    SeqScan all = new SeqScan(tid, table.getId(), "t");
+    all.open();
+    Tuple first = all.next();
+    all.close();
+    Database.getBufferPool().deleteTuple(tid, first);
+
+    ArrayList<String> expected = rows(reference(tid, table));
+    assertEquals(true, expected.contains("3 1"));
+    assertEquals(expected, rows(pushedDown(tid, table)));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Predicates tested on the bytes of a tuple agree with Predicate.filter
+   */
+  @Test public void everyOperatorOnBytes() throws Exception {
+    Random r = new Random(36);
+    for (int i = 0; i < 300; i++) {
+      Tuple t = new Tuple(MIXED);
+      t.setField(0, new IntField(r.nextInt(20) - 10));
+      t.setField(1, new StringField("s" + r.nextInt(20), Type.STRING_LEN));
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      t.getField(0).serialize(out);
+      t.getField(1).serialize(out);
+      byte[] data = bytes.toByteArray();
+
+      for (Predicate.Op op : Predicate.Op.values()) {
+        for (Predicate p : new Predicate[] {
+            new Predicate(0, op, new IntField(3)),
+            new Predicate(1, op, new StringField("s1", Type.STRING_LEN)) }) {
+          PageFilter f = new PageFilter(MIXED, Collections.singletonList(p),
+              null, MIXED);
+          assertEquals(p.toString(), p.filter(t), f.matches(data, 0));
+          assertEquals(p.toString(), p.filter(t), f.matches(t));
+        }
+      }
+      PageFilter f = new PageFilter(MIXED, new ArrayList<Predicate>(),
+          new int[] { 1 }, new TupleDesc(new Type[] { Type.STRING_TYPE }));
+      assertEquals(t.getField(1), f.materialize(data, 0, null).getField(0));
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PageFilterTest.class);
+  }
+}
@@ -0,0 +1,54 @@
+package simpledb;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import simpledb.parallel.CollectConsumer;
+import simpledb.parallel.CollectProducer;
+import simpledb.parallel.ParallelQueryPlan;
+import simpledb.parallel.PartitionFunction;
+import simpledb.parallel.SingleFieldHashPartitionFunction;
+import simpledb.systemtest.ParallelTestBase;
+
+public class ParallelQueryPlanTest extends ParallelTestBase {
+
+    private OpIterator parallelize(String sql) throws Exception {
+        TransactionId tid = new TransactionId();
+        Class<? extends PartitionFunction<?, ?>> partitionFunction = SingleFieldHashPartitionFunction.class;
+        Database.getCatalog().loadSchema(this.schemaFile.getAbsolutePath());
+        TableStats.computeStatistics();
+        Parser p = new Parser();
+        OpIterator local = p.generateLogicalPlan(tid, sql).physicalPlan(tid,
+                TableStats.getStatsMap(), false);
+        ParallelQueryPlan plan = ParallelQueryPlan.parallelizeQueryPlan(tid,
+                local, workers, workers[0], server, partitionFunction);
+        return plan.getMasterWorkerPlan().getChildren()[0];
+    }
+
+    /**
+     * The master applies a limit over the tuples the workers collect
+     */
+    @Test
+    public void limitTest() throws Exception {
+        OpIterator master = parallelize("select id from student limit 3;");
+        Assert.assertTrue(master instanceof Limit);
+        OpIterator c = ((Limit) master).getChildren()[0];
+        Assert.assertTrue(c instanceof CollectConsumer);
+        Assert.assertTrue(((CollectConsumer) c).getChildren()[0] instanceof CollectProducer);
+    }
+
+    /**
+     * The master keeps the first n of the ordered tuples the workers collect
+     */
+    @Test
+    public void topNTest() throws Exception {
+        OpIterator master = parallelize(
+                "select id from student order by id limit 3;");
+        Assert.assertTrue(master instanceof Limit);
+        Project prj = (Project) ((Limit) master).getChildren()[0];
+        Assert.assertTrue(prj.getChildren()[0] instanceof TopN);
+        TopN top = (TopN) prj.getChildren()[0];
+        Assert.assertTrue(top.getChildren()[0] instanceof CollectConsumer);
+    }
+}
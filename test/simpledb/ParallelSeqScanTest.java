@@ -0,0 +1,120 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelSeqScanTest extends SimpleDbTestBase {
+
+  private HeapFile table;
+  private TransactionId tid;
+
+  private static ArrayList<String> rows(OpIterator op) throws Exception {
+    ArrayList<String> out = new ArrayList<String>();
+    op.open();
+    while (op.hasNext())
+      out.add(op.next().toString());
+    op.close();
+    Collections.sort(out);
+    return out;
+  }
+
+  @Before public void createTable() throws Exception {
+    // about 80 pages, so 5 morsels
+    table = SystemTestUtil.createRandomHeapFile(3, 20000, 100, null, null);
+    tid = new TransactionId();
+  }
+
+  /**
+   * Reading through the gather returns every tuple once
+   */
+  @Test public void scan() throws Exception {
+    assertEquals(rows(new SeqScan(tid, table.getId(), "t")),
+        rows(new ParallelSeqScan(new SeqScan(tid, table.getId(), "t"), 4)));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The workers evaluate the predicates and projection of the scan
+   */
+  @Test public void filterAndProject() throws Exception {
+    SeqScan serial = new SeqScan(tid, table.getId(), "t");
+    SeqScan parallel = new SeqScan(tid, table.getId(), "t");
+    for (SeqScan s : new SeqScan[] { serial, parallel }) {
+      s.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30)));
+      s.setProjection(new int[] { 2, 1 });
+    }
+    ParallelSeqScan scan = new ParallelSeqScan(parallel, 3);
+    assertEquals(serial.getTupleDesc(), scan.getTupleDesc());
+    ArrayList<String> expected = rows(serial);
+    assertEquals(expected, rows(scan));
+
+    // rewinding, and closing before the end, leave nothing behind
+    scan.open();
+    scan.next();
+    scan.rewind();
+    int n = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      n++;
+    }
+    assertEquals(expected.size(), n);
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Aggregating per worker and combining the partial results gives the
+   * answer of a serial aggregate, for every operator
+   */
+  @Test public void aggregate() throws Exception {
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN,
+        Aggregator.Op.MAX, Aggregator.Op.SUM, Aggregator.Op.AVG,
+        Aggregator.Op.COUNT, Aggregator.Op.SUM_COUNT }) {
+      for (int group : new int[] { Aggregator.NO_GROUPING, 1 }) {
+        Aggregate serial = new Aggregate(new SeqScan(tid, table.getId(), "t"),
+            2, group, op);
+        Aggregate parallel = new Aggregate(new ParallelSeqScan(
+            new SeqScan(tid, table.getId(), "t"), 4), 2, group, op);
+        assertEquals(serial.getTupleDesc(), parallel.getTupleDesc());
+        assertEquals(op + " " + group, rows(serial), rows(parallel));
+      }
+    }
+
+    // averages of (sum, count) pairs, here fields 1 and 2 grouped by field 0
+    Aggregate serial = new Aggregate(new SeqScan(tid, table.getId(), "t"),
+        1, 0, Aggregator.Op.SC_AVG);
+    Aggregate parallel = new Aggregate(new ParallelSeqScan(
+        new SeqScan(tid, table.getId(), "t"), 4), 1, 0, Aggregator.Op.SC_AVG);
+    assertEquals(rows(serial), rows(parallel));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A worker that finds no tuples does not contribute to the result; with
+   * more workers than morsels some never get one
+   */
+  @Test public void emptyWorkers() throws Exception {
+    SeqScan serial = new SeqScan(tid, table.getId(), "t");
+    SeqScan parallel = new SeqScan(tid, table.getId(), "t");
+    for (SeqScan s : new SeqScan[] { serial, parallel })
+      s.addPredicate(new Predicate(0, Predicate.Op.EQUALS, new IntField(7)));
+    assertEquals(rows(new Aggregate(serial, 1, Aggregator.NO_GROUPING,
+        Aggregator.Op.MIN)), rows(new Aggregate(new ParallelSeqScan(parallel,
+        8), 1, Aggregator.NO_GROUPING, Aggregator.Op.MIN)));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelSeqScanTest.class);
+  }
+}
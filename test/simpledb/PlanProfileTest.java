@@ -0,0 +1,124 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PlanProfileTest extends SimpleDbTestBase {
+
+  private static final String JOIN =
+      "SELECT t.a, u.c FROM t, u WHERE t.a = u.a AND t.b < 10;";
+
+  private Parser parser;
+
+  /** Tables t (a, b) and u (a, c) of 2000 tuples, with a from 0 to 99 */
+  @Before public void createTables() throws Exception {
+    for (String name : new String[] { "t", "u" }) {
+      ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+      for (int i = 0; i < 2000; i++)
+        tuples.add(new ArrayList<Integer>(Arrays.asList(i % 100, i)));
+      File temp = File.createTempFile("table", ".dat");
+      temp.deleteOnExit();
+      HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), 2);
+      HeapFile f = new HeapFile(temp, new TupleDesc(Utility.getTypes(2),
+          new String[] { "a", name.equals("t") ? "b" : "c" }));
+      Database.getCatalog().addTable(f, name);
+    }
+    parser = new Parser();
+    parser.setStatementCache(null);
+  }
+
+  private Query run(String sql, boolean analyze) throws Exception {
+    TransactionId tid = new TransactionId();
+    Query q = parser.planQuery(sql, tid);
+    q.setAnalyze(analyze);
+    q.start();
+    while (q.hasNext())
+      q.next();
+    q.close();
+    Database.getBufferPool().transactionComplete(tid);
+    return q;
+  }
+
+  private static HashEquiJoin join(OpIterator o) {
+    while (!(o instanceof HashEquiJoin))
+      o = ((Operator) o).getChildren()[0];
+    return (HashEquiJoin) o;
+  }
+
+  /**
+   * Every operator is measured, a parent's time includes its children's, and
+   * the plan is left as it was
+   */
+  @Test public void measures() throws Exception {
+    Query q = run(JOIN, true);
+    PlanProfile profile = q.getProfile();
+    assertNotNull(profile);
+    OpIterator root = q.getPhysicalPlan();
+    assertEquals(200, profile.getRows(root));
+
+    HashEquiJoin j = join(root);
+    assertEquals(200, profile.getRows(j));
+    long children = 0;
+    long pages = 0;
+    for (OpIterator c : j.getChildren()) {
+      assertFalse(c instanceof PlanProfile.Probe);
+      assertTrue(profile.contains(c));
+      assertEquals(1, profile.getLoops(c));
+      children += profile.getInclusiveNanos(c);
+      pages += profile.getPageHits(c) + profile.getPageReads(c);
+    }
+    assertEquals(profile.getInclusiveNanos(j),
+        children + profile.getExclusiveNanos(j));
+    assertTrue(profile.getInclusiveNanos(root) >= profile.getInclusiveNanos(j));
+    assertTrue(pages >= 2 * ((HeapFile) Database.getCatalog().getDatabaseFile(
+        Database.getCatalog().getTableId("t"))).numPages());
+    assertEquals(0, profile.getPageHits(j) + profile.getPageReads(j));
+
+    // the build side is held in memory, and still filters the probe side
+    assertTrue(profile.getPeakMemory(j) > 0);
+    assertNotNull(j.getRuntimeFilter());
+  }
+
+  /** A query that is not analyzed is not profiled */
+  @Test public void off() throws Exception {
+    Query q = run(JOIN, false);
+    assertNull(q.getProfile());
+    HashEquiJoin j = join(q.getPhysicalPlan());
+    assertFalse(j.getChildren()[0] instanceof PlanProfile.Probe);
+  }
+
+  /** The analyzed tree shows the measurements of every operator */
+  @Test public void printsTree() throws Exception {
+    Query q = run(JOIN, true);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new QueryPlanVisualizer().printAnalyzedPlanTree(q.getPhysicalPlan(),
+        q.getProfile(), new PrintStream(out, true, "UTF-8"));
+    String tree = out.toString("UTF-8");
+    int nodes = 0;
+    for (int i = tree.indexOf(",rows:"); i >= 0; i = tree.indexOf(",rows:", i + 1))
+      nodes++;
+    assertEquals(4, nodes);
+    assertTrue(tree.contains(",rows:200,"));
+    assertTrue(tree.contains(",mem:"));
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PlanProfileTest.class);
+  }
+}
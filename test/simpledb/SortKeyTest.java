@@ -0,0 +1,70 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortKeyTest extends SimpleDbTestBase {
+
+  private static final TupleDesc INT_STRING = new TupleDesc(
+      new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+  private static Tuple tuple(int i, String s) {
+    Tuple t = new Tuple(INT_STRING);
+    t.setField(0, new IntField(i));
+    t.setField(1, new StringField(s, Type.STRING_LEN));
+    return t;
+  }
+
+  private static int sign(int x) {
+    return x < 0 ? -1 : (x > 0 ? 1 : 0);
+  }
+
+  /**
+   * Integer keys order like the integers, including negative values
+   */
+  @Test public void intOrder() {
+    SortKey key = new SortKey(INT_STRING, 0, true);
+    int[] values = { Integer.MIN_VALUE, -100, -1, 0, 1, 255, 256, Integer.MAX_VALUE };
+    for (int a : values)
+      for (int b : values)
+        assertEquals(sign(Integer.compare(a, b)),
+            sign(SortKey.compare(key.encode(tuple(a, "")), key.encode(tuple(b, "")))));
+  }
+
+  /**
+   * String keys order like String.compareTo, including prefixes
+   */
+  @Test public void stringOrder() {
+    SortKey key = new SortKey(INT_STRING, 1, true);
+    String[] values = { "", "a", "ab", "abc", "abd", "b", "B", "ab\u0000" };
+    for (String a : values)
+      for (String b : values)
+        assertEquals(sign(a.compareTo(b)),
+            sign(SortKey.compare(key.encode(tuple(0, a)), key.encode(tuple(0, b)))));
+  }
+
+  /**
+   * Descending fields reverse only their own part of the key
+   */
+  @Test public void mixedDirections() {
+    SortKey key = new SortKey(INT_STRING, new int[] { 0, 1 },
+        new boolean[] { true, false });
+    assertTrue(key.wrap(tuple(1, "z")).compareTo(key.wrap(tuple(2, "a"))) < 0);
+    assertTrue(key.wrap(tuple(1, "z")).compareTo(key.wrap(tuple(1, "a"))) < 0);
+    assertTrue(key.wrap(tuple(1, "ab")).compareTo(key.wrap(tuple(1, "a"))) < 0);
+    assertEquals(0, key.wrap(tuple(1, "a")).compareTo(key.wrap(tuple(1, "a"))));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortKeyTest.class);
+  }
+}
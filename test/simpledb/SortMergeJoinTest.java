@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+
+  static final Predicate.Op[] OPS = { Predicate.Op.EQUALS,
+      Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+      Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+  /** Nested-loop join on the first column of both inputs. */
+  private ArrayList<String> expectedJoin(int[] left, int[] right,
+      Predicate.Op op) {
+    ArrayList<String> out = new ArrayList<String>();
+    for (int i = 0; i < left.length; i += width1)
+      for (int j = 0; j < right.length; j += width2)
+        if (new IntField(left[i]).compare(op, new IntField(right[j]))) {
+          StringBuilder sb = new StringBuilder();
+          for (int k = 0; k < width1; k++)
+            sb.append(left[i + k]).append(',');
+          for (int k = 0; k < width2; k++)
+            sb.append(right[j + k]).append(',');
+          out.add(sb.toString());
+        }
+    Collections.sort(out);
+    return out;
+  }
+
+  private SortMergeJoin join(int[] left, int[] right, Predicate.Op op,
+      int memoryPages) {
+    return new SortMergeJoin(new JoinPredicate(0, op, 0),
+        TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right), memoryPages);
+  }
+
+  /**
+   * Equality and band predicates on inputs that fit in memory
+   */
+  @Test public void inMemory() throws Exception {
+    int[] left = TestUtil.randomRows(300, width1, 100, 1);
+    int[] right = TestUtil.randomRows(200, width2, 100, 2);
+    for (Predicate.Op p : OPS) {
+      SortMergeJoin op = join(left, right, p, SortMergeJoin.DEFAULT_MEMORY_PAGES);
+      op.open();
+      assertEquals(p.toString(), expectedJoin(left, right, p), TestUtil.drain(op));
+      assertFalse(op.spilled());
+      op.close();
+    }
+  }
+
+  /**
+   * Inputs larger than the budget are sorted externally and the right input
+   * is read back from disk
+   */
+  @Test public void spills() throws Exception {
+    int[] left = TestUtil.randomRows(150, width1, 400, 3);
+    int[] right = TestUtil.randomRows(1000, width2, 400, 4);
+    for (Predicate.Op p : OPS) {
+      SortMergeJoin op = join(left, right, p, 1);
+      op.open();
+      assertEquals(p.toString(), expectedJoin(left, right, p), TestUtil.drain(op));
+      assertTrue(op.spilled());
+      op.close();
+    }
+  }
+
+  /**
+   * A child that is already sorted on the join field is merged as is
+   */
+  @Test public void sortedInput() throws Exception {
+    int[] left = TestUtil.randomRows(500, width1, 200, 5);
+    int[] right = TestUtil.randomRows(400, width2, 200, 6);
+    SortMergeJoin op = new SortMergeJoin(
+        new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new OrderBy(0, true, TestUtil.createTupleList(width1, left)),
+        new OrderBy(0, true, TestUtil.createTupleList(width2, right)));
+    op.open();
+    assertEquals(expectedJoin(left, right, Predicate.Op.EQUALS), TestUtil.drain(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind(), in memory and after spilling
+   */
+  @Test public void rewind() throws Exception {
+    int[] left = TestUtil.randomRows(200, width1, 300, 7);
+    int[] right = TestUtil.randomRows(1000, width2, 300, 8);
+    ArrayList<String> expected = expectedJoin(left, right,
+        Predicate.Op.GREATER_THAN_OR_EQ);
+    int[] budgets = { SortMergeJoin.DEFAULT_MEMORY_PAGES, 1 };
+    for (int pages : budgets) {
+      SortMergeJoin op = join(left, right, Predicate.Op.GREATER_THAN_OR_EQ,
+          pages);
+      op.open();
+      assertEquals(expected, TestUtil.drain(op));
+      op.rewind();
+      assertEquals(expected, TestUtil.drain(op));
+      op.close();
+    }
+  }
+
+  /**
+   * Predicates that do not match a contiguous range are rejected
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void unsupportedPredicate() {
+    join(new int[] { 1, 1 }, new int[] { 1, 1, 1 }, Predicate.Op.NOT_EQUALS, 1);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
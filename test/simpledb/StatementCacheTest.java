@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class StatementCacheTest extends SimpleDbTestBase {
+
+  private Parser parser;
+
+  /** Tables a (id, v) and b (id, w) of 1000 tuples, with v and w from 0 to 9 */
+  @Before public void createTables() throws Exception {
+    for (String name : new String[] { "a", "b" }) {
+      ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+      for (int i = 0; i < 1000; i++)
+        tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 10)));
+      File temp = File.createTempFile("table", ".dat");
+      temp.deleteOnExit();
+      HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), 2);
+      HeapFile f = new HeapFile(temp, new TupleDesc(Utility.getTypes(2),
+          new String[] { "id", name.equals("a") ? "v" : "w" }));
+      Database.getCatalog().addTable(f, name);
+    }
+    parser = new Parser();
+  }
+
+  private int count(Query q) throws Exception {
+    int n = 0;
+    q.start();
+    while (q.hasNext()) {
+      q.next();
+      n++;
+    }
+    q.close();
+    return n;
+  }
+
+  /** Statements differing only in their constants have the same text */
+  @Test public void normalize() throws Exception {
+    StatementCache.Statement s = StatementCache.normalize(
+        "SELECT *\n  FROM t1 WHERE t1.c2 = 30 AND t1.name = 'it''s';");
+    assertEquals("SELECT * FROM t1 WHERE t1.c2 = ? AND t1.name = ?;", s.getText());
+    assertEquals(Arrays.asList("30", "it's"), s.getValues());
+    assertEquals(Arrays.asList("30", "'it''s'"), s.getLiterals());
+    assertEquals(s.getText(), StatementCache.normalize(
+        "SELECT * FROM t1 WHERE t1.c2 = 7 AND t1.name = 'x';").getText());
+
+    assertEquals("SELECT * FROM t1 WHERE t1.c2 = 30 AND t1.name = 'it''s';",
+        StatementCache.substitute(s.getText(), s.getLiterals()));
+    try {
+      StatementCache.substitute(s.getText(), Arrays.asList("1"));
+      fail("expected a ParsingException");
+    } catch (ParsingException e) {
+    }
+  }
+
+  /**
+   * A statement with other constants is planned from the cache, with its own
+   * constants, and returns what it would have returned if planned afresh
+   */
+  @Test public void hits() throws Exception {
+    TransactionId tid = new TransactionId();
+    StatementCache cache = parser.getStatementCache();
+    String sql = "SELECT a.id FROM a, b WHERE a.id = b.id AND a.v = %d AND b.w < %d;";
+    assertEquals(100, count(parser.planQuery(String.format(sql, 3, 5), tid)));
+    assertEquals(0, cache.hits());
+    assertEquals(1, cache.size());
+    assertEquals(100, count(parser.planQuery(String.format(sql, 4, 9), tid)));
+    assertEquals(0, count(parser.planQuery(String.format(sql, 7, 5), tid)));
+    assertEquals(2, cache.hits());
+
+    PreparedQuery q = parser.prepare(
+        "SELECT a.id FROM a, b WHERE a.id = b.id AND a.v = ? AND b.w < ?;");
+    assertEquals(2, q.getParameterCount());
+    assertEquals(100, count(q.query(tid, 2, 3)));
+    assertEquals(3, cache.hits());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** A plan is dropped once the statistics of one of its tables are replaced */
+  @Test public void invalidation() throws Exception {
+    TransactionId tid = new TransactionId();
+    StatementCache cache = parser.getStatementCache();
+    parser.planQuery("SELECT * FROM a WHERE a.v = 1;", tid);
+    assertEquals(1, cache.size());
+    TableStats.setTableStats("a", new TableStats(Database.getCatalog()
+        .getTableId("a"), TableStats.IOCOSTPERPAGE));
+    assertNull(cache.get(StatementCache.normalize("SELECT * FROM a WHERE a.v = 2;")));
+    assertEquals(1, cache.invalidations());
+    assertEquals(0, cache.size());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** The least recently used statement is evicted beyond the capacity */
+  @Test public void eviction() throws Exception {
+    TransactionId tid = new TransactionId();
+    StatementCache cache = new StatementCache(2);
+    parser.setStatementCache(cache);
+    parser.planQuery("SELECT * FROM a WHERE a.v = 1;", tid);
+    parser.planQuery("SELECT * FROM b WHERE b.w = 1;", tid);
+    parser.planQuery("SELECT * FROM a WHERE a.v = 2;", tid);
+    parser.planQuery("SELECT * FROM a WHERE a.id > 2;", tid);
+    assertEquals(2, cache.size());
+    assertNull(cache.get(StatementCache.normalize("SELECT * FROM b WHERE b.w = 3;")));
+    assertEquals(1, cache.hits());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(StatementCacheTest.class);
+  }
+}
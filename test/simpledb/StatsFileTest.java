@@ -0,0 +1,147 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class StatsFileTest extends SimpleDbTestBase {
+
+  private File file;
+  private HeapFile table;
+  private String name;
+
+  @Before public void createTable() throws Exception {
+    file = File.createTempFile("catalog", ".stats");
+    file.delete();
+    file.deleteOnExit();
+    table = SystemTestUtil.createRandomHeapFile(2, 1000, 100, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    name = Database.getCatalog().getTableName(table.getId());
+  }
+
+  @After public void closeFile() {
+    TableStats.useStatsFile(null);
+    new File(file.getPath() + ".tmp").delete();
+  }
+
+  private static void assertSameStats(TableStats expected, TableStats actual) {
+    assertEquals(expected.totalTuples(), actual.totalTuples());
+    assertEquals(expected.estimateScanCost(), actual.estimateScanCost(), 0);
+    for (int f = 0; f < 2; f++) {
+      assertEquals(expected.distinctValues(f), actual.distinctValues(f));
+      for (int v = -10; v < 110; v += 7) {
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS,
+            Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN_OR_EQ })
+          assertEquals(expected.estimateSelectivity(f, op, new IntField(v)),
+              actual.estimateSelectivity(f, op, new IntField(v)), 0);
+      }
+      assertEquals(expected.avgSelectivity(f, Predicate.Op.EQUALS),
+          actual.avgSelectivity(f, Predicate.Op.EQUALS), 0);
+    }
+  }
+
+  /**
+   * Statistics saved to a file read back the same
+   */
+  @Test public void saveAndLoad() throws Exception {
+    TableStats stats = new TableStats(table.getId(), 1000);
+    StatsFile.open(file).save(name, table.getId(), stats);
+    assertTrue(file.exists());
+
+    StatsFile reopened = StatsFile.open(file);
+    assertEquals(1, reopened.size());
+    TableStats loaded = reopened.load(name, table.getId(), 1000);
+    assertNotNull(loaded);
+    assertSameStats(stats, loaded);
+    assertNull(reopened.load("missing", table.getId(), 1000));
+  }
+
+  /**
+   * Statistics of a heap file that has changed since they were saved are
+   * not loaded
+   */
+  @Test public void changedFile() throws Exception {
+    StatsFile.open(file).save(name, table.getId(), new TableStats(
+        table.getId(), 1000));
+    RandomAccessFile raf = new RandomAccessFile(table.getFile(), "rw");
+    raf.setLength(raf.length() + BufferPool.getPageSize());
+    raf.close();
+    assertNull(StatsFile.open(file).load(name, table.getId(), 1000));
+  }
+
+  /**
+   * The statistics map computes the statistics of a table when it is first
+   * planned and saves them; a later process loads them instead
+   */
+  @Test public void lazy() throws Exception {
+    TableStats.useStatsFile(StatsFile.open(file));
+    assertTrue(!file.exists());
+    TableStats computed = TableStats.getStatsMap().get(name);
+    assertNotNull(computed);
+    assertTrue(file.exists());
+    assertSame(computed, TableStats.getStatsMap().get(name));
+    assertNull(TableStats.getStatsMap().get("no such table"));
+
+    TableStats.useStatsFile(StatsFile.open(file));
+    TableStats loaded = TableStats.getTableStats(name);
+    assertNotSame(computed, loaded);
+    assertSameStats(computed, loaded);
+  }
+
+  /**
+   * Inserted tuples are counted in the statistics at once, and the
+   * statistics are computed again, in the background, once enough have been
+   */
+  @Test public void refresh() throws Exception {
+    TableStats before = TableStats.getStatsMap().get(name);
+    assertEquals(1000, before.totalTuples());
+
+    // the statistics are refreshed after 50 + 10% of 1000 changes; the new
+    // tuples are all above the values of the table
+    TransactionId tid = new TransactionId();
+    int n = 300;
+    for (int i = 0; i < n; i++) {
+      Tuple t = new Tuple(table.getTupleDesc());
+      t.setField(0, new IntField(500));
+      t.setField(1, new IntField(i));
+      if (i == 100) {
+        assertSame(before, TableStats.getStatsMap().get(name));
+        assertEquals(1100, before.totalTuples());
+      }
+      Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(1000 + n, before.totalTuples());
+    assertEquals((double) n / (1000 + n), before.estimateSelectivity(0,
+        Predicate.Op.GREATER_THAN, new IntField(99)), 0.03);
+    assertTrue(before.isStale());
+
+    assertSame(before, TableStats.getStatsMap().get(name));
+    TableStats.awaitRefreshes();
+    TableStats after = TableStats.getStatsMap().get(name);
+    assertNotSame(before, after);
+    assertEquals(1000 + n, after.totalTuples());
+    assertEquals((double) n / (1000 + n), after.estimateSelectivity(0,
+        Predicate.Op.EQUALS, new IntField(500)), 1e-9);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(StatsFileTest.class);
+  }
+}
@@ -0,0 +1,124 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TableSampleTest extends SimpleDbTestBase {
+
+  @After public void restore() {
+    TableStats.setSampleTuples(TableStats.DEFAULT_SAMPLE_TUPLES);
+    TableStats.setParallelism(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @return a table whose tuples are (i % 1000, i) for i from 0 to rows - 1,
+   *         in random order
+   */
+  private static HeapFile table(int rows) throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < rows; i++) {
+      ArrayList<Integer> t = new ArrayList<Integer>();
+      t.add(i % 1000);
+      t.add(i);
+      tuples.add(t);
+    }
+    Collections.shuffle(tuples, new Random(0));
+    File temp = File.createTempFile("table", ".dat");
+    temp.deleteOnExit();
+    HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), 2);
+    return Utility.openHeapFile(2, "c", temp);
+  }
+
+  /**
+   * A table read whole by several workers gives the same statistics as one
+   * read by one
+   */
+  @Test public void parallelScan() throws Exception {
+    HeapFile f = table(20000);
+    TableStats.setSampleTuples(Integer.MAX_VALUE);
+    TableStats.setParallelism(1);
+    TableStats serial = new TableStats(f.getId(), 1000);
+    TableStats.setParallelism(4);
+    TableStats parallel = new TableStats(f.getId(), 1000);
+
+    assertEquals(20000, serial.totalTuples());
+    assertEquals(20000, parallel.totalTuples());
+    assertEquals(1000, parallel.distinctValues(0));
+    assertEquals(20000, parallel.distinctValues(1));
+    for (int c : new int[] { 0, 100, 999 })
+      assertEquals(serial.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(c)),
+          parallel.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(c)), 1e-9);
+  }
+
+  /**
+   * A sample of a few of the pages of a table estimates its size, its
+   * numbers of distinct values and its selectivities closely
+   */
+  @Test public void sampled() throws Exception {
+    HeapFile f = table(100000);
+    TableStats.setSampleTuples(2000);
+    TableSample s = TableSample.collect(new TransactionId(), f.getId(), 2000,
+        2, 1);
+    assertFalse(s.isComplete());
+    assertEquals(2000, s.getTuples().size());
+    assertEquals(100000, s.estimatedTuples(), 2000);
+
+    TableStats stats = new TableStats(f.getId(), 1000);
+    assertEquals(100000, stats.totalTuples(), 2000);
+    assertEquals(0.25, stats.estimateSelectivity(1, Predicate.Op.LESS_THAN,
+        new IntField(25000)), 0.05);
+    assertEquals(0.001, stats.avgSelectivity(0, Predicate.Op.EQUALS), 0.0005);
+    // every value of c1 is unique, which a sample can only infer
+    assertTrue("" + stats.distinctValues(1), stats.distinctValues(1) > 50000);
+    assertEquals(1000, stats.distinctValues(0), 200);
+  }
+
+  /**
+   * Merging the reservoirs of workers that saw different numbers of tuples
+   * keeps the sample uniform
+   */
+  @Test public void merge() {
+    Random r = new Random(2);
+    TupleDesc td = Utility.getTupleDesc(1);
+    int fromFirst = 0;
+    for (int round = 0; round < 200; round++) {
+      TableSample.Sampler[] samplers = new TableSample.Sampler[] {
+          new TableSample.Sampler(10, r), new TableSample.Sampler(10, r) };
+      // the first worker sees 300 tuples, the second 100
+      for (int i = 0; i < 400; i++) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i < 300 ? 0 : 1));
+        samplers[i < 300 ? 0 : 1].offer(t);
+      }
+      for (Tuple t : TableSample.merge(samplers, 10, r))
+        if (((IntField) t.getField(0)).getValue() == 0)
+          fromFirst++;
+    }
+    assertEquals(0.75, fromFirst / 2000.0, 0.03);
+  }
+
+  @Test public void choosePages() {
+    int[] pages = TableSample.choosePages(1000, 50, new Random(3));
+    assertEquals(50, pages.length);
+    for (int i = 1; i < pages.length; i++)
+      assertTrue(pages[i - 1] < pages[i]);
+    assertEquals(10, TableSample.choosePages(10, 50, new Random(3)).length);
+  }
+
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TableSampleTest.class);
+  }
+}
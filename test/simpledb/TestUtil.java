@@ -166,6 +166,56 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return width * n ints for createTupleList; the first column of each
+     *   row is drawn from [0, keyRange), the others hold the row number
+     */
+    public static int[] randomRows(int n, int width, int keyRange, long seed) {
+        Random r = new Random(seed);
+        int[] rows = new int[n * width];
+        for (int i = 0; i < n; i++) {
+            rows[i * width] = r.nextInt(keyRange);
+            for (int j = 1; j < width; j++)
+                rows[i * width + j] = i;
+        }
+        return rows;
+    }
+
+    /**
+     * @return the remaining tuples of an open iterator of IntFields, each as
+     *   its values followed by commas, in sorted order
+     */
+    public static ArrayList<String> drain(OpIterator op)
+        throws DbException, TransactionAbortedException {
+        ArrayList<String> out = new ArrayList<String>();
+        while (op.hasNext())
+            out.add(intValues(op.next()));
+        Collections.sort(out);
+        return out;
+    }
+
+    /**
+     * @return the remaining tuples of an open iterator of IntFields, read a
+     *   batch at a time, as {@link #drain} returns them
+     */
+    public static ArrayList<String> drainBatches(BatchIterator op)
+        throws DbException, TransactionAbortedException {
+        ArrayList<String> out = new ArrayList<String>();
+        TupleBatch b;
+        while ((b = op.nextBatch()) != null)
+            for (int i = 0; i < b.size(); i++)
+                out.add(intValues(b.getTuple(i)));
+        Collections.sort(out);
+        return out;
+    }
+
+    private static String intValues(Tuple t) {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < t.getTupleDesc().numFields(); k++)
+            sb.append(((IntField) t.getField(k)).getValue()).append(',');
+        return sb.toString();
+    }
+
     /**
      * @return a byte array containing the contents of the file 'path'
      */
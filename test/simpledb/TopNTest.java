@@ -0,0 +1,101 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  int width = 2;
+  OpIterator scan;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() {
+    this.scan = TestUtil.createTupleList(width,
+        new int[] { 5, 0,
+                    3, 1,
+                    9, 2,
+                    1, 3,
+                    7, 4,
+                    3, 5 });
+  }
+
+  /**
+   * Unit test for TopN.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    TopN op = new TopN(0, true, 3, scan);
+    assertEquals(Utility.getTupleDesc(width), op.getTupleDesc());
+  }
+
+  /**
+   * Ascending TopN returns the n smallest tuples in order
+   */
+  @Test public void topAscending() throws Exception {
+    TopN op = new TopN(0, true, 3, scan);
+    OpIterator expected = TestUtil.createTupleList(width,
+        new int[] { 1, 3,
+                    3, 1,
+                    3, 5 });
+    op.open();
+    assertEquals(1, ((IntField) op.next().getField(0)).getValue());
+    assertEquals(3, ((IntField) op.next().getField(0)).getValue());
+    assertEquals(3, ((IntField) op.next().getField(0)).getValue());
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+  }
+
+  /**
+   * Descending TopN returns the n largest tuples in order
+   */
+  @Test public void topDescending() throws Exception {
+    TopN op = new TopN(0, false, 2, scan);
+    OpIterator expected = TestUtil.createTupleList(width,
+        new int[] { 9, 2,
+                    7, 4 });
+    op.open();
+    TestUtil.compareDbIterators(op, expected);
+    op.close();
+  }
+
+  /**
+   * n larger than the input returns the whole input sorted; n of zero
+   * returns nothing
+   */
+  @Test public void nOutOfRange() throws Exception {
+    TopN op = new TopN(0, true, 100, scan);
+    op.open();
+    int count = 0;
+    int last = Integer.MIN_VALUE;
+    while (op.hasNext()) {
+      int v = ((IntField) op.next().getField(0)).getValue();
+      assertTrue(v >= last);
+      last = v;
+      count++;
+    }
+    assertEquals(6, count);
+    op.close();
+
+    op = new TopN(0, true, 0, scan);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
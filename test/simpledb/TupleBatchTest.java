@@ -0,0 +1,168 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+  private static int[] randomInts(int n, int bound, long seed) {
+    Random r = new Random(seed);
+    int[] values = new int[n];
+    for (int i = 0; i < n; i++)
+      values[i] = r.nextInt(bound);
+    return values;
+  }
+
+  private static ArrayList<String> rows(OpIterator op) throws Exception {
+    ArrayList<String> out = new ArrayList<String>();
+    op.open();
+    while (op.hasNext())
+      out.add(op.next().toString());
+    op.close();
+    Collections.sort(out);
+    return out;
+  }
+
+  private static ArrayList<String> batches(BatchIterator op) throws Exception {
+    ArrayList<String> out = new ArrayList<String>();
+    op.open();
+    TupleBatch batch;
+    while ((batch = op.nextBatch()) != null)
+      for (int i = 0; i < batch.size(); i++)
+        out.add(batch.getTuple(i).toString());
+    op.close();
+    Collections.sort(out);
+    return out;
+  }
+
+  /**
+   * Rows added to a batch come back unchanged; filtering narrows the
+   * selection and projection shares the columns
+   */
+  @Test public void selectAndProject() throws Exception {
+    TupleBatch batch = new TupleBatch(Utility.getTupleDesc(3), 4);
+    for (int i = 0; i < 4; i++)
+      batch.add(Utility.getHeapTuple(new int[] { i, 10 * i, 100 * i }));
+    assertEquals(4, batch.size());
+    assertEquals(true, batch.isFull());
+    assertEquals("2 20 200", batch.getTuple(2).toString());
+
+    new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(15)).filter(batch);
+    assertEquals(2, batch.size());
+    assertEquals(2, batch.row(0));
+    assertEquals(3, batch.row(1));
+
+    TupleBatch p = batch.project(Utility.getTupleDesc(2), new int[] { 2, 0 });
+    assertEquals(2, p.size());
+    assertEquals("300 3", p.getTuple(1).toString());
+    assertEquals(300, p.intColumn(0)[p.row(1)]);
+
+    batch.clear();
+    assertEquals(0, batch.size());
+  }
+
+  /**
+   * Filter and Project over a row-only child return the same tuples through
+   * both interfaces
+   */
+  @Test public void filterProject() throws Exception {
+    int[] data = randomInts(3000 * 3, 100, 34);
+    OpIterator child = TestUtil.createTupleList(3, data);
+    Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN,
+        new IntField(30)), child);
+    Project project = new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE }, filter);
+    ArrayList<String> expected = rows(project);
+    assertEquals(expected, batches(project));
+    assertEquals(rows(filter), batches(filter));
+  }
+
+  /**
+   * Aggregates merge whole batches, with and without grouping
+   */
+  @Test public void aggregate() throws Exception {
+    int[] data = randomInts(5000 * 2, 50, 35);
+    Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.MIN,
+        Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    for (Aggregator.Op op : ops) {
+      for (int group : new int[] { Aggregator.NO_GROUPING, 0 }) {
+        Aggregate viaBatches = new Aggregate(TestUtil.createTupleList(2, data),
+            1, group, op);
+        // reference result: merge every tuple on its own
+        Aggregator reference = new IntegerAggregator(group,
+            group == Aggregator.NO_GROUPING ? null : Type.INT_TYPE, 1, op);
+        OpIterator in = TestUtil.createTupleList(2, data);
+        in.open();
+        while (in.hasNext())
+          reference.mergeTupleIntoGroup(in.next());
+        assertEquals(rows(reference.iterator()), batches(viaBatches));
+      }
+    }
+  }
+
+  /**
+   * A hash join emits the same rows through both interfaces, in memory and
+   * after spilling
+   */
+  @Test public void hashJoin() throws Exception {
+    int[] left = randomInts(3000 * 2, 400, 36);
+    int[] right = randomInts(2000 * 2, 400, 37);
+    for (int pages : new int[] { HashEquiJoin.DEFAULT_MEMORY_PAGES, 2 }) {
+      HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0,
+          Predicate.Op.EQUALS, 0), TestUtil.createTupleList(2, left),
+          TestUtil.createTupleList(2, right), pages);
+      assertEquals(rows(join), batches(join));
+    }
+  }
+
+  /**
+   * A scan returns the table in batches, skipping tuples its runtime filter
+   * rejects
+   */
+  @Test public void seqScan() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 3000, 100, null,
+        null);
+    SeqScan scan = new SeqScan(new TransactionId(), table.getId(), "t");
+    ArrayList<String> expected = rows(scan);
+    assertEquals(expected, batches(scan));
+
+    BloomFilter filter = new BloomFilter(1000);
+    filter.add(new IntField(7));
+    scan.setRuntimeFilter(0, filter);
+    scan.open();
+    TupleBatch batch;
+    while ((batch = scan.nextBatch()) != null)
+      for (int i = 0; i < batch.size(); i++)
+        assertEquals(new IntField(7), batch.getField(0, batch.row(i)));
+    assertNull(scan.nextBatch());
+    assertEquals(3000, filter.numProbes());
+
+    // a tuple hasNext() read ahead is not tested again by nextBatch()
+    scan.rewind();
+    assertTrue(scan.hasNext());
+    while (scan.nextBatch() != null)
+      ;
+    assertEquals(6000, filter.numProbes());
+    scan.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TupleBatchTest.class);
+  }
+}
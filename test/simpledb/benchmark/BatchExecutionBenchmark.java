@@ -0,0 +1,143 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the CPU time per scanned tuple of a few plans over a heap file
+ * that is cached in the buffer pool, once consuming them a tuple at a time
+ * with next() and once a batch at a time with nextBatch(). The aggregate is
+ * run over its input once as a row-only iterator and once with batches.
+ * <p>
+ * Usage: ant runbenchmark -Dbenchmark=BatchExecutionBenchmark
+ * -Dbenchmark.args="rows rounds" -Dbenchmark.maxmemory=1G
+ */
+public class BatchExecutionBenchmark {
+
+    private interface Plan {
+        OpIterator create(boolean batches) throws Exception;
+    }
+
+    /** Hides that an iterator produces batches, so its consumer uses rows. */
+    private static OpIterator rowOnly(final OpIterator child) {
+        return new OpIterator() {
+            private static final long serialVersionUID = 1L;
+
+            public void open() throws DbException, TransactionAbortedException {
+                child.open();
+            }
+
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                return child.hasNext();
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException,
+                    NoSuchElementException {
+                return child.next();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                child.rewind();
+            }
+
+            public TupleDesc getTupleDesc() {
+                return child.getTupleDesc();
+            }
+
+            public void close() {
+                child.close();
+            }
+        };
+    }
+
+    private static long drain(OpIterator op, boolean batches) throws Exception {
+        long n = 0;
+        op.open();
+        if (batches) {
+            TupleBatch b;
+            while ((b = ((BatchIterator) op).nextBatch()) != null)
+                n += b.size();
+        } else {
+            while (op.hasNext()) {
+                op.next();
+                n++;
+            }
+        }
+        op.close();
+        return n;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Database.resetBufferPool(2 * rows / (BufferPool.getPageSize() / 12) + 100);
+        final HeapFile big = SystemTestUtil.createRandomHeapFile(3, rows, rows,
+                null, null);
+        final HeapFile small = SystemTestUtil.createRandomHeapFile(3, rows / 10,
+                rows, null, null);
+        final TransactionId tid = new TransactionId();
+        final Predicate tenPercent = new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(rows / 10));
+
+        String[] names = { "scan", "filter", "filter+project", "filter+sum",
+                "hash join" };
+        Plan[] plans = { new Plan() {
+            public OpIterator create(boolean batches) {
+                return new SeqScan(tid, big.getId(), "t");
+            }
+        }, new Plan() {
+            public OpIterator create(boolean batches) {
+                return new Filter(tenPercent, new SeqScan(tid, big.getId(), "t"));
+            }
+        }, new Plan() {
+            public OpIterator create(boolean batches) {
+                return new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+                        new Type[] { Type.INT_TYPE, Type.INT_TYPE }, new Filter(
+                                tenPercent, new SeqScan(tid, big.getId(), "t")));
+            }
+        }, new Plan() {
+            public OpIterator create(boolean batches) {
+                OpIterator in = new Filter(tenPercent, new SeqScan(tid,
+                        big.getId(), "t"));
+                return new Aggregate(batches ? in : rowOnly(in), 1,
+                        Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+            }
+        }, new Plan() {
+            public OpIterator create(boolean batches) {
+                return new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS,
+                        0), new SeqScan(tid, small.getId(), "s"), new SeqScan(
+                        tid, big.getId(), "t"));
+            }
+        } };
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        drain(plans[0].create(false), false); // load the pages
+        System.out.println(rows + " tuples scanned per plan; CPU ns per scanned tuple");
+        System.out.printf("%-16s %6s %10s %10s %8s%n", "plan", "round", "rows",
+                "batches", "output");
+        for (int p = 0; p < plans.length; p++) {
+            for (int round = 1; round <= rounds; round++) {
+                double[] nanos = new double[2];
+                long out = 0;
+                for (int mode = 0; mode < 2; mode++) {
+                    boolean batches = mode == 1;
+                    OpIterator op = plans[p].create(batches);
+                    long start = threads.getCurrentThreadCpuTime();
+                    out = drain(op, batches);
+                    nanos[mode] = (double) (threads.getCurrentThreadCpuTime() - start)
+                            / rows;
+                }
+                System.out.printf("%-16s %6d %10.1f %10.1f %8d%n", names[p],
+                        round, nanos[0], nanos[1], out);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
@@ -0,0 +1,53 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+/**
+ * Sorts a generated table with OrderBy and reports throughput, so the external
+ * sort can be checked on inputs several times larger than the heap.
+ * <p>
+ * Usage: ant runbenchmark -Dbenchmark=ExternalSortBenchmark
+ * -Dbenchmark.args="numTuples memoryPages"
+ * <p>
+ * With the default 64MB benchmark heap, 20 million four-column tuples
+ * (about 1.6GB as Java objects) cannot be sorted in memory.
+ */
+public class ExternalSortBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long numTuples = args.length > 0 ? Long.parseLong(args[0]) : 20000000L;
+        int memoryPages = args.length > 1 ? Integer.parseInt(args[1])
+                : ExternalSorter.DEFAULT_MEMORY_PAGES;
+        int width = 4;
+
+        GeneratedScan scan = new GeneratedScan(numTuples, width, Integer.MAX_VALUE, 444);
+        OrderBy sort = new OrderBy(0, true, scan, memoryPages);
+
+        long start = System.nanoTime();
+        sort.open();
+        long sorted = System.nanoTime();
+        long count = 0;
+        int last = Integer.MIN_VALUE;
+        while (sort.hasNext()) {
+            int key = ((IntField) sort.next().getField(0)).getValue();
+            if (key < last)
+                throw new RuntimeException("output out of order at tuple " + count);
+            last = key;
+            count++;
+        }
+        long end = System.nanoTime();
+        sort.close();
+
+        if (count != numTuples)
+            throw new RuntimeException("expected " + numTuples + " tuples, got " + count);
+
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        System.out.println("tuples:        " + numTuples);
+        System.out.println("input size:    " + numTuples * width * Type.INT_TYPE.getLen() / (1 << 20) + " MB on disk");
+        System.out.println("max heap:      " + maxHeap / (1 << 20) + " MB");
+        System.out.println("memory budget: " + memoryPages + " pages");
+        System.out.printf("run generation: %.2f s%n", (sorted - start) / 1e9);
+        System.out.printf("merge:          %.2f s%n", (end - sorted) / 1e9);
+        System.out.printf("throughput:     %.0f tuples/s%n", numTuples / ((end - start) / 1e9));
+    }
+}
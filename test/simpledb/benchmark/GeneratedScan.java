@@ -0,0 +1,65 @@
+package simpledb.benchmark;
+
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * An OpIterator that generates tuples of random integers on the fly, so
+ * benchmarks can feed operators inputs much larger than the heap. The first
+ * field is drawn uniformly from [0, keyRange); the remaining fields hold the
+ * tuple's sequence number. The same seed always yields the same sequence.
+ */
+public class GeneratedScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long numTuples;
+    private final int width;
+    private final int keyRange;
+    private final long seed;
+    private final TupleDesc td;
+    private Random random;
+    private long produced;
+
+    public GeneratedScan(long numTuples, int width, int keyRange, long seed) {
+        this.numTuples = numTuples;
+        this.width = width;
+        this.keyRange = keyRange;
+        this.seed = seed;
+        this.td = Utility.getTupleDesc(width);
+    }
+
+    public void open() {
+        random = new Random(seed);
+        produced = 0;
+    }
+
+    public boolean hasNext() {
+        return random != null && produced < numTuples;
+    }
+
+    public Tuple next() throws NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(random.nextInt(keyRange)));
+        for (int i = 1; i < width; i++)
+            t.setField(i, new IntField((int) produced));
+        produced++;
+        return t;
+    }
+
+    public void rewind() {
+        open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        random = null;
+    }
+}
@@ -0,0 +1,55 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+/**
+ * Joins generated tables of increasing size with HashEquiJoin and reports
+ * elapsed time and how many build partitions spilled. The probe side has as
+ * many tuples as the build side and keys are drawn from the same range, so
+ * each probe tuple matches about one build tuple.
+ * <p>
+ * Usage: ant runbenchmark -Dbenchmark=HashJoinBenchmark
+ * -Dbenchmark.args="memoryPages buildSize..."
+ * <p>
+ * The default sizes run from 10K to 10M tuples; pass 100000000 explicitly
+ * for the largest size (it needs several GB of temporary disk space).
+ */
+public class HashJoinBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int memoryPages = args.length > 0 ? Integer.parseInt(args[0])
+                : HashEquiJoin.DEFAULT_MEMORY_PAGES;
+        long[] sizes = { 10000L, 100000L, 1000000L, 10000000L };
+        if (args.length > 1) {
+            sizes = new long[args.length - 1];
+            for (int i = 1; i < args.length; i++)
+                sizes[i - 1] = Long.parseLong(args[i]);
+        }
+
+        System.out.println("memory budget: " + memoryPages + " pages, max heap "
+                + Runtime.getRuntime().maxMemory() / (1 << 20) + " MB");
+        System.out.printf("%12s %12s %10s %10s %14s%n", "build", "output",
+                "spilled", "seconds", "tuples/s");
+        for (long size : sizes) {
+            int keyRange = (int) Math.min(Integer.MAX_VALUE, size);
+            GeneratedScan build = new GeneratedScan(size, 2, keyRange, 1);
+            GeneratedScan probe = new GeneratedScan(size, 2, keyRange, 2);
+            HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0,
+                    Predicate.Op.EQUALS, 0), build, probe, memoryPages);
+
+            long start = System.nanoTime();
+            join.open();
+            long count = 0;
+            while (join.hasNext()) {
+                join.next();
+                count++;
+            }
+            double secs = (System.nanoTime() - start) / 1e9;
+            int spilled = join.numSpilledPartitions();
+            join.close();
+
+            System.out.printf("%12d %12d %10d %10.2f %14.0f%n", size, count,
+                    spilled, secs, 2 * size / secs);
+        }
+    }
+}
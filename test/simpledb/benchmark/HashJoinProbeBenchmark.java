@@ -0,0 +1,130 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import simpledb.*;
+
+/**
+ * Measures the in-memory build and probe path of the hash join: probe
+ * throughput and bytes allocated. It compares JoinHashTable with the layout
+ * HashEquiJoin used before it, a HashMap from boxed Field keys to
+ * ArrayList buckets. It then runs a whole HashEquiJoin that fits in memory.
+ * Each measurement is repeated so the first, unwarmed rounds can be told
+ * apart from the steady state.
+ * <p>
+ * Usage: ant runbenchmark -Dbenchmark=HashJoinProbeBenchmark
+ * -Dbenchmark.args="buildSize rounds" -Dbenchmark.maxmemory=1G
+ */
+public class HashJoinProbeBenchmark {
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean()).getThreadAllocatedBytes(Thread
+                .currentThread().getId());
+    }
+
+    private static Tuple[] generate(int n, int keyRange, long seed)
+            throws Exception {
+        GeneratedScan scan = new GeneratedScan(n, 2, keyRange, seed);
+        Tuple[] tuples = new Tuple[n];
+        scan.open();
+        for (int i = 0; i < n; i++)
+            tuples[i] = scan.next();
+        scan.close();
+        return tuples;
+    }
+
+    /** The build table HashEquiJoin used before JoinHashTable. */
+    private static long boxedMap(Tuple[] build, Tuple[] probe) {
+        HashMap<Field, ArrayList<Tuple>> map = new HashMap<Field, ArrayList<Tuple>>();
+        for (Tuple t : build) {
+            ArrayList<Tuple> list = map.get(t.getField(0));
+            if (list == null) {
+                list = new ArrayList<Tuple>();
+                map.put(t.getField(0), list);
+            }
+            list.add(t);
+        }
+        long matches = 0;
+        for (Tuple t : probe) {
+            ArrayList<Tuple> list = map.get(t.getField(0));
+            if (list != null)
+                for (Tuple m : list)
+                    matches += m.getField(1).hashCode() & 1;
+        }
+        return matches;
+    }
+
+    private static long joinHashTable(Tuple[] build, Tuple[] probe) {
+        JoinHashTable table = JoinHashTable.create(Type.INT_TYPE, 0);
+        for (Tuple t : build)
+            table.add(t);
+        long matches = 0;
+        for (Tuple t : probe)
+            for (int row = table.first(t.getField(0)); row >= 0; row = table.next(row))
+                matches += table.get(row).getField(1).hashCode() & 1;
+        return matches;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Tuple[] build = generate(size, size, 1);
+        Tuple[] probe = generate(size, size, 2);
+
+        System.out.println("build and probe " + size + " tuples each");
+        System.out.printf("%-16s %6s %12s %14s%n", "table", "round",
+                "ns/probe", "bytes/build");
+        for (int round = 1; round <= rounds; round++) {
+            for (int impl = 0; impl < 2; impl++) {
+                long bytes = allocatedBytes();
+                long start = System.nanoTime();
+                long check = impl == 0 ? boxedMap(build, probe)
+                        : joinHashTable(build, probe);
+                long nanos = System.nanoTime() - start;
+                bytes = allocatedBytes() - bytes;
+                System.out.printf("%-16s %6d %12.1f %14.1f   (%d)%n",
+                        impl == 0 ? "HashMap<Field>" : "JoinHashTable", round,
+                        (double) nanos / size, (double) bytes / size, check);
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-16s %6s %12s %14s%n", "HashEquiJoin", "round",
+                "tuples/s", "bytes/output");
+        for (int round = 1; round <= rounds; round++) {
+            GeneratedScan left = new GeneratedScan(size, 2, size, 1);
+            GeneratedScan right = new GeneratedScan(size, 2, size, 2);
+            HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0,
+                    Predicate.Op.EQUALS, 0), left, right,
+                    Integer.MAX_VALUE / BufferPool.getPageSize());
+
+            // allocation of the generated inputs alone
+            long inputBytes = allocatedBytes();
+            for (GeneratedScan s : new GeneratedScan[] { left, right }) {
+                s.open();
+                while (s.hasNext())
+                    s.next();
+                s.close();
+            }
+            inputBytes = allocatedBytes() - inputBytes;
+
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            join.open();
+            long count = 0;
+            while (join.hasNext()) {
+                join.next();
+                count++;
+            }
+            long nanos = System.nanoTime() - start;
+            bytes = allocatedBytes() - bytes - inputBytes;
+            join.close();
+            System.out.printf("%-16s %6d %12.0f %14.1f   (%d rows)%n", "",
+                    round, count / (nanos / 1e9), (double) bytes / count, count);
+        }
+    }
+}
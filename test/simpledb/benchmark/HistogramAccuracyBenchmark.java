@@ -0,0 +1,156 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares the selectivities estimated by the fixed-width IntHistogram and
+ * by the EquiDepthHistogram with the true ones, on a column of Zipf
+ * distributed values (value v is about 1/v^s as frequent as value 1). It
+ * reports the mean absolute error and the mean and worst q-error (the ratio
+ * of the larger of estimate and truth to the smaller) of equality
+ * predicates on the most common values and on random values, of range
+ * predicates at the quantiles of the column, and of the size of the join of
+ * two such columns.
+ * <p>
+ * Usage: ant runbenchmark -Dbenchmark=HistogramAccuracyBenchmark
+ * -Dbenchmark.args="tuples values skew buckets"
+ */
+public class HistogramAccuracyBenchmark {
+
+    private static int[] zipf(int n, int values, double skew, Random r) {
+        double[] cdf = new double[values];
+        double sum = 0;
+        for (int v = 1; v <= values; v++) {
+            sum += Math.pow(v, -skew);
+            cdf[v - 1] = sum;
+        }
+        int[] out = new int[n];
+        for (int i = 0; i < n; i++) {
+            double u = r.nextDouble() * sum;
+            int lo = 0, hi = values - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cdf[mid] < u)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            // scatter the ranks so frequent values are not all at one end
+            out[i] = (int) ((lo * 7919L) % values);
+        }
+        return out;
+    }
+
+    /** Accumulates the errors of a series of estimates. */
+    private static class Errors {
+        double abs, q, maxQ;
+        int n;
+
+        void add(double estimate, double actual, double floor) {
+            abs += Math.abs(estimate - actual);
+            double e = Math.max(estimate, floor), a = Math.max(actual, floor);
+            double qe = Math.max(e / a, a / e);
+            q += qe;
+            maxQ = Math.max(maxQ, qe);
+            n++;
+        }
+
+        public String toString() {
+            return String.format("%10.5f %9.2f %9.2f", abs / n, q / n, maxQ);
+        }
+    }
+
+    private static void report(String name, Errors fixed, Errors equiDepth) {
+        System.out.printf("%-16s %-11s %s%n", name, "fixed", fixed);
+        System.out.printf("%-16s %-11s %s%n", "", "equi-depth", equiDepth);
+    }
+
+    private static IntHistogram fixedWidth(int[] vals, int buckets) {
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (int v : vals) {
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        IntHistogram h = new IntHistogram(buckets, min, max);
+        for (int v : vals)
+            h.addValue(v);
+        return h;
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int values = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        double skew = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+        int buckets = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+        Random r = new Random(1);
+        int[] vals = zipf(n, values, skew, r);
+        int[] counts = new int[values];
+        for (int v : vals)
+            counts[v]++;
+        IntHistogram fixed = fixedWidth(vals, buckets);
+        EquiDepthHistogram<Integer> equiDepth = EquiDepthHistogram.ofInts(
+                vals, n, buckets);
+        double floor = 1.0 / n;
+
+        Errors fe = new Errors(), ee = new Errors();
+        // the most common values, which are ranks 0 to 49
+        for (int rank = 0; rank < 50 && rank < values; rank++) {
+            int v = (int) ((rank * 7919L) % values);
+            double actual = (double) counts[v] / n;
+            fe.add(fixed.estimateSelectivity(Predicate.Op.EQUALS, v), actual, floor);
+            ee.add(equiDepth.estimateSelectivity(Predicate.Op.EQUALS, v), actual, floor);
+        }
+        System.out.printf("%d tuples, %d values, skew %.2f, %d buckets%n", n,
+                values, skew, buckets);
+        System.out.printf("%-16s %-11s %10s %9s %9s%n", "predicate",
+                "histogram", "mean abs", "mean q", "max q");
+        report("= common", fe, ee);
+
+        fe = new Errors();
+        ee = new Errors();
+        for (int i = 0; i < 1000; i++) {
+            int v = r.nextInt(values);
+            double actual = (double) counts[v] / n;
+            fe.add(fixed.estimateSelectivity(Predicate.Op.EQUALS, v), actual, floor);
+            ee.add(equiDepth.estimateSelectivity(Predicate.Op.EQUALS, v), actual, floor);
+        }
+        report("= random", fe, ee);
+
+        fe = new Errors();
+        ee = new Errors();
+        int[] below = new int[values + 1];
+        for (int v = 0; v < values; v++)
+            below[v + 1] = below[v] + counts[v];
+        for (int i = 1; i < 100; i++) {
+            int v = r.nextInt(values);
+            double actual = (double) below[v] / n;
+            fe.add(fixed.estimateSelectivity(Predicate.Op.LESS_THAN, v), actual, floor);
+            ee.add(equiDepth.estimateSelectivity(Predicate.Op.LESS_THAN, v), actual, floor);
+        }
+        report("< random", fe, ee);
+
+        // join of the column with another drawn from the same distribution
+        int[] other = zipf(n, values, skew, r);
+        int[] otherCounts = new int[values];
+        for (int v : other)
+            otherCounts[v]++;
+        double matches = 0;
+        for (int v = 0; v < values; v++)
+            matches += (double) counts[v] * otherCounts[v];
+        double actual = matches / ((double) n * n);
+        IntHistogram otherFixed = fixedWidth(other, buckets);
+        // what the optimizer assumed before: one over the larger number of
+        // distinct values, estimated from the average selectivity
+        double fixedSel = Math.min(fixed.avgSelectivity(), otherFixed.avgSelectivity());
+        double equiDepthSel = equiDepth.joinSelectivity(EquiDepthHistogram
+                .ofInts(other, n, buckets));
+        fe = new Errors();
+        ee = new Errors();
+        fe.add(fixedSel, actual, floor * floor);
+        ee.add(equiDepthSel, actual, floor * floor);
+        report("join", fe, ee);
+    }
+}
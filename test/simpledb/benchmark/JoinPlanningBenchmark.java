@@ -0,0 +1,79 @@
+package simpledb.benchmark;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.Vector;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures how long JoinOptimizer.orderJoins takes to order 5 to 15 way
+ * joins, by enumerating plans and greedily, over a chain of tables (each
+ * joined to the next) and a star (all joined to the first). The tables are
+ * small and of random sizes; only planning is timed, the best of the rounds.
+ * <p>
+ * Usage: ant runbenchmark -Dbenchmark=JoinPlanningBenchmark
+ * -Dbenchmark.args="minJoins maxJoins rounds"
+ */
+public class JoinPlanningBenchmark {
+
+    private static final int IO_COST_PER_PAGE = 1000;
+
+    private static Vector<LogicalJoinNode> joins(int n, boolean star) {
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        for (int i = 1; i <= n; i++) {
+            String other = "t" + (star ? 0 : i - 1);
+            joins.add(new LogicalJoinNode(other, "t" + i, "c1", "c0",
+                    Predicate.Op.EQUALS));
+        }
+        return joins;
+    }
+
+    private static double time(LogicalPlan plan, Vector<LogicalJoinNode> joins,
+            HashMap<String, TableStats> stats,
+            HashMap<String, Double> selectivities, int maxDpJoins, int rounds)
+            throws ParsingException {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            JoinOptimizer jo = new JoinOptimizer(plan, joins);
+            jo.setMaxDpJoins(maxDpJoins);
+            long start = System.nanoTime();
+            jo.orderJoins(stats, selectivities, false);
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int minJoins = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int maxJoins = args.length > 1 ? Integer.parseInt(args[1]) : 15;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        Random r = new Random(1);
+        LogicalPlan plan = new LogicalPlan();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        for (int i = 0; i <= maxJoins; i++) {
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2,
+                    100 + r.nextInt(5000), 1000, null, null, "c");
+            plan.addScan(f.getId(), "t" + i);
+            stats.put(Database.getCatalog().getTableName(f.getId()),
+                    new TableStats(f.getId(), IO_COST_PER_PAGE));
+            selectivities.put("t" + i, 0.05 + 0.95 * r.nextDouble());
+        }
+
+        System.out.printf("%-6s %12s %12s %12s %12s%n", "joins", "chain dp",
+                "chain greedy", "star dp", "star greedy");
+        for (int n = minJoins; n <= maxJoins; n++) {
+            System.out.printf("%-6d", n);
+            for (boolean star : new boolean[] { false, true }) {
+                Vector<LogicalJoinNode> joins = joins(n, star);
+                System.out.printf(" %10.2fms %10.2fms",
+                        time(plan, joins, stats, selectivities, n, rounds),
+                        time(plan, joins, stats, selectivities, 0, rounds));
+            }
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the CPU time of a selective hash join of two wide tables (many
+ * int columns) that returns every column, once joining whole tuples and once
+ * joining only the keys and row references and fetching the other columns
+ * of the output rows afterwards. The join's memory is limited so that the
+ * build side spills, which is where the width of the tuples costs most.
+ * <p>
+ * Usage: ant runbenchmark -Dbenchmark=LateMaterializationBenchmark
+ * -Dbenchmark.args="rows columns rounds" -Dbenchmark.maxmemory=1G
+ */
+public class LateMaterializationBenchmark {
+
+    private static long drain(OpIterator op) throws Exception {
+        long n = 0;
+        op.open();
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        op.close();
+        return n;
+    }
+
+    private static SeqScan keys(TransactionId tid, HeapFile table, String alias) {
+        SeqScan scan = new SeqScan(tid, table.getId(), alias);
+        scan.setProjection(new int[] { 0 });
+        scan.setRowReference(true);
+        return scan;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int memory = 64;
+
+        // keys of the big table match one in 20 keys of the small one
+        HeapFile small = SystemTestUtil.createRandomHeapFile(columns, rows / 4,
+                rows * 5, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(columns, rows,
+                rows * 5, null, null);
+        Database.resetBufferPool(4 * rows * columns / BufferPool.getPageSize() + 1000);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        int[] ids = { small.getId(), big.getId() };
+        String[] aliases = { "s", "b" };
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.out.println(rows + " x " + columns + " columns; CPU ms per join");
+        System.out.printf("%6s %10s %10s %8s%n", "round", "early", "late", "output");
+        for (int round = 1; round <= rounds; round++) {
+            double[] millis = new double[2];
+            long out = 0;
+            for (int mode = 0; mode < 2; mode++) {
+                TransactionId tid = new TransactionId();
+                OpIterator op;
+                if (mode == 0) {
+                    op = new HashEquiJoin(p, new SeqScan(tid, small.getId(), "s"),
+                            new SeqScan(tid, big.getId(), "b"), memory);
+                } else {
+                    op = new Fetch(tid, ids, aliases, new int[][] { null, null },
+                            new HashEquiJoin(p, keys(tid, small, "s"),
+                                    keys(tid, big, "b"), memory));
+                }
+                long start = threads.getCurrentThreadCpuTime();
+                out = drain(op);
+                millis[mode] = (threads.getCurrentThreadCpuTime() - start) / 1e6;
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            System.out.printf("%6d %10.0f %10.0f %8d%n", round, millis[0],
+                    millis[1], out);
+        }
+    }
+}
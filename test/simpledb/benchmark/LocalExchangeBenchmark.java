@@ -0,0 +1,145 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.parallel.LocalConsumer;
+import simpledb.parallel.LocalExchange;
+import simpledb.parallel.PartitionFunction;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the local exchanges on a grouped count over several parts of a
+ * table: serially, as one Aggregate over the parts read one after the
+ * other; through a gather, with a thread per part feeding one Aggregate;
+ * and through a repartition on the group field, with an Aggregate per
+ * partition whose results are gathered. The buffer pool holds all the parts
+ * and is warmed first; times are wall clock, the best of the rounds.
+ * <p>
+ * Usage: ant runbenchmark -Dbenchmark=LocalExchangeBenchmark
+ * -Dbenchmark.args="rowsPerPart parts rounds" -Dbenchmark.maxmemory=2G
+ */
+public class LocalExchangeBenchmark {
+
+    private static final int MAX_VALUE = 1000;
+
+    /** Partitions on the value of the first field. */
+    private static class ValuePartition extends PartitionFunction<String, String> {
+        private static final long serialVersionUID = 1L;
+
+        ValuePartition(int numPartition) {
+            super(numPartition);
+        }
+
+        @Override
+        public int partition(Tuple t, TupleDesc td) {
+            return ((IntField) t.getField(0)).getValue() % numPartition();
+        }
+    }
+
+    /** Returns the tuples of its inputs, one after the other. */
+    private static class Concat extends Operator {
+        private static final long serialVersionUID = 1L;
+        private final OpIterator[] inputs;
+        private int current;
+
+        Concat(OpIterator[] inputs) {
+            this.inputs = inputs;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            current = 0;
+            inputs[0].open();
+            super.open();
+        }
+
+        protected Tuple fetchNext() throws DbException,
+                TransactionAbortedException {
+            while (current < inputs.length && !inputs[current].hasNext()) {
+                inputs[current].close();
+                if (++current < inputs.length)
+                    inputs[current].open();
+            }
+            return current < inputs.length ? inputs[current].next() : null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public OpIterator[] getChildren() {
+            return inputs;
+        }
+
+        public void setChildren(OpIterator[] children) {
+        }
+
+        public TupleDesc getTupleDesc() {
+            return inputs[0].getTupleDesc();
+        }
+    }
+
+    private static long drain(OpIterator op) throws Exception {
+        long n = 0;
+        op.open();
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        op.close();
+        return n;
+    }
+
+    private static OpIterator plan(TransactionId tid, HeapFile[] parts,
+            String mode) {
+        OpIterator[] scans = new OpIterator[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            scans[i] = new SeqScan(tid, parts[i].getId(), "t");
+        if (mode.equals("serial"))
+            return new Aggregate(new Concat(scans), 1, 0, Aggregator.Op.COUNT);
+        if (mode.equals("gather"))
+            return new Aggregate(LocalExchange.gather(scans), 1, 0,
+                    Aggregator.Op.COUNT);
+        LocalConsumer[] partitions = LocalExchange.repartition(scans,
+                new ValuePartition(parts.length));
+        OpIterator[] counts = new OpIterator[partitions.length];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = new Aggregate(partitions[i], 1, 0, Aggregator.Op.COUNT);
+        return LocalExchange.gather(counts);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int numParts = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        HeapFile[] parts = new HeapFile[numParts];
+        int pages = 100;
+        for (int i = 0; i < numParts; i++) {
+            parts[i] = SystemTestUtil.createRandomHeapFile(2, rows, MAX_VALUE,
+                    null, null);
+            pages += parts[i].numPages();
+        }
+        Database.resetBufferPool(pages);
+        TransactionId warm = new TransactionId();
+        for (HeapFile part : parts)
+            drain(new SeqScan(warm, part.getId(), "t"));
+        Database.getBufferPool().transactionComplete(warm);
+
+        System.out.println(numParts + " parts of " + rows
+                + " tuples; select t.a0, count(t.a1) group by t.a0");
+        System.out.printf("%-12s %10s %10s%n", "plan", "ms", "groups");
+        for (String mode : new String[] { "serial", "gather", "repartition" }) {
+            double best = Double.MAX_VALUE;
+            long groups = 0;
+            for (int round = 0; round < rounds; round++) {
+                TransactionId tid = new TransactionId();
+                long start = System.nanoTime();
+                groups = drain(plan(tid, parts, mode));
+                best = Math.min(best, (System.nanoTime() - start) / 1e6);
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            System.out.printf("%-12s %10.1f %10d%n", mode, best, groups);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures how a filtered, grouped aggregate over one table scales with the
+ * number of threads of a {@link ParallelSeqScan}, against the serial plan of
+ * an Aggregate over a SeqScan. The buffer pool holds the whole table and is
+ * warmed first, so the scan is bound by CPU, not by reading the file; times
+ * are wall clock, the best of the rounds.
+ * <p>
+ * Usage: ant runbenchmark -Dbenchmark=ParallelScanBenchmark
+ * -Dbenchmark.args="rows rounds maxThreads" -Dbenchmark.maxmemory=2G
+ */
+public class ParallelScanBenchmark {
+
+    // the values of every field are below this, so there are as many groups
+    private static final int MAX_VALUE = 1000;
+
+    private static long drain(OpIterator op) throws Exception {
+        long n = 0;
+        op.open();
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        op.close();
+        return n;
+    }
+
+    private static OpIterator plan(TransactionId tid, HeapFile table,
+            int threads) {
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(MAX_VALUE / 2)));
+        scan.setProjection(new int[] { 1, 2 });
+        OpIterator child = threads == 0 ? scan
+                : new ParallelSeqScan(scan, threads);
+        return new Aggregate(child, 1, 0, Aggregator.Op.SUM);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+
+        HeapFile table = SystemTestUtil.createRandomHeapFile(4, rows, MAX_VALUE,
+                null, null);
+        Database.resetBufferPool(table.numPages() + 100);
+        TransactionId warm = new TransactionId();
+        drain(new SeqScan(warm, table.getId(), "t"));
+        Database.getBufferPool().transactionComplete(warm);
+
+        System.out.println(rows + " tuples, " + table.numPages()
+                + " pages; select t.a1, sum(t.a2) where t.a0 < " + MAX_VALUE / 2
+                + " group by t.a1");
+        System.out.printf("%-8s %10s %8s %10s%n", "threads", "ms", "speedup",
+                "groups");
+        double serial = 0;
+        for (int threads = 0; threads <= maxThreads; threads = threads == 0 ? 1
+                : threads * 2) {
+            double best = Double.MAX_VALUE;
+            long groups = 0;
+            for (int round = 0; round < rounds; round++) {
+                TransactionId tid = new TransactionId();
+                long start = System.nanoTime();
+                groups = drain(plan(tid, table, threads));
+                best = Math.min(best, (System.nanoTime() - start) / 1e6);
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            if (threads == 0)
+                serial = best;
+            System.out.printf("%-8s %10.1f %8.2f %10d%n", threads == 0 ? "serial"
+                    : String.valueOf(threads), best, serial / best, groups);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures filter throughput for int and string predicates: tuples tested
+ * per second by Predicate.filter (which switches on the operator inside
+ * Field.compare for every tuple), by a CompiledPredicate a tuple at a time,
+ * and by a CompiledPredicate over batches. The three loops are each run
+ * with several operators in turn, as they would be by different queries, so
+ * a loop that depends on seeing a single class pays for it.
+ * <p>
+ * Usage: ant runbenchmark -Dbenchmark=PredicateBenchmark
+ * -Dbenchmark.args="tuples rounds" -Dbenchmark.maxmemory=1G
+ */
+public class PredicateBenchmark {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] {
+            Type.INT_TYPE, Type.STRING_TYPE });
+
+    private static long interpreted(Predicate p, Tuple[] tuples) {
+        long n = 0;
+        for (Tuple t : tuples)
+            if (p.filter(t))
+                n++;
+        return n;
+    }
+
+    private static long compiled(CompiledPredicate p, Tuple[] tuples) {
+        long n = 0;
+        for (Tuple t : tuples)
+            if (p.test(t))
+                n++;
+        return n;
+    }
+
+    /** Includes filling the batches, as a scan would. */
+    private static long batched(CompiledPredicate p, Tuple[] tuples,
+            TupleBatch batch) {
+        long n = 0;
+        for (int i = 0; i < tuples.length;) {
+            batch.clear();
+            while (!batch.isFull() && i < tuples.length)
+                batch.add(tuples[i++]);
+            p.filter(batch);
+            n += batch.size();
+        }
+        return n;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Random r = new Random(35);
+        Tuple[] tuples = new Tuple[size];
+        for (int i = 0; i < size; i++) {
+            tuples[i] = new Tuple(TD);
+            tuples[i].setField(0, new IntField(r.nextInt(1000)));
+            tuples[i].setField(1, new StringField("value" + r.nextInt(1000),
+                    Type.STRING_LEN));
+        }
+
+        Predicate[][] predicates = {
+                { new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500)),
+                  new Predicate(0, Predicate.Op.EQUALS, new IntField(7)),
+                  new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(900)) },
+                { new Predicate(1, Predicate.Op.LESS_THAN,
+                        new StringField("value5", Type.STRING_LEN)),
+                  new Predicate(1, Predicate.Op.EQUALS,
+                        new StringField("value7", Type.STRING_LEN)),
+                  new Predicate(1, Predicate.Op.LIKE,
+                        new StringField("99", Type.STRING_LEN)) } };
+        String[] names = { "int", "string" };
+        TupleBatch batch = new TupleBatch(TD);
+
+        System.out.printf("%-8s %6s %14s %14s %14s%n", "type", "round",
+                "interpreted/s", "compiled/s", "batches/s");
+        for (int type = 0; type < predicates.length; type++) {
+            for (int round = 1; round <= rounds; round++) {
+                double[] rates = new double[3];
+                long check = 0;
+                for (int mode = 0; mode < 3; mode++) {
+                    long start = System.nanoTime();
+                    for (Predicate p : predicates[type]) {
+                        CompiledPredicate c = CompiledPredicate.compile(p, TD);
+                        if (mode == 0) {
+                            check += interpreted(p, tuples);
+                        } else if (mode == 1) {
+                            check += compiled(c, tuples);
+                        } else {
+                            check += batched(c, tuples, batch);
+                        }
+                    }
+                    long nanos = System.nanoTime() - start;
+                    rates[mode] = predicates[type].length * (double) size
+                            / (nanos / 1e9);
+                }
+                System.out.printf("%-8s %6d %14.0f %14.0f %14.0f   (%d)%n",
+                        names[type], round, rates[0], rates[1], rates[2], check / 3);
+            }
+        }
+    }
+}
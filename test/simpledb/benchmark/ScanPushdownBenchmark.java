@@ -0,0 +1,86 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the CPU time per scanned tuple of a selective filter and a
+ * projection, once as Filter and Project operators over a SeqScan and once
+ * evaluated by the SeqScan on the page bytes. Each is run over pages just
+ * read from the file ("cold": the buffer pool is emptied first) and over
+ * pages already in the buffer pool whose tuples have been decoded by an
+ * earlier scan ("warm").
+ * <p>
+ * Usage: ant runbenchmark -Dbenchmark=ScanPushdownBenchmark
+ * -Dbenchmark.args="rows rounds selectivity%" -Dbenchmark.maxmemory=1G
+ */
+public class ScanPushdownBenchmark {
+
+    private static long drain(OpIterator op) throws Exception {
+        long n = 0;
+        op.open();
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        op.close();
+        return n;
+    }
+
+    private static OpIterator plan(TransactionId tid, HeapFile table,
+            Predicate p, boolean pushdown) {
+        if (pushdown) {
+            SeqScan scan = new SeqScan(tid, table.getId(), "t");
+            scan.addPredicate(p);
+            scan.setProjection(new int[] { 2, 0 });
+            return scan;
+        }
+        return new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE }, new Filter(p,
+                        new SeqScan(tid, table.getId(), "t")));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int percent = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        int pages = rows / (BufferPool.getPageSize() / 12) + 100;
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, rows, rows,
+                null, null);
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField((int) ((long) rows * percent / 100)));
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.out.println(rows + " tuples scanned per plan; CPU ns per scanned tuple");
+        System.out.printf("%-6s %6s %12s %12s %8s%n", "pages", "round",
+                "operators", "pushdown", "output");
+        for (String cache : new String[] { "cold", "warm" }) {
+            for (int round = 1; round <= rounds; round++) {
+                double[] nanos = new double[2];
+                long out = 0;
+                for (int mode = 0; mode < 2; mode++) {
+                    TransactionId tid = new TransactionId();
+                    if (cache.equals("cold")) {
+                        Database.resetBufferPool(pages);
+                    } else {
+                        drain(new SeqScan(tid, table.getId(), "t"));
+                    }
+                    OpIterator op = plan(tid, table, p, mode == 1);
+                    long start = threads.getCurrentThreadCpuTime();
+                    out = drain(op);
+                    nanos[mode] = (double) (threads.getCurrentThreadCpuTime() - start)
+                            / rows;
+                    Database.getBufferPool().transactionComplete(tid);
+                }
+                System.out.printf("%-6s %6d %12.1f %12.1f %8d%n", cache, round,
+                        nanos[0], nanos[1], out);
+            }
+        }
+    }
+}
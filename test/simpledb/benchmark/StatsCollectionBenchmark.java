@@ -0,0 +1,70 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures how long TableStats takes to compute the statistics of a table
+ * of random integers, reading every tuple with one worker and with several,
+ * and from samples of a few sizes, and how far the sampled estimates of the
+ * number of tuples, of the number of distinct values of a column and of a
+ * range selectivity are from the exact ones.
+ * <p>
+ * Column c0 is uniform over distinct values and c1 is a unique key. The
+ * table is written once and read through the buffer pool, whose pages it
+ * does not fit in.
+ * <p>
+ * Usage: ant runbenchmark -Dbenchmark=StatsCollectionBenchmark
+ * -Dbenchmark.args="tuples distinct threads" -Dbenchmark.maxmemory=1G
+ */
+public class StatsCollectionBenchmark {
+
+    private static void report(String name, int tableId, int distinct)
+            throws Exception {
+        long start = System.nanoTime();
+        TableStats s = new TableStats(tableId, 1000);
+        double ms = (System.nanoTime() - start) / 1e6;
+        double sel = s.estimateSelectivity(0, Predicate.Op.LESS_THAN,
+                new IntField(distinct / 4));
+        System.out.printf("%-22s %10.1f %12d %10d %10d %8.4f%n", name, ms,
+                s.totalTuples(), s.distinctValues(0), s.distinctValues(1), sel);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int distinct = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime
+                .getRuntime().availableProcessors();
+
+        Random r = new Random(0);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>(n);
+        for (int i = 0; i < n; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>(2);
+            t.add(r.nextInt(distinct));
+            t.add(i);
+            tuples.add(t);
+        }
+        File file = File.createTempFile("stats", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+        tuples = null;
+        HeapFile f = Utility.openHeapFile(2, "c", file);
+        System.out.printf("%d tuples on %d pages; exact: %d tuples, %d and %d distinct, selectivity 0.2500%n",
+                n, f.numPages(), n, Math.min(n, distinct), n);
+
+        System.out.printf("%-22s %10s %12s %10s %10s %8s%n", "statistics", "ms",
+                "tuples", "ndv c0", "ndv c1", "c0 < d/4");
+        TableStats.setSampleTuples(Integer.MAX_VALUE);
+        TableStats.setParallelism(1);
+        report("full, 1 thread", f.getId(), distinct);
+        TableStats.setParallelism(threads);
+        report("full, " + threads + " threads", f.getId(), distinct);
+        for (int sample : new int[] { 100000, 30000, 10000 }) {
+            TableStats.setSampleTuples(sample);
+            report("sample " + sample, f.getId(), distinct);
+        }
+    }
+}